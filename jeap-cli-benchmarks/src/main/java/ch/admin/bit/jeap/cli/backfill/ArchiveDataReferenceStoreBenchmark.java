@@ -0,0 +1,78 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building a deduplicated reference list with {@link ArchiveDataReferenceStore} against the previous
+ * structure of a {@code LinkedHashMap} from a key object to an {@link ArchiveDataReferenceDto}, copied into a list.
+ * <p>
+ * Run with {@code -prof gc}: {@code gc.alloc.rate.norm} is the number of bytes allocated to build the structure for
+ * {@code references} rows, including the garbage of intermediate resizes. The ids are created during setup, so they
+ * are not part of the measurement.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ArchiveDataReferenceStoreBenchmark {
+
+    @Param({"10000", "1000000"})
+    int references;
+
+    private String[] ids;
+    private int[] versions;
+
+    @Setup(Level.Trial)
+    public void createReferences() {
+        ids = new String[references];
+        versions = new int[references];
+        for (int row = 0; row < references; row++) {
+            ids[row] = "DECREE-2023-" + row;
+            versions[row] = row % 7 + 1;
+        }
+    }
+
+    @Benchmark
+    public ArchiveDataReferenceStore referenceStore() {
+        ArchiveDataReferenceStore store = new ArchiveDataReferenceStore();
+        for (int row = 0; row < references; row++) {
+            store.add(ids[row], versions[row]);
+        }
+        return store;
+    }
+
+    @Benchmark
+    public List<ArchiveDataReferenceDto> linkedHashMap() {
+        Map<ReferenceKey, ArchiveDataReferenceDto> map = new LinkedHashMap<>();
+        for (int row = 0; row < references; row++) {
+            ReferenceKey key = new ReferenceKey(ids[row], versions[row]);
+            if (!map.containsKey(key)) {
+                map.put(key, new ArchiveDataReferenceDto(ids[row], versions[row]));
+            }
+        }
+        return new ArrayList<>(map.values());
+    }
+
+    private record ReferenceKey(String id, int version) {
+    }
+}
@@ -0,0 +1,70 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of the YAML request body of a backfill job with {@code rows} references, as done by
+ * {@link PasBackfillService} for every submitted job or sub-job.
+ * <p>
+ * The body is written to a stream that only counts the bytes. The {@code rows} counter reports serialized rows per
+ * second. Run with {@code -prof gc}; {@code gc.alloc.rate.norm} divided by the {@code rows} parameter is the number of
+ * bytes allocated per row.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BackfillJobYamlWriterBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    private final BackfillJobYamlWriter writer = new BackfillJobYamlWriter(YAMLMapper.builder().build());
+    private BackfillJobRequestDto request;
+
+    @Setup(Level.Trial)
+    public void createRequest() {
+        request = new BackfillJobRequestDto("DecreeCreatedEvent", "decree-created", 3, SyntheticReferences.store(rows));
+    }
+
+    @Benchmark
+    public long write(RowCounter rowCounter) {
+        CountingOutputStream body = new CountingOutputStream();
+        writer.write(body, request, 0, rows);
+        rowCounter.rows += rows;
+        return body.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link BackfillReferenceCsvParser#parse(Path)} on a synthetic reference export.
+ * <p>
+ * The {@code rows} counter reports parsed rows per second. Run with {@code -prof gc} to get the allocation rate;
+ * {@code gc.alloc.rate.norm} divided by the {@code rows} parameter is the number of bytes allocated per row. The
+ * {@code parallel} parameter selects the sequential parser or the parallel parser used for large files. The
+ * {@code heapBudgetMb} parameter limits the heap of the references; a small budget measures the external sort on disk.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BackfillReferenceCsvParserBenchmark {
+
+    private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    @Param({"false", "true"})
+    boolean parallel;
+
+    @Param({"1024", "16"})
+    long heapBudgetMb;
+
+    private BackfillReferenceCsvParser parser;
+    private Path csvFile;
+
+    @Setup(Level.Trial)
+    public void writeCsv() throws IOException {
+        parser = new BackfillReferenceCsvParser(parallel ? 0 : Long.MAX_VALUE, CHUNK_BYTES, heapBudgetMb * 1024 * 1024);
+        csvFile = SyntheticReferences.writeCsv(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCsv() throws IOException {
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Benchmark
+    public int parse(RowCounter rowCounter) throws IOException {
+        // Closing deletes the temporary file of spilled references
+        try (ArchiveDataReferences references = parser.parse(csvFile)) {
+            rowCounter.rows += rows;
+            return references.size();
+        }
+    }
+}
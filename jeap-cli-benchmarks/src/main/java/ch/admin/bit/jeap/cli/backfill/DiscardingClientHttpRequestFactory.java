@@ -0,0 +1,75 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Request factory that discards the request body and answers {@code 201 Created} without any network I/O, so that a
+ * benchmark of a submission measures the work done by the CLI only.
+ */
+final class DiscardingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new AbstractClientHttpRequest() {
+
+            @Override
+            public HttpMethod getMethod() {
+                return httpMethod;
+            }
+
+            @Override
+            public URI getURI() {
+                return uri;
+            }
+
+            @Override
+            protected OutputStream getBodyInternal(HttpHeaders headers) {
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            protected ClientHttpResponse executeInternal(HttpHeaders headers) {
+                return new CreatedResponse();
+            }
+        };
+    }
+
+    private static final class CreatedResponse implements ClientHttpResponse {
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatus.CREATED;
+        }
+
+        @Override
+        public String getStatusText() {
+            return HttpStatus.CREATED.getReasonPhrase();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public InputStream getBody() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the complete client side of {@code pas-backfill send --references-csv}: reading the job YAML, parsing and
+ * deduplicating the CSV, building the request and streaming the YAML body. The request is answered by
+ * {@link DiscardingClientHttpRequestFactory}, so no network I/O is included.
+ * <p>
+ * The {@code rows} counter reports submitted rows per second. Run with {@code -prof gc} to get the allocation rate.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PasBackfillServiceBenchmark {
+
+    private static final String JOB_ID = "88dbb65f-9634-4685-bc86-17b72d715d3e";
+
+    @Param({"10000", "1000000", "10000000"})
+    int rows;
+
+    private final PasBackfillService service = new PasBackfillService(
+            RestClient.builder().requestFactory(new DiscardingClientHttpRequestFactory()).build(),
+            new BackfillReferenceCsvParser());
+    private Path yamlFile;
+    private Path csvFile;
+
+    @Setup(Level.Trial)
+    public void writeInput() throws IOException {
+        yamlFile = SyntheticReferences.writeMetadataYaml();
+        csvFile = SyntheticReferences.writeCsv(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteInput() throws IOException {
+        Files.deleteIfExists(yamlFile);
+        Files.deleteIfExists(csvFile);
+    }
+
+    @Benchmark
+    public String send(RowCounter rowCounter) {
+        String result = service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, "http://pas.invalid", "benchmark-token");
+        rowCounter.rows += rows;
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Load test of {@link PasBackfillService} against a {@link PasStubServer}, or against the PAS given by {@code --url}.
+ * It submits synthetic references, optionally reads reports afterwards, and prints the request rate, the p50 and p99
+ * request latency and the heap used and allocated by the JVM.
+ * <p>
+ * The client is set up like {@link PasClientConfiguration}, but over HTTP/1.1, because the stub does not speak HTTP/2.
+ * With the stub in the same JVM, the memory figures include the stub. Start the stub in its own JVM and pass its
+ * {@code --url} for client-only figures.
+ * </p>
+ * <pre>
+ * java -cp jeap-cli-benchmarks/target/benchmarks.jar ch.admin.bit.jeap.cli.backfill.PasLoadTest \
+ *   --rows=1000000 --batch-size=10000 --max-in-flight=16 --latency-ms=50 --throttle-rate=0.05
+ * </pre>
+ * Options, all in {@code --name=value} form:
+ * <ul>
+ *     <li>{@code rows}: number of synthetic references (default 1000000)</li>
+ *     <li>{@code batch-size}: references per sub-job, 0 to send a single job (default 10000)</li>
+ *     <li>{@code max-in-flight}: maximum concurrent sub-jobs (default 16)</li>
+ *     <li>{@code compression}: {@code none}, {@code gzip} or {@code auto} (default none)</li>
+ *     <li>{@code reports}: number of job reports read and summarized after the submission (default 0)</li>
+ *     <li>{@code url}, {@code access-token}: PAS to load instead of the embedded stub</li>
+ *     <li>{@code latency-ms}, {@code jitter-ms}, {@code throttle-rate}, {@code error-rate}, {@code retry-after-seconds},
+ *     {@code decode}: behavior of the embedded stub, see {@link PasStubServer.Options}</li>
+ * </ul>
+ */
+public final class PasLoadTest {
+
+    private static final String JOB_ID = "88dbb65f-9634-4685-bc86-17b72d715d3e";
+
+    private PasLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = parseArguments(args);
+        int rows = Integer.parseInt(arguments.getOrDefault("rows", "1000000"));
+        int batchSize = Integer.parseInt(arguments.getOrDefault("batch-size", "10000"));
+        int maxInFlight = Integer.parseInt(arguments.getOrDefault("max-in-flight", "16"));
+        int reports = Integer.parseInt(arguments.getOrDefault("reports", "0"));
+        BackfillCompression compression = BackfillCompression.parse(arguments.get("compression"));
+        String accessToken = arguments.getOrDefault("access-token", "load-test-token");
+
+        Path yamlFile = SyntheticReferences.writeMetadataYaml();
+        Path csvFile = SyntheticReferences.writeCsv(rows);
+        try (PasStubServer stub = arguments.containsKey("url") ? null
+                : PasStubServer.start(PasStubServer.Options.parse(arguments), 0)) {
+            String url = stub != null ? stub.baseUrl() : arguments.get("url");
+            HttpClient httpClient = new PasClientConfiguration().pasHttpClient(
+                    new PasClientProperties(Duration.ofSeconds(10), Duration.ofMinutes(10), HttpClient.Version.HTTP_1_1));
+
+            TimedClientHttpRequestFactory sendRequests = timedRequestFactory(httpClient);
+            PasBackfillService sendService = new PasBackfillService(RestClient.builder().requestFactory(sendRequests).build(),
+                    new BackfillReferenceCsvParser());
+            Measurement send = Measurement.start();
+            String result;
+            try {
+                result = batchSize > 0
+                        ? sendService.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, url, accessToken,
+                        new BackfillBatchOptions(batchSize, maxInFlight), compression)
+                        : sendService.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, url, accessToken, compression);
+            } catch (PasBackfillException e) {
+                result = e.getMessage();
+            }
+            send.print("Submission", sendRequests, rows + " references");
+            System.out.println(result.lines().findFirst().orElse(""));
+
+            if (reports > 0) {
+                TimedClientHttpRequestFactory reportRequests = timedRequestFactory(httpClient);
+                PasBackfillService reportService = new PasBackfillService(
+                        RestClient.builder().requestFactory(reportRequests).build(), new BackfillReferenceCsvParser());
+                int jobs = batchSize > 0 ? Math.min(reports, (rows + batchSize - 1) / batchSize) : 1;
+                Measurement report = Measurement.start();
+                for (int index = 0; index < jobs; index++) {
+                    String jobId = batchSize > 0 ? BackfillSubJob.subJobId(JOB_ID, index) : JOB_ID;
+                    reportService.reportSummary(jobId, url, accessToken);
+                }
+                report.print("Reports", reportRequests, jobs + " reports");
+            }
+
+            if (stub != null) {
+                System.out.printf(Locale.ROOT, "Stub:       %d requests, %d throttled, %d failed, %d references, %.1f MiB received%n",
+                        stub.requests(), stub.throttled(), stub.failed(), stub.receivedReferences(),
+                        stub.receivedBytes() / 1024.0 / 1024.0);
+            }
+        } finally {
+            Files.deleteIfExists(yamlFile.resolveSibling(JOB_ID + "-manifest.yaml"));
+            Files.deleteIfExists(csvFile.resolveSibling(JOB_ID + "-journal.log"));
+            Files.deleteIfExists(yamlFile);
+            Files.deleteIfExists(csvFile);
+        }
+    }
+
+    private static TimedClientHttpRequestFactory timedRequestFactory(HttpClient httpClient) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(Duration.ofMinutes(10));
+        return new TimedClientHttpRequestFactory(requestFactory);
+    }
+
+    public static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            arguments.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return arguments;
+    }
+
+    /**
+     * Elapsed time, heap and garbage collection of one phase of the load test.
+     */
+    private record Measurement(long startNanos, long allocatedBytes, long gcCount, long gcMillis) {
+
+        static Measurement start() {
+            System.gc();
+            heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+            long[] gc = gc();
+            return new Measurement(System.nanoTime(), totalAllocatedBytes(), gc[0], gc[1]);
+        }
+
+        void print(String phase, TimedClientHttpRequestFactory requests, String volume) {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            long[] gc = gc();
+            // The peaks of the pools are reached at different times, so their sum is an upper bound of the peak heap
+            long peakHeapBytes = heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            System.out.printf(Locale.ROOT, "%-11s %s in %.2f s, %d requests, %.1f requests/s%n",
+                    phase + ":", volume, seconds, requests.count(), requests.count() / seconds);
+            System.out.printf(Locale.ROOT, "Latency:    p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    requests.percentileNanos(50) / 1e6, requests.percentileNanos(99) / 1e6,
+                    requests.percentileNanos(100) / 1e6);
+            System.out.printf(Locale.ROOT, "Heap:       peak %.1f MiB used, %.1f MiB allocated, %d GCs in %d ms%n",
+                    peakHeapBytes / 1024.0 / 1024.0, (totalAllocatedBytes() - allocatedBytes) / 1024.0 / 1024.0,
+                    gc[0] - gcCount, gc[1] - gcMillis);
+        }
+
+        private static List<MemoryPoolMXBean> heapPools() {
+            return ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .toList();
+        }
+
+        private static long totalAllocatedBytes() {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes();
+        }
+
+        private static long[] gc() {
+            long count = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, collector.getCollectionCount());
+                millis += Math.max(0, collector.getCollectionTime());
+            }
+            return new long[]{count, millis};
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the job endpoints of the PAS, {@code PUT /api/jobs/{jobId}} and
+ * {@code GET /api/jobs/{jobId}/report}, on an embedded JDK {@link HttpServer}, so that client throughput can be
+ * measured without a PAS.
+ * <p>
+ * Every request is delayed by the configured latency plus a random jitter and answered with {@code 429 Too Many
+ * Requests} or {@code 500 Internal Server Error} at the configured rates. Job bodies are either discarded or decoded,
+ * including gzip, and their references counted. The report of a decoded job lists one entry per reference, with every
+ * hundredth entry {@code FAILED}. Requests are handled on virtual threads, so the latency does not limit the number of
+ * concurrent requests. The JDK server speaks HTTP/1.1 only.
+ * </p>
+ * Run it on its own with {@code java -cp benchmarks.jar ch.admin.bit.jeap.cli.backfill.PasStubServer [--port=8080]
+ * [options]} to keep its allocations out of client measurements, see {@link PasLoadTest} for the options.
+ */
+final class PasStubServer implements AutoCloseable {
+
+    private static final Pattern JOB_PATH = Pattern.compile("/api/jobs/([^/]+)(/report)?");
+    private static final String REFERENCE_PREFIX = "- id:";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Options options;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // Number of references per job, -1 for jobs whose body was not decoded
+    private final Map<String, Long> jobs = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder receivedReferences = new LongAdder();
+
+    /**
+     * @param latency       time before every response
+     * @param jitter        upper bound of a random delay added to the latency
+     * @param throttleRate  fraction of requests answered with {@code 429 Too Many Requests}
+     * @param errorRate     fraction of requests answered with {@code 500 Internal Server Error}
+     * @param retryAfter    value of the {@code Retry-After} header of throttled responses, or {@code null} for none
+     * @param decodeBodies  whether job bodies are decoded and their references counted, or only read and discarded
+     */
+    record Options(Duration latency, Duration jitter, double throttleRate, double errorRate, Duration retryAfter,
+                   boolean decodeBodies) {
+
+        static Options parse(Map<String, String> arguments) {
+            String retryAfter = arguments.get("retry-after-seconds");
+            return new Options(
+                    Duration.ofMillis(Long.parseLong(arguments.getOrDefault("latency-ms", "20"))),
+                    Duration.ofMillis(Long.parseLong(arguments.getOrDefault("jitter-ms", "10"))),
+                    Double.parseDouble(arguments.getOrDefault("throttle-rate", "0")),
+                    Double.parseDouble(arguments.getOrDefault("error-rate", "0")),
+                    retryAfter == null ? null : Duration.ofSeconds(Long.parseLong(retryAfter)),
+                    Boolean.parseBoolean(arguments.getOrDefault("decode", "true")));
+        }
+    }
+
+    private PasStubServer(Options options, int port) throws IOException {
+        this.options = options;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/api/jobs/", this::handle);
+    }
+
+    /**
+     * Starts the server on a loopback port, or on a free port for port 0.
+     */
+    static PasStubServer start(Options options, int port) throws IOException {
+        PasStubServer stub = new PasStubServer(options, port);
+        stub.server.start();
+        return stub;
+    }
+
+    String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    long throttled() {
+        return throttled.sum();
+    }
+
+    long failed() {
+        return failed.sum();
+    }
+
+    long receivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    long receivedReferences() {
+        return receivedReferences.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.increment();
+            Matcher path = JOB_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!path.matches()) {
+                drain(exchange);
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String jobId = path.group(1);
+            boolean report = path.group(2) != null;
+            sleep(options.latency().plusMillis(ThreadLocalRandom.current().nextLong(options.jitter().toMillis() + 1)));
+
+            double outcome = ThreadLocalRandom.current().nextDouble();
+            if (outcome < options.throttleRate()) {
+                drain(exchange);
+                throttled.increment();
+                if (options.retryAfter() != null) {
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(options.retryAfter().toSeconds()));
+                }
+                exchange.sendResponseHeaders(429, -1);
+            } else if (outcome < options.throttleRate() + options.errorRate()) {
+                drain(exchange);
+                failed.increment();
+                exchange.sendResponseHeaders(500, -1);
+            } else if (report && "GET".equals(exchange.getRequestMethod())) {
+                sendReport(exchange, jobId);
+            } else if (!report && "PUT".equals(exchange.getRequestMethod())) {
+                receiveJob(exchange, jobId);
+            } else {
+                drain(exchange);
+                exchange.sendResponseHeaders(405, -1);
+            }
+        }
+    }
+
+    private void receiveJob(HttpExchange exchange, String jobId) throws IOException {
+        CountingInputStream body = new CountingInputStream(exchange.getRequestBody());
+        long references = -1;
+        if (options.decodeBodies()) {
+            InputStream decoded = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(body, BUFFER_SIZE)
+                    : body;
+            references = countReferences(decoded);
+            receivedReferences.add(references);
+        }
+        body.transferTo(OutputStream.nullOutputStream());
+        receivedBytes.add(body.count);
+        jobs.put(jobId, references);
+        exchange.sendResponseHeaders(201, -1);
+    }
+
+    private static long countReferences(InputStream body) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), BUFFER_SIZE);
+        long references = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(REFERENCE_PREFIX)) {
+                references++;
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Streams a report with one entry per reference of the job, without building it in memory.
+     */
+    private void sendReport(HttpExchange exchange, String jobId) throws IOException {
+        Long references = jobs.get(jobId);
+        if (references == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/yaml");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8),
+                BUFFER_SIZE)) {
+            writer.write("jobId: \"" + jobId + "\"\nstate: FINISHED\ntopic: decree-created\nentries:\n");
+            if (references <= 0) {
+                writer.write("  []\n");
+            }
+            for (long row = 0; row < references; row++) {
+                writer.write("  - id: \"" + SyntheticReferences.id((int) row) + "\"\n    version: "
+                        + SyntheticReferences.version((int) row) + "\n    status: " + (row % 100 == 99 ? "FAILED" : "SENT")
+                        + "\n    retryCount: 0\n");
+            }
+        }
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+    }
+
+    private static void sleep(Duration delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = PasLoadTest.parseArguments(args);
+        int port = Integer.parseInt(arguments.getOrDefault("port", "8080"));
+        PasStubServer stub = start(Options.parse(arguments), port);
+        System.out.println("PAS stub listening on " + stub.baseUrl() + " with " + stub.options);
+        new CountDownLatch(1).await();
+    }
+
+    private static final class CountingInputStream extends InputStream {
+
+        private final InputStream input;
+        private long count;
+
+        private CountingInputStream(InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = input.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = input.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
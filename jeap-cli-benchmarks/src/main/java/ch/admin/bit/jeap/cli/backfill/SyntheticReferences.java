@@ -0,0 +1,54 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Synthetic backfill input shared by the benchmarks, shaped like a decree export: ids of about 16 bytes with a version
+ * between 1 and 7.
+ */
+final class SyntheticReferences {
+
+    private SyntheticReferences() {
+    }
+
+    static String id(int row) {
+        return "DECREE-2023-" + row;
+    }
+
+    static int version(int row) {
+        return row % 7 + 1;
+    }
+
+    static Path writeCsv(int rows) throws IOException {
+        Path csvFile = Files.createTempFile("references-", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("id,version\n");
+            for (int row = 0; row < rows; row++) {
+                writer.write(id(row) + "," + version(row) + "\n");
+            }
+        }
+        return csvFile;
+    }
+
+    static Path writeMetadataYaml() throws IOException {
+        Path yamlFile = Files.createTempFile("backfill-job-", ".yaml");
+        Files.writeString(yamlFile, """
+                message: DecreeCreatedEvent
+                topic: decree-created
+                num-of-retry: 3
+                """);
+        return yamlFile;
+    }
+
+    static ArchiveDataReferenceStore store(int rows) {
+        ArchiveDataReferenceStore references = new ArchiveDataReferenceStore();
+        for (int row = 0; row < rows; row++) {
+            references.append(id(row), version(row));
+        }
+        return references;
+    }
+}
@@ -0,0 +1,124 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Request factory that records the latency of every request of a delegate factory, from the start of
+ * {@link ClientHttpRequest#execute()} until the response headers are received. For streaming requests, this includes
+ * writing the body. Unlike a {@code ClientHttpRequestInterceptor}, the factory keeps request bodies streaming instead
+ * of buffering them, so that memory measurements are not distorted.
+ */
+final class TimedClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+    private final ClientHttpRequestFactory delegate;
+    private long[] latencyNanos = new long[1024];
+    private int count;
+
+    TimedClientHttpRequestFactory(ClientHttpRequestFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        return new TimedRequest(delegate.createRequest(uri, httpMethod));
+    }
+
+    int count() {
+        synchronized (this) {
+            return count;
+        }
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds that the given percentage of requests did not exceed
+     */
+    long percentileNanos(double percentile) {
+        synchronized (this) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencyNanos, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * count);
+            return sorted[Math.clamp(rank - 1, 0, count - 1)];
+        }
+    }
+
+    private void record(long nanos) {
+        synchronized (this) {
+            if (count == latencyNanos.length) {
+                latencyNanos = Arrays.copyOf(latencyNanos, count * 2);
+            }
+            latencyNanos[count++] = nanos;
+        }
+    }
+
+    private final class TimedRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+        private final ClientHttpRequest request;
+
+        private TimedRequest(ClientHttpRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return request.execute();
+            } finally {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void setBody(Body body) {
+            if (request instanceof StreamingHttpOutputMessage streamingRequest) {
+                streamingRequest.setBody(body);
+                return;
+            }
+            try {
+                body.writeTo(request.getBody());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write request body", e);
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return request.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return request.getAttributes();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ch.admin.bit.jeap.cli.process;
+
+import ch.admin.bit.jeap.cli.backfill.PasLoadTest;
+import ch.admin.bit.jeap.cli.migration.process.SpringBoot4Migration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Compares the wall time of a complete {@code migrate spring-boot-4} run with Maven forked per invocation (cold) and
+ * with the Maven Daemon, once right after stopping all daemons and then with the daemon warm from the previous runs.
+ * Every run migrates a fresh copy of the given project, without its {@code target} directories.
+ * <pre>
+ * java -cp jeap-cli-benchmarks/target/benchmarks.jar ch.admin.bit.jeap.cli.process.MavenDaemonMigrationBenchmark \
+ *   --project=../my-jeap-app --runs=3
+ * </pre>
+ * Options, all in {@code --name=value} form:
+ * <ul>
+ *     <li>{@code project}: project to migrate, it is not modified (required)</li>
+ *     <li>{@code runs}: number of cold and of warm runs (default 1)</li>
+ *     <li>{@code mvnd}: path of the {@code mvnd} executable (default {@code mvnd} on the {@code PATH})</li>
+ * </ul>
+ * The migration resolves versions from Maven Central and downloads plugins, so run it once beforehand to fill the
+ * local repository, and keep the network conditions of the runs comparable.
+ */
+public final class MavenDaemonMigrationBenchmark {
+
+    private MavenDaemonMigrationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = PasLoadTest.parseArguments(args);
+        if (!arguments.containsKey("project")) {
+            throw new IllegalArgumentException("Missing --project=<directory>");
+        }
+        Path project = Path.of(arguments.get("project")).toAbsolutePath().normalize();
+        int runs = Integer.parseInt(arguments.getOrDefault("runs", "1"));
+        MavenDaemon daemon = MavenDaemon.fromEnvironment(Map.of(
+                MavenDaemon.JEAP_MAVEN_DAEMON, arguments.getOrDefault("mvnd", "true"),
+                "PATH", System.getenv().getOrDefault("PATH", "")));
+        if (daemon == null) {
+            throw new IllegalArgumentException("mvnd not found, pass --mvnd=<path>");
+        }
+        GitHubTokenProvider gitHubTokenProvider = new GitHubTokenProvider();
+        gitHubTokenProvider.prefetch(project);
+
+        SystemProcessExecutor forked = new SystemProcessExecutor(SystemProcessExecutor.DEFAULT_OUTPUT_TAIL_LINES, null,
+                gitHubTokenProvider, null);
+        SystemProcessExecutor daemonized = new SystemProcessExecutor(SystemProcessExecutor.DEFAULT_OUTPUT_TAIL_LINES,
+                null, gitHubTokenProvider, daemon);
+
+        StringBuilder results = new StringBuilder(String.format(Locale.ROOT, "%-12s  %3s  %9s  %s%n",
+                "MODE", "RUN", "SECONDS", "RESULT"));
+        for (int run = 1; run <= runs; run++) {
+            results.append(migrate("mvn", run, project, forked));
+        }
+        forked.executeAndCapture(List.of(daemon.executable(), "--stop"), project);
+        results.append(migrate("mvnd (start)", 1, project, daemonized));
+        for (int run = 1; run <= runs; run++) {
+            results.append(migrate("mvnd (warm)", run, project, daemonized));
+        }
+        System.out.print(results);
+    }
+
+    private static String migrate(String mode, int run, Path project, ProcessExecutor processExecutor)
+            throws IOException {
+        Path copy = copy(project);
+        long start = System.nanoTime();
+        String result;
+        try {
+            new SpringBoot4Migration(processExecutor).migrate(copy);
+            result = "OK";
+        } catch (Exception e) {
+            result = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage().lines().findFirst().orElse("");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        delete(copy);
+        return String.format(Locale.ROOT, "%-12s  %3d  %9.1f  %s%n", mode, run, seconds, result);
+    }
+
+    private static Path copy(Path project) throws IOException {
+        Path copy = Files.createTempDirectory("migration-benchmark-");
+        try (Stream<Path> files = Files.walk(project)) {
+            files.filter(file -> !isBuildOutput(project.relativize(file)))
+                    .forEach(file -> {
+                        try {
+                            Path target = copy.resolve(project.relativize(file).toString());
+                            if (Files.isDirectory(file)) {
+                                Files.createDirectories(target);
+                            } else {
+                                Files.copy(file, target);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        }
+        return copy;
+    }
+
+    private static boolean isBuildOutput(Path relativePath) {
+        for (Path name : relativePath) {
+            if ("target".equals(name.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Insertion-ordered, columnar store of archive data references.
+ * <p>
+ * A reference list can hold tens of millions of entries, so references are not kept as one object per row. The UTF-8
+ * bytes of all ids are appended to a shared byte arena, the versions are kept in an {@code int[]}, and duplicates are
+ * detected with an open-addressing hash index over the row numbers. A reference costs its id bytes plus about
+ * 23 bytes, instead of well over 100 bytes for a DTO, a boxed version, a key object and a map entry.
+ * </p>
+ * Rows are addressed by their insertion index. {@link ArchiveDataReferenceDto} instances are only created on access.
+ * {@link Integer#MIN_VALUE} marks a missing version and cannot be stored as a version.
+ */
+public final class ArchiveDataReferenceStore implements ArchiveDataReferences {
+
+    static final int NO_VERSION = Integer.MIN_VALUE;
+    // The hash index is kept at most half full and cannot grow beyond 2^30 slots
+    static final int MAX_ROWS = 1 << 29;
+    static final int MAX_ID_BYTES = Integer.MAX_VALUE - 8;
+    private static final int INITIAL_ROWS = 16;
+    private static final int INITIAL_ID_BYTES = 256;
+
+    private final int maxRows;
+    private final int maxIdBytes;
+
+    private byte[] idBytes = new byte[INITIAL_ID_BYTES];
+    private int idByteCount;
+    private int[] idOffsets = new int[INITIAL_ROWS + 1];
+    private int[] versions = new int[INITIAL_ROWS];
+    private int[] hashes = new int[INITIAL_ROWS];
+    private int size;
+
+    // Slots hold row + 1, 0 marks an empty slot. The table is kept at most half full.
+    private int[] slots = new int[INITIAL_ROWS * 2];
+
+    public ArchiveDataReferenceStore() {
+        this(MAX_ROWS, MAX_ID_BYTES);
+    }
+
+    /**
+     * @param maxRows    the number of rows the store can hold, at most {@link #MAX_ROWS}
+     * @param maxIdBytes the number of id bytes the store can hold, at most {@link #MAX_ID_BYTES}
+     */
+    ArchiveDataReferenceStore(int maxRows, int maxIdBytes) {
+        this.maxRows = Math.min(maxRows, MAX_ROWS);
+        this.maxIdBytes = Math.min(maxIdBytes, MAX_ID_BYTES);
+    }
+
+    /**
+     * Adds the reference unless an equal reference was added before.
+     *
+     * @return {@code true} if the reference was added, {@code false} if it is a duplicate
+     */
+    public boolean add(String id, Integer version) {
+        return insert(id, version, false);
+    }
+
+    /**
+     * Adds the reference even if an equal reference was added before.
+     */
+    public void append(String id, Integer version) {
+        insert(id, version, true);
+    }
+
+    /**
+     * Adds the reference given by the UTF-8 bytes {@code [from, to)} of its id and the hash computed by
+     * {@link #hash(byte[], int, int, int)}, unless an equal reference was added before.
+     *
+     * @return {@code true} if the reference was added, {@code false} if it is a duplicate
+     */
+    boolean add(byte[] utf8Id, int from, int to, int version, int hash) {
+        checkVersion(version);
+        int idLength = to - from;
+        ensureIdCapacity(idLength);
+        System.arraycopy(utf8Id, from, idBytes, idByteCount, idLength);
+        return insert(idLength, version, hash, false);
+    }
+
+    public boolean contains(String id, Integer version) {
+        if (version != null && version == NO_VERSION) {
+            return false;
+        }
+        // Encoded into a separate buffer, as a lookup must neither grow nor fail on a full arena
+        byte[] utf8Id = id.getBytes(StandardCharsets.UTF_8);
+        int encodedVersion = encodeVersion(version);
+        int hash = hash(utf8Id, 0, utf8Id.length, encodedVersion);
+        return findRow(utf8Id, 0, utf8Id.length, encodedVersion, hash) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String id(int row) {
+        checkRow(row);
+        int from = idOffsets[row];
+        return new String(idBytes, from, idOffsets[row + 1] - from, StandardCharsets.UTF_8);
+    }
+
+    public boolean hasVersion(int row) {
+        checkRow(row);
+        return versions[row] != NO_VERSION;
+    }
+
+    /**
+     * @return the version of the row, only meaningful if {@link #hasVersion(int)} is {@code true}
+     */
+    public int version(int row) {
+        checkRow(row);
+        return versions[row];
+    }
+
+    public ArchiveDataReferenceDto get(int row) {
+        return new ArchiveDataReferenceDto(id(row), hasVersion(row) ? versions[row] : null);
+    }
+
+    @Override
+    public long idByteCount(int fromRow, int toRow) {
+        checkRows(fromRow, toRow);
+        return idOffsets[toRow] - idOffsets[fromRow];
+    }
+
+    @Override
+    public void forEach(int fromRow, int toRow, ReferenceConsumer consumer) {
+        checkRows(fromRow, toRow);
+        for (int row = fromRow; row < toRow; row++) {
+            consumer.accept(id(row), hasVersion(row) ? versions[row] : null);
+        }
+    }
+
+    /**
+     * @return the number of bytes held by the arrays of the store, including their unused capacity
+     */
+    long heapBytes() {
+        return idBytes.length + 4L * (idOffsets.length + versions.length + hashes.length + slots.length);
+    }
+
+    /**
+     * @return whether the store holds as many rows as it can, or half of the id bytes it can. Adding further references
+     * to a store near its capacity can fail regardless of the heap available.
+     */
+    boolean isNearCapacity() {
+        return size >= maxRows || idByteCount >= maxIdBytes / 2;
+    }
+
+    /**
+     * Compares the rows by the UTF-8 bytes of their ids, then by their versions. Rows without version come first.
+     */
+    int compareRows(int row, int otherRow) {
+        int compared = Arrays.compareUnsigned(idBytes, idOffsets[row], idOffsets[row + 1],
+                idBytes, idOffsets[otherRow], idOffsets[otherRow + 1]);
+        return compared != 0 ? compared : Integer.compare(versions[row], versions[otherRow]);
+    }
+
+    /**
+     * Writes the row as the length of its UTF-8 id, the id bytes and its encoded version, the format read by
+     * {@link SpilledArchiveDataReferences}.
+     */
+    void writeRow(int row, DataOutput output) throws IOException {
+        int from = idOffsets[row];
+        int idLength = idOffsets[row + 1] - from;
+        output.writeInt(idLength);
+        output.write(idBytes, from, idLength);
+        output.writeInt(versions[row]);
+    }
+
+    @Override
+    public Iterator<ArchiveDataReferenceDto> iterator() {
+        return new Iterator<>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public ArchiveDataReferenceDto next() {
+                if (row >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(row++);
+            }
+        };
+    }
+
+    private boolean insert(String id, Integer version, boolean allowDuplicate) {
+        // The id is encoded directly behind the last id in the arena and is only kept if the row is added
+        int idLength = encodeAtEnd(id);
+        int encodedVersion = encodeVersion(version);
+        return insert(idLength, encodedVersion, hash(idBytes, idByteCount, idByteCount + idLength, encodedVersion),
+                allowDuplicate);
+    }
+
+    private boolean insert(int idLength, int encodedVersion, int hash, boolean allowDuplicate) {
+        boolean duplicate = findRow(idBytes, idByteCount, idByteCount + idLength, encodedVersion, hash) >= 0;
+        if (duplicate && !allowDuplicate) {
+            return false;
+        }
+        if (size >= maxRows) {
+            throw new IllegalStateException("References exceed the maximum in-memory count of " + maxRows + ".");
+        }
+
+        ensureRowCapacity();
+        idByteCount += idLength;
+        idOffsets[size + 1] = idByteCount;
+        versions[size] = encodedVersion;
+        hashes[size] = hash;
+        if (!duplicate) {
+            // Only the first occurrence is indexed, so lookups always resolve to the first row of a reference
+            insertSlot(size, hash);
+        }
+        size++;
+        if (size * 2L > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return !duplicate;
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the id to the free space behind the last id in the arena without committing them.
+     *
+     * @return the number of bytes written
+     */
+    private int encodeAtEnd(String id) {
+        int length = id.length();
+        ensureIdCapacity(length);
+        for (int index = 0; index < length; index++) {
+            char character = id.charAt(index);
+            if (character >= 0x80) {
+                byte[] id8 = id.getBytes(StandardCharsets.UTF_8);
+                ensureIdCapacity(id8.length);
+                System.arraycopy(id8, 0, idBytes, idByteCount, id8.length);
+                return id8.length;
+            }
+            idBytes[idByteCount + index] = (byte) character;
+        }
+        return length;
+    }
+
+    private int findRow(byte[] utf8Id, int from, int to, int encodedVersion, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (hashes[row] == hash && versions[row] == encodedVersion
+                    && Arrays.equals(idBytes, idOffsets[row], idOffsets[row + 1], utf8Id, from, to)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(int row, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldSlots = slots;
+        slots = new int[capacity];
+        for (int slot : oldSlots) {
+            if (slot != 0) {
+                insertSlot(slot - 1, hashes[slot - 1]);
+            }
+        }
+    }
+
+    private void ensureRowCapacity() {
+        if (size < versions.length) {
+            return;
+        }
+        int capacity = Math.min(maxRows, grow(versions.length));
+        versions = Arrays.copyOf(versions, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        idOffsets = Arrays.copyOf(idOffsets, capacity + 1);
+    }
+
+    private void ensureIdCapacity(int additionalBytes) {
+        long required = (long) idByteCount + additionalBytes;
+        if (required > maxIdBytes) {
+            throw new IllegalStateException("Reference ids exceed the maximum in-memory size of 2 GB.");
+        }
+        if (required <= idBytes.length) {
+            return;
+        }
+        idBytes = Arrays.copyOf(idBytes, (int) Math.max(required, Math.min(maxIdBytes, grow(idBytes.length))));
+    }
+
+    private static int grow(int capacity) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, capacity + (capacity >> 1) + 1L);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + size);
+        }
+    }
+
+    private void checkRows(int fromRow, int toRow) {
+        if (fromRow < 0 || toRow > size || fromRow > toRow) {
+            throw new IndexOutOfBoundsException("Rows [" + fromRow + ", " + toRow + ") out of bounds for size " + size);
+        }
+    }
+
+    private static int encodeVersion(Integer version) {
+        return version == null ? NO_VERSION : checkVersion(version);
+    }
+
+    private static int checkVersion(int version) {
+        if (version == NO_VERSION) {
+            throw new IllegalArgumentException("Version " + version + " is not supported.");
+        }
+        return version;
+    }
+
+    /**
+     * @return the hash of the reference given by the UTF-8 bytes {@code [from, to)} of its id and its version
+     */
+    static int hash(byte[] utf8Id, int from, int to, int version) {
+        int hash = version;
+        for (int index = from; index < to; index++) {
+            hash = 31 * hash + utf8Id[index];
+        }
+        // Spread the bits so that the low bits used for the slot index depend on all bytes
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
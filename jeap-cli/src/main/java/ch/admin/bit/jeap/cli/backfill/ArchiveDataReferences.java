@@ -0,0 +1,42 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+/**
+ * Ordered list of the archive data references of a backfill job. The references are either held in memory by an
+ * {@link ArchiveDataReferenceStore} or, for reference lists larger than the heap budget, read from a temporary file.
+ */
+public interface ArchiveDataReferences extends Iterable<ArchiveDataReferenceDto>, AutoCloseable {
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the total number of UTF-8 bytes of the ids of the rows {@code [fromRow, toRow)}, used to estimate
+     * serialized request sizes
+     */
+    long idByteCount(int fromRow, int toRow);
+
+    /**
+     * Passes the references of the rows {@code [fromRow, toRow)} to the consumer in order, without creating an
+     * {@link ArchiveDataReferenceDto} per row. Ranges may be read concurrently.
+     */
+    void forEach(int fromRow, int toRow, ReferenceConsumer consumer);
+
+    /**
+     * Releases the temporary file of spilled references. References held in memory need no release.
+     */
+    @Override
+    default void close() {
+    }
+
+    @FunctionalInterface
+    interface ReferenceConsumer {
+
+        /**
+         * @param version the version, or {@code null} for a reference without version
+         */
+        void accept(String id, Integer version);
+    }
+}
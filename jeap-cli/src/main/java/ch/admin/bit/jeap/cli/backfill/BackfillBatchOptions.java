@@ -0,0 +1,24 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+/**
+ * Options for submitting a backfill job as several sub-jobs.
+ *
+ * @param batchSize   maximum number of references per sub-job
+ * @param maxInFlight maximum number of sub-job requests sent to the PAS at the same time
+ * @param resume      skip the sub-jobs acknowledged in the journal of an earlier run
+ */
+public record BackfillBatchOptions(int batchSize, int maxInFlight, boolean resume) {
+
+    public BackfillBatchOptions {
+        if (batchSize < 1) {
+            throw new PasBackfillException("Error: --batch-size must be a positive integer.");
+        }
+        if (maxInFlight < 1) {
+            throw new PasBackfillException("Error: --max-in-flight must be a positive integer.");
+        }
+    }
+
+    public BackfillBatchOptions(int batchSize, int maxInFlight) {
+        this(batchSize, maxInFlight, false);
+    }
+}
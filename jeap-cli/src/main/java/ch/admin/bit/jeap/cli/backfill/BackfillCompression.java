@@ -0,0 +1,41 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.util.Locale;
+
+/**
+ * Content encoding of the backfill job request body.
+ */
+public enum BackfillCompression {
+
+    /**
+     * Sends the YAML uncompressed.
+     */
+    NONE,
+
+    /**
+     * Sends the YAML with {@code Content-Encoding: gzip}.
+     */
+    GZIP,
+
+    /**
+     * Uses gzip if the estimated YAML size exceeds {@link #AUTO_THRESHOLD_BYTES}, no compression otherwise.
+     */
+    AUTO;
+
+    static final long AUTO_THRESHOLD_BYTES = 64 * 1024;
+
+    public static BackfillCompression parse(String value) {
+        if (value == null || value.isBlank()) {
+            return NONE;
+        }
+        try {
+            return valueOf(value.strip().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new PasBackfillException("Error: Invalid --compression '" + value + "'. Use none, gzip or auto.");
+        }
+    }
+
+    boolean compresses(long estimatedBodyBytes) {
+        return this == GZIP || (this == AUTO && estimatedBodyBytes > AUTO_THRESHOLD_BYTES);
+    }
+}
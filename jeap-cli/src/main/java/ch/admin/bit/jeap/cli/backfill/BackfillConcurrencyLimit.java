@@ -0,0 +1,212 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit for the number of concurrent PAS submissions, adjusted by additive increase and multiplicative
+ * decrease (AIMD).
+ * <p>
+ * The limit starts at {@value #INITIAL_LIMIT}, or lower if the maximum is lower, and grows by one per request completed
+ * without throttling until the PAS throttles the first time, which doubles it per round of requests. From then on, it
+ * grows by one per round of completed requests, up to the maximum. A throttled or timed-out request halves the limit. Requests that were
+ * already in flight at that point only pause the submissions, so one burst of throttled responses halves the limit
+ * once rather than once per response.
+ * </p>
+ * After a throttled request, no permit is handed out until the delay of its {@code Retry-After} header has passed, or
+ * without the header, until a backoff that doubles with every reduction of the limit since the last completed request.
+ */
+final class BackfillConcurrencyLimit {
+
+    static final int INITIAL_LIMIT = 4;
+    static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+    // Longer Retry-After delays are shortened, so that a misconfigured PAS cannot stall the CLI for hours
+    static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(10);
+
+    private final int maxLimit;
+    private final Duration initialBackoff;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int limit;
+    private int slowStartThreshold = Integer.MAX_VALUE;
+    private int completedInRound;
+    private int inFlight;
+    // Incremented on every reduction, so that only permits handed out since then can reduce the limit again
+    private long reductions;
+    // Reductions since the last request completed without throttling
+    private int consecutiveReductions;
+    private long pausedUntilNanos = System.nanoTime();
+    private int throttled;
+
+    BackfillConcurrencyLimit(int maxLimit) {
+        this(maxLimit, INITIAL_BACKOFF);
+    }
+
+    /**
+     * @param initialBackoff the pause after the first throttled request without {@code Retry-After}
+     */
+    BackfillConcurrencyLimit(int maxLimit, Duration initialBackoff) {
+        this.maxLimit = maxLimit;
+        this.initialBackoff = initialBackoff;
+        this.limit = Math.min(INITIAL_LIMIT, maxLimit);
+    }
+
+    /**
+     * Waits until fewer requests than the limit are in flight and submissions are not paused.
+     */
+    Permit acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long pausedNanos = pausedUntilNanos - System.nanoTime();
+                if (pausedNanos > 0) {
+                    changed.awaitNanos(pausedNanos);
+                } else if (inFlight >= limit) {
+                    changed.await();
+                } else {
+                    inFlight++;
+                    return new Permit(reductions);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of throttled or timed-out requests so far
+     */
+    int throttled() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Parses the value of a {@code Retry-After} header, either a number of seconds or an HTTP date.
+     *
+     * @return the delay, or {@code null} for a missing or invalid value
+     */
+    static Duration parseRetryAfter(String value, ZonedDateTime now) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        Duration delay;
+        try {
+            delay = Duration.ofSeconds(Long.parseLong(value.strip()));
+        } catch (NumberFormatException e) {
+            try {
+                delay = Duration.between(now, ZonedDateTime.parse(value.strip(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            } catch (DateTimeParseException dateException) {
+                return null;
+            }
+        }
+        if (delay.isNegative()) {
+            return Duration.ZERO;
+        }
+        return delay.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : delay;
+    }
+
+    /**
+     * Permission to send one request. A permit is released exactly once, by {@link #completed()}, {@link #throttled}
+     * or {@link #close()}, whichever comes first.
+     */
+    final class Permit implements AutoCloseable {
+
+        private final long reductionsAtAcquire;
+        private boolean released;
+
+        private Permit(long reductionsAtAcquire) {
+            this.reductionsAtAcquire = reductionsAtAcquire;
+        }
+
+        /**
+         * Records a request the PAS responded to without throttling, regardless of whether it accepted the job.
+         */
+        void completed() {
+            release(() -> {
+                consecutiveReductions = 0;
+                if (limit >= maxLimit) {
+                    return;
+                }
+                if (limit < slowStartThreshold) {
+                    limit++;
+                } else if (++completedInRound >= limit) {
+                    limit++;
+                    completedInRound = 0;
+                }
+            });
+        }
+
+        /**
+         * Records a request the PAS throttled or that timed out.
+         *
+         * @param retryAfter the delay requested by the PAS, or {@code null} to back off exponentially
+         */
+        void throttled(Duration retryAfter) {
+            release(() -> {
+                throttled++;
+                boolean reduce = reductionsAtAcquire == reductions;
+                if (reduce) {
+                    limit = Math.max(1, limit / 2);
+                    slowStartThreshold = limit;
+                    completedInRound = 0;
+                    reductions++;
+                    consecutiveReductions++;
+                }
+                Duration delay = retryAfter != null ? retryAfter : backoff();
+                long resumeNanos = System.nanoTime() + delay.toNanos();
+                if (resumeNanos - pausedUntilNanos > 0) {
+                    pausedUntilNanos = resumeNanos;
+                }
+            });
+        }
+
+        /**
+         * Releases the permit without adjusting the limit, unless it was released already.
+         */
+        @Override
+        public void close() {
+            release(() -> {
+            });
+        }
+
+        private void release(Runnable adjustment) {
+            lock.lock();
+            try {
+                if (released) {
+                    return;
+                }
+                released = true;
+                inFlight--;
+                adjustment.run();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Duration backoff() {
+        int doublings = Math.clamp(consecutiveReductions - 1, 0, 16);
+        Duration backoff = initialBackoff.multipliedBy(1L << doublings);
+        return backoff.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff;
+    }
+}
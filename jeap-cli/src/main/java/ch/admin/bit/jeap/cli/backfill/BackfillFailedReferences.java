@@ -0,0 +1,114 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the references of the failed entries of a backfill job report read token by token.
+ * <p>
+ * Every object in a list with an {@code id} and a {@code status} of one of the failed statuses is a failed entry. Its
+ * {@code id} and {@code version} are added to an {@link ArchiveDataReferenceStore}, which serves as a compact hash set:
+ * memory use grows with the number of failed references only, not with the size of the report. An entry without a
+ * version that is a positive integer is added without a version and matches every version of its id.
+ * </p>
+ */
+final class BackfillFailedReferences {
+
+    private final Set<String> failedStatuses;
+    private final ArchiveDataReferenceStore references = new ArchiveDataReferenceStore();
+
+    private BackfillFailedReferences(Set<String> failedStatuses) {
+        this.failedStatuses = failedStatuses.stream()
+                .map(status -> status.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Reads the report from the parser up to the end of its root value. Statuses are compared ignoring case.
+     */
+    static ArchiveDataReferenceStore read(JsonParser parser, Set<String> failedStatuses) {
+        BackfillFailedReferences failedReferences = new BackfillFailedReferences(failedStatuses);
+        JsonToken rootToken = parser.nextToken();
+        if (rootToken == JsonToken.START_OBJECT || rootToken == JsonToken.START_ARRAY) {
+            failedReferences.readObjects(parser, rootToken);
+        }
+        return failedReferences.references;
+    }
+
+    private void readObjects(JsonParser parser, JsonToken rootToken) {
+        // The open objects and lists, innermost first
+        Deque<EntryScope> scopes = new ArrayDeque<>();
+        scopes.push(rootToken == JsonToken.START_ARRAY ? EntryScope.LIST : new EntryScope(false));
+        String name = null;
+        while (!scopes.isEmpty()) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return;
+            }
+            EntryScope scope = scopes.peek();
+            switch (token) {
+                case PROPERTY_NAME -> name = parser.currentName();
+                case START_OBJECT -> scopes.push(new EntryScope(scope == EntryScope.LIST));
+                case START_ARRAY -> scopes.push(EntryScope.LIST);
+                case END_OBJECT -> close(scopes.pop());
+                case END_ARRAY -> scopes.pop();
+                default -> {
+                    if (scope != EntryScope.LIST && token != JsonToken.VALUE_NULL) {
+                        scope.set(name, parser.getString());
+                    }
+                }
+            }
+        }
+    }
+
+    private void close(EntryScope scope) {
+        if (scope.entry && scope.id != null && scope.status != null
+                && failedStatuses.contains(scope.status.toUpperCase(Locale.ROOT))) {
+            references.add(scope.id, scope.version);
+        }
+    }
+
+    /**
+     * An open object of the report.
+     */
+    private static final class EntryScope {
+
+        // Marks an open list on the scope stack
+        private static final EntryScope LIST = new EntryScope(false);
+
+        private final boolean entry;
+        private String id;
+        private Integer version;
+        private String status;
+
+        /**
+         * @param entry whether the object is an element of a list
+         */
+        private EntryScope(boolean entry) {
+            this.entry = entry;
+        }
+
+        private void set(String name, String value) {
+            if (name == null) {
+                return;
+            }
+            switch (name) {
+                case "id" -> id = value;
+                case "version" -> {
+                    int parsedVersion = BackfillReferenceCsvParser.parseVersion(value.strip());
+                    version = parsedVersion == BackfillReferenceCsvParser.INVALID_VERSION ? null : parsedVersion;
+                }
+                case "status" -> status = value;
+                default -> {
+                    // Not needed to identify a failed reference
+                }
+            }
+        }
+    }
+}
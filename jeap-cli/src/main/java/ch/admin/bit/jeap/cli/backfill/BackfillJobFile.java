@@ -0,0 +1,57 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Job YAML file of a directory submitted with {@code pas-backfill send-all}, with the references CSV file of the
+ * same name if there is one, for example {@code orders.yaml} and {@code orders.csv}.
+ */
+record BackfillJobFile(Path yamlFile, Path referencesCsvFile) {
+
+    // Suffix of the batch manifest that BackfillJobSender writes next to the job YAML file
+    static final String MANIFEST_SUFFIX = "-manifest.yaml";
+
+    /**
+     * @return the job files of the directory, sorted by file name. Subdirectories and batch manifests are ignored.
+     */
+    static List<BackfillJobFile> discover(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(BackfillJobFile::isJobYaml)
+                    .sorted(Comparator.comparing(file -> file.getFileName().toString()))
+                    .map(yamlFile -> new BackfillJobFile(yamlFile, referencesCsvFile(yamlFile)))
+                    .toList();
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            throw new PasBackfillException("Error: Directory not found: " + directory);
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    String name() {
+        return yamlFile.getFileName().toString();
+    }
+
+    BackfillReferencesCsv referencesCsv() {
+        return referencesCsvFile == null ? null : BackfillReferencesCsv.file(referencesCsvFile);
+    }
+
+    private static boolean isJobYaml(Path file) {
+        String name = file.getFileName().toString();
+        return (name.endsWith(".yaml") || name.endsWith(".yml")) && !name.endsWith(MANIFEST_SUFFIX);
+    }
+
+    private static Path referencesCsvFile(Path yamlFile) {
+        String name = yamlFile.getFileName().toString();
+        Path csvFile = yamlFile.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".csv");
+        return Files.isRegularFile(csvFile) ? csvFile : null;
+    }
+}
@@ -0,0 +1,45 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Job ids file of {@code pas-backfill report --job-ids-file}: one job id per line. Blank lines and lines starting with
+ * {@code #} are ignored, and repeated job ids are read once.
+ */
+final class BackfillJobIds {
+
+    private BackfillJobIds() {
+    }
+
+    /**
+     * @return the job ids in the order of the file
+     */
+    static List<String> read(Path file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new PasBackfillException("File not found: " + file);
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read file " + file + ": " + e.getMessage());
+        }
+        Set<String> jobIds = new LinkedHashSet<>();
+        for (String line : lines) {
+            String jobId = line.strip();
+            if (!jobId.isEmpty() && !jobId.startsWith("#")) {
+                jobIds.add(jobId);
+            }
+        }
+        if (jobIds.isEmpty()) {
+            throw new PasBackfillException("Error: No job ids found in " + file + ".");
+        }
+        return List.copyOf(jobIds);
+    }
+}
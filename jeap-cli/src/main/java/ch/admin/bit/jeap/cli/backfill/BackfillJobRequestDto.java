@@ -1,20 +1,18 @@
 package ch.admin.bit.jeap.cli.backfill;
 
-import java.util.List;
-
-public final class BackfillJobRequestDto {
+public final class BackfillJobRequestDto implements AutoCloseable {
 
     private final String message;
     private final String topic;
     private final Integer numOfRetry;
-    private final List<ArchiveDataReferenceDto> archiveDataReferences;
+    private final ArchiveDataReferences archiveDataReferences;
 
     public BackfillJobRequestDto(String message, String topic, Integer numOfRetry,
-                                 List<ArchiveDataReferenceDto> archiveDataReferences) {
+                                 ArchiveDataReferences archiveDataReferences) {
         this.message = message;
         this.topic = topic;
         this.numOfRetry = numOfRetry;
-        this.archiveDataReferences = List.copyOf(archiveDataReferences);
+        this.archiveDataReferences = archiveDataReferences;
     }
 
     public String message() {
@@ -29,7 +27,15 @@ public final class BackfillJobRequestDto {
         return numOfRetry;
     }
 
-    public List<ArchiveDataReferenceDto> archiveDataReferences() {
+    public ArchiveDataReferences archiveDataReferences() {
         return archiveDataReferences;
     }
+
+    /**
+     * Releases the references, see {@link ArchiveDataReferences#close()}.
+     */
+    @Override
+    public void close() {
+        archiveDataReferences.close();
+    }
 }
@@ -0,0 +1,187 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a backfill job request from the job YAML file, with the references either from the YAML file itself or from a
+ * references CSV.
+ */
+final class BackfillJobRequestReader {
+
+    private static final String ARCHIVE_DATA_REFERENCES = "archiveDataReferences";
+
+    private final BackfillReferenceCsvParser referenceCsvParser;
+    private final YAMLMapper yamlMapper;
+
+    BackfillJobRequestReader(BackfillReferenceCsvParser referenceCsvParser, YAMLMapper yamlMapper) {
+        this.referenceCsvParser = referenceCsvParser;
+        this.yamlMapper = yamlMapper;
+    }
+
+    /**
+     * @param referencesCsv the references of the job, or {@code null} if they are defined in the YAML file
+     */
+    BackfillJobRequestDto read(Path yamlFile, BackfillReferencesCsv referencesCsv) {
+        String yaml = readYaml(yamlFile);
+        return createBackfillJobRequest(yamlFile, yaml, referencesCsv, null, null);
+    }
+
+    /**
+     * Reads the backfill job request and feeds the YAML and CSV input to {@code inputDigest}.
+     */
+    BackfillJobRequestDto read(Path yamlFile, BackfillReferencesCsv referencesCsv, MessageDigest inputDigest) {
+        String yaml = readYaml(yamlFile);
+        inputDigest.update(yaml.getBytes(StandardCharsets.UTF_8));
+        return createBackfillJobRequest(yamlFile, yaml, referencesCsv, inputDigest, null);
+    }
+
+    /**
+     * Reads the backfill job request with only the references of the CSV that are contained in {@code referenceFilter},
+     * in the order of the CSV.
+     */
+    BackfillJobRequestDto readMatching(Path yamlFile, BackfillReferencesCsv referencesCsv,
+                                       ArchiveDataReferenceStore referenceFilter) {
+        String yaml = readYaml(yamlFile);
+        return createBackfillJobRequest(yamlFile, yaml, referencesCsv, null, referenceFilter);
+    }
+
+    private String readYaml(Path yamlFile) {
+        long start = System.nanoTime();
+        try {
+            return Files.readString(yamlFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new PasBackfillException("File not found: " + yamlFile);
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read file " + yamlFile + ": " + e.getMessage());
+        } finally {
+            BackfillMetrics.record(BackfillMetrics.Phase.READ_YAML, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param referenceFilter the references of the CSV file to keep, or {@code null} to keep all references
+     */
+    private BackfillJobRequestDto createBackfillJobRequest(Path yamlFile, String yaml, BackfillReferencesCsv referencesCsv,
+                                                           MessageDigest inputDigest, ArchiveDataReferenceStore referenceFilter) {
+        Map<String, Object> yamlValues = readYamlValues(yamlFile, yaml);
+        boolean yamlReferencesDefined = yamlValues.containsKey(ARCHIVE_DATA_REFERENCES)
+                && yamlValues.get(ARCHIVE_DATA_REFERENCES) != null;
+        ArchiveDataReferences yamlReferences = yamlReferencesDefined
+                ? toArchiveDataReferences(yamlValues.get(ARCHIVE_DATA_REFERENCES))
+                : new ArchiveDataReferenceStore();
+
+        if (referencesCsv != null && yamlReferencesDefined) {
+            throw new PasBackfillException("Error: archiveDataReferences defined in both YAML and --references-csv. Use one source only.");
+        }
+
+        ArchiveDataReferences archiveDataReferences;
+        if (referencesCsv != null) {
+            archiveDataReferences = readCsvReferences(referencesCsv, inputDigest, referenceFilter);
+        } else {
+            archiveDataReferences = yamlReferences;
+        }
+
+        if (archiveDataReferences.isEmpty() && referenceFilter != null) {
+            throw new PasBackfillException("Error: None of the " + referenceFilter.size() + " failed references are listed in "
+                    + referencesCsv + ".");
+        }
+        if (archiveDataReferences.isEmpty()) {
+            throw new PasBackfillException("Error: No archiveDataReferences provided. Define them in the YAML file or use --references-csv.");
+        }
+
+        return new BackfillJobRequestDto(
+                stringValue(yamlValues.get("message")),
+                stringValue(yamlValues.get("topic")),
+                integerValue(yamlValues.get("num-of-retry"), "num-of-retry"),
+                archiveDataReferences);
+    }
+
+    private Map<String, Object> readYamlValues(Path yamlFile, String yaml) {
+        try {
+            Map<?, ?> values = yamlMapper.readValue(yaml, Map.class);
+            Map<String, Object> result = new LinkedHashMap<>();
+            if (values != null) {
+                values.forEach((key, value) -> result.put(String.valueOf(key), value));
+            }
+            return result;
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not parse file " + yamlFile + ": " + e.getMessage());
+        }
+    }
+
+    private ArchiveDataReferences readCsvReferences(BackfillReferencesCsv referencesCsv, MessageDigest inputDigest,
+                                                    ArchiveDataReferenceStore referenceFilter) {
+        long start = System.nanoTime();
+        try {
+            if (referencesCsv.isStdin()) {
+                InputStream stdin = referencesCsv.stdin().get();
+                return referenceFilter != null
+                        ? referenceCsvParser.parseMatching(stdin, referenceFilter)
+                        : referenceCsvParser.parse(stdin, inputDigest);
+            }
+            if (referenceFilter != null) {
+                return referenceCsvParser.parseMatching(referencesCsv.file(), referenceFilter);
+            }
+            return inputDigest == null
+                    ? referenceCsvParser.parse(referencesCsv.file())
+                    : referenceCsvParser.parse(referencesCsv.file(), inputDigest);
+        } catch (NoSuchFileException e) {
+            throw new PasBackfillException("File not found: " + referencesCsv);
+        } catch (IllegalArgumentException e) {
+            throw new PasBackfillException(e.getMessage());
+        } catch (IOException e) {
+            String source = referencesCsv.isStdin() ? "references from stdin" : "file " + referencesCsv;
+            throw new PasBackfillException("Could not read " + source + ": " + e.getMessage());
+        } finally {
+            BackfillMetrics.record(BackfillMetrics.Phase.PARSE_CSV, System.nanoTime() - start);
+        }
+    }
+
+    private ArchiveDataReferenceStore toArchiveDataReferences(Object value) {
+        ArchiveDataReferenceStore references = new ArchiveDataReferenceStore();
+        if (!(value instanceof List<?> values)) {
+            return references;
+        }
+
+        for (Object item : values) {
+            if (item instanceof Map<?, ?> reference) {
+                String id = stringValue(reference.get("id"));
+                if (id == null) {
+                    throw new PasBackfillException("Error: Missing archiveDataReferences[].id in YAML.");
+                }
+                references.append(id, integerValue(reference.get("version"), "archiveDataReferences[].version"));
+            }
+        }
+        return references;
+    }
+
+    private String stringValue(Object value) {
+        return value == null ? null : String.valueOf(value);
+    }
+
+    private Integer integerValue(Object value, String fieldName) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        try {
+            return Integer.valueOf(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            throw new PasBackfillException("Invalid YAML value '" + value + "' for " + fieldName + ". Must be an integer.");
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import tools.jackson.core.JacksonException;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Submits backfill jobs to the PAS, as a single job, as sub-jobs of a batch or as a directory of jobs. Throttled and
+ * timed-out requests are retried, with the number of concurrent requests adapted by a {@link BackfillConcurrencyLimit}.
+ */
+final class BackfillJobSender {
+
+    private static final String GZIP_ENCODING = "gzip";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    // "- id: \"\"\n  version: 1\n" without the id itself
+    private static final int ESTIMATED_YAML_BYTES_PER_REFERENCE = 24;
+    private static final int MAX_SEND_ATTEMPTS = 10;
+
+    private final RestClient restClient;
+    private final BackfillJobRequestReader requestReader;
+    private final YAMLMapper yamlMapper;
+    private final BackfillJobYamlWriter yamlWriter;
+
+    BackfillJobSender(RestClient restClient, BackfillJobRequestReader requestReader, YAMLMapper yamlMapper) {
+        this.restClient = restClient;
+        this.requestReader = requestReader;
+        this.yamlMapper = yamlMapper;
+        this.yamlWriter = new BackfillJobYamlWriter(yamlMapper);
+    }
+
+    /**
+     * Submits all references of the backfill job request as job {@code jobId}, retried while the PAS throttles it.
+     */
+    String send(Path yamlFile, BackfillJobRequestDto backfillJobRequest, String jobId, String url, String accessToken,
+                BackfillCompression compression) {
+        int numberOfReferences = backfillJobRequest.archiveDataReferences().size();
+        SendTarget target = new SendTarget(url, accessToken, compression);
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(1);
+        return putJobAdaptively(limit, acquire(limit), target, yamlFile, backfillJobRequest, 0, numberOfReferences, jobId);
+    }
+
+    String sendInBatches(Path yamlFile, BackfillReferencesCsv referencesCsv, String jobId, String url,
+                         String accessToken, BackfillBatchOptions batchOptions, BackfillCompression compression) {
+        // The input is hashed while it is read, so a resumed run does not read it twice
+        MessageDigest inputDigest = sha256();
+        BackfillJobRequestDto backfillJobRequest = requestReader.read(yamlFile, referencesCsv, inputDigest);
+        int numberOfReferences = backfillJobRequest.archiveDataReferences().size();
+        List<BackfillSubJob> subJobs = BackfillSubJob.split(jobId, numberOfReferences, batchOptions.batchSize());
+        Path manifest = writeManifest(yamlFile, jobId, batchOptions, numberOfReferences, subJobs);
+        Path journalPath = BackfillJournal.path(yamlFile, referencesCsv, jobId);
+        String inputSha256 = HexFormat.of().formatHex(inputDigest.digest());
+
+        SendTarget target = new SendTarget(url, accessToken, compression);
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(batchOptions.maxInFlight());
+        Map<Integer, String> failures = new ConcurrentSkipListMap<>();
+        int submittedSubJobs = 0;
+        int skippedSubJobs = 0;
+        AtomicLong submittedReferences = new AtomicLong();
+        try (backfillJobRequest;
+             BackfillJournal journal = BackfillJournal.open(journalPath, inputSha256, jobId, batchOptions.batchSize(),
+                     batchOptions.resume());
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (BackfillSubJob subJob : subJobs) {
+                if (journal.isAcknowledged(subJob)) {
+                    skippedSubJobs++;
+                    continue;
+                }
+                BackfillConcurrencyLimit.Permit permit = acquire(limit);
+                if (!failures.isEmpty()) {
+                    permit.close();
+                    break;
+                }
+                submittedSubJobs++;
+                executor.execute(() -> {
+                    try {
+                        putJobAdaptively(limit, permit, target, yamlFile, backfillJobRequest, subJob.fromIndex(),
+                                subJob.toIndex(), subJob.jobId(),
+                                failure -> failures.put(subJob.index(), subJob.jobId() + ": " + failure.getMessage()));
+                        journal.acknowledge(subJob);
+                        submittedReferences.addAndGet(subJob.numberOfReferences());
+                    } catch (RuntimeException e) {
+                        failures.putIfAbsent(subJob.index(), subJob.jobId() + ": " + e.getMessage());
+                    } finally {
+                        permit.close();
+                    }
+                });
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new PasBackfillException(batchFailureMessage(jobId, subJobs.size(), skippedSubJobs + submittedSubJobs,
+                    failures, manifest, journalPath));
+        }
+        String skipped = skippedSubJobs == 0 ? ""
+                : ", " + skippedSubJobs + " of them already acknowledged in " + journalPath;
+        return "Backfill job " + jobId + " submitted as " + subJobs.size() + " sub-jobs" + skipped + ". "
+                + submittedReferences.get() + " references submitted. Manifest written to " + manifest + "."
+                + throttlingSummary(limit);
+    }
+
+    String sendAll(Path directory, String url, String accessToken, int concurrency, BackfillCompression compression) {
+        if (concurrency < 1) {
+            throw new PasBackfillException("Error: --concurrency must be a positive integer.");
+        }
+        List<BackfillJobFile> jobFiles = BackfillJobFile.discover(directory);
+        if (jobFiles.isEmpty()) {
+            throw new PasBackfillException("Error: No job YAML files found in " + directory + ".");
+        }
+
+        SendTarget target = new SendTarget(url, accessToken, compression);
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(concurrency);
+        List<Future<JobResult>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (BackfillJobFile jobFile : jobFiles) {
+                BackfillConcurrencyLimit.Permit permit = acquire(limit);
+                futures.add(executor.submit(() -> {
+                    try {
+                        return submitJobFile(limit, permit, target, jobFile);
+                    } finally {
+                        permit.close();
+                    }
+                }));
+            }
+        }
+
+        List<JobResult> results = futures.stream().map(Future::resultNow).toList();
+        long failed = results.stream().filter(result -> !result.succeeded()).count();
+        String summary = summaryTable(results);
+        if (failed > 0) {
+            throw new PasBackfillException("Error: " + failed + " of " + results.size() + " backfill jobs in " + directory
+                    + " failed." + System.lineSeparator() + summary);
+        }
+        return summary + System.lineSeparator() + results.size() + " backfill jobs submitted." + throttlingSummary(limit);
+    }
+
+    private JobResult submitJobFile(BackfillConcurrencyLimit limit, BackfillConcurrencyLimit.Permit permit, SendTarget target,
+                                    BackfillJobFile jobFile) {
+        String jobId = UUID.randomUUID().toString();
+        long start = System.nanoTime();
+        try (BackfillJobRequestDto backfillJobRequest = requestReader.read(jobFile.yamlFile(), jobFile.referencesCsv())) {
+            int numberOfReferences = backfillJobRequest.archiveDataReferences().size();
+            putJobAdaptively(limit, permit, target, jobFile.yamlFile(), backfillJobRequest, 0, numberOfReferences, jobId);
+            return new JobResult(jobFile, jobId, true, numberOfReferences + " references", Duration.ofNanos(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            return new JobResult(jobFile, jobId, false, e.getMessage(), Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private static String summaryTable(List<JobResult> results) {
+        int fileWidth = Math.max("FILE".length(), results.stream().mapToInt(result -> result.jobFile().name().length()).max().orElse(0));
+        String format = "%-" + fileWidth + "s  %-36s  %-6s  %10s  %s";
+        StringBuilder table = new StringBuilder(format.formatted("FILE", "JOB ID", "RESULT", "LATENCY", "DETAILS").strip());
+        for (JobResult result : results) {
+            table.append(System.lineSeparator()).append(format.formatted(
+                    result.jobFile().name(),
+                    result.jobId(),
+                    result.succeeded() ? "OK" : "FAILED",
+                    result.latency().toMillis() + " ms",
+                    result.details().replaceAll("\\R", " ")));
+        }
+        return table.toString();
+    }
+
+    private static String throttlingSummary(BackfillConcurrencyLimit limit) {
+        int throttled = limit.throttled();
+        if (throttled == 0) {
+            return "";
+        }
+        return " The PAS throttled " + throttled + " requests, concurrency adapted to " + limit.limit() + ".";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Submits the job with the permit. A throttled or timed-out request is reported to the limit and retried with a new
+     * permit, at most {@value #MAX_SEND_ATTEMPTS} times in total. If an attempt timed out, the PAS may have created the
+     * job nevertheless, so a later {@code 409 Conflict} counts as success. Every permit is released on return.
+     */
+    private String putJobAdaptively(BackfillConcurrencyLimit limit, BackfillConcurrencyLimit.Permit firstPermit,
+                                    SendTarget target, Path yamlFile, BackfillJobRequestDto backfillJobRequest,
+                                    int fromIndex, int toIndex, String jobId) {
+        return putJobAdaptively(limit, firstPermit, target, yamlFile, backfillJobRequest, fromIndex, toIndex, jobId,
+                failure -> {
+                });
+    }
+
+    /**
+     * Like {@link #putJobAdaptively(BackfillConcurrencyLimit, BackfillConcurrencyLimit.Permit, SendTarget, Path,
+     * BackfillJobRequestDto, int, int, String)}, but passes a failure to {@code failureHandler} before the permit is
+     * released and the failure thrown, so that a submission waiting for the permit already sees the failure.
+     */
+    private String putJobAdaptively(BackfillConcurrencyLimit limit, BackfillConcurrencyLimit.Permit firstPermit,
+                                    SendTarget target, Path yamlFile, BackfillJobRequestDto backfillJobRequest,
+                                    int fromIndex, int toIndex, String jobId, Consumer<RuntimeException> failureHandler) {
+        BackfillConcurrencyLimit.Permit permit = firstPermit;
+        boolean timedOut = false;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                String result = putJob(target, yamlFile, backfillJobRequest, fromIndex, toIndex, jobId, timedOut);
+                permit.completed();
+                BackfillMetrics.countReferences(toIndex - fromIndex);
+                return result;
+            } catch (PasThrottledException e) {
+                permit.throttled(e.retryAfter());
+                timedOut |= e.timedOut();
+                if (attempt == MAX_SEND_ATTEMPTS) {
+                    PasBackfillException failure = new PasBackfillException(e.getMessage() + " (gave up after " + attempt + " attempts)");
+                    failureHandler.accept(failure);
+                    throw failure;
+                }
+            } catch (RuntimeException e) {
+                failureHandler.accept(e);
+                throw e;
+            } finally {
+                permit.close();
+            }
+            permit = acquire(limit);
+        }
+    }
+
+    /**
+     * Submits the references {@code [fromIndex, toIndex)} of the backfill job request as job {@code jobId}.
+     *
+     * @param acceptExisting whether an existing job {@code jobId} counts as success
+     * @throws PasThrottledException if the PAS throttled the request or it timed out
+     */
+    private String putJob(SendTarget target, Path yamlFile, BackfillJobRequestDto backfillJobRequest, int fromIndex,
+                          int toIndex, String jobId, boolean acceptExisting) {
+        String endpoint = jobEndpoint(target.url(), jobId);
+        int numberOfReferences = toIndex - fromIndex;
+        boolean gzip = target.compression().compresses(estimateYamlBytes(backfillJobRequest, fromIndex, toIndex));
+        // Set once the body is written, to time the wait for the response, which may run on another thread
+        AtomicLong bodyWrittenNanos = new AtomicLong();
+
+        try {
+            return restClient.put()
+                    .uri(endpoint)
+                    .headers(headers -> {
+                        headers.setBearerAuth(target.accessToken());
+                        if (gzip) {
+                            headers.set(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+                        }
+                    })
+                    .contentType(PasBackfillService.APPLICATION_YAML)
+                    .body(outputStream -> {
+                        long start = System.nanoTime();
+                        BackfillMetrics.UploadOutputStream uploadOutputStream = new BackfillMetrics.UploadOutputStream(outputStream);
+                        if (gzip) {
+                            try (GZIPOutputStream gzipOutputStream =
+                                         new GZIPOutputStream(uploadOutputStream, GZIP_BUFFER_SIZE)) {
+                                writeYaml(gzipOutputStream, yamlFile, backfillJobRequest, fromIndex, toIndex);
+                            }
+                        } else {
+                            writeYaml(uploadOutputStream, yamlFile, backfillJobRequest, fromIndex, toIndex);
+                        }
+                        long end = System.nanoTime();
+                        bodyWrittenNanos.set(end);
+                        BackfillMetrics.record(BackfillMetrics.Phase.SERIALIZE, end - start - uploadOutputStream.uploadNanos());
+                        BackfillMetrics.record(BackfillMetrics.Phase.UPLOAD, uploadOutputStream.uploadNanos());
+                        BackfillMetrics.countRequestBytes(uploadOutputStream.bytes());
+                    })
+                    .exchange((request, response) -> {
+                        if (bodyWrittenNanos.get() != 0) {
+                            BackfillMetrics.record(BackfillMetrics.Phase.RESPONSE, System.nanoTime() - bodyWrittenNanos.get());
+                        }
+                        BackfillMetrics.countResponseBytes(Math.max(0, response.getHeaders().getContentLength()));
+                        return handleSendResponse(response, jobId, numberOfReferences, acceptExisting);
+                    });
+        } catch (ResourceAccessException e) {
+            if (isTimeout(e)) {
+                throw new PasThrottledException("PAS request timed out: " + e.getMessage(), null, true);
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isTimeout(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpTimeoutException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long estimateYamlBytes(BackfillJobRequestDto backfillJobRequest, int fromIndex, int toIndex) {
+        long referenceBytes = backfillJobRequest.archiveDataReferences().idByteCount(fromIndex, toIndex);
+        return referenceBytes + (long) (toIndex - fromIndex) * ESTIMATED_YAML_BYTES_PER_REFERENCE;
+    }
+
+    private Path writeManifest(Path yamlFile, String jobId, BackfillBatchOptions batchOptions, int numberOfReferences,
+                               List<BackfillSubJob> subJobs) {
+        Map<String, Object> manifestValues = new LinkedHashMap<>();
+        manifestValues.put("jobId", jobId);
+        manifestValues.put("batchSize", batchOptions.batchSize());
+        manifestValues.put("numberOfReferences", numberOfReferences);
+        List<Map<String, Object>> subJobValues = new ArrayList<>();
+        for (BackfillSubJob subJob : subJobs) {
+            Map<String, Object> subJobValue = new LinkedHashMap<>();
+            subJobValue.put("index", subJob.index());
+            subJobValue.put("jobId", subJob.jobId());
+            subJobValue.put("firstReference", subJob.fromIndex() + 1);
+            subJobValue.put("numberOfReferences", subJob.numberOfReferences());
+            subJobValues.add(subJobValue);
+        }
+        manifestValues.put("subJobs", subJobValues);
+
+        Path manifest = yamlFile.resolveSibling(jobId + BackfillJobFile.MANIFEST_SUFFIX);
+        try {
+            yamlMapper.writeValue(manifest.toFile(), manifestValues);
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not write manifest " + manifest + ": " + e.getMessage());
+        }
+        return manifest;
+    }
+
+    private BackfillConcurrencyLimit.Permit acquire(BackfillConcurrencyLimit limit) {
+        try {
+            return limit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PasBackfillException("Interrupted while submitting backfill jobs.");
+        }
+    }
+
+    private String batchFailureMessage(String jobId, int numberOfSubJobs, int submittedSubJobs,
+                                       Map<Integer, String> failures, Path manifest, Path journal) {
+        StringBuilder message = new StringBuilder("Error: " + failures.size() + " of " + numberOfSubJobs
+                + " sub-jobs of backfill job " + jobId + " failed");
+        if (submittedSubJobs < numberOfSubJobs) {
+            message.append(", ").append(numberOfSubJobs - submittedSubJobs).append(" were not submitted");
+        }
+        message.append(". Run again with --resume and the same --job-id and --batch-size to submit the sub-jobs not yet ")
+                .append("recorded in ").append(journal).append(". Sub-job ids are listed in ").append(manifest).append('.');
+        failures.forEach((index, failure) -> message.append(System.lineSeparator())
+                .append("  sub-job ").append(index).append(" (").append(failure).append(')'));
+        return message.toString();
+    }
+
+    /**
+     * Writes the backfill job request as YAML with Jackson's streaming generator, one reference at a time, directly
+     * into the request body. No intermediate tree or {@code String} of the whole request is built.
+     */
+    private void writeYaml(OutputStream outputStream, Path yamlFile, BackfillJobRequestDto request, int fromIndex, int toIndex) {
+        try {
+            yamlWriter.write(outputStream, request, fromIndex, toIndex);
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not write merged backfill job from " + yamlFile + ": " + e.getMessage());
+        }
+    }
+
+    private String handleSendResponse(ClientHttpResponse response, String jobId, int numberOfReferences,
+                                      boolean acceptExisting) throws IOException {
+        HttpStatus status = HttpStatus.resolve(response.getStatusCode().value());
+        if (status == HttpStatus.OK || status == HttpStatus.CREATED) {
+            return "Backfill job " + jobId + " created successfully. " + numberOfReferences + " references submitted.";
+        }
+        if (status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.SERVICE_UNAVAILABLE) {
+            Duration retryAfter = BackfillConcurrencyLimit.parseRetryAfter(
+                    response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), ZonedDateTime.now());
+            throw new PasThrottledException("PAS request failed with HTTP status " + response.getStatusCode().value(),
+                    retryAfter, false);
+        }
+        if (status == HttpStatus.CONFLICT && acceptExisting) {
+            return "Backfill job " + jobId + " created by a timed-out request. " + numberOfReferences + " references submitted.";
+        }
+        if (status == HttpStatus.CONFLICT) {
+            throw new PasBackfillException("Job " + jobId + " already exists.");
+        }
+        if (status == HttpStatus.BAD_REQUEST) {
+            throw new PasBackfillException(responseBody(response));
+        }
+        throw new PasBackfillException("PAS request failed with HTTP status " + response.getStatusCode().value());
+    }
+
+    private String responseBody(ClientHttpResponse response) throws IOException {
+        return StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    private String jobEndpoint(String baseUrl, String jobId) {
+        return UriComponentsBuilder.fromUriString(baseUrl)
+                .pathSegment("api", "jobs", jobId)
+                .toUriString();
+    }
+
+    private record SendTarget(String url, String accessToken, BackfillCompression compression) {
+    }
+
+    private record JobResult(BackfillJobFile jobFile, String jobId, boolean succeeded, String details, Duration latency) {
+    }
+}
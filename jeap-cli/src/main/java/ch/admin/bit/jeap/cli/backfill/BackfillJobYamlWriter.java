@@ -0,0 +1,54 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.util.StreamUtils;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.OutputStream;
+
+/**
+ * Writes the YAML request body of a backfill job incrementally, one reference at a time, so that the body is never
+ * held in memory as a whole.
+ */
+final class BackfillJobYamlWriter {
+
+    private static final String ARCHIVE_DATA_REFERENCES = "archiveDataReferences";
+
+    private final YAMLMapper yamlMapper;
+
+    BackfillJobYamlWriter(YAMLMapper yamlMapper) {
+        this.yamlMapper = yamlMapper;
+    }
+
+    /**
+     * Writes the job with the references {@code [fromIndex, toIndex)} to the output stream, which is not closed.
+     */
+    void write(OutputStream outputStream, BackfillJobRequestDto request, int fromIndex, int toIndex) throws JacksonException {
+        try (JsonGenerator generator = yamlMapper.createGenerator(StreamUtils.nonClosing(outputStream))) {
+            generator.writeStartObject();
+            generator.writeName("message");
+            generator.writeString(request.message());
+            generator.writeName("topic");
+            generator.writeString(request.topic());
+            if (request.numOfRetry() != null) {
+                generator.writeName("num-of-retry");
+                generator.writeNumber(request.numOfRetry());
+            }
+            generator.writeName(ARCHIVE_DATA_REFERENCES);
+            generator.writeStartArray();
+            request.archiveDataReferences().forEach(fromIndex, toIndex, (id, version) -> {
+                generator.writeStartObject();
+                generator.writeName("id");
+                generator.writeString(id);
+                if (version != null) {
+                    generator.writeName("version");
+                    generator.writeNumber(version);
+                }
+                generator.writeEndObject();
+            });
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+}
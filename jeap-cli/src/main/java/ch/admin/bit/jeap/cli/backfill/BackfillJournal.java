@@ -0,0 +1,153 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only checkpoint journal of a batched backfill submission.
+ * <p>
+ * The journal starts with the SHA-256 hash of the input files, the job id and the batch size, followed by one line
+ * per sub-job acknowledged by the PAS. A resumed submission only skips acknowledged sub-jobs if the header matches,
+ * because the sub-job boundaries depend on all three. Every line is forced to disk when it is written, so an
+ * interrupted run loses at most the line it was writing. Such a partial line is dropped when the journal is resumed.
+ * </p>
+ */
+final class BackfillJournal implements Closeable {
+
+    static final String SUFFIX = "-journal.log";
+
+    private static final String FORMAT = "# jeap-cli pas-backfill journal v1";
+    private static final String INPUT_SHA256 = "input-sha256=";
+    private static final String JOB_ID = "job-id=";
+    private static final String BATCH_SIZE = "batch-size=";
+    private static final String ACKNOWLEDGED = "acknowledged=";
+
+    private final Path path;
+    private final String jobId;
+    private final BitSet acknowledged;
+    private final FileChannel channel;
+
+    private BackfillJournal(Path path, String jobId, BitSet acknowledged, FileChannel channel) {
+        this.path = path;
+        this.jobId = jobId;
+        this.acknowledged = acknowledged;
+        this.channel = channel;
+    }
+
+    /**
+     * @return the journal path next to the references CSV file, or next to the job YAML file without CSV or with CSV
+     * references read from stdin
+     */
+    static Path path(Path yamlFile, BackfillReferencesCsv referencesCsv, String jobId) {
+        boolean nextToCsv = referencesCsv != null && !referencesCsv.isStdin();
+        return (nextToCsv ? referencesCsv.file() : yamlFile).resolveSibling(jobId + SUFFIX);
+    }
+
+    /**
+     * Opens the journal. With {@code resume}, the acknowledged sub-jobs of an existing journal for the same input are
+     * loaded, otherwise a new journal is started.
+     */
+    static BackfillJournal open(Path path, String inputSha256, String jobId, int batchSize, boolean resume) {
+        List<String> header = List.of(FORMAT, INPUT_SHA256 + inputSha256, JOB_ID + jobId, BATCH_SIZE + batchSize);
+        try {
+            if (resume && Files.exists(path)) {
+                return resume(path, header, jobId);
+            }
+            FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+            BackfillJournal journal = new BackfillJournal(path, jobId, new BitSet(), channel);
+            journal.append(String.join("\n", header) + "\n");
+            return journal;
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not write journal " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static BackfillJournal resume(Path path, List<String> header, String jobId) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        int completeLength = 0;
+        for (int index = content.length - 1; index >= 0; index--) {
+            if (content[index] == '\n') {
+                completeLength = index + 1;
+                break;
+            }
+        }
+        List<String> lines = new String(content, 0, completeLength, StandardCharsets.UTF_8).lines().toList();
+        if (lines.size() < header.size() || !lines.subList(0, header.size()).equals(header)) {
+            throw new PasBackfillException("Error: Journal " + path + " was written for a different input, --job-id or "
+                    + "--batch-size. Submit without --resume to start over.");
+        }
+
+        BitSet acknowledged = new BitSet();
+        for (String line : lines.subList(header.size(), lines.size())) {
+            readAcknowledged(line, jobId, acknowledged);
+        }
+        FileChannel channel = FileChannel.open(path, WRITE);
+        channel.truncate(completeLength);
+        channel.position(completeLength);
+        return new BackfillJournal(path, jobId, acknowledged, channel);
+    }
+
+    private static void readAcknowledged(String line, String jobId, BitSet acknowledged) {
+        if (!line.startsWith(ACKNOWLEDGED)) {
+            return;
+        }
+        String[] values = line.substring(ACKNOWLEDGED.length()).split(" ");
+        try {
+            int index = Integer.parseInt(values[0]);
+            // The derived sub-job id guards against lines that were edited or only partially written
+            if (values.length == 2 && index >= 0 && BackfillSubJob.subJobId(jobId, index).equals(values[1])) {
+                acknowledged.set(index);
+            }
+        } catch (NumberFormatException e) {
+            // Ignore the line, the sub-job is submitted again
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    synchronized boolean isAcknowledged(BackfillSubJob subJob) {
+        return acknowledged.get(subJob.index());
+    }
+
+    /**
+     * Records that the PAS accepted the sub-job.
+     */
+    synchronized void acknowledge(BackfillSubJob subJob) {
+        try {
+            append(ACKNOWLEDGED + subJob.index() + " " + subJob.jobId() + "\n");
+            acknowledged.set(subJob.index());
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not write journal " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void append(String lines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not write journal " + path + ": " + e.getMessage());
+        }
+    }
+}
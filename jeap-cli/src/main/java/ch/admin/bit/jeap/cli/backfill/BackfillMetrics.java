@@ -0,0 +1,191 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the phases of the {@code pas-backfill} commands. The meters are registered in the registry of
+ * the running command, which {@link BackfillTimings} sets for {@code --timings} and resets when the command ends.
+ * Without one, they are discarded. The global Micrometer registry is not used, so meters of earlier runs in the same
+ * JVM neither accumulate nor show up in later runs.
+ */
+final class BackfillMetrics {
+
+    static final String PHASE_TIMER = "jeap.cli.pas.backfill.phase";
+    static final String REFERENCES_COUNTER = "jeap.cli.pas.backfill.references";
+    static final String REQUEST_BYTES_COUNTER = "jeap.cli.pas.backfill.request.bytes";
+    static final String RESPONSE_BYTES_COUNTER = "jeap.cli.pas.backfill.response.bytes";
+    static final String PHASE_TAG = "phase";
+
+    /**
+     * The phases of a command, in the order in which they occur.
+     */
+    enum Phase {
+        READ_YAML("Reading the job YAML file"),
+        PARSE_CSV("Parsing and deduplicating the references CSV file, including DEDUPLICATE_ON_DISK"),
+        DEDUPLICATE_ON_DISK("Merging the references spilled to disk to find duplicates"),
+        DOWNLOAD_REPORT("Downloading and reading a job report"),
+        SERIALIZE("Writing the YAML request body, including gzip compression"),
+        UPLOAD("Waiting for the connection to accept the request body"),
+        RESPONSE("Waiting for the response after the request body was sent");
+
+        private final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+
+        String tagValue() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        String description() {
+            return description;
+        }
+    }
+
+    // A composite registry without registries discards the meters registered in it
+    private static final MeterRegistry DISCARDING_REGISTRY = new CompositeMeterRegistry();
+    private static volatile MeterRegistry registry = DISCARDING_REGISTRY;
+
+    private BackfillMetrics() {
+    }
+
+    /**
+     * Records the meters in the registry until {@link #reset(MeterRegistry)} is called with the returned registry.
+     *
+     * @return the registry the meters were recorded in before
+     */
+    static MeterRegistry recordIn(MeterRegistry runRegistry) {
+        MeterRegistry previous = registry;
+        registry = runRegistry;
+        return previous;
+    }
+
+    /**
+     * Records the meters in the registry that was returned by {@link #recordIn(MeterRegistry)} again.
+     */
+    static void reset(MeterRegistry previous) {
+        registry = previous;
+    }
+
+    static Timer timer(Phase phase) {
+        return Timer.builder(PHASE_TIMER)
+                .description(phase.description())
+                .tag(PHASE_TAG, phase.tagValue())
+                .register(registry);
+    }
+
+    static void record(Phase phase, long nanos) {
+        timer(phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static void countReferences(long references) {
+        registry.counter(REFERENCES_COUNTER).increment(references);
+    }
+
+    static void countRequestBytes(long bytes) {
+        registry.counter(REQUEST_BYTES_COUNTER).increment(bytes);
+    }
+
+    static void countResponseBytes(long bytes) {
+        registry.counter(RESPONSE_BYTES_COUNTER).increment(bytes);
+    }
+
+    /**
+     * Counts the bytes written to the request body and the time spent in the writes of the underlying stream, which is
+     * the time the request waited for the connection. The rest of the time spent writing the body is serialization.
+     */
+    static final class UploadOutputStream extends FilterOutputStream {
+
+        private long bytes;
+        private long uploadNanos;
+
+        UploadOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            long start = System.nanoTime();
+            out.write(value);
+            uploadNanos += System.nanoTime() - start;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            out.write(buffer, offset, length);
+            uploadNanos += System.nanoTime() - start;
+            bytes += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            uploadNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The request body is closed by the HTTP client
+            flush();
+        }
+
+        long bytes() {
+            return bytes;
+        }
+
+        long uploadNanos() {
+            return uploadNanos;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a response body, and adds them to the response bytes when it is closed.
+     */
+    static final class ResponseInputStream extends FilterInputStream {
+
+        private long bytes;
+
+        ResponseInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value >= 0) {
+                bytes++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            countResponseBytes(bytes);
+            bytes = 0;
+            in.close();
+        }
+    }
+}
@@ -1,117 +1,365 @@
 package ch.admin.bit.jeap.cli.backfill;
 
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Parses reference CSV files. Files of at least 64 MiB are parsed in parallel by
+ * {@link ParallelBackfillReferenceCsvParser}, which returns the same references and prints the same warnings.
+ * <p>
+ * References can also be read from a stream such as stdin, and from gzip-compressed input, which is recognized by its
+ * content rather than by its file name. Both are parsed sequentially while they are read, without being copied to a
+ * temporary file first.
+ * </p>
+ * <p>
+ * References are deduplicated by a {@link ReferenceDeduplicator}. If they need more than a quarter of the maximum heap,
+ * they are deduplicated with an external sort on disk instead, and the returned references are read from a temporary
+ * file.
+ * </p>
+ */
 @Component
 public class BackfillReferenceCsvParser {
 
     private static final String EXPECTED_HEADER = "id,version";
-    private static final CSVFormat DATA_FORMAT = CSVFormat.DEFAULT.builder()
+    static final CSVFormat DATA_FORMAT = CSVFormat.DEFAULT.builder()
             .setTrim(true)
             .build();
+    static final int INVALID_VERSION = 0;
 
-    public List<ArchiveDataReferenceDto> parse(Path csvFile) throws IOException {
-        List<String> lines = Files.readAllLines(csvFile, StandardCharsets.UTF_8);
-        if (lines.isEmpty() || !EXPECTED_HEADER.equals(stripBom(lines.getFirst()).strip())) {
-            throw new IllegalArgumentException("Error: CSV file must start with header line: id,version");
+    private static final long PARALLEL_THRESHOLD_BYTES = 64L * 1024 * 1024;
+    private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // The length of the zstd magic number, the longest one recognized
+    private static final int MAGIC_BYTES = 4;
+
+    private final long parallelThresholdBytes;
+    private final ParallelBackfillReferenceCsvParser parallelParser;
+    private final long heapBudgetBytes;
+
+    public BackfillReferenceCsvParser() {
+        this(PARALLEL_THRESHOLD_BYTES, CHUNK_BYTES);
+    }
+
+    BackfillReferenceCsvParser(long parallelThresholdBytes, int chunkBytes) {
+        this(parallelThresholdBytes, chunkBytes, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * @param heapBudgetBytes the heap the references may use before they are deduplicated on disk
+     */
+    BackfillReferenceCsvParser(long parallelThresholdBytes, int chunkBytes, long heapBudgetBytes) {
+        this.parallelThresholdBytes = parallelThresholdBytes;
+        this.parallelParser = new ParallelBackfillReferenceCsvParser(chunkBytes);
+        this.heapBudgetBytes = heapBudgetBytes;
+    }
+
+    public ArchiveDataReferences parse(Path csvFile) throws IOException {
+        return parse(csvFile, null);
+    }
+
+    /**
+     * Parses the CSV file and returns only the references contained in {@code filter}, in the order of the file. A
+     * reference matches an entry of the filter with the same id and version, or with the same id and no version. Every
+     * row is still validated, but only matching rows are kept, so memory use depends on the size of the filter rather
+     * than on the size of the file. The file is therefore always parsed sequentially.
+     */
+    public ArchiveDataReferences parseMatching(Path csvFile, ArchiveDataReferenceStore filter) throws IOException {
+        try (BufferedReader reader = openReader(Files.newInputStream(csvFile), null)) {
+            return parse(reader, filter);
         }
+    }
 
-        Map<ReferenceKey, ArchiveDataReferenceDto> references = new LinkedHashMap<>();
-        for (int index = 1; index < lines.size(); index++) {
-            int lineNumber = index + 1;
-            String line = lines.get(index);
-            if (line.isBlank() || line.stripLeading().startsWith("#")) {
-                continue;
-            }
+    /**
+     * Like {@link #parseMatching(Path, ArchiveDataReferenceStore)}, but reads the CSV references from the stream, which
+     * is not closed.
+     */
+    public ArchiveDataReferences parseMatching(InputStream csvInput, ArchiveDataReferenceStore filter) throws IOException {
+        try (BufferedReader reader = openReader(StreamUtils.nonClosing(csvInput), null)) {
+            return parse(reader, filter);
+        }
+    }
 
-            CSVRecord record = parseRecord(line);
-            if (record.size() != 2) {
-                throw new IllegalArgumentException("Error: Invalid CSV row on line " + lineNumber
-                        + ". Expected 2 columns: id,version.");
+    /**
+     * Parses the CSV file and feeds every byte read to {@code digest}, so that the file can be hashed in the same pass.
+     *
+     * @param digest the digest to update, or {@code null}
+     */
+    public ArchiveDataReferences parse(Path csvFile, MessageDigest digest) throws IOException {
+        if (Files.size(csvFile) >= parallelThresholdBytes && !isCompressed(csvFile)) {
+            ArchiveDataReferences references = parallelParser.parse(csvFile, digest, heapBudgetBytes);
+            if (references != null) {
+                return references;
             }
-            String id = value(record, 0);
-            String versionValue = value(record, 1);
+            // A line too long to be mapped, which is parsed sequentially below
+        }
+        try (BufferedReader reader = openReader(Files.newInputStream(csvFile), digest)) {
+            // The parser reads up to the end of the input, so the digest covers every byte read
+            return parse(reader, null);
+        }
+    }
 
-            if (id.isBlank()) {
-                throw new IllegalArgumentException("Error: Empty id on line " + lineNumber + ".");
-            }
+    /**
+     * Like {@link #parse(Path, MessageDigest)}, but reads the CSV references from the stream, which is not closed. A
+     * stream is always parsed sequentially.
+     */
+    public ArchiveDataReferences parse(InputStream csvInput, MessageDigest digest) throws IOException {
+        try (BufferedReader reader = openReader(StreamUtils.nonClosing(csvInput), digest)) {
+            return parse(reader, null);
+        }
+    }
 
-            int version = parseVersion(versionValue, lineNumber);
-            ReferenceKey key = new ReferenceKey(id, version);
-            if (references.containsKey(key)) {
-                System.out.println("Warning: Duplicate reference id=" + id + " version=" + version + " on line "
-                        + lineNumber + ". Will be sent once.");
-            } else {
-                references.put(key, new ArchiveDataReferenceDto(id, version));
+    /**
+     * Opens the CSV input for reading. gzip-compressed input is recognized by its magic bytes and decompressed while it
+     * is read. The digest, if any, is fed the bytes as they are read from the input, before they are decompressed. The
+     * input is closed with the reader.
+     */
+    private static BufferedReader openReader(InputStream csvInput, MessageDigest digest) throws IOException {
+        InputStream input = csvInput;
+        try {
+            if (digest != null) {
+                input = new DigestInputStream(input, digest);
+            }
+            input = new BufferedInputStream(input, BUFFER_SIZE);
+            input.mark(MAGIC_BYTES);
+            byte[] magic = input.readNBytes(MAGIC_BYTES);
+            input.reset();
+            if (isZstd(magic)) {
+                throw new IllegalArgumentException("Error: zstd-compressed references are not supported. "
+                        + "Compress the CSV file with gzip instead.");
             }
+            if (isGzip(magic)) {
+                input = new GZIPInputStream(input, BUFFER_SIZE);
+            }
+            return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8.newDecoder()), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    private static boolean isCompressed(Path csvFile) throws IOException {
+        try (InputStream input = Files.newInputStream(csvFile)) {
+            byte[] magic = input.readNBytes(MAGIC_BYTES);
+            return isGzip(magic) || isZstd(magic);
+        }
+    }
+
+    private static boolean isGzip(byte[] magic) {
+        return magic.length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b;
+    }
+
+    private static boolean isZstd(byte[] magic) {
+        return magic.length >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+                && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd;
+    }
+
+    /**
+     * @param filter the references to keep, or {@code null} to keep all references
+     */
+    private ArchiveDataReferences parse(BufferedReader reader, ArchiveDataReferenceStore filter) throws IOException {
+        String header = reader.readLine();
+        if (header == null || !isExpectedHeader(header)) {
+            throw invalidHeader();
         }
 
-        return new ArrayList<>(references.values());
+        DataLineReader dataLines = new DataLineReader(reader, 1, 0);
+        try (ReferenceDeduplicator references = new ReferenceDeduplicator(heapBudgetBytes);
+             CSVParser csvParser = DATA_FORMAT.parse(dataLines)) {
+            for (CSVRecord record : csvParser) {
+                int lineNumber = dataLines.recordStartLineNumber();
+                if (record.size() != 2 || dataLines.recordLineCount() != 1) {
+                    throw invalidRow(lineNumber);
+                }
+                String id = value(record, 0);
+                String versionValue = value(record, 1);
+
+                if (id.isBlank()) {
+                    throw emptyId(lineNumber);
+                }
+
+                int version = parseVersion(versionValue);
+                if (version == INVALID_VERSION) {
+                    throw invalidVersion(versionValue, lineNumber);
+                }
+                if (filter != null && !filter.contains(id, version) && !filter.contains(id, null)) {
+                    dataLines.startNextRecord();
+                    continue;
+                }
+                references.add(id, version, lineNumber);
+                dataLines.startNextRecord();
+            }
+            return references.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
-    private CSVRecord parseRecord(String line) throws IOException {
-        return DATA_FORMAT.parse(new StringReader(line)).getRecords().getFirst();
+    /**
+     * Parses the first record of the data lines like {@link #parse(BufferedReader, ArchiveDataReferenceStore)} and
+     * throws its error, if any. Its id and version are not validated.
+     *
+     * @param linesBefore     the number of lines before the reader
+     * @param dataLinesBefore the number of lines before the reader that are neither blank nor comments
+     */
+    static void checkFirstRecord(BufferedReader reader, int linesBefore, int dataLinesBefore) throws IOException {
+        DataLineReader dataLines = new DataLineReader(reader, linesBefore, dataLinesBefore);
+        try (CSVParser csvParser = DATA_FORMAT.parse(dataLines)) {
+            Iterator<CSVRecord> records = csvParser.iterator();
+            if (records.hasNext() && (records.next().size() != 2 || dataLines.recordLineCount() != 1)) {
+                throw invalidRow(dataLines.recordStartLineNumber());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
-    private String value(CSVRecord record, int index) {
+    static String value(CSVRecord record, int index) {
         if (record.size() <= index) {
             return "";
         }
         return record.get(index);
     }
 
-    private int parseVersion(String value, int lineNumber) {
+    /**
+     * @return the version, or {@link #INVALID_VERSION} if the value is not a positive integer
+     */
+    static int parseVersion(String value) {
         try {
             int version = Integer.parseInt(value);
-            if (version < 1) {
-                throw new NumberFormatException();
-            }
-            return version;
+            return version < 1 ? INVALID_VERSION : version;
         } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Error: Invalid version '" + value + "' on line " + lineNumber
-                    + ". Must be a positive integer.");
+            return INVALID_VERSION;
         }
     }
 
-    private String stripBom(String line) {
-        if (line.startsWith("\uFEFF")) {
-            return line.substring(1);
-        }
-        return line;
+    static boolean isExpectedHeader(String line) {
+        String header = line.startsWith("\uFEFF") ? line.substring(1) : line;
+        return EXPECTED_HEADER.equals(header.strip());
+    }
+
+    static IllegalArgumentException invalidHeader() {
+        return new IllegalArgumentException("Error: CSV file must start with header line: id,version");
+    }
+
+    static IllegalArgumentException invalidRow(int lineNumber) {
+        return new IllegalArgumentException("Error: Invalid CSV row on line " + lineNumber
+                + ". Expected 2 columns: id,version.");
+    }
+
+    static IllegalArgumentException emptyId(int lineNumber) {
+        return new IllegalArgumentException("Error: Empty id on line " + lineNumber + ".");
+    }
+
+    static IllegalArgumentException invalidVersion(String value, int lineNumber) {
+        return new IllegalArgumentException("Error: Invalid version '" + value + "' on line " + lineNumber
+                + ". Must be a positive integer.");
+    }
+
+    static void warnDuplicate(String id, int version, int lineNumber) {
+        System.out.println("Warning: Duplicate reference id=" + id + " version=" + version + " on line "
+                + lineNumber + ". Will be sent once.");
     }
 
-    private static final class ReferenceKey {
-        private final String id;
-        private final int version;
+    /**
+     * Feeds the data lines of a reference CSV to a single streaming {@link CSVParser}. Blank and comment lines are
+     * skipped before they reach the parser, and every data line is handed out by its own {@link #read} call, so the
+     * parser never buffers ahead of the current record and the physical line number of each record stays known.
+     */
+    private static final class DataLineReader extends Reader {
+
+        private final BufferedReader reader;
+        private int lineNumber;
+        private int skippedDataLines;
+        private String line;
+        private int position;
+        private int recordStartLineNumber;
+        private int recordLineCount;
 
-        private ReferenceKey(String id, int version) {
-            this.id = id;
-            this.version = version;
+        /**
+         * @param dataLinesAlreadyRead the data lines already read. The CSV parser numbers the lines of its errors by the
+         *                             data lines it is given, so these are given to it as empty lines, which it skips.
+         */
+        private DataLineReader(BufferedReader reader, int linesAlreadyRead, int dataLinesAlreadyRead) {
+            this.reader = reader;
+            this.lineNumber = linesAlreadyRead;
+            this.skippedDataLines = dataLinesAlreadyRead;
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof ReferenceKey that)) {
-                return false;
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (skippedDataLines > 0) {
+                int count = Math.min(length, skippedDataLines);
+                Arrays.fill(buffer, offset, offset + count, '\n');
+                skippedDataLines -= count;
+                return count;
+            }
+            if (line == null && !nextDataLine()) {
+                return -1;
+            }
+            if (position == line.length()) {
+                buffer[offset] = '\n';
+                line = null;
+                return 1;
+            }
+            int count = Math.min(length, line.length() - position);
+            line.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        private boolean nextDataLine() throws IOException {
+            String next;
+            while ((next = reader.readLine()) != null) {
+                lineNumber++;
+                if (!next.isBlank() && !next.stripLeading().startsWith("#")) {
+                    if (recordLineCount++ == 0) {
+                        recordStartLineNumber = lineNumber;
+                    }
+                    line = next;
+                    position = 0;
+                    return true;
+                }
             }
-            return version == that.version && id.equals(that.id);
+            return false;
+        }
+
+        int recordStartLineNumber() {
+            return recordStartLineNumber;
+        }
+
+        int recordLineCount() {
+            return recordLineCount;
+        }
+
+        void startNextRecord() {
+            recordLineCount = 0;
         }
 
         @Override
-        public int hashCode() {
-            return 31 * id.hashCode() + version;
+        public void close() throws IOException {
+            reader.close();
         }
     }
 }
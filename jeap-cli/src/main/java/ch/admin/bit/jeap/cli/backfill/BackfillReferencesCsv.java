@@ -0,0 +1,31 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * The id,version CSV references of a job, read either from a file or from stdin.
+ *
+ * @param file  the CSV file, or {@code null} if the references are read from stdin
+ * @param stdin supplies stdin if the references are read from it, or {@code null}. The stream is not closed.
+ */
+public record BackfillReferencesCsv(Path file, Supplier<InputStream> stdin) {
+
+    public static BackfillReferencesCsv file(Path file) {
+        return new BackfillReferencesCsv(file, null);
+    }
+
+    public static BackfillReferencesCsv stdin(Supplier<InputStream> stdin) {
+        return new BackfillReferencesCsv(null, stdin);
+    }
+
+    public boolean isStdin() {
+        return stdin != null;
+    }
+
+    @Override
+    public String toString() {
+        return isStdin() ? "stdin" : file.toString();
+    }
+}
@@ -0,0 +1,358 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonEncoding;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.JsonParser;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Reads backfill job reports from the PAS, one at a time or in bulk. Reports are streamed into files or output streams,
+ * or read token by token, and never held in memory as a whole.
+ */
+final class BackfillReportReader {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final RestClient restClient;
+    private final YAMLMapper reportYamlMapper;
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+    BackfillReportReader(RestClient restClient, YAMLMapper reportYamlMapper) {
+        this.restClient = restClient;
+        this.reportYamlMapper = reportYamlMapper;
+    }
+
+    String report(String jobId, String url, Path output, String accessToken) {
+        try (ClientHttpResponse response = openReport(jobId, url, accessToken);
+             InputStream report = response.getBody()) {
+            copyToFile(report, output, jobId);
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read report of job " + jobId + ": " + e.getMessage());
+        }
+        return "Report written to " + output;
+    }
+
+    String reportAll(Path jobIdsFile, String url, Path outputDirectory, String accessToken, int concurrency) {
+        List<String> jobIds = BackfillJobIds.read(jobIdsFile);
+        try {
+            Files.createDirectories(outputDirectory);
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not create directory " + outputDirectory + ": " + e.getMessage());
+        }
+        List<ReportResult> results = fetchReports(jobIds, concurrency, jobId -> {
+            Path output = outputDirectory.resolve(jobId + ".yaml");
+            report(jobId, url, output, accessToken);
+            return output.toString();
+        });
+
+        long failed = results.stream().filter(result -> !result.succeeded()).count();
+        String summary = reportTable(results);
+        if (failed > 0) {
+            throw new PasBackfillException("Error: " + failed + " of " + results.size() + " reports could not be read."
+                    + System.lineSeparator() + summary);
+        }
+        return summary + System.lineSeparator() + results.size() + " reports written to " + outputDirectory + ".";
+    }
+
+    void writeReportsAsNdjson(Path jobIdsFile, String url, OutputStream outputStream, String accessToken, int concurrency) {
+        List<String> jobIds = BackfillJobIds.read(jobIdsFile);
+        Object outputLock = new Object();
+        List<ReportResult> results = fetchReports(jobIds, concurrency, jobId -> {
+            Path line;
+            try {
+                line = writeNdjsonLine(jobId, url, accessToken);
+            } catch (RuntimeException e) {
+                Map<String, String> errorLine = new LinkedHashMap<>();
+                errorLine.put("jobId", jobId);
+                errorLine.put("error", e.getMessage());
+                byte[] error = jsonMapper.writeValueAsBytes(errorLine);
+                writeNdjson(outputStream, outputLock, jobId, output -> output.write(error));
+                throw e;
+            }
+            try {
+                writeNdjson(outputStream, outputLock, jobId, output -> copyNdjsonLine(line, output, jobId));
+            } finally {
+                deleteQuietly(line);
+            }
+            return "";
+        });
+
+        List<ReportResult> failures = results.stream().filter(result -> !result.succeeded()).toList();
+        if (!failures.isEmpty()) {
+            throw new PasBackfillException("Error: " + failures.size() + " of " + results.size()
+                    + " reports could not be read." + System.lineSeparator() + reportTable(failures));
+        }
+    }
+
+    void writeReport(String jobId, String url, OutputStream outputStream, String accessToken) {
+        try (ClientHttpResponse response = openReport(jobId, url, accessToken);
+             InputStream report = response.getBody()) {
+            String writeFailure = "Could not write report of job " + jobId;
+            copy(report, outputStream, "Could not read report of job " + jobId, writeFailure);
+            try {
+                outputStream.flush();
+            } catch (IOException e) {
+                throw new PasBackfillException(writeFailure + ": " + e.getMessage());
+            }
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read report of job " + jobId + ": " + e.getMessage());
+        }
+    }
+
+    String reportSummary(String jobId, String url, String accessToken) {
+        try (ClientHttpResponse response = openReport(jobId, url, accessToken);
+             JsonParser parser = reportYamlMapper.createParser(response.getBody())) {
+            return BackfillReportSummary.read(parser).format();
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not parse report of job " + jobId + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read report of job " + jobId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the report of the job as it is received and keeps only the {@code (id, version)} pairs of the entries with
+     * one of the failed statuses.
+     */
+    ArchiveDataReferenceStore readFailedReferences(String jobId, Set<String> failedStatuses, String url,
+                                                   String accessToken) {
+        long start = System.nanoTime();
+        try (ClientHttpResponse response = openReport(jobId, url, accessToken);
+             JsonParser parser = reportYamlMapper.createParser(new BackfillMetrics.ResponseInputStream(response.getBody()))) {
+            return BackfillFailedReferences.read(parser, failedStatuses);
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not parse report of job " + jobId + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not read report of job " + jobId + ": " + e.getMessage());
+        } finally {
+            BackfillMetrics.record(BackfillMetrics.Phase.DOWNLOAD_REPORT, System.nanoTime() - start);
+        }
+    }
+
+    static String jobReportEndpoint(String baseUrl, String jobId) {
+        return UriComponentsBuilder.fromUriString(baseUrl)
+                .pathSegment("api", "jobs", jobId, "report")
+                .toUriString();
+    }
+
+    /**
+     * Returns the response if it carries the report, or closes it and throws otherwise.
+     */
+    static ClientHttpResponse checkReportResponse(ClientHttpResponse response, String jobId) throws IOException {
+        int statusCode = response.getStatusCode().value();
+        if (statusCode == HttpStatus.OK.value()) {
+            return response;
+        }
+        response.close();
+        if (statusCode == HttpStatus.NOT_FOUND.value()) {
+            throw new PasBackfillException("Job " + jobId + " not found.");
+        }
+        throw new PasBackfillException("PAS request failed with HTTP status " + statusCode);
+    }
+
+    private ClientHttpResponse openReport(String jobId, String url, String accessToken) {
+        // The response is left open so that the caller can stream the body
+        return restClient.get()
+                .uri(jobReportEndpoint(url, jobId))
+                .headers(headers -> headers.setBearerAuth(accessToken))
+                .accept(PasBackfillService.APPLICATION_YAML)
+                .exchange((request, response) -> checkReportResponse(response, jobId), false);
+    }
+
+    /**
+     * Runs {@code fetch} for every job id on virtual threads, at most {@code concurrency} at a time.
+     *
+     * @param fetch reads the report of a job and returns the details of the result
+     * @return the results in the order of the job ids
+     */
+    private List<ReportResult> fetchReports(List<String> jobIds, int concurrency, Function<String, String> fetch) {
+        if (concurrency < 1) {
+            throw new PasBackfillException("Error: --concurrency must be a positive integer.");
+        }
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<ReportResult>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String jobId : jobIds) {
+                acquire(permits);
+                futures.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        String details = fetch.apply(jobId);
+                        return new ReportResult(jobId, true, details, Duration.ofNanos(System.nanoTime() - start));
+                    } catch (RuntimeException e) {
+                        return new ReportResult(jobId, false, e.getMessage(), Duration.ofNanos(System.nanoTime() - start));
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        return futures.stream().map(Future::resultNow).toList();
+    }
+
+    private static void acquire(Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PasBackfillException("Interrupted while reading backfill job reports.");
+        }
+    }
+
+    private static String reportTable(List<ReportResult> results) {
+        String format = "%-36s  %-6s  %10s  %s";
+        StringBuilder table = new StringBuilder(format.formatted("JOB ID", "RESULT", "LATENCY", "DETAILS").strip());
+        for (ReportResult result : results) {
+            table.append(System.lineSeparator()).append(format.formatted(
+                    result.jobId(),
+                    result.succeeded() ? "OK" : "FAILED",
+                    result.latency().toMillis() + " ms",
+                    result.details().replaceAll("\\R", " ")).strip());
+        }
+        return table.toString();
+    }
+
+    private static void writeNdjson(OutputStream outputStream, Object outputLock, String jobId, NdjsonLine line) {
+        try {
+            synchronized (outputLock) {
+                line.writeTo(outputStream);
+                outputStream.write('\n');
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not write report of job " + jobId + ": " + e.getMessage());
+        }
+    }
+
+    private static void copyNdjsonLine(Path line, OutputStream outputStream, String jobId) {
+        String readFailure = "Could not read converted report of job " + jobId;
+        try (InputStream input = Files.newInputStream(line)) {
+            copy(input, outputStream, readFailure, "Could not write report of job " + jobId);
+        } catch (IOException e) {
+            throw new PasBackfillException(readFailure + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the report of the job into a temporary file with a single line of JSON.
+     */
+    private Path writeNdjsonLine(String jobId, String url, String accessToken) {
+        Path line;
+        try {
+            line = Files.createTempFile("jeap-cli-report-", ".ndjson");
+        } catch (IOException e) {
+            throw new PasBackfillException("Could not create temporary file: " + e.getMessage());
+        }
+        try (ClientHttpResponse response = openReport(jobId, url, accessToken);
+             JsonParser parser = reportYamlMapper.createParser(response.getBody());
+             JsonGenerator generator = jsonMapper.createGenerator(line, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringProperty("jobId", jobId);
+            generator.writeName("report");
+            if (parser.nextToken() == null) {
+                generator.writeNull();
+            } else {
+                generator.copyCurrentStructure(parser);
+            }
+            generator.writeEndObject();
+            return line;
+        } catch (JacksonException e) {
+            deleteQuietly(line);
+            throw new PasBackfillException("Could not parse report of job " + jobId + ": " + e.getMessage());
+        } catch (IOException e) {
+            deleteQuietly(line);
+            throw new PasBackfillException("Could not read report of job " + jobId + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            deleteQuietly(line);
+            throw e;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // The temporary file is left behind
+        }
+    }
+
+    private static void copyToFile(InputStream report, Path output, String jobId) {
+        String writeFailure = "Could not write report to " + output;
+        OutputStream outputStream;
+        try {
+            outputStream = Files.newOutputStream(output);
+        } catch (IOException e) {
+            throw new PasBackfillException(writeFailure + ": " + e.getMessage());
+        }
+        try {
+            try (outputStream) {
+                copy(report, outputStream, "Could not read report of job " + jobId, writeFailure);
+            } catch (IOException e) {
+                throw new PasBackfillException(writeFailure + ": " + e.getMessage());
+            }
+        } catch (PasBackfillException e) {
+            // Do not leave a truncated report behind
+            try {
+                Files.deleteIfExists(output);
+            } catch (IOException deleteException) {
+                e.addSuppressed(deleteException);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the input to the output. A failure is reported with the message of the side that failed, as a broken
+     * download and a full disk need different actions.
+     */
+    private static void copy(InputStream input, OutputStream output, String readFailure, String writeFailure) {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        while (true) {
+            int read;
+            try {
+                read = input.read(buffer);
+            } catch (IOException e) {
+                throw new PasBackfillException(readFailure + ": " + e.getMessage());
+            }
+            if (read < 0) {
+                return;
+            }
+            try {
+                output.write(buffer, 0, read);
+            } catch (IOException e) {
+                throw new PasBackfillException(writeFailure + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private record ReportResult(String jobId, boolean succeeded, String details, Duration latency) {
+    }
+
+    @FunctionalInterface
+    private interface NdjsonLine {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+}
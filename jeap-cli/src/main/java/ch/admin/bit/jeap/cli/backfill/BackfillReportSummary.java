@@ -0,0 +1,258 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates a backfill job report read token by token, without building a tree of the report.
+ * <p>
+ * Every object in a list that contains no further list of objects is counted as one report entry, by its
+ * {@code status}, its retry count ({@code retryCount}, {@code retries} or {@code num-of-retry} in any spelling) and its
+ * {@code topic}. An entry without one of these values takes it from the nearest enclosing object, for example the
+ * topic of the report itself, and is counted as {@code (none)} if no enclosing object has it. Top-level scalar values
+ * such as {@code state} are kept as they are.
+ * </p>
+ * Memory use does not depend on the size of the report: only the open objects and at most
+ * {@value #MAX_DISTINCT_VALUES} distinct values per aggregate are held, further values are counted as {@code (other)}.
+ */
+final class BackfillReportSummary {
+
+    static final int MAX_DISTINCT_VALUES = 100;
+    static final String NONE = "(none)";
+    static final String OTHER = "(other)";
+
+    private static final int STATUS = 0;
+    private static final int RETRIES = 1;
+    private static final int TOPIC = 2;
+    private static final List<String> AGGREGATE_HEADERS = List.of("STATUS", "RETRIES", "TOPIC");
+    // Marks an open list on the scope stack
+    private static final ObjectScope LIST = new ObjectScope(null, false);
+
+    private final Map<String, String> topLevelValues = new LinkedHashMap<>();
+    private final List<Map<String, Long>> counts = List.of(new HashMap<>(), new HashMap<>(), new HashMap<>());
+    private long entries;
+
+    private BackfillReportSummary() {
+    }
+
+    /**
+     * Reads the report from the parser up to the end of its root value. The root value is either an object or a list
+     * of entries.
+     */
+    static BackfillReportSummary read(JsonParser parser) {
+        BackfillReportSummary summary = new BackfillReportSummary();
+        JsonToken rootToken = parser.nextToken();
+        if (rootToken == JsonToken.START_OBJECT || rootToken == JsonToken.START_ARRAY) {
+            summary.readObjects(parser, rootToken == JsonToken.START_ARRAY);
+        }
+        return summary;
+    }
+
+    private void readObjects(JsonParser parser, boolean rootList) {
+        ObjectScope root = new ObjectScope(null, false);
+        // The open objects and lists, innermost first. A root list is read as if it were the only value of an object.
+        Deque<ObjectScope> scopes = new ArrayDeque<>();
+        scopes.push(root);
+        if (rootList) {
+            scopes.push(LIST);
+        }
+        ObjectScope object = root;
+        String name = null;
+        while (object != null) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return;
+            }
+            boolean inList = scopes.peek() == LIST;
+            switch (token) {
+                case PROPERTY_NAME -> name = parser.currentName();
+                case START_OBJECT -> {
+                    object = new ObjectScope(object, inList);
+                    scopes.push(object);
+                }
+                case START_ARRAY -> scopes.push(LIST);
+                case END_OBJECT -> {
+                    close(scopes.pop());
+                    object = object.parent;
+                }
+                case END_ARRAY -> {
+                    scopes.pop();
+                    if (scopes.peek() == root && rootList) {
+                        close(scopes.pop());
+                        object = null;
+                    }
+                }
+                default -> {
+                    if (!inList) {
+                        String value = token == JsonToken.VALUE_NULL ? "null" : parser.getString();
+                        object.set(aggregate(name), value);
+                        if (object == root) {
+                            topLevelValues.put(name, value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void close(ObjectScope scope) {
+        if (scope.entry && !scope.hasNestedEntries) {
+            entries++;
+            for (int aggregate = 0; aggregate < counts.size(); aggregate++) {
+                if (scope.values[aggregate] != null) {
+                    count(aggregate, scope.values[aggregate], 1);
+                } else {
+                    scope.parent.pending[aggregate]++;
+                }
+            }
+            scope.parent.hasNestedEntries = true;
+            return;
+        }
+        // Nested entries without a value take it from this object, or from an object further out
+        for (int aggregate = 0; aggregate < counts.size(); aggregate++) {
+            long pending = scope.pending[aggregate];
+            if (pending == 0) {
+                continue;
+            }
+            if (scope.values[aggregate] != null) {
+                count(aggregate, scope.values[aggregate], pending);
+            } else if (scope.parent != null) {
+                scope.parent.pending[aggregate] += pending;
+            } else {
+                count(aggregate, NONE, pending);
+            }
+        }
+        if (scope.parent != null && scope.hasNestedEntries) {
+            scope.parent.hasNestedEntries = true;
+        }
+    }
+
+    private void count(int aggregate, String value, long entryCount) {
+        Map<String, Long> valueCounts = counts.get(aggregate);
+        String key = valueCounts.containsKey(value) || valueCounts.size() < MAX_DISTINCT_VALUES ? value : OTHER;
+        valueCounts.merge(key, entryCount, Long::sum);
+    }
+
+    /**
+     * @return the aggregate of the property, or {@code -1} if the property is not aggregated
+     */
+    private static int aggregate(String name) {
+        if (name == null) {
+            return -1;
+        }
+        return switch (name.replace("-", "").replace("_", "").toLowerCase(Locale.ROOT)) {
+            case "status" -> STATUS;
+            case "retrycount", "retries", "numofretry", "numofretries" -> RETRIES;
+            case "topic" -> TOPIC;
+            default -> -1;
+        };
+    }
+
+    long entries() {
+        return entries;
+    }
+
+    Map<String, Long> statusCounts() {
+        return counts.get(STATUS);
+    }
+
+    Map<String, Long> retryCounts() {
+        return counts.get(RETRIES);
+    }
+
+    Map<String, Long> topicCounts() {
+        return counts.get(TOPIC);
+    }
+
+    Map<String, String> topLevelValues() {
+        return topLevelValues;
+    }
+
+    /**
+     * @return the top-level values, the number of entries and one table per aggregate found in the report. Retry counts
+     * are listed in ascending order, statuses and topics with the most frequent first.
+     */
+    String format() {
+        StringBuilder summary = new StringBuilder();
+        topLevelValues.forEach((name, value) -> summary.append(name).append(": ").append(value).append(System.lineSeparator()));
+        summary.append("entries: ").append(entries);
+        for (int aggregate = 0; aggregate < counts.size(); aggregate++) {
+            Map<String, Long> valueCounts = counts.get(aggregate);
+            if (valueCounts.isEmpty() || valueCounts.keySet().equals(Set.of(NONE))) {
+                // The report has no such values
+                continue;
+            }
+            String header = AGGREGATE_HEADERS.get(aggregate);
+            int width = Math.max(header.length(), valueCounts.keySet().stream().mapToInt(String::length).max().orElse(0));
+            String format = "%-" + width + "s  %10s";
+            summary.append(System.lineSeparator()).append(System.lineSeparator())
+                    .append(format.formatted(header, "ENTRIES"));
+            Comparator<Map.Entry<String, Long>> order = aggregate == RETRIES
+                    ? Map.Entry.comparingByKey(BackfillReportSummary::compareRetries)
+                    : Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey());
+            valueCounts.entrySet().stream()
+                    .sorted(order)
+                    .forEach(valueCount -> summary.append(System.lineSeparator())
+                            .append(format.formatted(valueCount.getKey(), valueCount.getValue())));
+        }
+        return summary.toString();
+    }
+
+    private static int compareRetries(String first, String second) {
+        Long firstNumber = parseNumber(first);
+        Long secondNumber = parseNumber(second);
+        if (firstNumber != null && secondNumber != null) {
+            return firstNumber.compareTo(secondNumber);
+        }
+        if (firstNumber != null || secondNumber != null) {
+            // Numbers first, then values such as (none)
+            return firstNumber != null ? -1 : 1;
+        }
+        return first.compareTo(second);
+    }
+
+    private static Long parseNumber(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An open object of the report.
+     */
+    private static final class ObjectScope {
+
+        private final ObjectScope parent;
+        private final boolean entry;
+        private final String[] values = new String[AGGREGATE_HEADERS.size()];
+        private final long[] pending = new long[AGGREGATE_HEADERS.size()];
+        private boolean hasNestedEntries;
+
+        /**
+         * @param parent the innermost enclosing object, {@code null} for the root
+         * @param entry  whether the object is an element of a list
+         */
+        private ObjectScope(ObjectScope parent, boolean entry) {
+            this.parent = parent;
+            this.entry = entry;
+        }
+
+        private void set(int aggregate, String value) {
+            if (aggregate >= 0) {
+                values[aggregate] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.random.RandomGenerator;
+
+/**
+ * State of a watched backfill job report: the top-level report values seen last, the validators for conditional
+ * requests, and the adaptive poll interval.
+ * <p>
+ * The poll interval grows by half after every poll without a change, up to the maximum interval, and falls back to the
+ * initial interval after a change. The actual delay is drawn from the upper half of the interval, so that several
+ * watchers started at the same time do not poll the PAS in lockstep.
+ * </p>
+ */
+final class BackfillReportWatch {
+
+    static final String STATE = "state";
+    static final Set<String> FINAL_STATES = Set.of("FINISHED", "FAILED");
+
+    private final BackfillWatchOptions options;
+    private final RandomGenerator random;
+    private Map<String, String> values = Map.of();
+    private String entityTag;
+    private String lastModified;
+    private Duration interval;
+
+    BackfillReportWatch(BackfillWatchOptions options, RandomGenerator random) {
+        this.options = options;
+        this.random = random;
+        this.interval = options.interval();
+    }
+
+    /**
+     * Adds {@code If-None-Match} or {@code If-Modified-Since} for the report received last.
+     */
+    void addConditionalHeaders(HttpHeaders headers) {
+        if (entityTag != null) {
+            headers.setIfNoneMatch(entityTag);
+        } else if (lastModified != null) {
+            headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Records a changed report.
+     *
+     * @return one line per top-level value that differs from the previous report
+     */
+    List<String> update(String newEntityTag, String newLastModified, Map<String, String> newValues) {
+        entityTag = newEntityTag;
+        lastModified = newLastModified;
+        List<String> deltas = new ArrayList<>();
+        newValues.forEach((name, value) -> {
+            String previous = values.get(name);
+            if (previous == null) {
+                deltas.add(name + ": " + value);
+            } else if (!previous.equals(value)) {
+                deltas.add(name + ": " + previous + " -> " + value);
+            }
+        });
+        values.forEach((name, previous) -> {
+            if (!newValues.containsKey(name)) {
+                deltas.add(name + ": " + previous + " -> (removed)");
+            }
+        });
+        values = newValues;
+        interval = deltas.isEmpty() ? grow(interval) : options.interval();
+        return deltas;
+    }
+
+    /**
+     * Records that the PAS answered {@code 304 Not Modified}.
+     */
+    void notModified() {
+        interval = grow(interval);
+    }
+
+    boolean isFinished() {
+        return FINAL_STATES.contains(Objects.requireNonNullElse(values.get(STATE), ""));
+    }
+
+    Duration interval() {
+        return interval;
+    }
+
+    Duration nextDelay() {
+        long intervalMillis = interval.toMillis();
+        long halfMillis = intervalMillis / 2;
+        return Duration.ofMillis(intervalMillis - halfMillis + random.nextLong(halfMillis + 1));
+    }
+
+    private Duration grow(Duration current) {
+        Duration grown = current.plus(current.dividedBy(2));
+        return grown.compareTo(options.maxInterval()) > 0 ? options.maxInterval() : grown;
+    }
+}
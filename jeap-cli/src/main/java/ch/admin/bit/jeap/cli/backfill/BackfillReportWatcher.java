@@ -0,0 +1,103 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestClient;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Polls the report of a backfill job with conditional requests until the job is finished, as tracked by a
+ * {@link BackfillReportWatch}.
+ */
+final class BackfillReportWatcher {
+
+    private final RestClient restClient;
+    private final YAMLMapper reportYamlMapper;
+
+    BackfillReportWatcher(RestClient restClient, YAMLMapper reportYamlMapper) {
+        this.restClient = restClient;
+        this.reportYamlMapper = reportYamlMapper;
+    }
+
+    void watch(String jobId, String url, String accessToken, BackfillWatchOptions options, PrintStream output) {
+        String endpoint = BackfillReportReader.jobReportEndpoint(url, jobId);
+        BackfillReportWatch watch = new BackfillReportWatch(options, ThreadLocalRandom.current());
+        while (true) {
+            List<String> deltas = restClient.get()
+                    .uri(endpoint)
+                    .headers(headers -> {
+                        headers.setBearerAuth(accessToken);
+                        watch.addConditionalHeaders(headers);
+                    })
+                    .accept(PasBackfillService.APPLICATION_YAML)
+                    .exchange((request, response) -> handleWatchResponse(response, jobId, watch));
+            deltas.forEach(output::println);
+            output.flush();
+            if (watch.isFinished()) {
+                return;
+            }
+            sleep(watch.nextDelay());
+        }
+    }
+
+    private List<String> handleWatchResponse(ClientHttpResponse response, String jobId, BackfillReportWatch watch)
+            throws IOException {
+        if (response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+            watch.notModified();
+            return List.of();
+        }
+        BackfillReportReader.checkReportResponse(response, jobId);
+        HttpHeaders headers = response.getHeaders();
+        Map<String, String> values = readTopLevelValues(response.getBody(), jobId);
+        return watch.update(headers.getETag(), headers.getFirst(HttpHeaders.LAST_MODIFIED), values);
+    }
+
+    /**
+     * Reads the top-level scalar values of a report. Nested values such as the list of report entries are skipped
+     * without being materialized.
+     */
+    private Map<String, String> readTopLevelValues(InputStream report, String jobId) {
+        Map<String, String> values = new LinkedHashMap<>();
+        try (JsonParser parser = reportYamlMapper.createParser(report)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return values;
+            }
+            while (parser.nextToken() == JsonToken.PROPERTY_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    values.put(name, "null");
+                } else if (value.isScalarValue()) {
+                    values.put(name, parser.getString());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return values;
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not parse report of job " + jobId + ": " + e.getMessage());
+        }
+    }
+
+    private void sleep(Duration delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PasBackfillException("Interrupted while watching the backfill job report.");
+        }
+    }
+}
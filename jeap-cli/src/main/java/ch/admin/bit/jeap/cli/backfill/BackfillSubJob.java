@@ -0,0 +1,33 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Slice {@code [fromIndex, toIndex)} of the references of a backfill job that is submitted as its own PAS job.
+ * <p>
+ * Sub-job ids are derived from the parent job id and the slice index, so the same input always maps to the same
+ * sub-jobs. Resubmitting a batch is therefore idempotent on the PAS side.
+ * </p>
+ */
+record BackfillSubJob(int index, String jobId, int fromIndex, int toIndex) {
+
+    static List<BackfillSubJob> split(String parentJobId, int numberOfReferences, int batchSize) {
+        List<BackfillSubJob> subJobs = new ArrayList<>();
+        for (int fromIndex = 0, index = 0; fromIndex < numberOfReferences; fromIndex += batchSize, index++) {
+            int toIndex = Math.min(numberOfReferences, fromIndex + batchSize);
+            subJobs.add(new BackfillSubJob(index, subJobId(parentJobId, index), fromIndex, toIndex));
+        }
+        return subJobs;
+    }
+
+    static String subJobId(String parentJobId, int index) {
+        return UUID.nameUUIDFromBytes((parentJobId + "/" + index).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    int numberOfReferences() {
+        return toIndex - fromIndex;
+    }
+}
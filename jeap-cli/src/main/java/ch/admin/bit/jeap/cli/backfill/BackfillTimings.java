@@ -0,0 +1,112 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the {@link BackfillMetrics} of one command run, for {@code --timings} and {@code --metrics-file}.
+ * <p>
+ * While it is open, the meters are recorded in a {@link SimpleMeterRegistry} of this run only. Phases of concurrent requests are
+ * timed per request, so their total time can exceed the wall time. The peak heap is the sum of the peak usage of the
+ * heap memory pools since the start, an upper bound of the actual peak.
+ * </p>
+ */
+public final class BackfillTimings implements AutoCloseable {
+
+    private static final double MIB = 1024.0 * 1024.0;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final long startNanos = System.nanoTime();
+    private final MeterRegistry previousRegistry;
+
+    private BackfillTimings() {
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+        previousRegistry = BackfillMetrics.recordIn(registry);
+    }
+
+    public static BackfillTimings start() {
+        return new BackfillTimings();
+    }
+
+    /**
+     * @return a table of the phases that occurred, followed by the totals
+     */
+    public String format() {
+        Snapshot snapshot = snapshot();
+        StringBuilder table = new StringBuilder("%-19s  %5s  %10s  %10s".formatted("PHASE", "COUNT", "TOTAL", "MAX"));
+        snapshot.phases().forEach((phase, timing) -> table.append(System.lineSeparator()).append(
+                "%-19s  %5d  %7d ms  %7d ms".formatted(phase, timing.count(), Math.round(timing.totalMs()), Math.round(timing.maxMs()))));
+        table.append(System.lineSeparator()).append(String.format(Locale.ROOT,
+                "Wall time %d ms, %d references submitted, %.0f references/s.", Math.round(snapshot.wallTimeMs()),
+                snapshot.references(), snapshot.referencesPerSecond()));
+        table.append(System.lineSeparator()).append(String.format(Locale.ROOT,
+                "Request bodies %.1f MiB, response bodies %.1f MiB, peak heap %.1f MiB.", snapshot.requestBytes() / MIB,
+                snapshot.responseBytes() / MIB, snapshot.peakHeapBytes() / MIB));
+        return table.toString();
+    }
+
+    /**
+     * Writes the timings as a JSON object with the same values as {@link #format()}.
+     */
+    public void writeJson(Path file) {
+        try {
+            JsonMapper.builder().build().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), snapshot());
+        } catch (JacksonException e) {
+            throw new PasBackfillException("Could not write metrics file " + file + ": " + e.getMessage());
+        }
+    }
+
+    Snapshot snapshot() {
+        double wallTimeMs = (System.nanoTime() - startNanos) / 1e6;
+        Map<String, PhaseTiming> phases = new LinkedHashMap<>();
+        for (BackfillMetrics.Phase phase : BackfillMetrics.Phase.values()) {
+            Timer timer = registry.find(BackfillMetrics.PHASE_TIMER).tag(BackfillMetrics.PHASE_TAG, phase.tagValue()).timer();
+            if (timer != null && timer.count() > 0) {
+                phases.put(phase.tagValue(), new PhaseTiming(timer.count(), timer.totalTime(TimeUnit.MILLISECONDS),
+                        timer.max(TimeUnit.MILLISECONDS)));
+            }
+        }
+        long references = count(BackfillMetrics.REFERENCES_COUNTER);
+        return new Snapshot(wallTimeMs, references, wallTimeMs > 0 ? references / (wallTimeMs / 1000) : 0,
+                count(BackfillMetrics.REQUEST_BYTES_COUNTER), count(BackfillMetrics.RESPONSE_BYTES_COUNTER),
+                heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum(), phases);
+    }
+
+    private long count(String name) {
+        Counter counter = registry.find(name).counter();
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+
+    @Override
+    public void close() {
+        BackfillMetrics.reset(previousRegistry);
+        registry.close();
+    }
+
+    record Snapshot(double wallTimeMs, long references, double referencesPerSecond, long requestBytes,
+                    long responseBytes, long peakHeapBytes, Map<String, PhaseTiming> phases) {
+    }
+
+    record PhaseTiming(long count, double totalMs, double maxMs) {
+    }
+}
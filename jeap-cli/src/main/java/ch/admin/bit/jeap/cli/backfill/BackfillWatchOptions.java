@@ -0,0 +1,21 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.time.Duration;
+
+/**
+ * Options for watching a backfill job report.
+ *
+ * @param interval    poll interval after a change of the report, and before the first poll
+ * @param maxInterval upper bound for the poll interval while the report does not change
+ */
+public record BackfillWatchOptions(Duration interval, Duration maxInterval) {
+
+    public BackfillWatchOptions {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new PasBackfillException("Error: --interval must be a positive number of seconds.");
+        }
+        if (maxInterval.compareTo(interval) < 0) {
+            throw new PasBackfillException("Error: --max-interval must not be smaller than --interval.");
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+import static ch.admin.bit.jeap.cli.backfill.BackfillReferenceCsvParser.DATA_FORMAT;
+import static ch.admin.bit.jeap.cli.backfill.BackfillReferenceCsvParser.INVALID_VERSION;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Parses a reference CSV file in parallel on the common fork-join pool.
+ * <p>
+ * The file is memory-mapped in chunks that end behind a line break. The chunks are parsed and validated in parallel,
+ * each into a compact list of UTF-8 ids, versions, hashes and line numbers. The calling thread merges the chunks into
+ * the {@link ReferenceDeduplicator} in file order, so the references, the duplicate warnings and the reported
+ * invalid line are the same as with the sequential parser. At most two chunks per worker are parsed ahead of the merge,
+ * and no more than fit into half of the heap budget. The heap of these chunks is taken from the budget before the rest
+ * is given to the deduplicator, so that the references and the parsed chunks together stay within the budget.
+ * </p>
+ * Lines that are ASCII and unquoted are parsed directly from the mapped bytes. All other lines are decoded and parsed
+ * with the same {@link BackfillReferenceCsvParser#DATA_FORMAT} as in the sequential parser. The error of a line that the
+ * CSV parser cannot parse on its own, such as a line with an unterminated quoted value, depends on the lines that follow
+ * it, so the rest of the file is then parsed sequentially to report the same error.
+ * <p>
+ * A file whose header or lines are too long to be mapped in chunks of at most 2 GB is not parsed, and has to be parsed
+ * sequentially instead.
+ * </p>
+ */
+final class ParallelBackfillReferenceCsvParser {
+
+    private static final int HEADER_LINE = 1;
+    private static final int SCAN_BYTES = 8 * 1024;
+    private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+    private final int chunkBytes;
+    private final long maxMappedBytes;
+
+    ParallelBackfillReferenceCsvParser(int chunkBytes) {
+        this(chunkBytes, MAX_MAPPED_BYTES);
+    }
+
+    ParallelBackfillReferenceCsvParser(int chunkBytes, long maxMappedBytes) {
+        this.chunkBytes = chunkBytes;
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * @param digest          receives every byte of the file if not {@code null}
+     * @param heapBudgetBytes the heap that the parsed chunks and the references may use together before the references
+     *                        are deduplicated on disk
+     * @return the references, or {@code null} if the header or a line is too long to be mapped
+     */
+    ArchiveDataReferences parse(Path csvFile, MessageDigest digest, long heapBudgetBytes) throws IOException {
+        int maxChunksAhead = chunksAhead(heapBudgetBytes);
+        try (FileChannel channel = FileChannel.open(csvFile, READ)) {
+            long size = channel.size();
+            long dataStart = readHeader(channel, size);
+            long[] chunkEnds = chunkEnds(channel, dataStart, size);
+            if (chunkEnds == null) {
+                return null;
+            }
+            if (digest != null) {
+                digest.update(channel.map(READ_ONLY, 0, dataStart));
+            }
+
+            try (ReferenceDeduplicator references =
+                         new ReferenceDeduplicator(Math.max(0, heapBudgetBytes - maxChunksAhead * chunkHeapBytes()))) {
+                Deque<ChunkTask> tasks = new ArrayDeque<>();
+                int nextChunk = 0;
+                long position = dataStart;
+                int lineNumber = HEADER_LINE;
+                int dataLineCount = 0;
+                try {
+                    while (nextChunk < chunkEnds.length || !tasks.isEmpty()) {
+                        while (nextChunk < chunkEnds.length && tasks.size() < maxChunksAhead) {
+                            long end = chunkEnds[nextChunk++];
+                            ChunkTask task = new ChunkTask(position, channel.map(READ_ONLY, position, end - position));
+                            task.fork();
+                            tasks.addLast(task);
+                            position = end;
+                        }
+                        ChunkTask task = tasks.removeFirst();
+                        Chunk chunk = task.join();
+                        if (digest != null) {
+                            digest.update(task.buffer.duplicate());
+                        }
+                        chunk.mergeInto(references, lineNumber);
+                        if (chunk.unparsedLineStart >= 0) {
+                            throw parseRemainder(csvFile, task.position + chunk.unparsedLineStart,
+                                    lineNumber + chunk.lineCount - 1, dataLineCount + chunk.dataLineCount - 1);
+                        }
+                        lineNumber += chunk.lineCount;
+                        dataLineCount += chunk.dataLineCount;
+                    }
+                } finally {
+                    tasks.forEach(task -> task.cancel(false));
+                }
+                return references.finish();
+            }
+        }
+    }
+
+    /**
+     * @return the number of chunks parsed ahead of the merge: two per worker, but no more than fit into half of the heap
+     * budget, and at least one
+     */
+    int chunksAhead(long heapBudgetBytes) {
+        long fitting = heapBudgetBytes / 2 / chunkHeapBytes();
+        return (int) Math.clamp(fitting, 1, 2L * ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * @return the estimated heap of a parsed chunk. Its ids start at half of the chunk size and grow up to the chunk
+     * size; its four row arrays take 16 bytes per row, about half of the chunk size for typical ids. The mapped bytes
+     * themselves are not on the heap.
+     */
+    long chunkHeapBytes() {
+        return 2L * chunkBytes;
+    }
+
+    /**
+     * Checks the header line.
+     *
+     * @return the position of the first data line
+     */
+    private static long readHeader(FileChannel channel, long size) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BYTES);
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            for (int index = 0; index < count; index++) {
+                byte value = buffer.get(index);
+                if (value == '\n' || value == '\r') {
+                    checkHeader(header.toByteArray());
+                    long next = position + index + 1;
+                    if (value == '\r' && next < size && readByte(channel, next) == '\n') {
+                        next++;
+                    }
+                    return next;
+                }
+                header.write(value);
+            }
+            position += count;
+        }
+        checkHeader(header.toByteArray());
+        return size;
+    }
+
+    private static void checkHeader(byte[] header) throws CharacterCodingException {
+        if (header.length == 0 || !BackfillReferenceCsvParser.isExpectedHeader(decode(header, 0, header.length))) {
+            throw BackfillReferenceCsvParser.invalidHeader();
+        }
+    }
+
+    /**
+     * @return the end positions of the chunks of the data lines, or {@code null} if the header or a chunk is too long to
+     * be mapped
+     */
+    private long[] chunkEnds(FileChannel channel, long dataStart, long size) throws IOException {
+        if (dataStart > maxMappedBytes) {
+            return null;
+        }
+        long[] ends = new long[16];
+        int count = 0;
+        for (long position = dataStart; position < size; position = ends[count - 1]) {
+            long end = chunkEnd(channel, position, size);
+            if (end - position > maxMappedBytes) {
+                return null;
+            }
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count++] = end;
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * @return the position behind the first line break at or after {@code position + chunkBytes}, or {@code size}. A
+     * carriage return followed by a line feed is one line break.
+     */
+    private long chunkEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BYTES);
+        for (long scan = position + chunkBytes; scan < size; ) {
+            buffer.clear();
+            int count = channel.read(buffer, scan);
+            for (int index = 0; index < count; index++) {
+                byte value = buffer.get(index);
+                if (value == '\n' || value == '\r') {
+                    long next = scan + index + 1;
+                    if (value == '\r' && next < size && readByte(channel, next) == '\n') {
+                        next++;
+                    }
+                    return next;
+                }
+            }
+            scan += count;
+        }
+        return size;
+    }
+
+    /**
+     * Parses the file from a line that the CSV parser could not parse on its own. The sequential parser reads the
+     * following lines as part of its quoted value, so the rest of the file is parsed sequentially to report the same
+     * error.
+     *
+     * @param linesBefore     the number of lines before the line
+     * @param dataLinesBefore the number of lines before the line that are neither blank nor comments
+     */
+    private static IllegalArgumentException parseRemainder(Path csvFile, long position, int linesBefore,
+                                                           int dataLinesBefore) throws IOException {
+        try (InputStream input = Files.newInputStream(csvFile)) {
+            input.skipNBytes(position);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(input, StandardCharsets.UTF_8.newDecoder()), SCAN_BYTES);
+            BackfillReferenceCsvParser.checkFirstRecord(reader, linesBefore, dataLinesBefore);
+        }
+        return BackfillReferenceCsvParser.invalidRow(linesBefore + 1);
+    }
+
+    private static byte readByte(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, position);
+        return buffer.get(0);
+    }
+
+    private static String decode(byte[] bytes, int from, int to) throws CharacterCodingException {
+        // Malformed input fails like in the sequential parser, which reads with a reporting UTF-8 decoder
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        CharBuffer chars = decoder.decode(ByteBuffer.wrap(bytes, from, to - from));
+        return chars.toString();
+    }
+
+    private static final class ChunkTask extends RecursiveTask<Chunk> {
+
+        private final long position;
+        private final MappedByteBuffer buffer;
+
+        private ChunkTask(long position, MappedByteBuffer buffer) {
+            this.position = position;
+            this.buffer = buffer;
+        }
+
+        @Override
+        protected Chunk compute() {
+            Chunk chunk = new Chunk(buffer.limit());
+            chunk.parse(buffer);
+            return chunk;
+        }
+    }
+
+    /**
+     * The valid references of a chunk up to its first invalid line.
+     */
+    private static final class Chunk {
+
+        private byte[] ids;
+        private int idByteCount;
+        private int[] idOffsets;
+        private int[] versions;
+        private int[] hashes;
+        private int[] lineNumbers;
+        private int size;
+
+        private int lineCount;
+        // The lines that are neither blank nor comments, which the CSV parser of the sequential parser is given
+        private int dataLineCount;
+        private int errorLineNumber;
+        // The start of a line that the CSV parser could not parse on its own, or -1
+        private int unparsedLineStart = -1;
+        // The error of the first invalid line is created when the chunk is merged and the line number is known
+        private IntFunction<IllegalArgumentException> error;
+        private CharacterCodingException malformedInput;
+
+        private Chunk(int chunkBytes) {
+            int rows = Math.max(16, chunkBytes / 32);
+            ids = new byte[Math.max(64, chunkBytes / 2)];
+            idOffsets = new int[rows + 1];
+            versions = new int[rows];
+            hashes = new int[rows];
+            lineNumbers = new int[rows];
+        }
+
+        /**
+         * Parses the lines of the chunk. Like {@link java.io.BufferedReader#readLine()}, a line ends at a line feed,
+         * a carriage return or both.
+         */
+        private void parse(ByteBuffer buffer) {
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                boolean plain = true;
+                byte value;
+                while (lineEnd < limit && (value = buffer.get(lineEnd)) != '\n' && value != '\r') {
+                    // Non-ASCII and quoted lines are parsed from the decoded line
+                    plain &= value >= 0 && value != '"';
+                    lineEnd++;
+                }
+                lineCount++;
+                boolean valid = plain
+                        ? parsePlainLine(buffer, lineStart, lineEnd)
+                        : parseDecodedLine(buffer, lineStart, lineEnd);
+                if (!valid) {
+                    errorLineNumber = lineCount;
+                    return;
+                }
+                lineStart = lineEnd + 1;
+                if (lineStart < limit && buffer.get(lineEnd) == '\r' && buffer.get(lineStart) == '\n') {
+                    lineStart++;
+                }
+            }
+        }
+
+        private boolean parsePlainLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+            int first = lineStart;
+            while (first < lineEnd && isWhitespace(buffer.get(first))) {
+                first++;
+            }
+            if (first == lineEnd || buffer.get(first) == '#') {
+                return true;
+            }
+            dataLineCount++;
+
+            int comma = -1;
+            for (int index = first; index < lineEnd; index++) {
+                if (buffer.get(index) == ',') {
+                    if (comma >= 0) {
+                        return fail(BackfillReferenceCsvParser::invalidRow);
+                    }
+                    comma = index;
+                }
+            }
+            if (comma < 0) {
+                return fail(BackfillReferenceCsvParser::invalidRow);
+            }
+
+            // Values are trimmed like String.trim() in the CSV parser
+            int idFrom = trimStart(buffer, lineStart, comma);
+            int idTo = trimEnd(buffer, idFrom, comma);
+            if (idFrom == idTo) {
+                return fail(BackfillReferenceCsvParser::emptyId);
+            }
+            int versionFrom = trimStart(buffer, comma + 1, lineEnd);
+            int versionTo = trimEnd(buffer, versionFrom, lineEnd);
+            int version = parsePlainVersion(buffer, versionFrom, versionTo);
+            if (version == INVALID_VERSION) {
+                String value = ascii(buffer, versionFrom, versionTo);
+                return fail(lineNumber -> BackfillReferenceCsvParser.invalidVersion(value, lineNumber));
+            }
+
+            ensureIdCapacity(idTo - idFrom);
+            buffer.get(idFrom, ids, idByteCount, idTo - idFrom);
+            add(idTo - idFrom, version);
+            return true;
+        }
+
+        private boolean parseDecodedLine(ByteBuffer buffer, int lineStart, int lineEnd) {
+            String line;
+            try {
+                byte[] bytes = new byte[lineEnd - lineStart];
+                buffer.get(lineStart, bytes);
+                line = decode(bytes, 0, bytes.length);
+            } catch (CharacterCodingException e) {
+                malformedInput = e;
+                return false;
+            }
+            if (line.isBlank() || line.stripLeading().startsWith("#")) {
+                return true;
+            }
+            dataLineCount++;
+
+            CSVRecord record;
+            try (CSVParser csvParser = DATA_FORMAT.parse(new StringReader(line))) {
+                List<CSVRecord> records = csvParser.getRecords();
+                if (records.size() != 1 || records.getFirst().size() != 2) {
+                    return fail(BackfillReferenceCsvParser::invalidRow);
+                }
+                record = records.getFirst();
+            } catch (IOException | UncheckedIOException e) {
+                // An unterminated quoted value continues on the next line in the sequential parser
+                unparsedLineStart = lineStart;
+                return false;
+            }
+            String id = BackfillReferenceCsvParser.value(record, 0);
+            String versionValue = BackfillReferenceCsvParser.value(record, 1);
+            if (id.isBlank()) {
+                return fail(BackfillReferenceCsvParser::emptyId);
+            }
+            int version = BackfillReferenceCsvParser.parseVersion(versionValue);
+            if (version == INVALID_VERSION) {
+                return fail(lineNumber -> BackfillReferenceCsvParser.invalidVersion(versionValue, lineNumber));
+            }
+
+            byte[] utf8Id = id.getBytes(StandardCharsets.UTF_8);
+            ensureIdCapacity(utf8Id.length);
+            System.arraycopy(utf8Id, 0, ids, idByteCount, utf8Id.length);
+            add(utf8Id.length, version);
+            return true;
+        }
+
+        private boolean fail(IntFunction<IllegalArgumentException> error) {
+            this.error = error;
+            return false;
+        }
+
+        /**
+         * Adds the id bytes written behind the last id.
+         */
+        private void add(int idLength, int version) {
+            ensureRowCapacity();
+            hashes[size] = ArchiveDataReferenceStore.hash(ids, idByteCount, idByteCount + idLength, version);
+            idByteCount += idLength;
+            idOffsets[size + 1] = idByteCount;
+            versions[size] = version;
+            lineNumbers[size] = lineCount;
+            size++;
+        }
+
+        private void mergeInto(ReferenceDeduplicator references, int linesBefore) throws IOException {
+            for (int row = 0; row < size; row++) {
+                references.add(ids, idOffsets[row], idOffsets[row + 1], versions[row], hashes[row],
+                        linesBefore + lineNumbers[row]);
+            }
+            if (malformedInput != null) {
+                throw malformedInput;
+            }
+            if (error != null) {
+                throw error.apply(linesBefore + errorLineNumber);
+            }
+        }
+
+        private void ensureIdCapacity(int additionalBytes) {
+            if (idByteCount + additionalBytes > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(idByteCount + additionalBytes, ids.length * 2));
+            }
+        }
+
+        private void ensureRowCapacity() {
+            if (size < versions.length) {
+                return;
+            }
+            int capacity = versions.length * 2;
+            idOffsets = Arrays.copyOf(idOffsets, capacity + 1);
+            versions = Arrays.copyOf(versions, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+        }
+    }
+
+    /**
+     * @return the version of the ASCII digits {@code [from, to)}, or {@link BackfillReferenceCsvParser#INVALID_VERSION}
+     * for anything else than a positive integer
+     */
+    private static int parsePlainVersion(ByteBuffer buffer, int from, int to) {
+        if (to == from || to - from > 9) {
+            // Longer values can still be valid because of leading zeros
+            return parseVersion(buffer, from, to);
+        }
+        int version = 0;
+        for (int index = from; index < to; index++) {
+            byte digit = buffer.get(index);
+            if (digit < '0' || digit > '9') {
+                // Signs are accepted like in the sequential parser
+                return parseVersion(buffer, from, to);
+            }
+            version = version * 10 + digit - '0';
+        }
+        return version < 1 ? INVALID_VERSION : version;
+    }
+
+    private static int parseVersion(ByteBuffer buffer, int from, int to) {
+        return BackfillReferenceCsvParser.parseVersion(ascii(buffer, from, to));
+    }
+
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        return StandardCharsets.US_ASCII.decode(buffer.slice(from, to - from)).toString();
+    }
+
+    /**
+     * @return whether the ASCII byte is whitespace according to {@link Character#isWhitespace(char)}
+     */
+    private static boolean isWhitespace(byte value) {
+        return value == ' ' || (value >= '\t' && value <= '\r') || (value >= 0x1C && value <= 0x1F);
+    }
+
+    private static int trimStart(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(ByteBuffer buffer, int from, int to) {
+        while (to > from && buffer.get(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+}
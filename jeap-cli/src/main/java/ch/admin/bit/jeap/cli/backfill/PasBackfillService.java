@@ -1,243 +1,163 @@
 package ch.admin.bit.jeap.cli.backfill;
 
-import lombok.RequiredArgsConstructor;
-import org.springframework.http.HttpStatus;
+import org.snakeyaml.engine.v2.api.LoadSettings;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StreamUtils;
 import org.springframework.web.client.RestClient;
-import org.springframework.web.util.UriComponentsBuilder;
-import tools.jackson.core.JacksonException;
+import tools.jackson.dataformat.yaml.YAMLFactory;
 import tools.jackson.dataformat.yaml.YAMLMapper;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
+/**
+ * Submits backfill jobs to the PAS and reads their reports. The work is done by the {@link BackfillJobSender}, the
+ * {@link BackfillReportReader} and the {@link BackfillReportWatcher}.
+ */
 @Service
-@RequiredArgsConstructor
 public class PasBackfillService {
 
-    private static final MediaType APPLICATION_YAML = MediaType.parseMediaType("application/yaml");
-    private static final String ARCHIVE_DATA_REFERENCES = "archiveDataReferences";
+    static final MediaType APPLICATION_YAML = MediaType.parseMediaType("application/yaml");
 
-    private final RestClient.Builder restClientBuilder;
-    private final BackfillReferenceCsvParser referenceCsvParser;
-    private final YAMLMapper yamlMapper = YAMLMapper.builder().build();
+    private final BackfillJobRequestReader requestReader;
+    private final BackfillJobSender jobSender;
+    private final BackfillReportReader reportReader;
+    private final BackfillReportWatcher reportWatcher;
 
-    public String send(Path yamlFile, String jobId, String url, String accessToken) {
-        return send(yamlFile, null, jobId, url, accessToken);
-    }
-
-    public String send(Path yamlFile, Path referencesCsvFile, String jobId, String url, String accessToken) {
-        String yaml = readYaml(yamlFile);
-        BackfillJobRequestDto backfillJobRequest = createBackfillJobRequest(yamlFile, yaml, referencesCsvFile);
-        String requestYaml = writeYaml(yamlFile, backfillJobRequest);
-        String endpoint = jobEndpoint(url, jobId);
-        int numberOfReferences = backfillJobRequest.archiveDataReferences().size();
-
-        return restClientBuilder.build().put()
-                .uri(endpoint)
-                .headers(headers -> headers.setBearerAuth(accessToken))
-                .contentType(APPLICATION_YAML)
-                .body(requestYaml)
-                .exchange((request, response) -> handleSendResponse(response, jobId, numberOfReferences));
-    }
-
-    public String report(String jobId, String url, Path output, String accessToken) {
-        String endpoint = jobReportEndpoint(url, jobId);
-
-        String report = restClientBuilder.build().get()
-                .uri(endpoint)
-                .headers(headers -> headers.setBearerAuth(accessToken))
-                .accept(APPLICATION_YAML)
-                .exchange((request, response) -> handleReportResponse(response, jobId));
-
-        if (output == null) {
-            return report;
-        }
-
-        try {
-            Files.writeString(output, report, StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            throw new PasBackfillException("Could not write report to " + output + ": " + e.getMessage());
-        }
-        return "Report written to " + output;
-    }
-
-    private String readYaml(Path yamlFile) {
-        try {
-            return Files.readString(yamlFile, StandardCharsets.UTF_8);
-        } catch (NoSuchFileException e) {
-            throw new PasBackfillException("File not found: " + yamlFile);
-        } catch (IOException e) {
-            throw new PasBackfillException("Could not read file " + yamlFile + ": " + e.getMessage());
-        }
-    }
-
-    private BackfillJobRequestDto createBackfillJobRequest(Path yamlFile, String yaml, Path referencesCsvFile) {
-        Map<String, Object> yamlValues = readYamlValues(yamlFile, yaml);
-        boolean yamlReferencesDefined = yamlValues.containsKey(ARCHIVE_DATA_REFERENCES)
-                && yamlValues.get(ARCHIVE_DATA_REFERENCES) != null;
-        List<ArchiveDataReferenceDto> yamlReferences = yamlReferencesDefined
-                ? toArchiveDataReferences(yamlValues.get(ARCHIVE_DATA_REFERENCES))
-                : List.of();
-
-        if (referencesCsvFile != null && yamlReferencesDefined) {
-            throw new PasBackfillException("Error: archiveDataReferences defined in both YAML and --references-csv. Use one source only.");
-        }
-
-        List<ArchiveDataReferenceDto> archiveDataReferences;
-        if (referencesCsvFile != null) {
-            archiveDataReferences = readCsvReferences(referencesCsvFile);
-        } else {
-            archiveDataReferences = yamlReferences;
-        }
-
-        if (archiveDataReferences.isEmpty()) {
-            throw new PasBackfillException("Error: No archiveDataReferences provided. Define them in the YAML file or use --references-csv.");
-        }
-
-        return new BackfillJobRequestDto(
-                stringValue(yamlValues.get("message")),
-                stringValue(yamlValues.get("topic")),
-                integerValue(yamlValues.get("num-of-retry"), "num-of-retry"),
-                archiveDataReferences);
+    public PasBackfillService(RestClient restClient, BackfillReferenceCsvParser referenceCsvParser) {
+        YAMLMapper yamlMapper = YAMLMapper.builder().build();
+        // The code point limit is deliberately raised to its maximum, so it no longer protects against large reports.
+        // Reports list every reference of a job and are only read as token streams, never held in memory as a whole, so
+        // they may be far larger than the default limit of 3 MB. Only the read timeout of the client bounds them.
+        YAMLMapper reportYamlMapper = YAMLMapper.builder(YAMLFactory.builder()
+                        .loadSettings(LoadSettings.builder().setCodePointLimit(Integer.MAX_VALUE).build())
+                        .build())
+                .build();
+        this.requestReader = new BackfillJobRequestReader(referenceCsvParser, yamlMapper);
+        this.jobSender = new BackfillJobSender(restClient, requestReader, yamlMapper);
+        this.reportReader = new BackfillReportReader(restClient, reportYamlMapper);
+        this.reportWatcher = new BackfillReportWatcher(restClient, reportYamlMapper);
     }
 
-    private Map<String, Object> readYamlValues(Path yamlFile, String yaml) {
-        try {
-            Map<?, ?> values = yamlMapper.readValue(yaml, Map.class);
-            Map<String, Object> result = new LinkedHashMap<>();
-            if (values != null) {
-                values.forEach((key, value) -> result.put(String.valueOf(key), value));
-            }
-            return result;
-        } catch (JacksonException e) {
-            throw new PasBackfillException("Could not parse file " + yamlFile + ": " + e.getMessage());
-        }
-    }
-
-    private List<ArchiveDataReferenceDto> readCsvReferences(Path referencesCsvFile) {
-        try {
-            return referenceCsvParser.parse(referencesCsvFile);
-        } catch (NoSuchFileException e) {
-            throw new PasBackfillException("File not found: " + referencesCsvFile);
-        } catch (IllegalArgumentException e) {
-            throw new PasBackfillException(e.getMessage());
-        } catch (IOException e) {
-            throw new PasBackfillException("Could not read file " + referencesCsvFile + ": " + e.getMessage());
-        }
-    }
-
-    private List<ArchiveDataReferenceDto> toArchiveDataReferences(Object value) {
-        if (!(value instanceof List<?> values)) {
-            return List.of();
-        }
-
-        List<ArchiveDataReferenceDto> references = new ArrayList<>();
-        for (Object item : values) {
-            if (item instanceof Map<?, ?> reference) {
-                references.add(new ArchiveDataReferenceDto(
-                        stringValue(reference.get("id")),
-                        integerValue(reference.get("version"), "archiveDataReferences[].version")));
-            }
-        }
-        return references;
-    }
-
-    private String stringValue(Object value) {
-        return value == null ? null : String.valueOf(value);
-    }
-
-    private Integer integerValue(Object value, String fieldName) {
-        if (value == null) {
-            return null;
-        }
-        if (value instanceof Number number) {
-            return number.intValue();
-        }
-        try {
-            return Integer.valueOf(String.valueOf(value));
-        } catch (NumberFormatException e) {
-            throw new PasBackfillException("Invalid YAML value '" + value + "' for " + fieldName + ". Must be an integer.");
-        }
-    }
-
-    private String writeYaml(Path yamlFile, BackfillJobRequestDto request) {
-        Map<String, Object> yamlValues = new LinkedHashMap<>();
-        yamlValues.put("message", request.message());
-        yamlValues.put("topic", request.topic());
-        if (request.numOfRetry() != null) {
-            yamlValues.put("num-of-retry", request.numOfRetry());
-        }
-        yamlValues.put(ARCHIVE_DATA_REFERENCES, toYamlReferenceValues(request.archiveDataReferences()));
-
-        try {
-            return yamlMapper.writeValueAsString(yamlValues);
-        } catch (JacksonException e) {
-            throw new PasBackfillException("Could not write merged backfill job from " + yamlFile + ": " + e.getMessage());
-        }
-    }
-
-    private List<Map<String, Object>> toYamlReferenceValues(List<ArchiveDataReferenceDto> references) {
-        List<Map<String, Object>> yamlReferenceValues = new ArrayList<>();
-        for (ArchiveDataReferenceDto reference : references) {
-            Map<String, Object> yamlReferenceValue = new LinkedHashMap<>();
-            yamlReferenceValue.put("id", reference.id());
-            if (reference.version() != null) {
-                yamlReferenceValue.put("version", reference.version());
-            }
-            yamlReferenceValues.add(yamlReferenceValue);
-        }
-        return yamlReferenceValues;
+    public String send(Path yamlFile, String jobId, String url, String accessToken) {
+        return send(yamlFile, null, jobId, url, accessToken);
     }
 
-    private String handleSendResponse(ClientHttpResponse response, String jobId, int numberOfReferences) throws IOException {
-        HttpStatus status = HttpStatus.resolve(response.getStatusCode().value());
-        if (status == HttpStatus.OK || status == HttpStatus.CREATED) {
-            return "Backfill job " + jobId + " created successfully. " + numberOfReferences + " references submitted.";
-        }
-        if (status == HttpStatus.CONFLICT) {
-            throw new PasBackfillException("Job " + jobId + " already exists.");
-        }
-        if (status == HttpStatus.BAD_REQUEST) {
-            throw new PasBackfillException(responseBody(response));
-        }
-        throw new PasBackfillException("PAS request failed with HTTP status " + response.getStatusCode().value());
+    public String send(Path yamlFile, BackfillReferencesCsv referencesCsv, String jobId, String url, String accessToken) {
+        return send(yamlFile, referencesCsv, jobId, url, accessToken, BackfillCompression.NONE);
     }
 
-    private String handleReportResponse(ClientHttpResponse response, String jobId) throws IOException {
-        HttpStatus status = HttpStatus.resolve(response.getStatusCode().value());
-        if (status == HttpStatus.OK) {
-            return responseBody(response);
-        }
-        if (status == HttpStatus.NOT_FOUND) {
-            throw new PasBackfillException("Job " + jobId + " not found.");
+    public String send(Path yamlFile, BackfillReferencesCsv referencesCsv, String jobId, String url, String accessToken,
+                       BackfillCompression compression) {
+        try (BackfillJobRequestDto backfillJobRequest = requestReader.read(yamlFile, referencesCsv)) {
+            return jobSender.send(yamlFile, backfillJobRequest, jobId, url, accessToken, compression);
         }
-        throw new PasBackfillException("PAS request failed with HTTP status " + response.getStatusCode().value());
     }
 
-    private String responseBody(ClientHttpResponse response) throws IOException {
-        return StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8);
+    /**
+     * Submits the backfill job as sub-jobs of at most {@link BackfillBatchOptions#batchSize()} references each.
+     * The sub-job ids are derived from {@code jobId} and recorded in a manifest file next to the job YAML file
+     * before the first request is sent. Up to {@link BackfillBatchOptions#maxInFlight()} sub-jobs are submitted
+     * concurrently, as far as a {@link BackfillConcurrencyLimit} allows: throttled or timed-out sub-jobs reduce the
+     * number of concurrent sub-jobs and are retried. After the first failed sub-job, no further sub-jobs are submitted.
+     * <p>
+     * Every sub-job accepted by the PAS is recorded in a {@link BackfillJournal} next to the references CSV file.
+     * With {@link BackfillBatchOptions#resume()}, sub-jobs already recorded for the same input are skipped.
+     * </p>
+     */
+    public String sendInBatches(Path yamlFile, BackfillReferencesCsv referencesCsv, String jobId, String url,
+                                String accessToken, BackfillBatchOptions batchOptions, BackfillCompression compression) {
+        return jobSender.sendInBatches(yamlFile, referencesCsv, jobId, url, accessToken, batchOptions, compression);
     }
 
-    private String jobEndpoint(String baseUrl, String jobId) {
-        return UriComponentsBuilder.fromUriString(baseUrl)
-                .pathSegment("api", "jobs", jobId)
-                .toUriString();
+    /**
+     * Submits every job YAML file of the directory, each with the references CSV file of the same name if present, as
+     * its own backfill job with a generated job id. Up to {@code concurrency} jobs are read and submitted at the same
+     * time, adapted to throttling by the PAS as for {@link #sendInBatches}. All jobs are attempted, and a summary table
+     * with the result and the latency of each job is returned.
+     */
+    public String sendAll(Path directory, String url, String accessToken, int concurrency, BackfillCompression compression) {
+        return jobSender.sendAll(directory, url, accessToken, concurrency, compression);
     }
 
-    private String jobReportEndpoint(String baseUrl, String jobId) {
-        return UriComponentsBuilder.fromUriString(baseUrl)
-                .pathSegment("api", "jobs", jobId, "report")
-                .toUriString();
+    /**
+     * Streams the report of the job into the output file without holding it in memory. The file is only opened once
+     * the PAS has returned the report, and a partially written file is removed if the download fails.
+     */
+    public String report(String jobId, String url, Path output, String accessToken) {
+        return reportReader.report(jobId, url, output, accessToken);
+    }
+
+    /**
+     * Streams the reports of all jobs of the job ids file into {@code <jobId>.yaml} files of the output directory, as
+     * for {@link #report}. Up to {@code concurrency} reports are downloaded at the same time over the shared HTTP
+     * client. All reports are attempted, and a summary table with the result and the latency of each report is
+     * returned.
+     */
+    public String reportAll(Path jobIdsFile, String url, Path outputDirectory, String accessToken, int concurrency) {
+        return reportReader.reportAll(jobIdsFile, url, outputDirectory, accessToken, concurrency);
+    }
+
+    /**
+     * Writes the reports of all jobs of the job ids file to the output stream as newline-delimited JSON, one line
+     * {@code {"jobId":...,"report":...}} per job, or {@code {"jobId":...,"error":...}} if its report could not be read.
+     * Up to {@code concurrency} reports are downloaded at the same time. Every report is converted into its own
+     * temporary file while it is downloaded, and the lines are written in the order in which the downloads complete.
+     * The stream is flushed but not closed.
+     */
+    public void writeReportsAsNdjson(Path jobIdsFile, String url, OutputStream outputStream, String accessToken,
+                                     int concurrency) {
+        reportReader.writeReportsAsNdjson(jobIdsFile, url, outputStream, accessToken, concurrency);
+    }
+
+    /**
+     * Streams the report of the job to the output stream as it is received. The stream is flushed but not closed.
+     */
+    public void writeReport(String jobId, String url, OutputStream outputStream, String accessToken) {
+        reportReader.writeReport(jobId, url, outputStream, accessToken);
+    }
+
+    /**
+     * Reads the report of the job as it is received and returns the number of report entries per status, retry count
+     * and topic. Neither the report nor a tree of it is held in memory, so the size of the report does not matter.
+     */
+    public String reportSummary(String jobId, String url, String accessToken) {
+        return reportReader.reportSummary(jobId, url, accessToken);
+    }
+
+    /**
+     * Submits the references of the job {@code failedJobId} that failed once more, as the new job {@code jobId}. The
+     * report is read as it is received and only the failed {@code (id, version)} pairs are kept. The references CSV
+     * file of the original job is then read row by row and only the rows of failed references are kept, in the order
+     * of the file. The message and topic of the new job are taken from the job YAML file, as for {@link #send}.
+     *
+     * @param failedStatuses the report entry statuses that mark a reference as failed, compared ignoring case
+     */
+    public String resendFailed(Path yamlFile, BackfillReferencesCsv referencesCsv, String failedJobId,
+                               Set<String> failedStatuses, String jobId, String url, String accessToken,
+                               BackfillCompression compression) {
+        ArchiveDataReferenceStore failedReferences = reportReader.readFailedReferences(failedJobId, failedStatuses, url,
+                accessToken);
+        if (failedReferences.isEmpty()) {
+            return "No failed references in report of job " + failedJobId + ". Nothing to resend.";
+        }
+        try (BackfillJobRequestDto backfillJobRequest = requestReader.readMatching(yamlFile, referencesCsv,
+                failedReferences)) {
+            int numberOfReferences = backfillJobRequest.archiveDataReferences().size();
+            String result = jobSender.send(yamlFile, backfillJobRequest, jobId, url, accessToken, compression);
+            return "Found " + failedReferences.size() + " failed references in report of job " + failedJobId + ", "
+                    + numberOfReferences + " matching references in " + referencesCsv + "." + System.lineSeparator() + result;
+        }
+    }
+
+    /**
+     * Polls the report of the job until its {@code state} is final and prints the top-level report values that changed
+     * since the previous poll. Conditional requests with the validators of the previous response let the PAS answer
+     * {@code 304 Not Modified} instead of sending an unchanged report again.
+     */
+    public void watch(String jobId, String url, String accessToken, BackfillWatchOptions options, PrintStream output) {
+        reportWatcher.watch(jobId, url, accessToken, options, output);
     }
 }
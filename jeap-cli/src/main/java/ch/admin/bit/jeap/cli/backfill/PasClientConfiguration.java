@@ -0,0 +1,41 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the {@link RestClient} shared by all PAS calls. The underlying JDK {@link HttpClient} keeps connections open
+ * between requests and multiplexes concurrent requests over HTTP/2, so batched sends, {@code send-all} and
+ * {@code watch} do not pay for a new connection and TLS handshake per request.
+ */
+@Configuration(proxyBeanMethods = false)
+@EnableConfigurationProperties(PasClientProperties.class)
+public class PasClientConfiguration {
+
+    @Bean
+    HttpClient pasHttpClient(PasClientProperties properties) {
+        return HttpClient.newBuilder()
+                .version(properties.httpVersion())
+                .connectTimeout(properties.connectTimeout())
+                // Response bodies are handed over to the calling thread, the executor only runs the client internals
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    @Bean
+    RestClient pasRestClient(RestClient.Builder restClientBuilder, HttpClient pasHttpClient,
+                             PasClientProperties properties) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(pasHttpClient);
+        requestFactory.setReadTimeout(properties.readTimeout());
+        // The builder bean is shared, so the request factory is set on a copy
+        return restClientBuilder.clone()
+                .requestFactory(requestFactory)
+                .build();
+    }
+}
@@ -0,0 +1,22 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Settings of the HTTP client shared by all PAS calls.
+ *
+ * @param connectTimeout maximum time to establish a connection to the PAS
+ * @param readTimeout    maximum time of a single PAS request, from sending the request until the response body is
+ *                       read completely, so it must cover the upload of the largest request and the download of the
+ *                       largest report
+ * @param httpVersion    preferred HTTP version, {@code HTTP_2} falls back to HTTP/1.1 if the PAS does not support it
+ */
+@ConfigurationProperties("jeap.cli.pas.client")
+public record PasClientProperties(@DefaultValue("10s") Duration connectTimeout,
+                                  @DefaultValue("10m") Duration readTimeout,
+                                  @DefaultValue("HTTP_2") HttpClient.Version httpVersion) {
+}
@@ -0,0 +1,31 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.time.Duration;
+
+/**
+ * A PAS request that was throttled with {@code 429 Too Many Requests} or {@code 503 Service Unavailable}, or that
+ * timed out. Such requests are retried by {@link BackfillJobSender} with a reduced {@link BackfillConcurrencyLimit}.
+ */
+class PasThrottledException extends PasBackfillException {
+
+    private final Duration retryAfter;
+    private final boolean timedOut;
+
+    /**
+     * @param retryAfter the delay of the {@code Retry-After} header, or {@code null} without the header
+     * @param timedOut   whether the request timed out, so that the PAS may have received it nevertheless
+     */
+    PasThrottledException(String message, Duration retryAfter, boolean timedOut) {
+        super(message);
+        this.retryAfter = retryAfter;
+        this.timedOut = timedOut;
+    }
+
+    Duration retryAfter() {
+        return retryAfter;
+    }
+
+    boolean timedOut() {
+        return timedOut;
+    }
+}
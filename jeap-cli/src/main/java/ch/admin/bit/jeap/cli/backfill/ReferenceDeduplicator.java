@@ -0,0 +1,376 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Deduplicates the references of a CSV file in file order within a heap budget.
+ * <p>
+ * References are added to an {@link ArchiveDataReferenceStore} until its arrays exceed the budget or it nears its
+ * capacity. From then on, the store is spilled to disk whenever it is full: its rows are appended in file order to a
+ * rows file, and written sorted by id and version, together with their row index and line number, to a sorted run file.
+ * Once all references have been added, the runs are merged k-way. Of equal references, the one with the lowest row
+ * index is kept; the row indexes of the others are marked in a bit set. Finally, the rows file is copied without the
+ * marked rows into the file read by {@link SpilledArchiveDataReferences}, so the first occurrence of each reference
+ * keeps its position.
+ * </p>
+ * Duplicates within the store are reported when they are added, duplicates across runs during the merge, ordered by
+ * id rather than by line. Apart from the budget, the heap needed is one bit per reference and one {@code long} per
+ * {@value SpilledArchiveDataReferences#INDEX_INTERVAL} references.
+ */
+final class ReferenceDeduplicator implements Closeable {
+
+    // Merging more runs at once would need more open files and buffers than it saves passes
+    static final int MAX_MERGE_RUNS = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long heapBudgetBytes;
+    private final int maxStoreRows;
+    private final int maxStoreIdBytes;
+    private ArchiveDataReferenceStore store;
+    private int[] lineNumbers = new int[16];
+    // The row index of the first row of the store among all rows kept by the stores
+    private int firstRow;
+
+    private Path spillDirectory;
+    private DataOutputStream rows;
+    private final List<Path> runs = new ArrayList<>();
+    private int mergedRunCount;
+
+    /**
+     * @param heapBudgetBytes the heap that the store may use before it is spilled to disk
+     */
+    ReferenceDeduplicator(long heapBudgetBytes) {
+        this(heapBudgetBytes, ArchiveDataReferenceStore.MAX_ROWS, ArchiveDataReferenceStore.MAX_ID_BYTES);
+    }
+
+    /**
+     * @param maxStoreRows    the rows that the store can hold, see {@link ArchiveDataReferenceStore#MAX_ROWS}
+     * @param maxStoreIdBytes the id bytes that the store can hold, see {@link ArchiveDataReferenceStore#MAX_ID_BYTES}
+     */
+    ReferenceDeduplicator(long heapBudgetBytes, int maxStoreRows, int maxStoreIdBytes) {
+        this.heapBudgetBytes = heapBudgetBytes;
+        this.maxStoreRows = maxStoreRows;
+        this.maxStoreIdBytes = maxStoreIdBytes;
+        this.store = new ArchiveDataReferenceStore(maxStoreRows, maxStoreIdBytes);
+    }
+
+    /**
+     * Adds the reference unless it was added before, in which case a duplicate warning is printed.
+     */
+    void add(String id, int version, int lineNumber) throws IOException {
+        if (!store.add(id, version)) {
+            BackfillReferenceCsvParser.warnDuplicate(id, version, lineNumber);
+            return;
+        }
+        added(lineNumber);
+    }
+
+    /**
+     * Adds the reference given by the UTF-8 bytes {@code [from, to)} of its id and its hash, see
+     * {@link ArchiveDataReferenceStore#add(byte[], int, int, int, int)}.
+     */
+    void add(byte[] utf8Id, int from, int to, int version, int hash, int lineNumber) throws IOException {
+        if (!store.add(utf8Id, from, to, version, hash)) {
+            BackfillReferenceCsvParser.warnDuplicate(new String(utf8Id, from, to - from, StandardCharsets.UTF_8), version,
+                    lineNumber);
+            return;
+        }
+        added(lineNumber);
+    }
+
+    private void added(int lineNumber) throws IOException {
+        int row = store.size() - 1;
+        if (row == lineNumbers.length) {
+            lineNumbers = Arrays.copyOf(lineNumbers, lineNumbers.length * 2);
+        }
+        lineNumbers[row] = lineNumber;
+        // The store is also spilled near its capacity, which a large heap budget alone would not prevent
+        if (store.heapBytes() + 4L * lineNumbers.length > heapBudgetBytes || store.isNearCapacity()) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the deduplicated references in the order of their first occurrence, in memory if the store was never
+     * spilled, otherwise in a temporary file that is deleted when the JVM exits
+     */
+    ArchiveDataReferences finish() throws IOException {
+        if (spillDirectory == null) {
+            return store;
+        }
+        long start = System.nanoTime();
+        try {
+            return mergeSpilledRuns();
+        } finally {
+            BackfillMetrics.record(BackfillMetrics.Phase.DEDUPLICATE_ON_DISK, System.nanoTime() - start);
+        }
+    }
+
+    private ArchiveDataReferences mergeSpilledRuns() throws IOException {
+        if (!store.isEmpty()) {
+            spill();
+        }
+        rows.close();
+        int rowCount = firstRow;
+        store = null;
+        BitSet duplicates = new BitSet(rowCount);
+        while (runs.size() > MAX_MERGE_RUNS) {
+            List<Path> mergedRuns = new ArrayList<>(runs.subList(0, MAX_MERGE_RUNS));
+            runs.subList(0, MAX_MERGE_RUNS).clear();
+            runs.add(merge(mergedRuns, duplicates, false));
+        }
+        merge(runs, duplicates, true);
+        return copyWithout(duplicates, rowCount);
+    }
+
+    /**
+     * Appends the rows of the store to the rows file, writes them sorted to a new run and starts an empty store.
+     */
+    private void spill() throws IOException {
+        if (spillDirectory == null) {
+            spillDirectory = Files.createTempDirectory("jeap-cli-references-");
+            spillDirectory.toFile().deleteOnExit();
+            rows = output(spillDirectory.resolve("rows"));
+        }
+        int size = store.size();
+        for (int row = 0; row < size; row++) {
+            store.writeRow(row, rows);
+        }
+
+        Path run = spillDirectory.resolve("run-" + firstRow);
+        try (DataOutputStream output = output(run)) {
+            for (int row : sortedRows()) {
+                store.writeRow(row, output);
+                output.writeInt(firstRow + row);
+                output.writeInt(lineNumbers[row]);
+            }
+        }
+        runs.add(run);
+        firstRow += size;
+        store = new ArchiveDataReferenceStore(maxStoreRows, maxStoreIdBytes);
+        lineNumbers = new int[16];
+    }
+
+    /**
+     * @return the rows of the store sorted by {@link ArchiveDataReferenceStore#compareRows(int, int)}, with a bottom-up
+     * merge sort on primitive row numbers
+     */
+    private int[] sortedRows() {
+        int size = store.size();
+        int[] sorted = new int[size];
+        Arrays.setAll(sorted, row -> row);
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int from = 0; from < size; from += 2 * width) {
+                int middle = Math.min(from + width, size);
+                int to = Math.min(from + 2 * width, size);
+                int left = from;
+                int right = middle;
+                for (int index = from; index < to; index++) {
+                    if (left < middle && (right >= to || store.compareRows(sorted[left], sorted[right]) <= 0)) {
+                        buffer[index] = sorted[left++];
+                    } else {
+                        buffer[index] = sorted[right++];
+                    }
+                }
+            }
+            int[] merged = buffer;
+            buffer = sorted;
+            sorted = merged;
+        }
+        return sorted;
+    }
+
+    /**
+     * Merges the runs into one run, or only marks the duplicates if this is the last merge.
+     *
+     * @return the merged run, or {@code null} for the last merge
+     */
+    private Path merge(List<Path> mergedRuns, BitSet duplicates, boolean last) throws IOException {
+        Path mergedRun = last ? null : spillDirectory.resolve("merged-run-" + mergedRunCount++);
+        PriorityQueue<RunReader> readers = new PriorityQueue<>();
+        try (DataOutputStream output = last ? null : output(mergedRun)) {
+            try {
+                for (Path run : mergedRuns) {
+                    RunReader reader = new RunReader(run);
+                    if (reader.next()) {
+                        readers.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+                // The reference of the last kept row
+                byte[] keptId = null;
+                int keptVersion = 0;
+                while (!readers.isEmpty()) {
+                    RunReader reader = readers.poll();
+                    if (keptId != null && reader.hasReference(keptId, keptVersion)) {
+                        duplicates.set(reader.row);
+                        BackfillReferenceCsvParser.warnDuplicate(reader.id(), reader.version, reader.lineNumber);
+                    } else {
+                        keptId = Arrays.copyOf(reader.id, reader.idLength);
+                        keptVersion = reader.version;
+                        if (output != null) {
+                            reader.write(output);
+                        }
+                    }
+                    if (reader.next()) {
+                        readers.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+        }
+        for (Path run : mergedRuns) {
+            Files.delete(run);
+        }
+        return mergedRun;
+    }
+
+    private ArchiveDataReferences copyWithout(BitSet duplicates, int rowCount) throws IOException {
+        Path rowsFile = spillDirectory.resolve("rows");
+        Path referencesFile = spillDirectory.resolve("references");
+        referencesFile.toFile().deleteOnExit();
+        int size = rowCount - duplicates.cardinality();
+        long[] indexOffsets = new long[Math.max(1, (size + SpilledArchiveDataReferences.INDEX_INTERVAL - 1)
+                / SpilledArchiveDataReferences.INDEX_INTERVAL)];
+        long offset = 0;
+        int kept = 0;
+        try (DataInputStream input = input(rowsFile);
+             DataOutputStream output = output(referencesFile)) {
+            byte[] idBuffer = new byte[64];
+            for (int row = 0; row < rowCount; row++) {
+                int idLength = input.readInt();
+                if (idLength > idBuffer.length) {
+                    idBuffer = new byte[Math.max(idLength, idBuffer.length * 2)];
+                }
+                input.readFully(idBuffer, 0, idLength);
+                int version = input.readInt();
+                if (duplicates.get(row)) {
+                    continue;
+                }
+                if (kept % SpilledArchiveDataReferences.INDEX_INTERVAL == 0) {
+                    indexOffsets[kept / SpilledArchiveDataReferences.INDEX_INTERVAL] = offset;
+                }
+                output.writeInt(idLength);
+                output.write(idBuffer, 0, idLength);
+                output.writeInt(version);
+                offset += 8L + idLength;
+                kept++;
+            }
+        }
+        Files.delete(rowsFile);
+        return new SpilledArchiveDataReferences(referencesFile, size, offset, indexOffsets);
+    }
+
+    /**
+     * Deletes the rows file and the runs. The file of the returned references is kept.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spillDirectory == null) {
+            return;
+        }
+        if (rows != null) {
+            rows.close();
+        }
+        Files.deleteIfExists(spillDirectory.resolve("rows"));
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+    }
+
+    private static DataOutputStream output(Path file) throws IOException {
+        file.toFile().deleteOnExit();
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+    }
+
+    private static DataInputStream input(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * Reads a sorted run one row at a time. Readers are ordered by the current row: by id bytes, version and row index.
+     */
+    private static final class RunReader implements Comparable<RunReader>, Closeable {
+
+        private final DataInputStream input;
+        private byte[] id = new byte[64];
+        private int idLength;
+        private int version;
+        private int row;
+        private int lineNumber;
+
+        private RunReader(Path run) throws IOException {
+            this.input = input(run);
+        }
+
+        /**
+         * @return {@code false} at the end of the run
+         */
+        private boolean next() throws IOException {
+            try {
+                idLength = input.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (idLength > id.length) {
+                id = new byte[Math.max(idLength, id.length * 2)];
+            }
+            input.readFully(id, 0, idLength);
+            version = input.readInt();
+            row = input.readInt();
+            lineNumber = input.readInt();
+            return true;
+        }
+
+        private boolean hasReference(byte[] otherId, int otherVersion) {
+            return version == otherVersion && Arrays.equals(id, 0, idLength, otherId, 0, otherId.length);
+        }
+
+        private String id() {
+            return new String(id, 0, idLength, StandardCharsets.UTF_8);
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeInt(idLength);
+            output.write(id, 0, idLength);
+            output.writeInt(version);
+            output.writeInt(row);
+            output.writeInt(lineNumber);
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int compared = Arrays.compareUnsigned(id, 0, idLength, other.id, 0, other.idLength);
+            if (compared == 0) {
+                compared = Integer.compare(version, other.version);
+            }
+            return compared != 0 ? compared : Integer.compare(row, other.row);
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Archive data references read from a temporary file written by {@link ReferenceDeduplicator}.
+ * <p>
+ * Each row is stored as the length of its UTF-8 id, the id bytes and its encoded version. The file offset of every
+ * {@value #INDEX_INTERVAL}th row is kept in memory, so reading a range of rows skips at most that many rows and the
+ * heap needed does not grow with the length of the ids. Every read opens its own channel, so sub-jobs can read their
+ * ranges concurrently.
+ * </p>
+ */
+final class SpilledArchiveDataReferences implements ArchiveDataReferences {
+
+    static final int INDEX_INTERVAL = 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // The length and the version of a row
+    private static final int ROW_OVERHEAD_BYTES = 8;
+
+    private final Path file;
+    private final int size;
+    private final long fileSize;
+    private final long[] indexOffsets;
+
+    /**
+     * @param indexOffsets the file offset of every {@value #INDEX_INTERVAL}th row, starting with row 0
+     */
+    SpilledArchiveDataReferences(Path file, int size, long fileSize, long[] indexOffsets) {
+        this.file = file;
+        this.size = size;
+        this.fileSize = fileSize;
+        this.indexOffsets = indexOffsets;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long idByteCount(int fromRow, int toRow) {
+        checkRows(fromRow, toRow);
+        return offset(toRow) - offset(fromRow) - (long) ROW_OVERHEAD_BYTES * (toRow - fromRow);
+    }
+
+    @Override
+    public void forEach(int fromRow, int toRow, ReferenceConsumer consumer) {
+        checkRows(fromRow, toRow);
+        if (fromRow == toRow) {
+            return;
+        }
+        try (RowReader reader = new RowReader(openAt(fromRow))) {
+            for (int row = fromRow; row < toRow; row++) {
+                reader.read(consumer);
+            }
+        } catch (IOException e) {
+            throw readFailure(e);
+        }
+    }
+
+    /**
+     * Reads the file sequentially. The file is closed once the last row was read.
+     */
+    @Override
+    public Iterator<ArchiveDataReferenceDto> iterator() {
+        return new Iterator<>() {
+            private RowReader reader;
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public ArchiveDataReferenceDto next() {
+                if (row >= size) {
+                    throw new NoSuchElementException();
+                }
+                ArchiveDataReferenceDto[] reference = new ArchiveDataReferenceDto[1];
+                try {
+                    if (reader == null) {
+                        reader = new RowReader(openAt(0));
+                    }
+                    reader.read((id, version) -> reference[0] = new ArchiveDataReferenceDto(id, version));
+                    if (++row == size) {
+                        reader.close();
+                    }
+                } catch (IOException e) {
+                    throw readFailure(e);
+                }
+                return reference[0];
+            }
+        };
+    }
+
+    /**
+     * @return the file offset of the row, or the size of the file for {@code row == size}
+     */
+    private long offset(int row) {
+        if (row == size) {
+            return fileSize;
+        }
+        long offset = indexOffsets[row / INDEX_INTERVAL];
+        int skip = row % INDEX_INTERVAL;
+        if (skip == 0) {
+            return offset;
+        }
+        try (DataInputStream input = openAt(row - skip)) {
+            for (int index = 0; index < skip; index++) {
+                int idLength = input.readInt();
+                skipFully(input, idLength + 4L);
+                offset += ROW_OVERHEAD_BYTES + idLength;
+            }
+            return offset;
+        } catch (IOException e) {
+            throw readFailure(e);
+        }
+    }
+
+    private UncheckedIOException readFailure(IOException e) {
+        return new UncheckedIOException("Could not read spilled references from " + file, e);
+    }
+
+    /**
+     * Opens the file positioned at the row.
+     */
+    private DataInputStream openAt(int row) throws IOException {
+        FileChannel channel = FileChannel.open(file, READ);
+        try {
+            channel.position(indexOffsets[row / INDEX_INTERVAL]);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_SIZE));
+            for (int index = 0; index < row % INDEX_INTERVAL; index++) {
+                skipFully(input, input.readInt() + 4L);
+            }
+            return input;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void skipFully(InputStream input, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Reads consecutive rows, reusing one buffer for the id bytes.
+     */
+    private static final class RowReader implements AutoCloseable {
+
+        private final DataInputStream input;
+        private byte[] idBuffer = new byte[64];
+
+        private RowReader(DataInputStream input) {
+            this.input = input;
+        }
+
+        private void read(ReferenceConsumer consumer) throws IOException {
+            int idLength = input.readInt();
+            if (idLength > idBuffer.length) {
+                idBuffer = new byte[Math.max(idLength, idBuffer.length * 2)];
+            }
+            input.readFully(idBuffer, 0, idLength);
+            int version = input.readInt();
+            consumer.accept(new String(idBuffer, 0, idLength, StandardCharsets.UTF_8),
+                    version == ArchiveDataReferenceStore.NO_VERSION ? null : version);
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Deletes the file and its directory. The references cannot be read afterward.
+     */
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+        } catch (IOException e) {
+            // Left to the deletion when the JVM exits
+        }
+    }
+
+    private void checkRows(int fromRow, int toRow) {
+        if (fromRow < 0 || toRow > size || fromRow > toRow) {
+            throw new IndexOutOfBoundsException("Rows [" + fromRow + ", " + toRow + ") out of bounds for size " + size);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package ch.admin.bit.jeap.cli.commands;
 
 import ch.admin.bit.jeap.cli.migration.process.Java25Migration;
 import ch.admin.bit.jeap.cli.migration.process.SpringBoot4Migration;
+import ch.admin.bit.jeap.cli.process.GitHubTokenProvider;
 import org.springframework.shell.core.command.annotation.Command;
 import org.springframework.stereotype.Component;
 
@@ -13,21 +14,26 @@ public class MigrationCommands {
 
     private final Java25Migration java25Migration;
     private final SpringBoot4Migration springBoot4Migration;
+    private final GitHubTokenProvider gitHubTokenProvider;
 
-    public MigrationCommands(Java25Migration java25Migration, SpringBoot4Migration springBoot4Migration) {
+    public MigrationCommands(Java25Migration java25Migration, SpringBoot4Migration springBoot4Migration,
+                             GitHubTokenProvider gitHubTokenProvider) {
         this.java25Migration = java25Migration;
         this.springBoot4Migration = springBoot4Migration;
+        this.gitHubTokenProvider = gitHubTokenProvider;
     }
 
     @Command(description = "Migrate jEAP application to Java 25", name = {"migrate", "java-25"}, group = "Migrations")
     public void migrateToJava25() throws Exception {
         Path cwd = Paths.get(".");
+        gitHubTokenProvider.prefetch(cwd);
         java25Migration.migrate(cwd);
     }
 
     @Command(description = "Migrate jEAP application to Spring Boot 4", name = {"migrate", "spring-boot-4"}, group = "Migrations")
     public void migrateToSpringBoot4() throws Exception {
         Path cwd = Paths.get(".");
+        gitHubTokenProvider.prefetch(cwd);
         springBoot4Migration.migrate(cwd);
     }
 }
@@ -1,5 +1,10 @@
 package ch.admin.bit.jeap.cli.commands;
 
+import ch.admin.bit.jeap.cli.backfill.BackfillBatchOptions;
+import ch.admin.bit.jeap.cli.backfill.BackfillCompression;
+import ch.admin.bit.jeap.cli.backfill.BackfillReferencesCsv;
+import ch.admin.bit.jeap.cli.backfill.BackfillTimings;
+import ch.admin.bit.jeap.cli.backfill.BackfillWatchOptions;
 import ch.admin.bit.jeap.cli.backfill.PasBackfillException;
 import ch.admin.bit.jeap.cli.backfill.PasBackfillService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,48 +14,225 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Component
 public class PasBackfillCommands {
 
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int DEFAULT_SEND_ALL_CONCURRENCY = 4;
+    private static final int DEFAULT_REPORT_CONCURRENCY = 8;
+    private static final String DEFAULT_FAILED_STATUS = "FAILED";
+    private static final int DEFAULT_WATCH_INTERVAL_SECONDS = 2;
+    private static final int DEFAULT_WATCH_MAX_INTERVAL_SECONDS = 60;
+    private static final String STDIN_REFERENCES_CSV = "-";
+
     private final PasBackfillService pasBackfillService;
     private final InputStream inputStream;
+    private final PrintStream outputStream;
 
     @Autowired
     public PasBackfillCommands(PasBackfillService pasBackfillService) {
-        this(pasBackfillService, System.in);
+        this(pasBackfillService, System.in, System.out);
     }
 
-    PasBackfillCommands(PasBackfillService pasBackfillService, InputStream inputStream) {
+    PasBackfillCommands(PasBackfillService pasBackfillService, InputStream inputStream, PrintStream outputStream) {
         this.pasBackfillService = pasBackfillService;
         this.inputStream = inputStream;
+        this.outputStream = outputStream;
     }
 
     @Command(name = {"pas-backfill", "send"}, description = "Submit a backfill job YAML to the PAS", group = "PAS Backfill")
     public void send(
             @Option(longName = "file", required = true, description = "Path to backfill-job.yaml") String file,
-            @Option(longName = "references-csv", required = false, description = "Path to id,version CSV references") String referencesCsv,
+            @Option(longName = "references-csv", required = false, description = "Path to id,version CSV references, optionally gzip-compressed, or - for stdin") String referencesCsv,
             @Option(longName = "job-id", required = false, description = "Unique job UUID (generated by caller)") String jobId,
             @Option(longName = "url", required = true, description = "PAS base URL, e.g. https://pas.example.com") String url,
-            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken) {
+            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken,
+            @Option(longName = "batch-size", required = false, description = "Submit the references as sub-jobs of at most this many references") Integer batchSize,
+            @Option(longName = "max-in-flight", required = false, description = "Maximum number of sub-jobs submitted concurrently (default: " + DEFAULT_MAX_IN_FLIGHT + ")") Integer maxInFlight,
+            @Option(longName = "compression", required = false, description = "Request body compression: none, gzip or auto (default: none)") String compression,
+            @Option(longName = "resume", required = false, description = "Skip the sub-jobs acknowledged in the journal of an earlier run") boolean resume,
+            @Option(longName = "timings", required = false, description = "Print the time spent per phase, the bytes sent and received and the peak heap") boolean timings,
+            @Option(longName = "metrics-file", required = false, description = "Write the timings as JSON to this file") String metricsFile) {
 
         String resolvedJobId = jobId == null || jobId.isBlank() ? UUID.randomUUID().toString() : jobId;
-        Path referencesCsvPath = referencesCsv == null || referencesCsv.isBlank() ? null : Path.of(referencesCsv);
-        System.out.println(pasBackfillService.send(Path.of(file), referencesCsvPath, resolvedJobId, url, resolveAccessToken(accessToken)));
+        BackfillReferencesCsv references = referencesCsv == null || referencesCsv.isBlank() ? null : referencesCsv(referencesCsv);
+        BackfillCompression backfillCompression = BackfillCompression.parse(compression);
+        if (batchSize == null) {
+            if (maxInFlight != null) {
+                throw new PasBackfillException("Error: --max-in-flight requires --batch-size.");
+            }
+            if (resume) {
+                throw new PasBackfillException("Error: --resume requires --batch-size.");
+            }
+            printTimed(timings, metricsFile, () -> pasBackfillService.send(Path.of(file), references, resolvedJobId, url,
+                    resolveAccessToken(accessToken, references), backfillCompression));
+            return;
+        }
+
+        BackfillBatchOptions batchOptions = new BackfillBatchOptions(batchSize, maxInFlight == null ? DEFAULT_MAX_IN_FLIGHT : maxInFlight,
+                resume);
+        printTimed(timings, metricsFile, () -> pasBackfillService.sendInBatches(Path.of(file), references, resolvedJobId, url,
+                resolveAccessToken(accessToken, references), batchOptions, backfillCompression));
+    }
+
+    @Command(name = {"pas-backfill", "send-all"}, description = "Submit all backfill job YAML files of a directory to the PAS", group = "PAS Backfill")
+    public void sendAll(
+            @Option(longName = "dir", required = true, description = "Directory with job YAML files and optional CSV references of the same name") String dir,
+            @Option(longName = "url", required = true, description = "PAS base URL, e.g. https://pas.example.com") String url,
+            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken,
+            @Option(longName = "concurrency", required = false, description = "Maximum number of jobs submitted concurrently (default: " + DEFAULT_SEND_ALL_CONCURRENCY + ")") Integer concurrency,
+            @Option(longName = "compression", required = false, description = "Request body compression: none, gzip or auto (default: none)") String compression,
+            @Option(longName = "timings", required = false, description = "Print the time spent per phase, the bytes sent and received and the peak heap") boolean timings,
+            @Option(longName = "metrics-file", required = false, description = "Write the timings as JSON to this file") String metricsFile) {
+
+        BackfillCompression backfillCompression = BackfillCompression.parse(compression);
+        printTimed(timings, metricsFile, () -> pasBackfillService.sendAll(Path.of(dir), url, resolveAccessToken(accessToken),
+                concurrency == null ? DEFAULT_SEND_ALL_CONCURRENCY : concurrency, backfillCompression));
     }
 
     @Command(name = {"pas-backfill", "report"}, description = "Read the backfill job report from the PAS", group = "PAS Backfill")
     public void report(
+            @Option(longName = "job-id", required = false, description = "Job whose report is read") String jobId,
+            @Option(longName = "url", required = true) String url,
+            @Option(longName = "output", required = false, description = "Output file path, or output directory with --job-ids-file (default: stdout)") String output,
+            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken,
+            @Option(longName = "summary", required = false, description = "Print only the number of report entries per status, retry count and topic") boolean summary,
+            @Option(longName = "job-ids-file", required = false, description = "File with one job id per line whose reports are read concurrently") String jobIdsFile,
+            @Option(longName = "concurrency", required = false, description = "Maximum number of reports read concurrently with --job-ids-file (default: " + DEFAULT_REPORT_CONCURRENCY + ")") Integer concurrency) {
+
+        boolean toStdout = output == null || output.isBlank();
+        boolean bulk = jobIdsFile != null && !jobIdsFile.isBlank();
+        if (bulk == (jobId != null && !jobId.isBlank())) {
+            throw new PasBackfillException("Error: Provide either --job-id or --job-ids-file.");
+        }
+        if (!bulk && concurrency != null) {
+            throw new PasBackfillException("Error: --concurrency requires --job-ids-file.");
+        }
+        if (bulk) {
+            if (summary) {
+                throw new PasBackfillException("Error: --summary cannot be combined with --job-ids-file.");
+            }
+            int resolvedConcurrency = concurrency == null ? DEFAULT_REPORT_CONCURRENCY : concurrency;
+            if (toStdout) {
+                pasBackfillService.writeReportsAsNdjson(Path.of(jobIdsFile), url, outputStream,
+                        resolveAccessToken(accessToken), resolvedConcurrency);
+                return;
+            }
+            outputStream.println(pasBackfillService.reportAll(Path.of(jobIdsFile), url, Path.of(output),
+                    resolveAccessToken(accessToken), resolvedConcurrency));
+            return;
+        }
+        if (summary) {
+            if (!toStdout) {
+                throw new PasBackfillException("Error: --summary cannot be combined with --output.");
+            }
+            outputStream.println(pasBackfillService.reportSummary(jobId, url, resolveAccessToken(accessToken)));
+            return;
+        }
+        if (toStdout) {
+            pasBackfillService.writeReport(jobId, url, outputStream, resolveAccessToken(accessToken));
+            return;
+        }
+        outputStream.println(pasBackfillService.report(jobId, url, Path.of(output), resolveAccessToken(accessToken)));
+    }
+
+    @Command(name = {"pas-backfill", "resend-failed"}, description = "Submit the failed references of a backfill job once more as a new job", group = "PAS Backfill")
+    public void resendFailed(
+            @Option(longName = "job-id", required = true, description = "Job whose report lists the failed references") String jobId,
+            @Option(longName = "file", required = true, description = "Path to backfill-job.yaml") String file,
+            @Option(longName = "references-csv", required = true, description = "Path to the id,version CSV references of the job, optionally gzip-compressed, or - for stdin") String referencesCsv,
+            @Option(longName = "new-job-id", required = false, description = "Unique UUID of the new job (generated by caller)") String newJobId,
+            @Option(longName = "url", required = true, description = "PAS base URL, e.g. https://pas.example.com") String url,
+            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken,
+            @Option(longName = "status", required = false, description = "Comma-separated report entry statuses of failed references (default: " + DEFAULT_FAILED_STATUS + ")") String status,
+            @Option(longName = "compression", required = false, description = "Request body compression: none, gzip or auto (default: none)") String compression,
+            @Option(longName = "timings", required = false, description = "Print the time spent per phase, the bytes sent and received and the peak heap") boolean timings,
+            @Option(longName = "metrics-file", required = false, description = "Write the timings as JSON to this file") String metricsFile) {
+
+        String resolvedJobId = newJobId == null || newJobId.isBlank() ? UUID.randomUUID().toString() : newJobId;
+        if (resolvedJobId.equals(jobId)) {
+            throw new PasBackfillException("Error: --new-job-id must differ from --job-id.");
+        }
+        Set<String> failedStatuses = status == null || status.isBlank()
+                ? Set.of(DEFAULT_FAILED_STATUS)
+                : Arrays.stream(status.split(",")).map(String::strip).filter(value -> !value.isEmpty()).collect(Collectors.toSet());
+        BackfillCompression backfillCompression = BackfillCompression.parse(compression);
+        BackfillReferencesCsv references = referencesCsv(referencesCsv);
+        printTimed(timings, metricsFile, () -> pasBackfillService.resendFailed(Path.of(file), references, jobId, failedStatuses,
+                resolvedJobId, url, resolveAccessToken(accessToken, references), backfillCompression));
+    }
+
+    @Command(name = {"pas-backfill", "watch"}, description = "Watch the backfill job report until the job is finished", group = "PAS Backfill")
+    public void watch(
             @Option(longName = "job-id", required = true) String jobId,
             @Option(longName = "url", required = true) String url,
-            @Option(longName = "output", required = false, description = "Output file path (default: stdout)") String output,
-            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken) {
+            @Option(longName = "access-token", required = false, description = "Access token for the PAS service (default: stdin)") String accessToken,
+            @Option(longName = "interval", required = false, description = "Initial poll interval in seconds (default: " + DEFAULT_WATCH_INTERVAL_SECONDS + ")") Integer interval,
+            @Option(longName = "max-interval", required = false, description = "Maximum poll interval in seconds while the report does not change (default: " + DEFAULT_WATCH_MAX_INTERVAL_SECONDS + ")") Integer maxInterval) {
 
-        Path outputPath = output == null || output.isBlank() ? null : Path.of(output);
-        System.out.println(pasBackfillService.report(jobId, url, outputPath, resolveAccessToken(accessToken)));
+        Duration initialInterval = Duration.ofSeconds(interval == null ? DEFAULT_WATCH_INTERVAL_SECONDS : interval);
+        Duration maximumInterval = maxInterval == null
+                ? max(initialInterval, Duration.ofSeconds(DEFAULT_WATCH_MAX_INTERVAL_SECONDS))
+                : Duration.ofSeconds(maxInterval);
+        BackfillWatchOptions watchOptions = new BackfillWatchOptions(initialInterval, maximumInterval);
+        pasBackfillService.watch(jobId, url, resolveAccessToken(accessToken), watchOptions, outputStream);
+    }
+
+    private static Duration max(Duration first, Duration second) {
+        return first.compareTo(second) >= 0 ? first : second;
+    }
+
+    /**
+     * Prints the result of the command. With {@code --timings} or {@code --metrics-file}, the phases of the command are
+     * measured, and reported even if the command fails.
+     */
+    private void printTimed(boolean timings, String metricsFile, Supplier<String> command) {
+        boolean writeMetricsFile = metricsFile != null && !metricsFile.isBlank();
+        if (!timings && !writeMetricsFile) {
+            outputStream.println(command.get());
+            return;
+        }
+        try (BackfillTimings backfillTimings = BackfillTimings.start()) {
+            try {
+                outputStream.println(command.get());
+            } finally {
+                if (timings) {
+                    outputStream.println(backfillTimings.format());
+                }
+                if (writeMetricsFile) {
+                    backfillTimings.writeJson(Path.of(metricsFile));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the references of {@code --references-csv}, read from the stdin of the command for {@code -}
+     */
+    private BackfillReferencesCsv referencesCsv(String referencesCsv) {
+        return STDIN_REFERENCES_CSV.equals(referencesCsv)
+                ? BackfillReferencesCsv.stdin(() -> inputStream)
+                : BackfillReferencesCsv.file(Path.of(referencesCsv));
+    }
+
+    /**
+     * Like {@link #resolveAccessToken(String)}, but stdin cannot provide the token if it provides the references.
+     */
+    private String resolveAccessToken(String accessToken, BackfillReferencesCsv references) {
+        if (references != null && references.isStdin() && (accessToken == null || accessToken.isBlank())) {
+            throw new PasBackfillException("Error: --references-csv - reads the references from stdin and requires --access-token.");
+        }
+        return resolveAccessToken(accessToken);
     }
 
     private String resolveAccessToken(String accessToken) {
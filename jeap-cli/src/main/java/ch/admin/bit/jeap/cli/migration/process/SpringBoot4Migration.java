@@ -62,7 +62,7 @@ public class SpringBoot4Migration implements Migration {
                 //    replaces/removes dependencies that changed their managed state, and renames artifacts
                 //    that were renamed in Spring Boot 4, so that the dependency update in step 2 can resolve
                 //    all dependencies without conflicts.
-                new PrepareForSpringBoot4ParentUpgrade(root),
+                new PrepareForSpringBoot4ParentUpgrade(root, processExecutor),
 
                 // 2) Update jEAP dependency versions (only locally managed, not parent-managed; including qualified versions)
                 new UpdateJeapDependencies(root, processExecutor, true),
@@ -1,6 +1,8 @@
 package ch.admin.bit.jeap.cli.migration.step.maven;
 
 import ch.admin.bit.jeap.cli.migration.step.Step;
+import ch.admin.bit.jeap.cli.process.ProcessCommand;
+import ch.admin.bit.jeap.cli.process.ProcessConcurrency;
 import ch.admin.bit.jeap.cli.process.ProcessExecutionResult;
 import ch.admin.bit.jeap.cli.process.ProcessExecutor;
 import ch.admin.bit.jeap.cli.process.SystemProcessExecutor;
@@ -10,6 +12,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -77,8 +81,18 @@ class EnsureProjectDependencyManagement implements Step {
         Path rootPom = rootDirectory.resolve(POM_XML_FILE);
         String rootPomContent = Files.exists(rootPom) ? Files.readString(rootPom, StandardCharsets.UTF_8) : "";
 
+        List<String> coordinatesToLookUp = new ArrayList<>();
         for (String coordinate : dependenciesToManage) {
-            String chosenVersion = chooseVersionForCoordinate(coordinate, pomFiles, rootPomContent);
+            if (!isSkipped(coordinate, pomFiles, rootPomContent)) {
+                coordinatesToLookUp.add(coordinate);
+            }
+        }
+        Map<String, Optional<String>> latestVersions = resolveLatestVersionsFromMavenCentral(coordinatesToLookUp);
+
+        for (String coordinate : dependenciesToManage) {
+            String chosenVersion = latestVersions.containsKey(coordinate)
+                    ? chooseVersionForCoordinate(coordinate, latestVersions.get(coordinate), pomFiles, rootPomContent)
+                    : null;
             if (chosenVersion != null) {
                 versions.put(coordinate, chosenVersion);
             } else {
@@ -89,7 +103,7 @@ class EnsureProjectDependencyManagement implements Step {
         return versions;
     }
 
-    private String chooseVersionForCoordinate(String coordinate, List<Path> pomFiles, String rootPomContent) throws IOException {
+    private boolean isSkipped(String coordinate, List<Path> pomFiles, String rootPomContent) throws IOException {
         String[] parts = splitCoordinate(coordinate);
 
         // Only manage hibernate-jpamodelgen when it is already used in the project.
@@ -97,10 +111,41 @@ class EnsureProjectDependencyManagement implements Step {
                 && !isDependencyPresentInProject(pomFiles, rootPomContent, parts[0], parts[1])) {
             log.info("Skipping project-managed dependency {}:{} because it is not present in project POMs",
                     parts[0], parts[1]);
-            return null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the latest versions of all coordinates with one call of the resolver, which may run Maven for several
+     * of them at the same time.
+     */
+    private Map<String, Optional<String>> resolveLatestVersionsFromMavenCentral(List<String> coordinates) throws IOException {
+        Map<String, Optional<String>> versions = new LinkedHashMap<>();
+        if (coordinates.isEmpty()) {
+            return versions;
+        }
+        List<Optional<String>> latestVersions;
+        try {
+            latestVersions = dependencyVersionResolver.resolveLatestVersions(coordinates);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while resolving the latest dependency versions", e);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Could not resolve latest versions from Maven Central for {} - falling back to existing project versions", coordinates);
+            log.debug("Maven Central lookup error for {}", coordinates, e);
+            latestVersions = Collections.nCopies(coordinates.size(), Optional.empty());
+        }
+        for (int index = 0; index < coordinates.size(); index++) {
+            versions.put(coordinates.get(index), latestVersions.get(index));
         }
+        return versions;
+    }
+
+    private String chooseVersionForCoordinate(String coordinate, Optional<String> versionFromMavenCentral,
+                                              List<Path> pomFiles, String rootPomContent) throws IOException {
+        String[] parts = splitCoordinate(coordinate);
 
-        Optional<String> versionFromMavenCentral = resolveLatestVersionFromMavenCentral(parts[0], parts[1]);
         if (versionFromMavenCentral.isPresent()) {
             return versionFromMavenCentral.get();
         }
@@ -176,16 +221,6 @@ class EnsureProjectDependencyManagement implements Step {
         return Optional.empty();
     }
 
-    private Optional<String> resolveLatestVersionFromMavenCentral(String groupId, String artifactId) {
-        try {
-            return dependencyVersionResolver.resolveLatestVersion(groupId, artifactId);
-        } catch (IOException | InterruptedException | IllegalArgumentException e) {
-            log.warn("Could not resolve latest version from Maven Central for {}:{} - falling back to existing project version", groupId, artifactId);
-            log.debug("Maven Central lookup error for {}:{}", groupId, artifactId, e);
-            return Optional.empty();
-        }
-    }
-
     private Set<String> ensureRootDependencyManagement(Map<String, String> versionsToManage) throws IOException {
         Path rootPom = rootDirectory.resolve(POM_XML_FILE);
         if (!Files.exists(rootPom)) {
@@ -318,14 +353,39 @@ class EnsureProjectDependencyManagement implements Step {
         return groupPattern.matcher(depBlock).find() && artifactPattern.matcher(depBlock).find();
     }
 
-    private String[] splitCoordinate(String coordinate) {
+    private static String[] splitCoordinate(String coordinate) {
         int separator = coordinate.indexOf(':');
         return new String[]{coordinate.substring(0, separator), coordinate.substring(separator + 1)};
     }
 
+    static boolean isStableVersion(String version) {
+        String lowered = version.toLowerCase();
+        return !lowered.contains("snapshot") &&
+                !lowered.contains("alpha") &&
+                !lowered.contains("beta") &&
+                !lowered.contains("rc") &&
+                !lowered.contains("milestone") &&
+                !lowered.matches(".*\\bm\\d+.*");
+    }
+
     @FunctionalInterface
     interface DependencyVersionResolver {
         Optional<String> resolveLatestVersion(String groupId, String artifactId) throws IOException, InterruptedException;
+
+        /**
+         * Looks up the latest versions of several dependencies, one after the other unless overridden.
+         *
+         * @param coordinates the dependencies as {@code groupId:artifactId}
+         * @return the latest versions in the order of the coordinates
+         */
+        default List<Optional<String>> resolveLatestVersions(List<String> coordinates) throws IOException, InterruptedException {
+            List<Optional<String>> versions = new ArrayList<>();
+            for (String coordinate : coordinates) {
+                String[] parts = splitCoordinate(coordinate);
+                versions.add(resolveLatestVersion(parts[0], parts[1]));
+            }
+            return versions;
+        }
     }
 
     static class MavenCentralVersionResolver implements DependencyVersionResolver {
@@ -348,35 +408,58 @@ class EnsureProjectDependencyManagement implements Step {
 
         @Override
         public Optional<String> resolveLatestVersion(String groupId, String artifactId) throws IOException, InterruptedException {
-            Path tempDir = Files.createTempDirectory("jeap-version-resolver-");
-            Path tempPom = tempDir.resolve(POM_XML_FILE);
+            return resolveLatestVersions(List.of(groupId + ":" + artifactId)).getFirst();
+        }
+
+        /**
+         * Runs Maven for every dependency in a temporary project of its own, up to {@link ProcessConcurrency#limit()}
+         * processes at a time. The processes share the local repository and lock each artifact they download with a
+         * file lock, see {@link RunMaven#SHARED_LOCAL_REPOSITORY_OPTIONS}.
+         */
+        @Override
+        public List<Optional<String>> resolveLatestVersions(List<String> coordinates) throws IOException, InterruptedException {
+            List<Path> tempPoms = new ArrayList<>();
             try {
-                Files.writeString(tempPom, temporaryPom(groupId, artifactId), StandardCharsets.UTF_8);
-
-                List<String> command = List.of(
-                        mavenCommand,
-                        "-f", tempPom.toString(),
-                        "-q",
-                        "-DgenerateBackupPoms=false",
-                        "-DprocessDependencyManagement=false",
-                        "-DallowSnapshots=false",
-                        "-Dincludes=" + groupId + ":" + artifactId,
-                        VERSIONS_PLUGIN_GOAL
-                );
-
-                ProcessExecutionResult result = processExecutor.executeAndCapture(command, tempDir);
-                if (result.exitCode() != 0) {
-                    return Optional.empty();
+                List<ProcessCommand> commands = new ArrayList<>();
+                for (String coordinate : coordinates) {
+                    String[] parts = splitCoordinate(coordinate);
+                    Path tempDir = Files.createTempDirectory("jeap-version-resolver-");
+                    Path tempPom = tempDir.resolve(POM_XML_FILE);
+                    tempPoms.add(tempPom);
+                    Files.writeString(tempPom, temporaryPom(parts[0], parts[1]), StandardCharsets.UTF_8);
+                    commands.add(new ProcessCommand(command(tempPom, coordinate), tempDir,
+                            coordinates.size() > 1 ? "[" + coordinate + "] " : null));
                 }
 
-                String updatedPom = Files.readString(tempPom, StandardCharsets.UTF_8);
-                return extractResolvedVersion(updatedPom)
-                        .filter(this::isStableVersion);
+                List<ProcessExecutionResult> results = processExecutor.executeAll(commands, ProcessConcurrency.limit(),
+                        ProcessExecutor.FailurePolicy.COLLECT_ALL);
+                List<Optional<String>> versions = new ArrayList<>();
+                for (int index = 0; index < coordinates.size(); index++) {
+                    versions.add(results.get(index).exitCode() != 0
+                            ? Optional.empty()
+                            : extractResolvedVersion(Files.readString(tempPoms.get(index), StandardCharsets.UTF_8))
+                                    .filter(EnsureProjectDependencyManagement::isStableVersion));
+                }
+                return versions;
             } finally {
-                deleteDirectoryQuietly(tempDir);
+                tempPoms.forEach(tempPom -> deleteDirectoryQuietly(tempPom.getParent()));
             }
         }
 
+        private List<String> command(Path tempPom, String coordinate) {
+            List<String> command = new ArrayList<>();
+            command.add(mavenCommand);
+            command.addAll(List.of("-f", tempPom.toString(), "-q"));
+            command.addAll(RunMaven.SHARED_LOCAL_REPOSITORY_OPTIONS);
+            command.addAll(List.of(
+                    "-DgenerateBackupPoms=false",
+                    "-DprocessDependencyManagement=false",
+                    "-DallowSnapshots=false",
+                    "-Dincludes=" + coordinate,
+                    VERSIONS_PLUGIN_GOAL));
+            return command;
+        }
+
         private String temporaryPom(String groupId, String artifactId) {
             return """
                     <?xml version="1.0" encoding="UTF-8"?>
@@ -409,16 +492,6 @@ class EnsureProjectDependencyManagement implements Step {
             return Optional.of(matcher.group(1).trim());
         }
 
-        private boolean isStableVersion(String version) {
-            String lowered = version.toLowerCase();
-            return !lowered.contains("snapshot") &&
-                    !lowered.contains("alpha") &&
-                    !lowered.contains("beta") &&
-                    !lowered.contains("rc") &&
-                    !lowered.contains("milestone") &&
-                    !lowered.matches(".*\\bm\\d+.*");
-        }
-
         private void deleteDirectoryQuietly(Path directory) {
             try (Stream<Path> stream = Files.walk(directory)) {
                 stream.sorted(Comparator.reverseOrder())
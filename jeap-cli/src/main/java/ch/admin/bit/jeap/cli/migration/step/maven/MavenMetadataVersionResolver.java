@@ -0,0 +1,309 @@
+package ch.admin.bit.jeap.cli.migration.step.maven;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the latest stable version of a dependency in the CLI's JVM from the {@code maven-metadata.xml} of the
+ * artifact on Maven Central, instead of forking Maven for every lookup. Versions are ordered with Maven's
+ * {@link ComparableVersion}, like the versions plugin run by the fallback resolver does.
+ * <p>
+ * The metadata is only read directly if Maven would read it from Maven Central without any configuration that only
+ * Maven applies correctly, i.e. if all of the following hold. Otherwise, all lookups run Maven through the fallback
+ * resolver.
+ * </p>
+ * <ul>
+ *     <li>There is no user settings file, neither in {@code JEAP_MAVEN_SETTINGS} nor in {@code ~/.m2/settings.xml},
+ *     so there are no mirrors, proxies, profile repositories or credentials. The global settings of the Maven
+ *     installation are expected to be the defaults.</li>
+ *     <li>{@code MAVEN_CONFIG} is empty.</li>
+ *     <li>{@code MAVEN_OPTS} and {@code JEAP_MAVEN_OPTS} contain only JVM options ({@code -X...}) and the system
+ *     properties {@code maven.repo.local} and {@code aether.enhancedLocalRepository.*}, so no trust store or proxy.</li>
+ *     <li>Neither {@code HTTPS_PROXY}, {@code HTTP_PROXY} nor {@code ALL_PROXY} is set, in any case, and the CLI's JVM
+ *     has no proxy or trust store system property.</li>
+ *     <li>None of these values contains a {@code ${...}} placeholder.</li>
+ * </ul>
+ * <p>
+ * The environment is checked on the first lookup. A lookup whose metadata cannot be read also runs Maven, and after
+ * {@value #MAX_CONSECUTIVE_FAILURES} such lookups in a row, all later lookups do.
+ * </p>
+ */
+@Slf4j
+class MavenMetadataVersionResolver implements EnsureProjectDependencyManagement.DependencyVersionResolver {
+
+    static final URI MAVEN_CENTRAL = URI.create("https://repo.maven.apache.org/maven2/");
+    static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final List<String> ALLOWED_MAVEN_OPTS_PREFIXES =
+            List.of("-X", "-Dmaven.repo.local=", "-Daether.enhancedLocalRepository.");
+    private static final List<String> PROXY_VARIABLES = List.of("HTTPS_PROXY", "HTTP_PROXY", "ALL_PROXY");
+    private static final List<String> NETWORK_SYSTEM_PROPERTIES = List.of("https.proxyHost", "http.proxyHost",
+            "socksProxyHost", "javax.net.ssl.trustStore", "javax.net.ssl.keyStore");
+
+    private final Supplier<RepositoryAccess> accessSource;
+    private final EnsureProjectDependencyManagement.DependencyVersionResolver fallback;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile RepositoryAccess access;
+
+    MavenMetadataVersionResolver(EnsureProjectDependencyManagement.DependencyVersionResolver fallback) {
+        this(MavenMetadataVersionResolver::accessFromEnvironment, fallback);
+    }
+
+    /**
+     * @param repository the repository to read the metadata from, or {@code null} to always use the fallback
+     */
+    MavenMetadataVersionResolver(HttpClient httpClient, URI repository,
+                                 EnsureProjectDependencyManagement.DependencyVersionResolver fallback) {
+        this(() -> new RepositoryAccess(repository, httpClient), fallback);
+    }
+
+    /**
+     * @param accessSource determines the repository on the first lookup
+     */
+    MavenMetadataVersionResolver(Supplier<RepositoryAccess> accessSource,
+                                 EnsureProjectDependencyManagement.DependencyVersionResolver fallback) {
+        this.accessSource = accessSource;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Optional<String> resolveLatestVersion(String groupId, String artifactId) throws IOException, InterruptedException {
+        return resolveLatestVersions(List.of(groupId + ":" + artifactId)).getFirst();
+    }
+
+    /**
+     * Reads the metadata of the dependencies one after the other, and resolves the versions of all dependencies whose
+     * metadata cannot be read with one call of the fallback resolver.
+     */
+    @Override
+    public List<Optional<String>> resolveLatestVersions(List<String> coordinates) throws IOException, InterruptedException {
+        List<Optional<String>> versions = new ArrayList<>();
+        List<String> fallbackCoordinates = new ArrayList<>();
+        for (String coordinate : coordinates) {
+            Optional<String> version = readLatestVersion(coordinate);
+            versions.add(version);
+            if (version == null) {
+                fallbackCoordinates.add(coordinate);
+            }
+        }
+        if (fallbackCoordinates.isEmpty()) {
+            return versions;
+        }
+        Iterator<Optional<String>> fallbackVersions = fallback.resolveLatestVersions(fallbackCoordinates).iterator();
+        versions.replaceAll(version -> version == null ? fallbackVersions.next() : version);
+        return versions;
+    }
+
+    /**
+     * @return the latest version from the metadata, or {@code null} if it has to be resolved with Maven
+     */
+    private Optional<String> readLatestVersion(String coordinate) throws InterruptedException {
+        RepositoryAccess repositoryAccess = access();
+        URI repository = repositoryAccess.repository();
+        if (repository == null || consecutiveFailures.get() >= MAX_CONSECUTIVE_FAILURES) {
+            return null;
+        }
+        int separator = coordinate.indexOf(':');
+        URI metadata = repository.resolve(coordinate.substring(0, separator).replace('.', '/') + "/"
+                + coordinate.substring(separator + 1) + "/maven-metadata.xml");
+        HttpResponse<byte[]> response;
+        try {
+            response = repositoryAccess.httpClient().send(HttpRequest.newBuilder(metadata).timeout(TIMEOUT).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            return failed(repository, coordinate, e.getClass().getSimpleName());
+        }
+        if (response.statusCode() == 404) {
+            consecutiveFailures.set(0);
+            return Optional.empty();
+        }
+        if (response.statusCode() != 200) {
+            return failed(repository, coordinate, "HTTP " + response.statusCode());
+        }
+        Optional<String> latestVersion;
+        try {
+            latestVersion = latestStableVersion(parse(new ByteArrayInputStream(response.body())));
+        } catch (IOException e) {
+            return failed(repository, coordinate, e.getMessage());
+        }
+        consecutiveFailures.set(0);
+        return latestVersion;
+    }
+
+    private RepositoryAccess access() {
+        RepositoryAccess current = access;
+        if (current == null) {
+            synchronized (this) {
+                current = access;
+                if (current == null) {
+                    try {
+                        current = accessSource.get();
+                    } catch (RuntimeException e) {
+                        log.info("Could not determine how to read Maven metadata ({}), resolving all versions with Maven",
+                                e.getMessage());
+                        current = RepositoryAccess.MAVEN_ONLY;
+                    }
+                    access = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Optional<String> failed(URI repository, String coordinate, String reason) {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (failures == MAX_CONSECUTIVE_FAILURES) {
+            log.info("Could not read Maven metadata from {} for {} lookups in a row ({}), resolving all further versions"
+                    + " with Maven", repository, failures, reason);
+        } else if (failures < MAX_CONSECUTIVE_FAILURES) {
+            log.info("Could not read Maven metadata of {} from {} ({}), resolving its version with Maven", coordinate,
+                    repository, reason);
+        }
+        return null;
+    }
+
+    /**
+     * @return the highest stable version of the metadata, ordered by Maven's {@link ComparableVersion}. Of versions
+     * that Maven considers equal, such as {@code 7.1.1.Final} and {@code 7.1.1}, the first listed one is returned.
+     */
+    static Optional<String> latestStableVersion(Document metadata) {
+        return childElements(metadata.getDocumentElement(), "versioning").stream()
+                .flatMap(versioning -> childElements(versioning, "versions").stream())
+                .flatMap(versions -> childElements(versions, "version").stream())
+                .map(version -> version.getTextContent().strip())
+                .filter(EnsureProjectDependencyManagement::isStableVersion)
+                .max(Comparator.comparing(ComparableVersion::new));
+    }
+
+    /**
+     * Parses an XML document without resolving a DTD or any external entity.
+     */
+    static Document parse(InputStream xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Parse errors are only reported by the exception, instead of also being printed to stderr
+            builder.setErrorHandler(new DefaultHandler());
+            return builder.parse(xml);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid XML: " + e.getMessage(), e);
+        }
+    }
+
+    private static List<Element> childElements(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int index = 0; index < nodes.getLength(); index++) {
+            Node node = nodes.item(index);
+            if (node instanceof Element element && name.equals(element.getTagName())) {
+                children.add(element);
+            }
+        }
+        return children;
+    }
+
+    private static RepositoryAccess accessFromEnvironment() {
+        URI repository = repositoryFromEnvironment(System.getenv(), Path.of(System.getProperty("user.home")),
+                System.getProperties());
+        if (repository == null) {
+            return RepositoryAccess.MAVEN_ONLY;
+        }
+        return new RepositoryAccess(repository, HttpClient.newBuilder()
+                .connectTimeout(TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .proxy(HttpClient.Builder.NO_PROXY)
+                .build());
+    }
+
+    /**
+     * @return Maven Central if its metadata can be read directly, or {@code null} if the lookups have to run Maven
+     */
+    static URI repositoryFromEnvironment(Map<String, String> environment, Path userHome, Properties systemProperties) {
+        String settings = environment.get("JEAP_MAVEN_SETTINGS");
+        if (hasText(settings) && (settings.contains("${") || Files.exists(Path.of(settings)))) {
+            return null;
+        }
+        if (Files.exists(userHome.resolve(".m2").resolve("settings.xml"))) {
+            return null;
+        }
+        if (hasText(environment.get("MAVEN_CONFIG"))) {
+            return null;
+        }
+        if (!onlyAllowedMavenOpts(environment.get("MAVEN_OPTS"))
+                || !onlyAllowedMavenOpts(environment.get("JEAP_MAVEN_OPTS"))) {
+            return null;
+        }
+        for (String variable : PROXY_VARIABLES) {
+            if (hasText(environment.get(variable)) || hasText(environment.get(variable.toLowerCase(Locale.ROOT)))) {
+                return null;
+            }
+        }
+        for (String property : NETWORK_SYSTEM_PROPERTIES) {
+            if (hasText(systemProperties.getProperty(property))) {
+                return null;
+            }
+        }
+        return MAVEN_CENTRAL;
+    }
+
+    private static boolean onlyAllowedMavenOpts(String mavenOpts) {
+        if (!hasText(mavenOpts)) {
+            return true;
+        }
+        if (mavenOpts.contains("${") || mavenOpts.contains("\"") || mavenOpts.contains("'")) {
+            return false;
+        }
+        return Arrays.stream(mavenOpts.strip().split("\\s+"))
+                .allMatch(option -> ALLOWED_MAVEN_OPTS_PREFIXES.stream().anyMatch(option::startsWith));
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    /**
+     * The repository to read the metadata from and the client to read it with.
+     *
+     * @param repository the repository, or {@code null} if all lookups have to run Maven
+     * @param httpClient the client, or {@code null} without repository
+     */
+    record RepositoryAccess(URI repository, HttpClient httpClient) {
+
+        static final RepositoryAccess MAVEN_ONLY = new RepositoryAccess(null, null);
+    }
+}
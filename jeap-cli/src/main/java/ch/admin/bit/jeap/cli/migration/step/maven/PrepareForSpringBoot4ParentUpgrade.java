@@ -1,7 +1,7 @@
 package ch.admin.bit.jeap.cli.migration.step.maven;
 
 import ch.admin.bit.jeap.cli.migration.step.Step;
-import ch.admin.bit.jeap.cli.process.SystemProcessExecutor;
+import ch.admin.bit.jeap.cli.process.ProcessExecutor;
 
 import java.nio.file.Path;
 import java.util.List;
@@ -20,8 +20,10 @@ public class PrepareForSpringBoot4ParentUpgrade implements Step {
     // DEPENDENCIES_TO_PROJECT_MANAGE lists coordinates that are *no longer*
     // managed (or managed at a different version) by the new parent BOMs and
     // therefore need an explicit <dependencyManagement> entry in the project.
-    // The resolved version is looked up through Maven itself to respect project
-    // settings (mirrors, proxies, custom CAs). When the target parent versions change, review this
+    // The resolved version is read from the maven-metadata.xml of Maven Central
+    // in the CLI's JVM if Maven is not configured at all (no settings file,
+    // proxy or trust store). Otherwise, or if Maven Central cannot be read, it
+    // is looked up through Maven itself. When the target parent versions change, review this
     // list: dependencies re-added to the BOM must be removed here; newly
     // unmanaged dependencies must be added.
     //
@@ -61,8 +63,9 @@ public class PrepareForSpringBoot4ParentUpgrade implements Step {
 
     private final List<Step> subSteps;
 
-    public PrepareForSpringBoot4ParentUpgrade(Path rootDirectory) {
-        this(rootDirectory, new EnsureProjectDependencyManagement.MavenCentralVersionResolver(rootDirectory, new SystemProcessExecutor()));
+    public PrepareForSpringBoot4ParentUpgrade(Path rootDirectory, ProcessExecutor processExecutor) {
+        this(rootDirectory, new MavenMetadataVersionResolver(
+                new EnsureProjectDependencyManagement.MavenCentralVersionResolver(rootDirectory, processExecutor)));
     }
 
     PrepareForSpringBoot4ParentUpgrade(Path rootDirectory,
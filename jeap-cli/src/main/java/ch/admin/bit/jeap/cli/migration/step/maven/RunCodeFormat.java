@@ -1,6 +1,9 @@
 package ch.admin.bit.jeap.cli.migration.step.maven;
 
 import ch.admin.bit.jeap.cli.migration.step.Step;
+import ch.admin.bit.jeap.cli.process.ProcessCommand;
+import ch.admin.bit.jeap.cli.process.ProcessConcurrency;
+import ch.admin.bit.jeap.cli.process.ProcessExecutionResult;
 import ch.admin.bit.jeap.cli.process.ProcessExecutor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -8,8 +11,12 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Stream;
 
 /**
@@ -25,6 +32,11 @@ import java.util.stream.Stream;
  * files automatically via {@code git diff}, so only migration-touched files are reformatted.
  * </p>
  * If neither plugin is found in any pom.xml, this step is skipped silently.
+ * <p>
+ * The modules with a format plugin run concurrently, up to {@link ProcessConcurrency#limit()} at a time. A module
+ * nested in another module runs only after the enclosing one, because the reactor of the enclosing module formats it
+ * too.
+ * </p>
  */
 @Slf4j
 public class RunCodeFormat implements Step {
@@ -51,16 +63,58 @@ public class RunCodeFormat implements Step {
         }
         if (spotless) {
             log.info("Running spotless:apply to fix formatting violations introduced by OpenRewrite");
-            for (Path moduleDirectory : findPomDirectoriesWithPlugin(SPOTLESS_PLUGIN)) {
-                new RunMaven(moduleDirectory, processExecutor, "spotless:apply").execute();
-            }
+            runInModules(findPomDirectoriesWithPlugin(SPOTLESS_PLUGIN), "spotless:apply");
         }
         if (gitCodeFormat) {
             log.info("Running git-code-format:format-code on git-modified files");
-            for (Path moduleDirectory : findPomDirectoriesWithPlugin(GIT_CODE_FORMAT_PLUGIN)) {
-                new RunMaven(moduleDirectory, processExecutor, "com.cosium.code:git-code-format-maven-plugin:format-code").execute();
+            runInModules(findPomDirectoriesWithPlugin(GIT_CODE_FORMAT_PLUGIN), "com.cosium.code:git-code-format-maven-plugin:format-code");
+        }
+    }
+
+    /**
+     * Runs Maven in all module directories, level by level of nesting, and throws the first failure of a level
+     * after all its modules finished.
+     */
+    private void runInModules(Set<Path> moduleDirectories, String mavenArg) throws IOException, InterruptedException {
+        for (List<Path> level : nestingLevels(moduleDirectories)) {
+            List<String> mavenArgs = new ArrayList<>();
+            if (level.size() > 1) {
+                mavenArgs.addAll(RunMaven.SHARED_LOCAL_REPOSITORY_OPTIONS);
+            }
+            mavenArgs.add(mavenArg);
+            List<RunMaven> runs = level.stream()
+                    .map(moduleDirectory -> new RunMaven(moduleDirectory, processExecutor, mavenArgs.toArray(String[]::new)))
+                    .toList();
+            List<ProcessCommand> commands = new ArrayList<>();
+            for (int index = 0; index < runs.size(); index++) {
+                commands.add(runs.get(index).command(level.size() > 1 ? "[" + moduleName(level.get(index)) + "] " : null));
             }
+            List<ProcessExecutionResult> results = processExecutor.executeAll(commands, ProcessConcurrency.limit(),
+                    ProcessExecutor.FailurePolicy.COLLECT_ALL);
+            for (int index = 0; index < runs.size(); index++) {
+                runs.get(index).verify(results.get(index));
+            }
+        }
+    }
+
+    /**
+     * Groups directories by the number of other given directories they are nested in, so that no directory of a group
+     * contains another one of the same group.
+     */
+    static List<List<Path>> nestingLevels(Set<Path> directories) {
+        Map<Integer, List<Path>> levels = new TreeMap<>();
+        for (Path directory : directories) {
+            long enclosing = directories.stream()
+                    .filter(other -> !other.equals(directory) && directory.startsWith(other))
+                    .count();
+            levels.computeIfAbsent((int) enclosing, level -> new ArrayList<>()).add(directory);
         }
+        return List.copyOf(levels.values());
+    }
+
+    private String moduleName(Path moduleDirectory) {
+        String relativePath = rootDirectory.relativize(moduleDirectory).toString();
+        return relativePath.isEmpty() ? "." : relativePath;
     }
 
     /**
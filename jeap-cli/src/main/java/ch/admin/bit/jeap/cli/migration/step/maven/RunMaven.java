@@ -1,6 +1,7 @@
 package ch.admin.bit.jeap.cli.migration.step.maven;
 
 import ch.admin.bit.jeap.cli.migration.step.Step;
+import ch.admin.bit.jeap.cli.process.ProcessCommand;
 import ch.admin.bit.jeap.cli.process.ProcessExecutor;
 import ch.admin.bit.jeap.cli.process.ProcessExecutionResult;
 
@@ -21,6 +22,17 @@ import java.util.List;
  */
 public class RunMaven implements Step {
 
+    /**
+     * Options for Maven processes that run at the same time, to let them share the local repository: each process
+     * holds a file lock named after the coordinates of an artifact while it downloads or reads the artifact. Maven
+     * versions before 3.9 ignore the options.
+     */
+    static final List<String> SHARED_LOCAL_REPOSITORY_OPTIONS = List.of(
+            "-Daether.syncContext.named.factory=file-lock",
+            "-Daether.syncContext.named.nameMapper=file-gav");
+
+    private static final int OUTPUT_TAIL_LINES = 200;
+
     private final Path workingDirectory;
     private final List<String> mavenArgs;
     private final ProcessExecutor processExecutor;
@@ -45,30 +57,42 @@ public class RunMaven implements Step {
 
     @Override
     public void execute() throws IOException, InterruptedException {
+        verify(processExecutor.executeAndCapture(command(null).command(), workingDirectory));
+    }
+
+    /**
+     * Returns the Maven command of this step, to run it together with other commands by
+     * {@link ProcessExecutor#executeAll}.
+     */
+    ProcessCommand command(String outputPrefix) {
         List<String> command = new ArrayList<>();
 
         command.add(mavenCommand);
         // Suppress per-artifact download/upload progress lines to keep the output readable
         command.add("-ntp");
         command.addAll(mavenArgs);
+        return new ProcessCommand(command, workingDirectory, outputPrefix);
+    }
 
-        ProcessExecutionResult result = processExecutor.executeAndCapture(command, workingDirectory);
+    /**
+     * Throws a {@link MavenCommandException} if Maven exited with a non-zero status code.
+     */
+    void verify(ProcessExecutionResult result) throws MavenCommandException {
         int exitCode = result.exitCode();
 
         if (exitCode != 0) {
             throw new MavenCommandException(exitCode,
                     mavenCommand + " " + String.join(" ", mavenArgs),
-                    tail(result.combinedOutput(), 200));
+                    output(result));
         }
     }
 
-    private String tail(String text, int maxLines) {
-        if (text == null || text.isBlank()) {
-            return "";
+    private String output(ProcessExecutionResult result) {
+        String tail = result.tail(OUTPUT_TAIL_LINES);
+        if (result.outputLog() == null) {
+            return tail;
         }
-        String[] lines = text.split("\\R");
-        int start = Math.max(0, lines.length - maxLines);
-        return String.join(System.lineSeparator(), List.of(lines).subList(start, lines.length));
+        return tail + System.lineSeparator() + "Complete Maven output: " + result.outputLog();
     }
 
     @Override
@@ -0,0 +1,138 @@
+package ch.admin.bit.jeap.cli.process;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+/**
+ * Source of the GitHub token passed to Maven as {@code CERTIFICATES_REPO_GIT_TOKEN}, shared by all process launches
+ * of a CLI run.
+ * <p>
+ * A token in {@code GH_TOKEN} or {@code GITHUB_TOKEN} of the process environment is used as is. Otherwise, the token
+ * is resolved with {@code gh auth token} in the working directory and with the environment of the launch, on a virtual
+ * thread started by {@link #prefetch(Path)} or by the first process launch. Every later launch reuses a resolved
+ * token. A failed resolution is not kept, so the next launch tries again.
+ * </p>
+ */
+@Slf4j
+@Component
+public final class GitHubTokenProvider {
+
+    static final String CERT_REPO_TOKEN = "CERTIFICATES_REPO_GIT_TOKEN";
+
+    private final BiFunction<Path, Map<String, String>, String> ghCliResolver;
+    private final AtomicReference<CompletableFuture<String>> ghCliToken = new AtomicReference<>();
+
+    public GitHubTokenProvider() {
+        this(GitHubTokenProvider::resolveViaGhCli);
+    }
+
+    /**
+     * @param ghCliResolver resolves the token in a working directory with an environment, or returns {@code null}
+     */
+    GitHubTokenProvider(BiFunction<Path, Map<String, String>, String> ghCliResolver) {
+        this.ghCliResolver = ghCliResolver;
+    }
+
+    /**
+     * Starts resolving the token with {@code gh auth token} in the background, unless it was started already or the
+     * process environment provides a token.
+     *
+     * @param workingDirectory the directory in which the processes of the run are launched
+     */
+    public void prefetch(Path workingDirectory) {
+        prefetch(workingDirectory, System.getenv());
+    }
+
+    void prefetch(Path workingDirectory, Map<String, String> environment) {
+        if (!hasText(environment.get(CERT_REPO_TOKEN)) && environmentToken(environment) == null) {
+            ghCliToken(workingDirectory, environment);
+        }
+    }
+
+    /**
+     * @param environment      the environment of the process to launch
+     * @param workingDirectory the working directory of the process to launch
+     * @return the token, or {@code null} if none could be resolved
+     */
+    String token(Map<String, String> environment, Path workingDirectory) {
+        String token = environmentToken(environment);
+        return token != null ? token : ghCliToken(workingDirectory, environment).join();
+    }
+
+    private static String environmentToken(Map<String, String> environment) {
+        if (hasText(environment.get("GH_TOKEN"))) {
+            return environment.get("GH_TOKEN");
+        }
+        if (hasText(environment.get("GITHUB_TOKEN"))) {
+            return environment.get("GITHUB_TOKEN");
+        }
+        return null;
+    }
+
+    private CompletableFuture<String> ghCliToken(Path workingDirectory, Map<String, String> environment) {
+        CompletableFuture<String> token = ghCliToken.get();
+        if (token != null) {
+            return token;
+        }
+        CompletableFuture<String> started = new CompletableFuture<>();
+        if (!ghCliToken.compareAndSet(null, started)) {
+            return ghCliToken.get();
+        }
+        // The environment of a launch is changed afterwards, e.g. by adding the token itself
+        Map<String, String> ghEnvironment = new HashMap<>(environment);
+        Thread.ofVirtual().name("gh-auth-token").start(() -> {
+            String resolved = null;
+            try {
+                resolved = ghCliResolver.apply(workingDirectory, ghEnvironment);
+            } catch (RuntimeException e) {
+                log.warn("gh auth token failed: {}", e.getMessage());
+            }
+            if (resolved == null) {
+                ghCliToken.compareAndSet(started, null);
+            }
+            started.complete(resolved);
+        });
+        return started;
+    }
+
+    private static String resolveViaGhCli(Path workingDirectory, Map<String, String> environment) {
+        try {
+            ProcessBuilder ghProcessBuilder = new ProcessBuilder("gh", "auth", "token")
+                    .directory(workingDirectory.toFile())
+                    .redirectErrorStream(true);
+            ghProcessBuilder.environment().putAll(environment);
+
+            Process ghProcess = ghProcessBuilder.start();
+            String outputLine;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(ghProcess.getInputStream(), StandardCharsets.UTF_8))) {
+                outputLine = reader.readLine();
+            }
+            int exitCode = ghProcess.waitFor();
+            if (exitCode == 0 && hasText(outputLine)) {
+                return outputLine.trim();
+            }
+            log.warn("gh auth token failed (exitCode={})", exitCode);
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("gh auth token failed: {}", e.getClass().getSimpleName());
+        }
+        return null;
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+}
@@ -0,0 +1,153 @@
+package ch.admin.bit.jeap.cli.process;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes Maven invocations through the Maven Daemon (mvnd), which keeps a JVM with loaded plugins running between
+ * invocations, so that only the first Maven call of a migration pays for the JVM startup.
+ * <p>
+ * Enabled with {@code JEAP_MAVEN_DAEMON}: {@code true} uses {@code mvnd} from the {@code PATH}, any other value is the
+ * path of the {@code mvnd} executable. The Docker image contains no mvnd, so the daemon is only used by a CLI run on
+ * the host. mvnd runs the Maven version it is distributed with, not the one of the project's Maven Wrapper.
+ * </p>
+ */
+@Slf4j
+final class MavenDaemon {
+
+    static final String JEAP_MAVEN_DAEMON = "JEAP_MAVEN_DAEMON";
+
+    private final String executable;
+
+    MavenDaemon(String executable) {
+        this.executable = executable;
+    }
+
+    /**
+     * @return the daemon selected by {@code JEAP_MAVEN_DAEMON}, or {@code null} if none is selected or the selected
+     * one is not available
+     */
+    static MavenDaemon fromEnvironment(Map<String, String> environment) {
+        String value = environment.get(JEAP_MAVEN_DAEMON);
+        if (value == null || value.isBlank() || "false".equalsIgnoreCase(value.strip())) {
+            return null;
+        }
+        Path executable = "true".equalsIgnoreCase(value.strip())
+                ? findOnPath(environment.get("PATH"))
+                : Path.of(value.strip());
+        if (executable == null || !Files.isExecutable(executable)) {
+            log.warn("Maven Daemon {}={} is not available, running Maven without daemon.", JEAP_MAVEN_DAEMON, value);
+            return null;
+        }
+        log.info("Running Maven with the Maven Daemon {}", executable);
+        return new MavenDaemon(executable.toString());
+    }
+
+    private static Path findOnPath(String path) {
+        if (path == null) {
+            return null;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            Path candidate = Path.of(directory, "mvnd");
+            if (!directory.isBlank() && Files.isExecutable(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    String executable() {
+        return executable;
+    }
+
+    /**
+     * Replaces the Maven executable of a command with mvnd.
+     * <p>
+     * mvnd reads neither {@code MAVEN_OPTS} nor {@code MAVEN_CONFIG}. The options of {@code MAVEN_CONFIG} and the
+     * system properties of {@code MAVEN_OPTS} are therefore passed as arguments, split by {@link #splitOptions(String)},
+     * like the {@code mvn} script passes {@code MAVEN_CONFIG} before the arguments of the command. The JVM options of
+     * {@code MAVEN_OPTS} cannot be applied to the running daemon and are dropped with a warning. The output is written
+     * as plain lines instead of the interactive display, and the build runs on one thread like with {@code mvn}, unless
+     * the command or {@code MAVEN_CONFIG} sets the number of threads.
+     * </p>
+     */
+    List<String> route(List<String> command, String mavenOpts, String mavenConfig) {
+        List<String> systemProperties = new ArrayList<>();
+        List<String> droppedOptions = new ArrayList<>();
+        if (mavenOpts != null) {
+            for (String option : splitOptions(mavenOpts)) {
+                (option.startsWith("-D") ? systemProperties : droppedOptions).add(option);
+            }
+        }
+        if (!droppedOptions.isEmpty()) {
+            log.warn("The Maven Daemon ignores the JVM options {} of MAVEN_OPTS.", droppedOptions);
+        }
+        List<String> configOptions = mavenConfig == null ? List.of() : splitOptions(mavenConfig);
+        List<String> arguments = new ArrayList<>(configOptions);
+        arguments.addAll(command.subList(1, command.size()));
+
+        List<String> routed = new ArrayList<>(command.size() + systemProperties.size() + configOptions.size() + 2);
+        routed.add(executable);
+        routed.add("--raw-streams");
+        if (arguments.stream().noneMatch(arg -> arg.startsWith("-T") || arg.startsWith("--threads"))) {
+            routed.add("-T1");
+        }
+        routed.addAll(systemProperties);
+        routed.addAll(arguments);
+        return routed;
+    }
+
+    /**
+     * Splits options at unquoted whitespace like a shell, so that {@code -Dfoo="a b"} is the single option
+     * {@code -Dfoo=a b}. Single quotes keep everything up to the next single quote. A backslash escapes the next
+     * character outside of quotes, and only {@code " \ $ `} within double quotes. The quotes and escaping
+     * backslashes are removed. Variables are not expanded.
+     */
+    static List<String> splitOptions(String options) {
+        List<String> split = new ArrayList<>();
+        StringBuilder option = new StringBuilder();
+        boolean inOption = false;
+        char quote = 0;
+        for (int index = 0; index < options.length(); index++) {
+            char character = options.charAt(index);
+            if (character == '\\' && quote != '\'' && index + 1 < options.length()) {
+                char escaped = options.charAt(index + 1);
+                if (quote == 0 || "\"\\$`".indexOf(escaped) >= 0) {
+                    option.append(escaped);
+                    index++;
+                } else {
+                    option.append(character);
+                }
+                inOption = true;
+            } else if (quote != 0) {
+                if (character == quote) {
+                    quote = 0;
+                } else {
+                    option.append(character);
+                }
+            } else if (character == '"' || character == '\'') {
+                quote = character;
+                inOption = true;
+            } else if (Character.isWhitespace(character)) {
+                if (inOption) {
+                    split.add(option.toString());
+                    option.setLength(0);
+                    inOption = false;
+                }
+            } else {
+                option.append(character);
+                inOption = true;
+            }
+        }
+        if (inOption) {
+            split.add(option.toString());
+        }
+        return split;
+    }
+}
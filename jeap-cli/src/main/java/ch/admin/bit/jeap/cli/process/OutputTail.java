@@ -0,0 +1,46 @@
+package ch.admin.bit.jeap.cli.process;
+
+/**
+ * Ring buffer of the last lines of a process output. Older lines are overwritten, so the memory held does not grow
+ * with the length of the output.
+ */
+final class OutputTail {
+
+    private final String[] lines;
+    private int next;
+    private long totalLines;
+
+    OutputTail(int maxLines) {
+        if (maxLines < 1) {
+            throw new IllegalArgumentException("maxLines must be positive, got " + maxLines);
+        }
+        this.lines = new String[maxLines];
+    }
+
+    void append(String line) {
+        lines[next] = line;
+        next = (next + 1) % lines.length;
+        totalLines++;
+    }
+
+    /**
+     * @return the number of lines appended that are no longer held
+     */
+    long omittedLines() {
+        return Math.max(0, totalLines - lines.length);
+    }
+
+    /**
+     * @return the lines held, oldest first, each followed by a line separator
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        int held = (int) Math.min(totalLines, lines.length);
+        int first = totalLines > lines.length ? next : 0;
+        for (int index = 0; index < held; index++) {
+            output.append(lines[(first + index) % lines.length]).append(System.lineSeparator());
+        }
+        return output.toString();
+    }
+}
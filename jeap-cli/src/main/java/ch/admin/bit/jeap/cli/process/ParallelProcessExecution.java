@@ -0,0 +1,110 @@
+package ch.admin.bit.jeap.cli.process;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Runs a batch of commands of a {@link ProcessExecutor}, or of other tasks that may start processes, on virtual
+ * threads, see {@link ProcessExecutor#executeAll} and {@link ProcessConcurrency#runAll}.
+ */
+final class ParallelProcessExecution {
+
+    private ParallelProcessExecution() {
+    }
+
+    static List<ProcessExecutionResult> executeAll(ProcessExecutor executor, List<ProcessCommand> commands,
+                                                   int concurrency, ProcessExecutor.FailurePolicy failurePolicy)
+            throws IOException, InterruptedException {
+        List<Callable<ProcessExecutionResult>> tasks = commands.stream()
+                .<Callable<ProcessExecutionResult>>map(command -> () -> executor.executeAndCapture(command.command(),
+                        command.workingDirectory(), command.outputPrefix()))
+                .toList();
+        return runAll(tasks, concurrency, failurePolicy, result -> result.exitCode() != 0);
+    }
+
+    /**
+     * Runs the tasks on virtual threads, at most {@code concurrency} at a time, starting them in the given order.
+     *
+     * @param isFailure whether a result counts as a failure for {@link ProcessExecutor.FailurePolicy#FAIL_FAST}
+     * @return the results in the order of the tasks, {@code null} for tasks that were not started
+     */
+    static <T> List<T> runAll(List<? extends Callable<T>> tasks, int concurrency,
+                              ProcessExecutor.FailurePolicy failurePolicy, Predicate<? super T> isFailure)
+            throws IOException, InterruptedException {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1, got " + concurrency);
+        }
+        List<T> results = new ArrayList<>(Collections.nCopies(tasks.size(), null));
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        Semaphore permits = new Semaphore(concurrency);
+        AtomicBoolean failed = new AtomicBoolean();
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int index = 0; index < tasks.size(); index++) {
+                permits.acquire();
+                if (failurePolicy == ProcessExecutor.FailurePolicy.FAIL_FAST && failed.get()) {
+                    permits.release();
+                    break;
+                }
+                Callable<T> task = tasks.get(index);
+                int resultIndex = index;
+                futures.add(threads.submit(() -> {
+                    try {
+                        T result = task.call();
+                        results.set(resultIndex, result);
+                        if (isFailure.test(result)) {
+                            failed.set(true);
+                        }
+                        return null;
+                    } catch (Exception e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        rethrowFirstFailure(futures);
+        return Collections.unmodifiableList(results);
+    }
+
+    private static void rethrowFirstFailure(List<Future<?>> futures) throws IOException, InterruptedException {
+        Exception first = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                if (first == null) {
+                    first = e.getCause() instanceof Exception cause ? cause : e;
+                } else {
+                    first.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (first instanceof IOException e) {
+            throw e;
+        }
+        if (first instanceof InterruptedException e) {
+            throw e;
+        }
+        if (first instanceof RuntimeException e) {
+            throw e;
+        }
+        if (first != null) {
+            throw new IOException(first);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ch.admin.bit.jeap.cli.process;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Command to run with {@link ProcessExecutor#executeAll}.
+ *
+ * @param command          the command and its arguments
+ * @param workingDirectory the directory where the command is executed
+ * @param outputPrefix     text put in front of every output line printed to the console, to tell the output of
+ *                         concurrent processes apart, or {@code null} for none
+ */
+public record ProcessCommand(List<String> command, Path workingDirectory, String outputPrefix) {
+
+    public ProcessCommand(List<String> command, Path workingDirectory) {
+        this(command, workingDirectory, null);
+    }
+}
@@ -0,0 +1,144 @@
+package ch.admin.bit.jeap.cli.process;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Default number of external processes that {@link ProcessExecutor#executeAll} runs at the same time.
+ * <p>
+ * One process per CPU core, but no more than fit into the available memory at {@value #MEMORY_PER_PROCESS_MIB} MiB
+ * each, about what a Maven JVM needs. {@code JEAP_PROCESS_CONCURRENCY} sets another number.
+ * </p>
+ * <p>
+ * The available memory is {@code MemAvailable} of {@code /proc/meminfo}, which counts the page cache as available
+ * because the kernel reclaims it when processes need memory. In a container with a cgroup memory limit, it is at
+ * most the limit minus the memory used by the container without its reclaimable page cache. Where neither is known,
+ * such as on macOS and Windows, only the CPU cores limit the number of processes.
+ * </p>
+ */
+@Slf4j
+public final class ProcessConcurrency {
+
+    static final String JEAP_PROCESS_CONCURRENCY = "JEAP_PROCESS_CONCURRENCY";
+    static final long MEMORY_PER_PROCESS_MIB = 1024;
+
+    private ProcessConcurrency() {
+    }
+
+    /**
+     * Runs tasks that may each start an external process on virtual threads, at most {@link #limit()} at a time, like
+     * {@link ProcessExecutor#executeAll} runs commands. All tasks run even if some fail.
+     *
+     * @return the results in the order of the tasks
+     * @throws IOException          the first I/O error of a task, after all tasks finished
+     * @throws InterruptedException if the current thread is interrupted while waiting for the tasks
+     */
+    static <T> List<T> runAll(List<? extends Callable<T>> tasks) throws IOException, InterruptedException {
+        return ParallelProcessExecution.runAll(tasks, limit(), ProcessExecutor.FailurePolicy.COLLECT_ALL, result -> false);
+    }
+
+    public static int limit() {
+        return limit(System.getenv(JEAP_PROCESS_CONCURRENCY), Runtime.getRuntime().availableProcessors(),
+                availableMemoryBytes(Path.of("/proc/meminfo"), Path.of("/sys/fs/cgroup")));
+    }
+
+    /**
+     * @param configured           value of {@code JEAP_PROCESS_CONCURRENCY}, or {@code null}
+     * @param processors           number of available CPU cores
+     * @param availableMemoryBytes available memory, or a negative value if unknown
+     */
+    static int limit(String configured, int processors, long availableMemoryBytes) {
+        if (configured != null && !configured.isBlank()) {
+            try {
+                int limit = Integer.parseInt(configured.strip());
+                if (limit > 0) {
+                    return limit;
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the default
+            }
+            log.warn("Ignoring invalid {}={}, using the default.", JEAP_PROCESS_CONCURRENCY, configured);
+        }
+        int limit = Math.max(1, processors);
+        if (availableMemoryBytes >= 0) {
+            limit = (int) Math.min(limit, Math.max(1, availableMemoryBytes / (MEMORY_PER_PROCESS_MIB * 1024 * 1024)));
+        }
+        return limit;
+    }
+
+    /**
+     * @param meminfo         the {@code /proc/meminfo} file
+     * @param cgroupDirectory the directory of the cgroup v2 or v1 memory controller files of the process
+     * @return the available memory, or {@code -1} if unknown
+     */
+    static long availableMemoryBytes(Path meminfo, Path cgroupDirectory) {
+        long available = meminfoValue(meminfo, "MemAvailable:");
+        long cgroupAvailable = cgroupAvailableBytes(cgroupDirectory);
+        if (available < 0 || (cgroupAvailable >= 0 && cgroupAvailable < available)) {
+            return cgroupAvailable;
+        }
+        return available;
+    }
+
+    private static long cgroupAvailableBytes(Path cgroupDirectory) {
+        // cgroup v2, where the limit is "max" without a limit
+        long limit = number(cgroupDirectory.resolve("memory.max"));
+        long usage = number(cgroupDirectory.resolve("memory.current"));
+        Path stat = cgroupDirectory.resolve("memory.stat");
+        String inactiveFile = "inactive_file";
+        if (limit < 0 || usage < 0) {
+            // cgroup v1, where the limit is a huge number without a limit
+            Path v1 = cgroupDirectory.resolve("memory");
+            limit = number(v1.resolve("memory.limit_in_bytes"));
+            usage = number(v1.resolve("memory.usage_in_bytes"));
+            stat = v1.resolve("memory.stat");
+            inactiveFile = "total_inactive_file";
+        }
+        if (limit < 0 || usage < 0 || limit >= Long.MAX_VALUE / 2) {
+            return -1;
+        }
+        // Like the working set of the container runtimes, the usage does not count the inactive page cache
+        long reclaimable = Math.max(0, meminfoValue(stat, inactiveFile + " "));
+        return Math.max(0, limit - Math.max(0, usage - reclaimable));
+    }
+
+    /**
+     * @return the value of the line starting with the key, in bytes for {@code /proc/meminfo}, or {@code -1}
+     */
+    private static long meminfoValue(Path file, String key) {
+        for (String line : lines(file)) {
+            if (line.startsWith(key)) {
+                String[] fields = line.substring(key.length()).strip().split("\\s+");
+                try {
+                    long value = Long.parseLong(fields[0]);
+                    return fields.length > 1 && fields[1].equalsIgnoreCase("kB") ? value * 1024 : value;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long number(Path file) {
+        List<String> lines = lines(file);
+        try {
+            return lines.isEmpty() ? -1 : Long.parseLong(lines.getFirst().strip());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static List<String> lines(Path file) {
+        try {
+            return Files.isReadable(file) ? Files.readAllLines(file) : List.of();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+}
@@ -1,10 +1,50 @@
 package ch.admin.bit.jeap.cli.process;
 
+import java.nio.file.Path;
+
 /**
  * Result of an executed external process.
  *
  * @param exitCode       process exit code
- * @param combinedOutput merged stdout and stderr output
+ * @param combinedOutput merged stdout and stderr output, or only its last lines if {@code omittedLines} is positive
+ * @param outputLog      file with the complete output, or {@code null} if it was not written to a file
+ * @param omittedLines   number of lines at the start of the output that are not part of {@code combinedOutput}
  */
-public record ProcessExecutionResult(int exitCode, String combinedOutput) {
+public record ProcessExecutionResult(int exitCode, String combinedOutput, Path outputLog, long omittedLines) {
+
+    public ProcessExecutionResult(int exitCode, String combinedOutput) {
+        this(exitCode, combinedOutput, null, 0);
+    }
+
+    /**
+     * Returns the last lines of the captured output without splitting the whole output into lines.
+     *
+     * @param maxLines maximum number of lines to return
+     * @return the last lines joined by line separators, or an empty string if there is no output
+     */
+    public String tail(int maxLines) {
+        if (combinedOutput == null || combinedOutput.isBlank()) {
+            return "";
+        }
+        int end = combinedOutput.length();
+        while (end > 0 && isLineBreak(combinedOutput.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        int lines = 0;
+        while (start > 0) {
+            char character = combinedOutput.charAt(start - 1);
+            if (character == '\n' || (character == '\r' && combinedOutput.charAt(start) != '\n')) {
+                if (++lines == maxLines) {
+                    break;
+                }
+            }
+            start--;
+        }
+        return combinedOutput.substring(start, end).replaceAll("\\R", System.lineSeparator());
+    }
+
+    private static boolean isLineBreak(char character) {
+        return character == '\n' || character == '\r';
+    }
 }
@@ -32,4 +32,43 @@ public interface ProcessExecutor {
         int exitCode = execute(command, workingDirectory);
         return new ProcessExecutionResult(exitCode, "");
     }
+
+    /**
+     * Executes a command and prefixes every output line printed to the console.
+     * Implementations that do not print the output ignore the prefix.
+     */
+    default ProcessExecutionResult executeAndCapture(List<String> command, Path workingDirectory, String outputPrefix)
+            throws IOException, InterruptedException {
+        return executeAndCapture(command, workingDirectory);
+    }
+
+    /**
+     * Executes commands concurrently on virtual threads, starting them in the given order.
+     *
+     * @param commands      the commands to execute
+     * @param concurrency   maximum number of processes running at the same time, see {@link ProcessConcurrency#limit()}
+     * @param failurePolicy whether to start the remaining commands after a command failed
+     * @return the results in the order of the commands, {@code null} for commands that were not started
+     * @throws IOException          the first I/O error of a command, after all started commands finished
+     * @throws InterruptedException if the current thread is interrupted while waiting for the processes
+     */
+    default List<ProcessExecutionResult> executeAll(List<ProcessCommand> commands, int concurrency,
+                                                    FailurePolicy failurePolicy)
+            throws IOException, InterruptedException {
+        return ParallelProcessExecution.executeAll(this, commands, concurrency, failurePolicy);
+    }
+
+    /**
+     * Behavior of {@link #executeAll} after a command exited with a non-zero code or threw an exception.
+     */
+    enum FailurePolicy {
+        /**
+         * Start no further commands, let the running ones finish.
+         */
+        FAIL_FAST,
+        /**
+         * Run all commands regardless of failures.
+         */
+        COLLECT_ALL
+    }
 }
@@ -1,11 +1,14 @@
 package ch.admin.bit.jeap.cli.process;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -20,14 +23,58 @@ import java.util.regex.Pattern;
  * This implementation inherits I/O from the parent process, allowing command output to be displayed
  * to the user in real-time.
  * </p>
+ * <p>
+ * Only the last lines of the output are kept in memory, {@value #DEFAULT_OUTPUT_TAIL_LINES} unless
+ * {@code JEAP_PROCESS_OUTPUT_TAIL_LINES} sets another number. If {@code JEAP_PROCESS_OUTPUT_LOG_DIR} is set, the
+ * complete output of every process is also written to a log file in that directory.
+ * </p>
+ * <p>
+ * Maven commands run with the Maven Daemon if {@code JEAP_MAVEN_DAEMON} selects one, see {@link MavenDaemon}.
+ * </p>
  */
 @Slf4j
 @Component
 public class SystemProcessExecutor implements ProcessExecutor {
-    private static final String CERT_REPO_TOKEN = "CERTIFICATES_REPO_GIT_TOKEN";
+    private static final String CERT_REPO_TOKEN = GitHubTokenProvider.CERT_REPO_TOKEN;
     private static final String JEAP_MAVEN_OPTS = "JEAP_MAVEN_OPTS";
     private static final String JEAP_MAVEN_SETTINGS = "JEAP_MAVEN_SETTINGS";
     private static final String JEAP_MAVEN_REPO_LOCAL = "JEAP_MAVEN_REPO_LOCAL";
+    private static final String JEAP_PROCESS_OUTPUT_TAIL_LINES = "JEAP_PROCESS_OUTPUT_TAIL_LINES";
+    private static final String JEAP_PROCESS_OUTPUT_LOG_DIR = "JEAP_PROCESS_OUTPUT_LOG_DIR";
+    static final int DEFAULT_OUTPUT_TAIL_LINES = 1000;
+
+    private final int outputTailLines;
+    private final Path outputLogDirectory;
+    private final GitHubTokenProvider gitHubTokenProvider;
+    private final MavenDaemon mavenDaemon;
+
+    public SystemProcessExecutor() {
+        this(new GitHubTokenProvider());
+    }
+
+    @Autowired
+    public SystemProcessExecutor(GitHubTokenProvider gitHubTokenProvider) {
+        this(outputTailLinesFromEnvironment(), outputLogDirectoryFromEnvironment(), gitHubTokenProvider,
+                MavenDaemon.fromEnvironment(System.getenv()));
+    }
+
+    SystemProcessExecutor(int outputTailLines, Path outputLogDirectory) {
+        this(outputTailLines, outputLogDirectory, new GitHubTokenProvider(), null);
+    }
+
+    /**
+     * @param outputTailLines     number of output lines kept in memory per process
+     * @param outputLogDirectory  directory for files with the complete output of every process, or {@code null}
+     * @param gitHubTokenProvider source of {@code CERTIFICATES_REPO_GIT_TOKEN} if it is not set
+     * @param mavenDaemon         daemon that runs Maven commands, or {@code null} to run Maven directly
+     */
+    SystemProcessExecutor(int outputTailLines, Path outputLogDirectory, GitHubTokenProvider gitHubTokenProvider,
+                          MavenDaemon mavenDaemon) {
+        this.outputTailLines = outputTailLines;
+        this.outputLogDirectory = outputLogDirectory;
+        this.gitHubTokenProvider = gitHubTokenProvider;
+        this.mavenDaemon = mavenDaemon;
+    }
 
     @Override
     public int execute(List<String> command, Path workingDirectory) throws IOException, InterruptedException {
@@ -36,12 +83,23 @@ public class SystemProcessExecutor implements ProcessExecutor {
 
     @Override
     public ProcessExecutionResult executeAndCapture(List<String> command, Path workingDirectory) throws IOException, InterruptedException {
+        return executeAndCapture(command, workingDirectory, null);
+    }
+
+    @Override
+    public ProcessExecutionResult executeAndCapture(List<String> command, Path workingDirectory, String outputPrefix)
+            throws IOException, InterruptedException {
         List<String> effectiveCommand = adjustCommand(command);
         ProcessBuilder processBuilder = createProcessBuilder(effectiveCommand, workingDirectory);
         ensureCertificateRepoToken(processBuilder.environment(), workingDirectory);
         ensureMavenEnvironment(processBuilder.environment());
+        if (mavenDaemon != null && !effectiveCommand.isEmpty() && isMavenCommand(effectiveCommand.getFirst())) {
+            effectiveCommand = mavenDaemon.route(effectiveCommand, processBuilder.environment().get("MAVEN_OPTS"),
+                    processBuilder.environment().get("MAVEN_CONFIG"));
+            processBuilder.command(effectiveCommand);
+        }
         logMavenExecutionDetailsIfApplicable(effectiveCommand, processBuilder.environment());
-        return runProcess(processBuilder);
+        return runProcess(processBuilder, effectiveCommand, outputPrefix);
     }
 
     private ProcessBuilder createProcessBuilder(List<String> command, Path workingDirectory) {
@@ -50,29 +108,72 @@ public class SystemProcessExecutor implements ProcessExecutor {
                 .redirectErrorStream(true);
     }
 
-    private ProcessExecutionResult runProcess(ProcessBuilder processBuilder) throws IOException, InterruptedException {
+    private ProcessExecutionResult runProcess(ProcessBuilder processBuilder, List<String> command, String outputPrefix)
+            throws IOException, InterruptedException {
         Process process = processBuilder.start();
+        // The log is only created once the process has started, so a command that cannot be started leaves no empty log
+        Path outputLog;
+        try {
+            outputLog = createOutputLog(command);
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
 
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        OutputTail output = new OutputTail(outputTailLines);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter logWriter = outputLog == null ? null : Files.newBufferedWriter(outputLog, StandardCharsets.UTF_8)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                System.out.println(line);
-                output.append(line).append(System.lineSeparator());
+                System.out.println(outputPrefix == null ? line : outputPrefix + line);
+                output.append(line);
+                if (logWriter != null) {
+                    logWriter.write(line);
+                    logWriter.newLine();
+                }
+            }
+        }
+
+        return new ProcessExecutionResult(process.waitFor(), output.toString(), outputLog, output.omittedLines());
+    }
+
+    private Path createOutputLog(List<String> command) throws IOException {
+        if (outputLogDirectory == null) {
+            return null;
+        }
+        Files.createDirectories(outputLogDirectory);
+        String executable = command.isEmpty() ? "process" : Path.of(command.getFirst()).getFileName().toString();
+        return Files.createTempFile(outputLogDirectory, executable + "-", ".log");
+    }
+
+    private static int outputTailLinesFromEnvironment() {
+        String value = System.getenv(JEAP_PROCESS_OUTPUT_TAIL_LINES);
+        if (value == null || value.isBlank()) {
+            return DEFAULT_OUTPUT_TAIL_LINES;
+        }
+        try {
+            int lines = Integer.parseInt(value.strip());
+            if (lines > 0) {
+                return lines;
             }
+        } catch (NumberFormatException e) {
+            // fall through to the default
         }
+        log.warn("Ignoring invalid {}={}, keeping the last {} output lines.", JEAP_PROCESS_OUTPUT_TAIL_LINES, value,
+                DEFAULT_OUTPUT_TAIL_LINES);
+        return DEFAULT_OUTPUT_TAIL_LINES;
+    }
 
-        return new ProcessExecutionResult(process.waitFor(), output.toString());
+    private static Path outputLogDirectoryFromEnvironment() {
+        String value = System.getenv(JEAP_PROCESS_OUTPUT_LOG_DIR);
+        return value == null || value.isBlank() ? null : Path.of(value);
     }
 
     private void ensureCertificateRepoToken(Map<String, String> environment, Path workingDirectory) {
         if (hasText(environment.get(CERT_REPO_TOKEN))) {
             return;
         }
-        String resolvedToken = resolveTokenFromEnvironment(environment);
-        if (!hasText(resolvedToken)) {
-            resolvedToken = resolveTokenViaGhCli(workingDirectory, environment);
-        }
+        String resolvedToken = gitHubTokenProvider.token(environment, workingDirectory);
         if (hasText(resolvedToken)) {
             environment.put(CERT_REPO_TOKEN, resolvedToken);
         } else {
@@ -228,42 +329,6 @@ public class SystemProcessExecutor implements ProcessExecutor {
     }
 
 
-    private String resolveTokenFromEnvironment(Map<String, String> environment) {
-        if (hasText(environment.get("GH_TOKEN"))) {
-            return environment.get("GH_TOKEN");
-        }
-        if (hasText(environment.get("GITHUB_TOKEN"))) {
-            return environment.get("GITHUB_TOKEN");
-        }
-        return null;
-    }
-
-    private String resolveTokenViaGhCli(Path workingDirectory, Map<String, String> parentEnvironment) {
-        try {
-            ProcessBuilder ghProcessBuilder = new ProcessBuilder("gh", "auth", "token")
-                    .directory(workingDirectory.toFile())
-                    .redirectErrorStream(true);
-            ghProcessBuilder.environment().putAll(parentEnvironment);
-
-            Process ghProcess = ghProcessBuilder.start();
-            String outputLine;
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(ghProcess.getInputStream(), StandardCharsets.UTF_8))) {
-                outputLine = reader.readLine();
-            }
-            int exitCode = ghProcess.waitFor();
-            if (exitCode == 0 && hasText(outputLine)) {
-                return outputLine.trim();
-            }
-            logWarn("gh auth token failed (exitCode=%d)".formatted(exitCode));
-        } catch (IOException | InterruptedException ignored) {
-            if (ignored instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
-            logWarn("gh auth token failed: %s".formatted(ignored.getClass().getSimpleName()));
-        }
-        return null;
-    }
-
     private boolean hasText(String value) {
         return value != null && !value.isBlank();
     }
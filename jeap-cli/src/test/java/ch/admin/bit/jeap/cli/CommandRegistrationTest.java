@@ -37,6 +37,9 @@ class CommandRegistrationTest {
                 .containsText("migrate spring-boot-4")
                 .containsText("pas-backfill send")
                 .containsText("pas-backfill report")
+                .containsText("pas-backfill send-all")
+                .containsText("pas-backfill resend-failed")
+                .containsText("pas-backfill watch")
                 .containsText("PAS Backfill")
                 .containsText("AVAILABLE COMMANDS");
     }
@@ -52,7 +55,27 @@ class CommandRegistrationTest {
                 .containsText("--references-csv")
                 .containsText("--job-id")
                 .containsText("--url")
-                .containsText("--access-token");
+                .containsText("--access-token")
+                .containsText("--batch-size")
+                .containsText("--max-in-flight")
+                .containsText("--compression")
+                .containsText("--resume")
+                .containsText("--timings")
+                .containsText("--metrics-file");
+    }
+
+    @Test
+    void pasBackfillSendAllHelpShowsUsageInformation() throws Exception {
+        ShellScreen screen = client.sendCommand("help pas-backfill send-all");
+
+        ShellAssertions.assertThat(screen)
+                .containsText("pas-backfill send-all")
+                .containsText("Submit all backfill job YAML files of a directory to the PAS")
+                .containsText("--dir")
+                .containsText("--url")
+                .containsText("--access-token")
+                .containsText("--concurrency")
+                .containsText("--compression");
     }
 
     @Test
@@ -65,6 +88,40 @@ class CommandRegistrationTest {
                 .containsText("--job-id")
                 .containsText("--url")
                 .containsText("--output")
-                .containsText("--access-token");
+                .containsText("--access-token")
+                .containsText("--summary")
+                .containsText("--job-ids-file")
+                .containsText("--concurrency");
+    }
+
+    @Test
+    void pasBackfillResendFailedHelpShowsUsageInformation() throws Exception {
+        ShellScreen screen = client.sendCommand("help pas-backfill resend-failed");
+
+        ShellAssertions.assertThat(screen)
+                .containsText("pas-backfill resend-failed")
+                .containsText("Submit the failed references of a backfill job once more as a new job")
+                .containsText("--job-id")
+                .containsText("--file")
+                .containsText("--references-csv")
+                .containsText("--new-job-id")
+                .containsText("--url")
+                .containsText("--access-token")
+                .containsText("--status")
+                .containsText("--compression");
+    }
+
+    @Test
+    void pasBackfillWatchHelpShowsUsageInformation() throws Exception {
+        ShellScreen screen = client.sendCommand("help pas-backfill watch");
+
+        ShellAssertions.assertThat(screen)
+                .containsText("pas-backfill watch")
+                .containsText("Watch the backfill job report until the job is finished")
+                .containsText("--job-id")
+                .containsText("--url")
+                .containsText("--access-token")
+                .containsText("--interval")
+                .containsText("--max-interval");
     }
 }
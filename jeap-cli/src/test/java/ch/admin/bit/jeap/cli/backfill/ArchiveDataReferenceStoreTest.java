@@ -0,0 +1,132 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ArchiveDataReferenceStoreTest {
+
+    private final ArchiveDataReferenceStore store = new ArchiveDataReferenceStore();
+
+    @Test
+    void keepsInsertionOrderAndSkipsDuplicates() {
+        assertThat(store.add("DOC-002", 1)).isTrue();
+        assertThat(store.add("DOC-001", 1)).isTrue();
+        assertThat(store.add("DOC-002", 1)).isFalse();
+        assertThat(store.add("DOC-002", 2)).isTrue();
+
+        assertThat(store)
+                .containsExactly(
+                        new ArchiveDataReferenceDto("DOC-002", 1),
+                        new ArchiveDataReferenceDto("DOC-001", 1),
+                        new ArchiveDataReferenceDto("DOC-002", 2));
+        assertThat(store.size()).isEqualTo(3);
+    }
+
+    @Test
+    void appendKeepsDuplicates() {
+        store.append("DOC-001", null);
+        store.append("DOC-001", null);
+
+        assertThat(store).containsExactly(
+                new ArchiveDataReferenceDto("DOC-001", null),
+                new ArchiveDataReferenceDto("DOC-001", null));
+        assertThat(store.add("DOC-001", null)).isFalse();
+    }
+
+    @Test
+    void distinguishesMissingVersionFromVersion() {
+        store.add("DOC-001", null);
+
+        assertThat(store.hasVersion(0)).isFalse();
+        assertThat(store.contains("DOC-001", null)).isTrue();
+        assertThat(store.contains("DOC-001", 1)).isFalse();
+        assertThat(store.add("DOC-001", 1)).isTrue();
+        assertThat(store.hasVersion(1)).isTrue();
+        assertThat(store.version(1)).isEqualTo(1);
+    }
+
+    @Test
+    void storesMultiByteIds() {
+        store.add("Verfügung-Ä-01", 3);
+
+        assertThat(store.id(0)).isEqualTo("Verfügung-Ä-01");
+        assertThat(store.contains("Verfügung-Ä-01", 3)).isTrue();
+        assertThat(store.idByteCount(0, 1)).isEqualTo("Verfügung-Ä-01".getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void growsBeyondInitialCapacity() {
+        for (int index = 0; index < 100_000; index++) {
+            assertThat(store.add("DOC-" + index, index % 5 + 1)).isTrue();
+        }
+        for (int index = 0; index < 100_000; index++) {
+            assertThat(store.add("DOC-" + index, index % 5 + 1)).isFalse();
+        }
+
+        assertThat(store.size()).isEqualTo(100_000);
+        assertThat(store.get(99_999)).isEqualTo(new ArchiveDataReferenceDto("DOC-99999", 5));
+        assertThat(store.contains("DOC-50000", 1)).isTrue();
+        assertThat(store.contains("DOC-50000", 2)).isFalse();
+    }
+
+    @Test
+    void rejectsRowOutOfBounds() {
+        store.add("DOC-001", 1);
+
+        assertThatThrownBy(() -> store.id(1))
+                .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void isNearCapacityAtMaxRowsAndRejectsFurtherRows() {
+        ArchiveDataReferenceStore store = new ArchiveDataReferenceStore(2, 1024);
+        store.add("DOC-001", 1);
+        assertThat(store.isNearCapacity()).isFalse();
+        store.add("DOC-002", 1);
+
+        assertThat(store.isNearCapacity()).isTrue();
+        assertThat(store.add("DOC-001", 1)).isFalse();
+        assertThatThrownBy(() -> store.add("DOC-003", 1))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("References exceed the maximum in-memory count of 2.");
+    }
+
+    @Test
+    void isNearCapacityAtHalfOfMaxIdBytesAndRejectsIdsBeyondMax() {
+        ArchiveDataReferenceStore store = new ArchiveDataReferenceStore(100, 16);
+        store.add("DOC-1", 1);
+        assertThat(store.isNearCapacity()).isFalse();
+        store.add("DOC-2", 1);
+
+        assertThat(store.isNearCapacity()).isTrue();
+        assertThatThrownBy(() -> store.add("DOC-000003", 1))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Reference ids exceed the maximum in-memory size of 2 GB.");
+    }
+
+    @Test
+    void containsDoesNotUseArenaCapacity() {
+        ArchiveDataReferenceStore store = new ArchiveDataReferenceStore(100, 10);
+        store.add("DOC-1", 1);
+        store.add("DOC-2", 1);
+
+        assertThat(store.contains("DOC-1", 1)).isTrue();
+        assertThat(store.contains("DOC-000003", 1)).isFalse();
+    }
+
+    @Test
+    void rejectsVersionReservedForMissingVersion() {
+        ArchiveDataReferenceStore store = new ArchiveDataReferenceStore();
+        store.add("DOC-1", null);
+
+        assertThatThrownBy(() -> store.add("DOC-1", Integer.MIN_VALUE))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Version -2147483648 is not supported.");
+        assertThat(store.contains("DOC-1", Integer.MIN_VALUE)).isFalse();
+        assertThat(store.size()).isEqualTo(1);
+    }
+}
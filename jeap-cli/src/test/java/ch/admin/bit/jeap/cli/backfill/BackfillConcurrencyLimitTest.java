@@ -0,0 +1,119 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackfillConcurrencyLimitTest {
+
+    @Test
+    void limitDoublesPerRoundUntilFirstThrottlingAndIsCappedByMaximum() throws Exception {
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(10, Duration.ZERO);
+        assertThat(limit.limit()).isEqualTo(BackfillConcurrencyLimit.INITIAL_LIMIT);
+
+        completeRound(limit);
+        assertThat(limit.limit()).isEqualTo(8);
+        completeRound(limit);
+        assertThat(limit.limit()).isEqualTo(10);
+    }
+
+    @Test
+    void initialLimitIsCappedByMaximum() {
+        assertThat(new BackfillConcurrencyLimit(2).limit()).isEqualTo(2);
+    }
+
+    @Test
+    void throttledBurstHalvesLimitOnceAndRecoveryIsAdditive() throws Exception {
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(16, Duration.ZERO);
+        completeRound(limit);
+        assertThat(limit.limit()).isEqualTo(8);
+
+        List<BackfillConcurrencyLimit.Permit> burst = acquire(limit, 8);
+        burst.forEach(permit -> permit.throttled(Duration.ZERO));
+        assertThat(limit.limit()).isEqualTo(4);
+        assertThat(limit.throttled()).isEqualTo(8);
+
+        completeRound(limit);
+        assertThat(limit.limit()).isEqualTo(5);
+        completeRound(limit);
+        assertThat(limit.limit()).isEqualTo(6);
+    }
+
+    @Test
+    void limitDoesNotDropBelowOne() throws Exception {
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(1, Duration.ZERO);
+
+        limit.acquire().throttled(Duration.ZERO);
+        limit.acquire().throttled(Duration.ZERO);
+
+        assertThat(limit.limit()).isEqualTo(1);
+    }
+
+    @Test
+    void acquireWaitsUntilPermitIsReleased() throws Exception {
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(1, Duration.ZERO);
+        BackfillConcurrencyLimit.Permit permit = limit.acquire();
+
+        CompletableFuture<BackfillConcurrencyLimit.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertThat(waiting).isNotDone();
+
+        permit.close();
+        permit.close();
+        waiting.get(5, TimeUnit.SECONDS).completed();
+        assertThat(limit.acquire()).isNotNull();
+    }
+
+    @Test
+    void acquireWaitsForRetryAfter() throws Exception {
+        BackfillConcurrencyLimit limit = new BackfillConcurrencyLimit(4, Duration.ZERO);
+
+        long start = System.nanoTime();
+        limit.acquire().throttled(Duration.ofMillis(200));
+        limit.acquire().close();
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+    }
+
+    @Test
+    void parsesRetryAfterSecondsAndHttpDate() {
+        ZonedDateTime now = ZonedDateTime.of(2026, 10, 16, 12, 0, 0, 0, ZoneOffset.UTC);
+
+        assertThat(BackfillConcurrencyLimit.parseRetryAfter("120", now)).isEqualTo(Duration.ofMinutes(2));
+        assertThat(BackfillConcurrencyLimit.parseRetryAfter("Fri, 16 Oct 2026 12:00:30 GMT", now)).isEqualTo(Duration.ofSeconds(30));
+        assertThat(BackfillConcurrencyLimit.parseRetryAfter("Fri, 16 Oct 2026 11:00:00 GMT", now)).isEqualTo(Duration.ZERO);
+        assertThat(BackfillConcurrencyLimit.parseRetryAfter("86400", now)).isEqualTo(BackfillConcurrencyLimit.MAX_RETRY_AFTER);
+        assertThat(BackfillConcurrencyLimit.parseRetryAfter("soon", now)).isNull();
+        assertThat(BackfillConcurrencyLimit.parseRetryAfter(null, now)).isNull();
+    }
+
+    /**
+     * Acquires as many permits as the limit allows and completes them.
+     */
+    private static void completeRound(BackfillConcurrencyLimit limit) throws InterruptedException {
+        acquire(limit, limit.limit()).forEach(BackfillConcurrencyLimit.Permit::completed);
+    }
+
+    private static List<BackfillConcurrencyLimit.Permit> acquire(BackfillConcurrencyLimit limit, int count)
+            throws InterruptedException {
+        List<BackfillConcurrencyLimit.Permit> permits = new ArrayList<>();
+        for (int index = 0; index < count; index++) {
+            permits.add(limit.acquire());
+        }
+        return permits;
+    }
+}
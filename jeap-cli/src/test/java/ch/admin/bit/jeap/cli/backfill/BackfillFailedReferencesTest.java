@@ -0,0 +1,82 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.core.JsonParser;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackfillFailedReferencesTest {
+
+    private final YAMLMapper yamlMapper = YAMLMapper.builder().build();
+
+    @Test
+    void collectsReferencesOfEntriesWithFailedStatus() {
+        ArchiveDataReferenceStore references = read("""
+                id: job-1
+                status: FAILED
+                entries:
+                  - id: DOC-001
+                    version: 1
+                    status: OK
+                  - id: DOC-002
+                    version: 2
+                    status: failed
+                    errors: [timeout, timeout]
+                  - id: DOC-003
+                    version: 1
+                    status: REJECTED
+                  - id: DOC-002
+                    version: 2
+                    status: FAILED
+                """, Set.of("FAILED", "rejected"));
+
+        assertThat(references).containsExactly(
+                new ArchiveDataReferenceDto("DOC-002", 2),
+                new ArchiveDataReferenceDto("DOC-003", 1));
+    }
+
+    @Test
+    void readsRootListOfEntries() {
+        ArchiveDataReferenceStore references = read("""
+                - id: DOC-001
+                  version: 3
+                  status: FAILED
+                - status: FAILED
+                - id: DOC-002
+                  status: OK
+                """, Set.of("FAILED"));
+
+        assertThat(references).containsExactly(new ArchiveDataReferenceDto("DOC-001", 3));
+    }
+
+    @Test
+    void keepsEntryWithoutValidVersionWithoutVersion() {
+        ArchiveDataReferenceStore references = read("""
+                entries:
+                  - id: DOC-001
+                    version: latest
+                    status: FAILED
+                  - id: DOC-002
+                    status: FAILED
+                """, Set.of("FAILED"));
+
+        assertThat(references).containsExactly(
+                new ArchiveDataReferenceDto("DOC-001", null),
+                new ArchiveDataReferenceDto("DOC-002", null));
+    }
+
+    @Test
+    void ignoresReportWithoutEntries() {
+        assertThat(read("state: FINISHED\n", Set.of("FAILED"))).isEmpty();
+        assertThat(read("", Set.of("FAILED"))).isEmpty();
+    }
+
+    private ArchiveDataReferenceStore read(String report, Set<String> failedStatuses) {
+        try (JsonParser parser = yamlMapper.createParser(report)) {
+            return BackfillFailedReferences.read(parser, failedStatuses);
+        }
+    }
+}
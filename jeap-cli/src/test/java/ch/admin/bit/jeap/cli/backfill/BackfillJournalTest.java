@@ -0,0 +1,100 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BackfillJournalTest {
+
+    private static final String JOB_ID = "88dbb65f-9634-4685-bc86-17b72d715d3e";
+    private static final String INPUT_SHA256 = "0f1e2d3c";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumeLoadsAcknowledgedSubJobs() {
+        Path path = tempDir.resolve(JOB_ID + BackfillJournal.SUFFIX);
+        List<BackfillSubJob> subJobs = BackfillSubJob.split(JOB_ID, 6, 2);
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, false)) {
+            journal.acknowledge(subJobs.get(0));
+            journal.acknowledge(subJobs.get(2));
+        }
+
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, true)) {
+            assertThat(subJobs).map(journal::isAcknowledged).containsExactly(true, false, true);
+        }
+    }
+
+    @Test
+    void openWithoutResumeStartsNewJournal() {
+        Path path = tempDir.resolve(JOB_ID + BackfillJournal.SUFFIX);
+        BackfillSubJob subJob = BackfillSubJob.split(JOB_ID, 2, 2).getFirst();
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, false)) {
+            journal.acknowledge(subJob);
+        }
+
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, false)) {
+            assertThat(journal.isAcknowledged(subJob)).isFalse();
+        }
+    }
+
+    @Test
+    void resumeDropsPartiallyWrittenLine() throws Exception {
+        Path path = tempDir.resolve(JOB_ID + BackfillJournal.SUFFIX);
+        List<BackfillSubJob> subJobs = BackfillSubJob.split(JOB_ID, 4, 2);
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, false)) {
+            journal.acknowledge(subJobs.get(0));
+        }
+        Files.writeString(path, "acknowledged=1 " + subJobs.get(1).jobId().substring(0, 8), StandardOpenOption.APPEND);
+
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, true)) {
+            assertThat(journal.isAcknowledged(subJobs.get(1))).isFalse();
+            journal.acknowledge(subJobs.get(1));
+        }
+
+        assertThat(Files.readAllLines(path)).endsWith(
+                "acknowledged=0 " + subJobs.get(0).jobId(),
+                "acknowledged=1 " + subJobs.get(1).jobId());
+    }
+
+    @Test
+    void resumeIgnoresLinesWithWrongSubJobId() throws Exception {
+        Path path = tempDir.resolve(JOB_ID + BackfillJournal.SUFFIX);
+        BackfillSubJob subJob = BackfillSubJob.split(JOB_ID, 2, 2).getFirst();
+        BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, false).close();
+        Files.writeString(path, "acknowledged=0 " + BackfillSubJob.subJobId(JOB_ID, 1) + "\n", StandardOpenOption.APPEND);
+
+        try (BackfillJournal journal = BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, true)) {
+            assertThat(journal.isAcknowledged(subJob)).isFalse();
+        }
+    }
+
+    @Test
+    void resumeFailsForDifferentBatchSize() {
+        Path path = tempDir.resolve(JOB_ID + BackfillJournal.SUFFIX);
+        BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 2, false).close();
+
+        assertThatThrownBy(() -> BackfillJournal.open(path, INPUT_SHA256, JOB_ID, 3, true))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Error: Journal " + path + " was written for a different input");
+    }
+
+    @Test
+    void journalIsPlacedNextToReferencesCsv() {
+        assertThat(BackfillJournal.path(Path.of("jobs", "job.yaml"), BackfillReferencesCsv.file(Path.of("exports", "references.csv")), JOB_ID))
+                .isEqualTo(Path.of("exports", JOB_ID + "-journal.log"));
+        assertThat(BackfillJournal.path(Path.of("jobs", "job.yaml"), null, JOB_ID))
+                .isEqualTo(Path.of("jobs", JOB_ID + "-journal.log"));
+        assertThat(BackfillJournal.path(Path.of("jobs", "job.yaml"), BackfillReferencesCsv.stdin(InputStream::nullInputStream), JOB_ID))
+                .isEqualTo(Path.of("jobs", JOB_ID + "-journal.log"));
+    }
+}
@@ -6,8 +6,16 @@ import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -80,6 +88,53 @@ class BackfillReferenceCsvParserTest {
                 .hasMessage("Error: CSV file must start with header line: id,version");
     }
 
+    @Test
+    void failsForEmptyFile() throws Exception {
+        Path csvFile = writeCsv("");
+
+        assertThatThrownBy(() -> parser.parse(csvFile))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Error: CSV file must start with header line: id,version");
+    }
+
+    @Test
+    void parsesQuotedValuesWindowsLineEndingsAndByteOrderMark() throws Exception {
+        Path csvFile = writeCsv("\uFEFFid,version\r\n\"DOC,001\",1\r\n DOC-002 , 2 \r\n");
+
+        assertThat(parser.parse(csvFile))
+                .containsExactly(
+                        new ArchiveDataReferenceDto("DOC,001", 1),
+                        new ArchiveDataReferenceDto("DOC-002", 2));
+    }
+
+    @Test
+    void reportsPhysicalLineNumberAfterCommentAndBlankLines() throws Exception {
+        Path csvFile = writeCsv("""
+                id,version
+                # exported references
+
+                DOC-001,1
+                DOC-002,0
+                """);
+
+        assertThatThrownBy(() -> parser.parse(csvFile))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Error: Invalid version '0' on line 5. Must be a positive integer.");
+    }
+
+    @Test
+    void failsForQuotedValueSpanningMultipleLines() throws Exception {
+        Path csvFile = writeCsv("""
+                id,version
+                "DOC-001
+                continued",1
+                """);
+
+        assertThatThrownBy(() -> parser.parse(csvFile))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Error: Invalid CSV row on line 2. Expected 2 columns: id,version.");
+    }
+
     @Test
     void failsForInvalidVersionWithLineNumber() throws Exception {
         Path csvFile = writeCsv("""
@@ -136,6 +191,109 @@ class BackfillReferenceCsvParserTest {
         assertThat(output).contains("Warning: Duplicate reference id=DOC-001 version=1 on line 4. Will be sent once.");
     }
 
+    @Test
+    void feedsAllBytesOfFileToDigest() throws Exception {
+        Path csvFile = writeCsv("""
+                id,version
+                DOC-001,1
+
+                # trailing comment
+                """);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        assertThat(parser.parse(csvFile, digest)).containsExactly(new ArchiveDataReferenceDto("DOC-001", 1));
+        assertThat(digest.digest()).isEqualTo(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(csvFile)));
+    }
+
+    @Test
+    void parseMatchingKeepsOnlyFilteredReferencesInFileOrder() throws Exception {
+        Path csvFile = writeCsv("""
+                id,version
+                DOC-001,1
+                DOC-002,1
+                DOC-003,1
+                DOC-003,2
+                DOC-002,1
+                """);
+        ArchiveDataReferenceStore filter = new ArchiveDataReferenceStore();
+        filter.add("DOC-003", null);
+        filter.add("DOC-002", 1);
+        filter.add("DOC-001", 2);
+
+        assertThat(parser.parseMatching(csvFile, filter)).containsExactly(
+                new ArchiveDataReferenceDto("DOC-002", 1),
+                new ArchiveDataReferenceDto("DOC-003", 1),
+                new ArchiveDataReferenceDto("DOC-003", 2));
+    }
+
+    @Test
+    void parseMatchingValidatesRowsOutsideOfFilter() throws Exception {
+        Path csvFile = writeCsv("""
+                id,version
+                DOC-001,1
+                DOC-002,abc
+                """);
+        ArchiveDataReferenceStore filter = new ArchiveDataReferenceStore();
+        filter.add("DOC-001", 1);
+
+        assertThatThrownBy(() -> parser.parseMatching(csvFile, filter))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Error: Invalid version 'abc' on line 3. Must be a positive integer.");
+    }
+
+    @Test
+    void parsesGzipCompressedFileAndDigestsCompressedBytes() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv.gz");
+        Files.write(csvFile, gzip("id,version\nDOC-001,1\nDOC-002,2\n"));
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        assertThat(parser.parse(csvFile, digest)).containsExactly(
+                new ArchiveDataReferenceDto("DOC-001", 1),
+                new ArchiveDataReferenceDto("DOC-002", 2));
+        assertThat(digest.digest()).isEqualTo(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(csvFile)));
+    }
+
+    @Test
+    void parsesGzipCompressedFileAboveParallelThresholdSequentially() throws Exception {
+        Path csvFile = tempDir.resolve("references");
+        Files.write(csvFile, gzip("id,version\nDOC-001,1\nDOC-001,1\n"));
+        BackfillReferenceCsvParser parallelParser = new BackfillReferenceCsvParser(0, 1024);
+
+        assertThat(parallelParser.parse(csvFile)).containsExactly(new ArchiveDataReferenceDto("DOC-001", 1));
+    }
+
+    @Test
+    void parsesGzipCompressedReferencesFromStreamWithoutClosingIt() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream stdin = new FilterInputStream(new ByteArrayInputStream(gzip("id,version\nDOC-001,1\n"))) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+
+        assertThat(parser.parse(stdin, null)).containsExactly(new ArchiveDataReferenceDto("DOC-001", 1));
+        assertThat(closed).isFalse();
+    }
+
+    @Test
+    void failsForZstdCompressedFile() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv.zst");
+        Files.write(csvFile, new byte[]{0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0});
+
+        assertThatThrownBy(() -> parser.parse(csvFile))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Error: zstd-compressed references are not supported. Compress the CSV file with gzip instead.");
+    }
+
+    private static byte[] gzip(String content) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+
     private Path writeCsv(String content) throws Exception {
         Path csvFile = tempDir.resolve("references.csv");
         Files.writeString(csvFile, content);
@@ -0,0 +1,117 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import tools.jackson.core.JsonParser;
+import tools.jackson.dataformat.yaml.YAMLMapper;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackfillReportSummaryTest {
+
+    private final YAMLMapper yamlMapper = YAMLMapper.builder().build();
+
+    @Test
+    void countsEntriesPerStatusRetryCountAndTopic() {
+        BackfillReportSummary summary = read("""
+                state: FINISHED
+                topic: topic-a
+                entries:
+                  - id: DOC-001
+                    status: OK
+                    retryCount: 0
+                  - id: DOC-002
+                    status: FAILED
+                    retryCount: 2
+                    errors: [timeout, timeout]
+                  - id: DOC-003
+                    status: OK
+                    retryCount: 0
+                    topic: topic-b
+                """);
+
+        assertThat(summary.entries()).isEqualTo(3);
+        assertThat(summary.statusCounts()).containsExactlyInAnyOrderEntriesOf(Map.of("OK", 2L, "FAILED", 1L));
+        assertThat(summary.retryCounts()).containsExactlyInAnyOrderEntriesOf(Map.of("0", 2L, "2", 1L));
+        assertThat(summary.topicCounts()).containsExactlyInAnyOrderEntriesOf(Map.of("topic-a", 2L, "topic-b", 1L));
+        assertThat(summary.topLevelValues()).containsExactly(Map.entry("state", "FINISHED"), Map.entry("topic", "topic-a"));
+    }
+
+    @Test
+    void entriesTakeMissingValuesFromEnclosingObjects() {
+        BackfillReportSummary summary = read("""
+                subJobs:
+                  - jobId: sub-0
+                    topic: topic-a
+                    entries:
+                      - status: OK
+                      - status: OK
+                        num-of-retry: 1
+                  - jobId: sub-1
+                    entries:
+                      - status: FAILED
+                """);
+
+        assertThat(summary.entries()).isEqualTo(3);
+        assertThat(summary.statusCounts()).containsExactlyInAnyOrderEntriesOf(Map.of("OK", 2L, "FAILED", 1L));
+        assertThat(summary.retryCounts())
+                .containsExactlyInAnyOrderEntriesOf(Map.of("1", 1L, BackfillReportSummary.NONE, 2L));
+        assertThat(summary.topicCounts())
+                .containsExactlyInAnyOrderEntriesOf(Map.of("topic-a", 2L, BackfillReportSummary.NONE, 1L));
+    }
+
+    @Test
+    void readsReportThatIsAListOfEntries() {
+        BackfillReportSummary summary = read("""
+                - status: OK
+                - status: FAILED
+                """);
+
+        assertThat(summary.entries()).isEqualTo(2);
+        assertThat(summary.statusCounts()).containsExactlyInAnyOrderEntriesOf(Map.of("OK", 1L, "FAILED", 1L));
+    }
+
+    @Test
+    void countsValuesBeyondLimitAsOther() {
+        StringBuilder report = new StringBuilder("entries:\n");
+        for (int index = 0; index < BackfillReportSummary.MAX_DISTINCT_VALUES + 5; index++) {
+            report.append("  - status: S").append(index).append('\n');
+        }
+
+        BackfillReportSummary summary = read(report.toString());
+
+        assertThat(summary.statusCounts())
+                .hasSize(BackfillReportSummary.MAX_DISTINCT_VALUES + 1)
+                .containsEntry(BackfillReportSummary.OTHER, 5L);
+    }
+
+    @Test
+    void formatsTablesWithMostFrequentStatusFirstAndRetriesInOrder() {
+        BackfillReportSummary summary = read("""
+                state: FINISHED
+                entries:
+                  - {status: OK, retries: 10}
+                  - {status: FAILED, retries: 2}
+                  - {status: OK, retries: 2}
+                """);
+
+        assertThat(summary.format().lines()).containsExactly(
+                "state: FINISHED",
+                "entries: 3",
+                "",
+                "STATUS     ENTRIES",
+                "OK               2",
+                "FAILED           1",
+                "",
+                "RETRIES     ENTRIES",
+                "2                 2",
+                "10                1");
+    }
+
+    private BackfillReportSummary read(String report) {
+        try (JsonParser parser = yamlMapper.createParser(report)) {
+            return BackfillReportSummary.read(parser);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BackfillReportWatchTest {
+
+    private final BackfillReportWatch watch = new BackfillReportWatch(
+            new BackfillWatchOptions(Duration.ofSeconds(2), Duration.ofSeconds(5)), new Random(42));
+
+    @Test
+    void updateReturnsOnlyChangedValues() {
+        assertThat(watch.update(null, null, values("state", "RUNNING", "processed", "10")))
+                .containsExactly("state: RUNNING", "processed: 10");
+
+        assertThat(watch.update(null, null, values("state", "RUNNING", "processed", "250", "failed", "1")))
+                .containsExactly("processed: 10 -> 250", "failed: 1");
+
+        assertThat(watch.update(null, null, values("state", "FINISHED", "processed", "250")))
+                .containsExactly("state: RUNNING -> FINISHED", "failed: 1 -> (removed)");
+        assertThat(watch.isFinished()).isTrue();
+    }
+
+    @Test
+    void intervalGrowsWhileUnchangedAndResetsOnChange() {
+        watch.update(null, null, values("state", "RUNNING"));
+        assertThat(watch.interval()).isEqualTo(Duration.ofSeconds(2));
+
+        watch.notModified();
+        assertThat(watch.interval()).isEqualTo(Duration.ofSeconds(3));
+        watch.update(null, null, values("state", "RUNNING"));
+        assertThat(watch.interval()).isEqualTo(Duration.ofMillis(4500));
+        watch.notModified();
+        assertThat(watch.interval()).isEqualTo(Duration.ofSeconds(5));
+
+        watch.update(null, null, values("state", "FINISHED"));
+        assertThat(watch.interval()).isEqualTo(Duration.ofSeconds(2));
+    }
+
+    @Test
+    void nextDelayIsDrawnFromUpperHalfOfInterval() {
+        for (int poll = 0; poll < 100; poll++) {
+            assertThat(watch.nextDelay()).isBetween(Duration.ofSeconds(1), Duration.ofSeconds(2));
+        }
+    }
+
+    @Test
+    void conditionalHeadersPreferEntityTag() {
+        HttpHeaders firstRequest = new HttpHeaders();
+        watch.addConditionalHeaders(firstRequest);
+        assertThat(firstRequest.isEmpty()).isTrue();
+
+        watch.update("\"v1\"", "Wed, 21 Oct 2026 07:28:00 GMT", values("state", "RUNNING"));
+        HttpHeaders withEntityTag = new HttpHeaders();
+        watch.addConditionalHeaders(withEntityTag);
+        assertThat(withEntityTag.getIfNoneMatch()).containsExactly("\"v1\"");
+        assertThat(withEntityTag.containsHeader(HttpHeaders.IF_MODIFIED_SINCE)).isFalse();
+
+        watch.update(null, "Wed, 21 Oct 2026 07:28:00 GMT", values("state", "RUNNING"));
+        HttpHeaders withLastModified = new HttpHeaders();
+        watch.addConditionalHeaders(withLastModified);
+        assertThat(withLastModified.getFirst(HttpHeaders.IF_MODIFIED_SINCE)).isEqualTo("Wed, 21 Oct 2026 07:28:00 GMT");
+    }
+
+    @Test
+    void optionsRejectMaxIntervalBelowInterval() {
+        assertThatThrownBy(() -> new BackfillWatchOptions(Duration.ofSeconds(10), Duration.ofSeconds(5)))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --max-interval must not be smaller than --interval.");
+    }
+
+    private static Map<String, String> values(String... namesAndValues) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int index = 0; index < namesAndValues.length; index += 2) {
+            values.put(namesAndValues[index], namesAndValues[index + 1]);
+        }
+        return values;
+    }
+}
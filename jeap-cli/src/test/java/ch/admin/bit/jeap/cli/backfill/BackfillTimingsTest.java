@@ -0,0 +1,35 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import io.micrometer.core.instrument.Metrics;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackfillTimingsTest {
+
+    @Test
+    void repeatedRunsDoNotAccumulateMeters() {
+        for (int run = 1; run <= 3; run++) {
+            BackfillTimings.Snapshot snapshot;
+            try (BackfillTimings timings = BackfillTimings.start()) {
+                BackfillMetrics.countReferences(5);
+                BackfillMetrics.record(BackfillMetrics.Phase.SERIALIZE, 1_000_000);
+                snapshot = timings.snapshot();
+            }
+
+            assertThat(snapshot.references()).isEqualTo(5);
+            assertThat(snapshot.phases()).containsOnlyKeys("serialize");
+            assertThat(snapshot.phases().get("serialize").count()).isEqualTo(1);
+        }
+        assertThat(Metrics.globalRegistry.find(BackfillMetrics.REFERENCES_COUNTER).meters()).isEmpty();
+    }
+
+    @Test
+    void discardsMetersRecordedOutsideOfRun() {
+        BackfillMetrics.countReferences(7);
+
+        try (BackfillTimings timings = BackfillTimings.start()) {
+            assertThat(timings.snapshot().references()).isZero();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Parses the same files with the sequential parser and with the parallel parser split into tiny chunks, and expects the
+ * same references, warnings and errors.
+ */
+class ParallelBackfillReferenceCsvParserTest {
+
+    private final BackfillReferenceCsvParser sequentialParser = new BackfillReferenceCsvParser(Long.MAX_VALUE, 1);
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "id,version\nDOC-001,1\nDOC-002,2\nDOC-001,1\nDOC-001,2\nDOC-002,2\n",
+            "id,version\n# exported references\n\nDOC-001,1\n   # another comment\nDOC-002,2",
+            "﻿id,version\r\n\"DOC,001\",1\r\n DOC-002 , 2 \r\n\"DOC,001\",1\r\n",
+            "id,version\rDOC-001,1\rDOC-002,1\r\rDOC-001,1\r",
+            "id,version\nDÖC-001,1\nDÖC-001,1\n \n # comment\n",
+            "id,version\nDOC-001,+7\nDOC-001,0007\nDOC-002,00000000001\nDOC-003,\t3\t\n",
+            "id,version\nDOC-001,1\nDOC-001,1\nDOC-002,0\n",
+            "id,version\nDOC-001,1\nDOC-002,abc\n",
+            "id,version\nDOC-001,1\nDOC-001,1\n,2\n",
+            "id,version\nDOC-001,1\nDOC-001,1\nDOC,001,1\n",
+            "id,version\nDOC-001,1\nDOC-001\n",
+            "id,version\nDOC-001,1\nDOC-001,1\n\"DOC-002\ncontinued\",1\n",
+            "id,version\nDOC-001,1\nDOC-001,1\n\"DOC-002,2\n",
+            "id,version\nDOC-001,1\n\"DOC-002,2",
+            "id,version\nDOC-001,1\n\n# comment\n\"DOC-002,2\nDOC-003,3\n# \"quoted comment\nDOC-004,4\n",
+            "id,version\nDOC-001,1\n\"DOC-002\"\"\n,2\n",
+            "id,version\nDOC-001,1\n\n\"DOC-002\"x,2\nDOC-003,3\n",
+            "id,version\rDOC-001,1\rDOC-001,1\r\"DOC-002,2\r",
+            "id,version\nDOC-001,99999999999\n",
+            "DOC-001,1\nDOC-002,1\n",
+            "",
+            "id,version",
+            "id , version \nDOC-001,1"
+    })
+    void matchesSequentialParser(String content) throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, content);
+
+        for (int chunkBytes : new int[]{1, 7, 64}) {
+            assertThat(parse(parallelParser(chunkBytes), csvFile)).isEqualTo(parse(sequentialParser, csvFile));
+        }
+    }
+
+    @Test
+    void matchesSequentialParserForLargeFileWithDuplicates() throws Exception {
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder("id,version\n");
+        for (int row = 0; row < 20_000; row++) {
+            switch (random.nextInt(20)) {
+                case 0 -> csv.append("# comment\n");
+                case 1 -> csv.append('\n');
+                case 2 -> csv.append("\"DOC,").append(random.nextInt(5_000)).append("\",1\r\n");
+                default -> csv.append("DOC-").append(random.nextInt(5_000)).append(',')
+                        .append(1 + random.nextInt(3)).append('\n');
+            }
+        }
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, csv);
+
+        Outcome sequential = parse(sequentialParser, csvFile);
+
+        assertThat(sequential.output()).contains("Warning: Duplicate reference");
+        assertThat(parse(parallelParser(1024), csvFile)).isEqualTo(sequential);
+    }
+
+    @Test
+    void reportsMalformedUtf8() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.write(csvFile, new byte[]{'i', 'd', ',', 'v', 'e', 'r', 's', 'i', 'o', 'n', '\n', 'D', (byte) 0xC3, ',', '1'});
+
+        assertThat(parse(parallelParser(4), csvFile).error()).startsWith("MalformedInputException");
+        assertThat(parse(sequentialParser, csvFile).error()).startsWith("MalformedInputException");
+    }
+
+    @Test
+    void feedsAllBytesOfFileToDigest() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, "id,version\r\nDOC-001,1\nDOC-002,1\n\n# trailing comment\n");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        assertThat(parallelParser(8).parse(csvFile, digest))
+                .containsExactly(new ArchiveDataReferenceDto("DOC-001", 1), new ArchiveDataReferenceDto("DOC-002", 1));
+        assertThat(digest.digest()).isEqualTo(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(csvFile)));
+    }
+
+    @Test
+    void splitsFilesWithCarriageReturnLineBreaksIntoChunks() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, "id,version\rDOC-001,1\rDOC-002,1\r\nDOC-003,1\rDOC-004,1\r");
+
+        // Chunks of at most 12 bytes can only be mapped if the lines are split at carriage returns
+        assertThat(new ParallelBackfillReferenceCsvParser(1, 12).parse(csvFile, null, Long.MAX_VALUE))
+                .containsExactly(new ArchiveDataReferenceDto("DOC-001", 1), new ArchiveDataReferenceDto("DOC-002", 1),
+                        new ArchiveDataReferenceDto("DOC-003", 1), new ArchiveDataReferenceDto("DOC-004", 1));
+    }
+
+    @Test
+    void leavesFilesWithLinesTooLongToBeMappedToSequentialParser() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, "id,version\nDOC-001,1\nDOC-000000000000002,1\n");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        assertThat(new ParallelBackfillReferenceCsvParser(1, 12).parse(csvFile, digest, Long.MAX_VALUE)).isNull();
+        assertThat(new ParallelBackfillReferenceCsvParser(1, 8).parse(csvFile, digest, Long.MAX_VALUE)).isNull();
+        assertThat(digest.digest()).isEqualTo(MessageDigest.getInstance("SHA-256").digest());
+    }
+
+    @Test
+    void parsesNoMoreChunksAheadThanFitIntoHalfOfHeapBudget() {
+        ParallelBackfillReferenceCsvParser parser = new ParallelBackfillReferenceCsvParser(1024);
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+        assertThat(parser.chunkHeapBytes()).isEqualTo(2048);
+        assertThat(parser.chunksAhead(Long.MAX_VALUE)).isEqualTo(2 * parallelism);
+        assertThat(parser.chunksAhead(2 * 2048)).isEqualTo(1);
+        assertThat(parser.chunksAhead(0)).isEqualTo(1);
+        assertThat(parser.chunksAhead(2L * parallelism * 2 * 2048)).isEqualTo(2 * parallelism);
+    }
+
+    @Test
+    void spillsWhenChunksLeaveNoHeapBudgetForReferences() throws Exception {
+        StringBuilder csv = new StringBuilder("id,version\n");
+        for (int row = 0; row < 2_000; row++) {
+            csv.append("DOC-").append(row % 1_500).append(",1\n");
+        }
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, csv);
+
+        // One chunk of 1024 bytes takes the whole budget, so the references are deduplicated on disk
+        try (ArchiveDataReferences references = new BackfillReferenceCsvParser(0, 1024, 2048).parse(csvFile)) {
+            assertThat(references).isInstanceOf(SpilledArchiveDataReferences.class);
+            assertThat(references.size()).isEqualTo(1_500);
+        }
+    }
+
+    private static BackfillReferenceCsvParser parallelParser(int chunkBytes) {
+        return new BackfillReferenceCsvParser(0, chunkBytes);
+    }
+
+    private static Outcome parse(BackfillReferenceCsvParser parser, Path csvFile) {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            List<ArchiveDataReferenceDto> references = new ArrayList<>();
+            parser.parse(csvFile).forEach(references::add);
+            return new Outcome(references, output.toString(StandardCharsets.UTF_8), null);
+        } catch (Exception e) {
+            return new Outcome(List.of(), output.toString(StandardCharsets.UTF_8),
+                    e.getClass().getSimpleName() + ": " + e.getMessage());
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+
+    private record Outcome(List<ArchiveDataReferenceDto> references, String output, String error) {
+    }
+}
@@ -0,0 +1,173 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sends backfill jobs to a local HTTP server that decodes the request body like PAS does, so that the compressed
+ * bytes on the wire are verified and not only the mocked request.
+ */
+class PasBackfillServiceCompressionTest {
+
+    private static final String JOB_ID = "88dbb65f-9634-4685-bc86-17b72d715d3e";
+    private static final String ACCESS_TOKEN = "test-token";
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private String baseUrl;
+    private PasBackfillService service;
+    private volatile String receivedContentEncoding;
+    private volatile long receivedBytes;
+    private volatile String receivedBody;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/jobs/", exchange -> {
+            receivedContentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            receivedBytes = body.length;
+            InputStream decoded = new ByteArrayInputStream(body);
+            if ("gzip".equals(receivedContentEncoding)) {
+                decoded = new GZIPInputStream(decoded);
+            }
+            receivedBody = new String(decoded.readAllBytes(), StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        RestClient restClient = RestClient.builder().requestFactory(new JdkClientHttpRequestFactory(httpClient)).build();
+        service = new PasBackfillService(restClient, new BackfillReferenceCsvParser());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void gzipCompressesBody() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(2);
+
+        service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, baseUrl, ACCESS_TOKEN, BackfillCompression.GZIP);
+
+        assertThat(receivedContentEncoding).isEqualTo("gzip");
+        assertThat(receivedBody)
+                .contains("message: \"TestEvent\"")
+                .contains("id: \"DOC-00001\"")
+                .contains("id: \"DOC-00002\"");
+    }
+
+    @Test
+    void noneSendsIdentityBody() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(2);
+
+        service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, baseUrl, ACCESS_TOKEN, BackfillCompression.NONE);
+
+        assertThat(receivedContentEncoding).isNull();
+        assertThat(receivedBody).contains("id: \"DOC-00002\"");
+        assertThat(receivedBytes).isEqualTo(receivedBody.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void autoDoesNotCompressSmallBody() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(10);
+
+        service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, baseUrl, ACCESS_TOKEN, BackfillCompression.AUTO);
+
+        assertThat(receivedContentEncoding).isNull();
+        assertThat(receivedBody).contains("id: \"DOC-00010\"");
+    }
+
+    @Test
+    void autoCompressesLargeBody() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(10_000);
+
+        String result = service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, baseUrl, ACCESS_TOKEN, BackfillCompression.AUTO);
+
+        assertThat(result).isEqualTo("Backfill job " + JOB_ID + " created successfully. 10000 references submitted.");
+        assertThat(receivedContentEncoding).isEqualTo("gzip");
+        assertThat(receivedBody).contains("id: \"DOC-10000\"");
+        assertThat(receivedBytes).isLessThan(receivedBody.length() / 5);
+    }
+
+    @Test
+    void batchesAreCompressedIndividually() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(4);
+
+        service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, baseUrl, ACCESS_TOKEN, new BackfillBatchOptions(2, 1),
+                BackfillCompression.GZIP);
+
+        assertThat(receivedContentEncoding).isEqualTo("gzip");
+        assertThat(receivedBody)
+                .contains("id: \"DOC-00003\"")
+                .contains("id: \"DOC-00004\"")
+                .doesNotContain("id: \"DOC-00001\"");
+    }
+
+    @Test
+    void timingsCountCompressedRequestBytesAndPhases() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(4);
+
+        BackfillTimings.Snapshot snapshot;
+        try (BackfillTimings timings = BackfillTimings.start()) {
+            service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, baseUrl, ACCESS_TOKEN, new BackfillBatchOptions(2, 1),
+                    BackfillCompression.GZIP);
+            snapshot = timings.snapshot();
+        }
+
+        assertThat(snapshot.references()).isEqualTo(4);
+        assertThat(snapshot.requestBytes()).isGreaterThanOrEqualTo(receivedBytes).isLessThan(2 * receivedBytes + 1);
+        assertThat(snapshot.phases()).containsOnlyKeys("read-yaml", "parse-csv", "serialize", "upload", "response");
+        assertThat(snapshot.phases().get("serialize").count()).isEqualTo(2);
+        assertThat(snapshot.peakHeapBytes()).isPositive();
+    }
+
+    private Path metadataYamlFile() throws IOException {
+        Path yamlFile = tempDir.resolve("backfill-job.yaml");
+        Files.writeString(yamlFile, """
+                message: TestEvent
+                topic: test-topic
+                """);
+        return yamlFile;
+    }
+
+    private Path referencesCsv(int numberOfReferences) throws IOException {
+        Path csvFile = tempDir.resolve("references.csv");
+        StringBuilder csv = new StringBuilder("id,version\n");
+        for (int index = 1; index <= numberOfReferences; index++) {
+            csv.append("DOC-").append("%05d".formatted(index)).append(",1\n");
+        }
+        Files.writeString(csvFile, csv);
+        return csvFile;
+    }
+}
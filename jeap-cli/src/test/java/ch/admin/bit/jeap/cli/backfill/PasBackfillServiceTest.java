@@ -4,6 +4,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -11,25 +12,39 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestClient;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.http.HttpTimeoutException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.ExpectedCount.times;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withException;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 
 class PasBackfillServiceTest {
 
     private static final String JOB_ID = "88dbb65f-9634-4685-bc86-17b72d715d3e";
+    private static final String NEW_JOB_ID = "2c6d3f2e-1b5e-4f55-9d1c-6f0f3a7c8b21";
     private static final String BASE_URL = "https://pas.example.com";
     private static final String ACCESS_TOKEN = "test-token";
     private static final String JOB_URL = BASE_URL + "/api/jobs/" + JOB_ID;
@@ -46,7 +61,7 @@ class PasBackfillServiceTest {
     void setUp() {
         RestClient.Builder restClientBuilder = RestClient.builder();
         server = MockRestServiceServer.bindTo(restClientBuilder).build();
-        service = new PasBackfillService(restClientBuilder, new BackfillReferenceCsvParser());
+        service = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
     }
 
     @Test
@@ -106,12 +121,54 @@ class PasBackfillServiceTest {
                         containsString("version: 2"))))
                 .andRespond(withStatus(HttpStatus.CREATED));
 
-        String result = service.send(yamlFile, csvFile, JOB_ID, BASE_URL, ACCESS_TOKEN);
+        String result = service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN);
 
         assertThat(result).isEqualTo("Backfill job " + JOB_ID + " created successfully. 2 references submitted.");
         server.verify();
     }
 
+    @Test
+    void sendReadsReferencesFromStdin() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        InputStream stdin = new ByteArrayInputStream("id,version\nDOC-2024-001,1\n".getBytes(StandardCharsets.UTF_8));
+        server.expect(once(), requestTo(JOB_URL))
+                .andExpect(content().string(containsString("id: \"DOC-2024-001\"")))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        String result = service.send(yamlFile, BackfillReferencesCsv.stdin(() -> stdin), JOB_ID, BASE_URL, ACCESS_TOKEN);
+
+        assertThat(result).isEqualTo("Backfill job " + JOB_ID + " created successfully. 1 references submitted.");
+        server.verify();
+    }
+
+    @Test
+    void sendStreamsCompleteYamlDocument() throws Exception {
+        Path yamlFile = tempDir.resolve("backfill-job.yaml");
+        Files.writeString(yamlFile, """
+                message: TestEvent
+                topic: test-topic
+                archiveDataReferences:
+                  - id: DOC-2024-001
+                    version: 1
+                  - id: DOC-2024-002
+                """);
+        server.expect(once(), requestTo(JOB_URL))
+                .andExpect(content().string("""
+                        ---
+                        message: "TestEvent"
+                        topic: "test-topic"
+                        archiveDataReferences:
+                        - id: "DOC-2024-001"
+                          version: 1
+                        - id: "DOC-2024-002"
+                        """))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        service.send(yamlFile, JOB_ID, BASE_URL, ACCESS_TOKEN);
+
+        server.verify();
+    }
+
     @Test
     void sendWithHundredCsvReferencesSubmitsHundredReferences() throws Exception {
         Path yamlFile = tempDir.resolve("backfill-job.yaml");
@@ -133,7 +190,7 @@ class PasBackfillServiceTest {
                 })
                 .andRespond(withStatus(HttpStatus.CREATED));
 
-        String result = service.send(yamlFile, csvFile, JOB_ID, BASE_URL, ACCESS_TOKEN);
+        String result = service.send(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN);
 
         assertThat(result).isEqualTo("Backfill job " + JOB_ID + " created successfully. 100 references submitted.");
         server.verify();
@@ -147,7 +204,7 @@ class PasBackfillServiceTest {
                 DOC-2024-001,1
                 """);
 
-        assertThatThrownBy(() -> service.send(yamlFile(), csvFile, JOB_ID, BASE_URL, ACCESS_TOKEN))
+        assertThatThrownBy(() -> service.send(yamlFile(), BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN))
                 .isInstanceOf(PasBackfillException.class)
                 .hasMessage("Error: archiveDataReferences defined in both YAML and --references-csv. Use one source only.");
     }
@@ -181,6 +238,271 @@ class PasBackfillServiceTest {
                 .hasMessage("Invalid YAML value 'abc' for archiveDataReferences[].version. Must be an integer.");
     }
 
+    @Test
+    void sendInBatchesSubmitsDeterministicSubJobsAndWritesManifest() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(5);
+        for (int index = 0; index < 3; index++) {
+            server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, index)))
+                    .andExpect(method(HttpMethod.PUT))
+                    .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN))
+                    .andRespond(withStatus(HttpStatus.CREATED));
+        }
+
+        String result = service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN, new BackfillBatchOptions(2, 1), BackfillCompression.NONE);
+
+        Path manifest = tempDir.resolve(JOB_ID + "-manifest.yaml");
+        assertThat(result).isEqualTo("Backfill job " + JOB_ID + " submitted as 3 sub-jobs. 5 references submitted. Manifest written to "
+                + manifest + ".");
+        assertThat(Files.readString(manifest)).contains(
+                "jobId: \"" + JOB_ID + "\"",
+                "batchSize: 2",
+                "numberOfReferences: 5",
+                "jobId: \"" + BackfillSubJob.subJobId(JOB_ID, 2) + "\"",
+                "firstReference: 5");
+        server.verify();
+    }
+
+    @Test
+    void sendInBatchesSplitsReferencesIntoSubJobBodies() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(3);
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 0)))
+                .andExpect(content().string(allOf(
+                        containsString("message: \"TestEvent\""),
+                        containsString("id: \"DOC-001\""),
+                        containsString("id: \"DOC-002\""))))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 1)))
+                .andExpect(request -> assertThat(((MockClientHttpRequest) request).getBodyAsString(StandardCharsets.UTF_8))
+                        .contains("topic: \"test-topic\"", "id: \"DOC-003\"")
+                        .doesNotContain("DOC-001", "DOC-002"))
+                .andRespond(withStatus(HttpStatus.OK));
+
+        service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN, new BackfillBatchOptions(2, 1), BackfillCompression.NONE);
+
+        server.verify();
+    }
+
+    @Test
+    void sendInBatchesSubmitsSubJobsConcurrently() throws Exception {
+        RestClient.Builder restClientBuilder = RestClient.builder();
+        MockRestServiceServer unorderedServer = MockRestServiceServer.bindTo(restClientBuilder).ignoreExpectOrder(true).build();
+        PasBackfillService unorderedService = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
+        for (int index = 0; index < 10; index++) {
+            unorderedServer.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, index)))
+                    .andRespond(withStatus(HttpStatus.CREATED));
+        }
+
+        String result = unorderedService.sendInBatches(metadataYamlFile(), BackfillReferencesCsv.file(referencesCsv(100)), JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillBatchOptions(10, 4), BackfillCompression.NONE);
+
+        assertThat(result).startsWith("Backfill job " + JOB_ID + " submitted as 10 sub-jobs. 100 references submitted.");
+        unorderedServer.verify();
+    }
+
+    @Test
+    void sendInBatchesStopsAfterFailedSubJob() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(3);
+        String failedSubJobId = BackfillSubJob.subJobId(JOB_ID, 0);
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + failedSubJobId))
+                .andRespond(withStatus(HttpStatus.FORBIDDEN));
+
+        assertThatThrownBy(() -> service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN, new BackfillBatchOptions(1, 1), BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Error: 1 of 3 sub-jobs of backfill job " + JOB_ID + " failed, 2 were not submitted.")
+                .hasMessageContaining("sub-job 0 (" + failedSubJobId + ": PAS request failed with HTTP status 403)");
+        server.verify();
+    }
+
+    @Test
+    void sendInBatchesRetriesThrottledSubJobsAndReportsAdaptedConcurrency() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(2);
+        String throttledSubJobId = BackfillSubJob.subJobId(JOB_ID, 0);
+        // The retry of the throttled sub-job and the next sub-job compete for the permit
+        RestClient.Builder restClientBuilder = RestClient.builder();
+        MockRestServiceServer unorderedServer = MockRestServiceServer.bindTo(restClientBuilder).ignoreExpectOrder(true).build();
+        PasBackfillService unorderedService = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
+        unorderedServer.expect(once(), requestTo(BASE_URL + "/api/jobs/" + throttledSubJobId))
+                .andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "0"));
+        unorderedServer.expect(once(), requestTo(BASE_URL + "/api/jobs/" + throttledSubJobId))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        unorderedServer.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 1)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        String result = unorderedService.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN, new BackfillBatchOptions(1, 1),
+                BackfillCompression.NONE);
+
+        assertThat(result).startsWith("Backfill job " + JOB_ID + " submitted as 2 sub-jobs. 2 references submitted.")
+                .endsWith(" The PAS throttled 1 requests, concurrency adapted to 1.");
+        unorderedServer.verify();
+    }
+
+    @Test
+    void sendInBatchesRecordsAcknowledgedSubJobsInJournal() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(3);
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 0)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 1)))
+                .andRespond(withStatus(HttpStatus.FORBIDDEN));
+
+        Path journal = tempDir.resolve(JOB_ID + "-journal.log");
+        assertThatThrownBy(() -> service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillBatchOptions(2, 1), BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageContaining("Run again with --resume and the same --job-id and --batch-size to submit the sub-jobs not yet recorded in "
+                        + journal + ".");
+        assertThat(Files.readAllLines(journal))
+                .contains("job-id=" + JOB_ID, "batch-size=2", "acknowledged=0 " + BackfillSubJob.subJobId(JOB_ID, 0))
+                .noneMatch(line -> line.startsWith("acknowledged=1"));
+        server.verify();
+    }
+
+    @Test
+    void sendInBatchesWithResumeSkipsAcknowledgedSubJobs() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        Path csvFile = referencesCsv(5);
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 0)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 1)))
+                .andRespond(withStatus(HttpStatus.BAD_GATEWAY));
+        assertThatThrownBy(() -> service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillBatchOptions(2, 1), BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class);
+        server.verify();
+        server.reset();
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 1)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 2)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        String result = service.sendInBatches(yamlFile, BackfillReferencesCsv.file(csvFile), JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillBatchOptions(2, 1, true), BackfillCompression.NONE);
+
+        assertThat(result).startsWith("Backfill job " + JOB_ID + " submitted as 3 sub-jobs, 1 of them already acknowledged in "
+                + tempDir.resolve(JOB_ID + "-journal.log") + ". 3 references submitted.");
+        server.verify();
+    }
+
+    @Test
+    void sendInBatchesWithResumeRejectsChangedInput() throws Exception {
+        Path yamlFile = metadataYamlFile();
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + BackfillSubJob.subJobId(JOB_ID, 0)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        service.sendInBatches(yamlFile, BackfillReferencesCsv.file(referencesCsv(2)), JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillBatchOptions(2, 1), BackfillCompression.NONE);
+        Path changedCsvFile = referencesCsv(3);
+
+        assertThatThrownBy(() -> service.sendInBatches(yamlFile, BackfillReferencesCsv.file(changedCsvFile), JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillBatchOptions(2, 1, true), BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: Journal " + tempDir.resolve(JOB_ID + "-journal.log") + " was written for a different input, "
+                        + "--job-id or --batch-size. Submit without --resume to start over.");
+        server.verify();
+    }
+
+    @Test
+    void sendAllSubmitsEveryJobFileOfDirectory() throws Exception {
+        RestClient.Builder restClientBuilder = RestClient.builder();
+        MockRestServiceServer unorderedServer = MockRestServiceServer.bindTo(restClientBuilder).ignoreExpectOrder(true).build();
+        PasBackfillService unorderedService = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
+        Path directory = Files.createDirectory(tempDir.resolve("jobs"));
+        Files.writeString(directory.resolve("orders.yaml"), "message: OrderEvent\ntopic: orders\n");
+        Files.writeString(directory.resolve("orders.csv"), "id,version\nORDER-1,1\nORDER-2,1\n");
+        Files.writeString(directory.resolve("invoices.yml"), """
+                message: InvoiceEvent
+                topic: invoices
+                archiveDataReferences:
+                  - id: INVOICE-1
+                """);
+        Files.writeString(directory.resolve(JOB_ID + "-manifest.yaml"), "jobId: \"" + JOB_ID + "\"\n");
+        unorderedServer.expect(once(), requestTo(startsWith(BASE_URL + "/api/jobs/")))
+                .andExpect(method(HttpMethod.PUT))
+                .andExpect(content().string(allOf(containsString("topic: \"orders\""), containsString("id: \"ORDER-2\""))))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        unorderedServer.expect(once(), requestTo(startsWith(BASE_URL + "/api/jobs/")))
+                .andExpect(content().string(allOf(containsString("topic: \"invoices\""), containsString("id: \"INVOICE-1\""))))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        String result = unorderedService.sendAll(directory, BASE_URL, ACCESS_TOKEN, 2, BackfillCompression.NONE);
+
+        assertThat(result.lines().toList())
+                .hasSize(4)
+                .satisfies(lines -> {
+                    assertThat(lines.get(0)).startsWith("FILE").contains("JOB ID", "RESULT", "LATENCY", "DETAILS");
+                    assertThat(lines.get(1)).startsWith("invoices.yml").contains(" OK ", " ms ", "1 references");
+                    assertThat(lines.get(2)).startsWith("orders.yaml").contains(" OK ", "2 references");
+                    assertThat(lines.get(3)).isEqualTo("2 backfill jobs submitted.");
+                });
+        unorderedServer.verify();
+    }
+
+    @Test
+    void sendAllAttemptsAllJobsAndReportsFailures() throws Exception {
+        RestClient.Builder restClientBuilder = RestClient.builder();
+        MockRestServiceServer unorderedServer = MockRestServiceServer.bindTo(restClientBuilder).ignoreExpectOrder(true).build();
+        PasBackfillService unorderedService = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
+        Path directory = Files.createDirectory(tempDir.resolve("jobs"));
+        Files.writeString(directory.resolve("a.yaml"), "message: A\ntopic: a\narchiveDataReferences:\n  - id: A-1\n");
+        Files.writeString(directory.resolve("b.yaml"), "message: B\ntopic: b\n");
+        Files.writeString(directory.resolve("c.yaml"), "message: C\ntopic: c\narchiveDataReferences:\n  - id: C-1\n");
+        unorderedServer.expect(once(), requestTo(startsWith(BASE_URL + "/api/jobs/")))
+                .andExpect(content().string(containsString("id: \"A-1\"")))
+                .andRespond(withStatus(HttpStatus.CONFLICT));
+        unorderedServer.expect(once(), requestTo(startsWith(BASE_URL + "/api/jobs/")))
+                .andExpect(content().string(containsString("id: \"C-1\"")))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        assertThatThrownBy(() -> unorderedService.sendAll(directory, BASE_URL, ACCESS_TOKEN, 1, BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Error: 2 of 3 backfill jobs in " + directory + " failed.")
+                .hasMessageContaining(" already exists.")
+                .hasMessageContaining("Error: No archiveDataReferences provided.")
+                .satisfies(e -> assertThat(e.getMessage().lines().filter(line -> line.contains(" OK "))).hasSize(1));
+        unorderedServer.verify();
+    }
+
+    @Test
+    void sendAllFailsForDirectoryWithoutJobFiles() throws Exception {
+        Path directory = Files.createDirectory(tempDir.resolve("empty"));
+
+        assertThatThrownBy(() -> service.sendAll(directory, BASE_URL, ACCESS_TOKEN, 4, BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: No job YAML files found in " + directory + ".");
+        assertThatThrownBy(() -> service.sendAll(tempDir.resolve("missing"), BASE_URL, ACCESS_TOKEN, 4, BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: Directory not found: " + tempDir.resolve("missing"));
+    }
+
+    @Test
+    void subJobIdsAreDerivedDeterministicallyFromParentJobId() {
+        assertThat(BackfillSubJob.subJobId(JOB_ID, 0))
+                .isEqualTo(BackfillSubJob.subJobId(JOB_ID, 0))
+                .isNotEqualTo(BackfillSubJob.subJobId(JOB_ID, 1))
+                .isNotEqualTo(BackfillSubJob.subJobId("1b0e6f64-3f0c-4ab4-9e0a-2b0f4f6a3c11", 0));
+        assertThat(BackfillSubJob.split(JOB_ID, 5, 2))
+                .extracting(BackfillSubJob::fromIndex, BackfillSubJob::toIndex)
+                .containsExactly(tuple(0, 2), tuple(2, 4), tuple(4, 5));
+    }
+
+    @Test
+    void sendFailsForYamlReferenceWithoutId() throws Exception {
+        Path yamlFile = tempDir.resolve("backfill-job.yaml");
+        Files.writeString(yamlFile, """
+                message: TestEvent
+                topic: test-topic
+                archiveDataReferences:
+                  - version: 1
+                """);
+
+        assertThatThrownBy(() -> service.send(yamlFile, null, JOB_ID, BASE_URL, ACCESS_TOKEN))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: Missing archiveDataReferences[].id in YAML.");
+    }
+
     @Test
     void sendAcceptsOkResponse() throws Exception {
         Path yamlFile = yamlFile();
@@ -238,6 +560,48 @@ class PasBackfillServiceTest {
         server.verify();
     }
 
+    @Test
+    void sendRetriesThrottledRequestAfterRetryAfter() throws Exception {
+        Path yamlFile = yamlFile();
+        server.expect(once(), requestTo(JOB_URL))
+                .andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "0"));
+        server.expect(once(), requestTo(JOB_URL))
+                .andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "0"));
+        server.expect(once(), requestTo(JOB_URL))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        String result = service.send(yamlFile, JOB_ID, BASE_URL, ACCESS_TOKEN);
+
+        assertThat(result).isEqualTo("Backfill job " + JOB_ID + " created successfully. 1 references submitted.");
+        server.verify();
+    }
+
+    @Test
+    void sendGivesUpAfterMaximumNumberOfThrottledAttempts() throws Exception {
+        Path yamlFile = yamlFile();
+        server.expect(times(10), requestTo(JOB_URL))
+                .andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "0"));
+
+        assertThatThrownBy(() -> service.send(yamlFile, JOB_ID, BASE_URL, ACCESS_TOKEN))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("PAS request failed with HTTP status 429 (gave up after 10 attempts)");
+        server.verify();
+    }
+
+    @Test
+    void sendAcceptsConflictAfterTimedOutRequest() throws Exception {
+        Path yamlFile = yamlFile();
+        server.expect(once(), requestTo(JOB_URL))
+                .andRespond(withException(new HttpTimeoutException("request timed out")));
+        server.expect(once(), requestTo(JOB_URL))
+                .andRespond(withStatus(HttpStatus.CONFLICT));
+
+        String result = service.send(yamlFile, JOB_ID, BASE_URL, ACCESS_TOKEN);
+
+        assertThat(result).isEqualTo("Backfill job " + JOB_ID + " created by a timed-out request. 1 references submitted.");
+        server.verify();
+    }
+
     @Test
     void sendReportsOtherClientHttpStatus() throws Exception {
         Path yamlFile = yamlFile();
@@ -251,7 +615,7 @@ class PasBackfillServiceTest {
     }
 
     @Test
-    void reportReturnsYamlFromStdoutResult() {
+    void writeReportStreamsYamlToOutputStream() {
         String reportYaml = "state: FINISHED\n";
         server.expect(once(), requestTo(REPORT_URL))
                 .andExpect(method(HttpMethod.GET))
@@ -261,9 +625,231 @@ class PasBackfillServiceTest {
                         .contentType(APPLICATION_YAML)
                         .body(reportYaml));
 
-        String result = service.report(JOB_ID, BASE_URL, null, ACCESS_TOKEN);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        service.writeReport(JOB_ID, BASE_URL, outputStream, ACCESS_TOKEN);
+
+        assertThat(outputStream.toString(StandardCharsets.UTF_8)).isEqualTo(reportYaml);
+        server.verify();
+    }
+
+    @Test
+    void reportSummaryCountsEntriesOfStreamedReport() {
+        server.expect(once(), requestTo(REPORT_URL))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN))
+                .andRespond(withStatus(HttpStatus.OK).body("""
+                        state: FINISHED
+                        entries:
+                          - id: DOC-001
+                            status: OK
+                          - id: DOC-002
+                            status: FAILED
+                        """));
+
+        String summary = service.reportSummary(JOB_ID, BASE_URL, ACCESS_TOKEN);
 
-        assertThat(result).isEqualTo(reportYaml);
+        assertThat(summary.lines()).containsExactly(
+                "state: FINISHED",
+                "entries: 2",
+                "",
+                "STATUS     ENTRIES",
+                "FAILED           1",
+                "OK               1");
+        server.verify();
+    }
+
+    @Test
+    void reportSummaryReadsReportLargerThanDefaultYamlDocumentLimit() {
+        int entries = 150_000;
+        StringBuilder report = new StringBuilder("entries:\n");
+        for (int index = 0; index < entries; index++) {
+            report.append("  - id: DOC-").append(index).append("\n    status: OK\n");
+        }
+        assertThat(report.length()).isGreaterThan(3 * 1024 * 1024);
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body(report.toString()));
+
+        String summary = service.reportSummary(JOB_ID, BASE_URL, ACCESS_TOKEN);
+
+        assertThat(summary).startsWith("entries: " + entries);
+        server.verify();
+    }
+
+    @Test
+    void reportSummaryReportsUnparsableReport() {
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body("entries: [\n"));
+
+        assertThatThrownBy(() -> service.reportSummary(JOB_ID, BASE_URL, ACCESS_TOKEN))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Could not parse report of job " + JOB_ID + ":");
+        server.verify();
+    }
+
+    @Test
+    void reportAllWritesReportPerJobAndContinuesAfterFailedReport() throws Exception {
+        String missingJobId = BackfillSubJob.subJobId(JOB_ID, 1);
+        Path jobIdsFile = Files.writeString(tempDir.resolve("job-ids.txt"),
+                "# sub-jobs\n" + JOB_ID + "\n\n" + missingJobId + "\n" + JOB_ID + "\n");
+        RestClient.Builder restClientBuilder = RestClient.builder();
+        MockRestServiceServer unorderedServer = MockRestServiceServer.bindTo(restClientBuilder).ignoreExpectOrder(true).build();
+        PasBackfillService unorderedService = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
+        unorderedServer.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body("state: FINISHED\n"));
+        unorderedServer.expect(once(), requestTo(BASE_URL + "/api/jobs/" + missingJobId + "/report"))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        Path outputDirectory = tempDir.resolve("reports");
+
+        assertThatThrownBy(() -> unorderedService.reportAll(jobIdsFile, BASE_URL, outputDirectory, ACCESS_TOKEN, 4))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Error: 1 of 2 reports could not be read.")
+                .hasMessageContaining(missingJobId + "  FAILED")
+                .hasMessageContaining("Job " + missingJobId + " not found.");
+        assertThat(outputDirectory.resolve(JOB_ID + ".yaml")).hasContent("state: FINISHED");
+        assertThat(outputDirectory.resolve(missingJobId + ".yaml")).doesNotExist();
+        unorderedServer.verify();
+    }
+
+    @Test
+    void writeReportsAsNdjsonWritesOneJsonLinePerReport() throws Exception {
+        String otherJobId = BackfillSubJob.subJobId(JOB_ID, 1);
+        Path jobIdsFile = Files.writeString(tempDir.resolve("job-ids.txt"), JOB_ID + "\n" + otherJobId + "\n");
+        RestClient.Builder restClientBuilder = RestClient.builder();
+        MockRestServiceServer unorderedServer = MockRestServiceServer.bindTo(restClientBuilder).ignoreExpectOrder(true).build();
+        PasBackfillService unorderedService = new PasBackfillService(restClientBuilder.build(), new BackfillReferenceCsvParser());
+        unorderedServer.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body("""
+                        state: FINISHED
+                        entries:
+                          - id: DOC-001
+                            status: OK
+                        """));
+        unorderedServer.expect(once(), requestTo(BASE_URL + "/api/jobs/" + otherJobId + "/report"))
+                .andRespond(withStatus(HttpStatus.OK).body("state: RUNNING\n"));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        unorderedService.writeReportsAsNdjson(jobIdsFile, BASE_URL, outputStream, ACCESS_TOKEN, 2);
+
+        assertThat(outputStream.toString(StandardCharsets.UTF_8).lines()).containsExactlyInAnyOrder(
+                "{\"jobId\":\"" + JOB_ID + "\",\"report\":{\"state\":\"FINISHED\",\"entries\":[{\"id\":\"DOC-001\",\"status\":\"OK\"}]}}",
+                "{\"jobId\":\"" + otherJobId + "\",\"report\":{\"state\":\"RUNNING\"}}");
+        unorderedServer.verify();
+    }
+
+    @Test
+    void writeReportsAsNdjsonWritesErrorLineForFailedReport() throws Exception {
+        Path jobIdsFile = Files.writeString(tempDir.resolve("job-ids.txt"), JOB_ID + "\n");
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        assertThatThrownBy(() -> service.writeReportsAsNdjson(jobIdsFile, BASE_URL, outputStream, ACCESS_TOKEN, 2))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Error: 1 of 1 reports could not be read.");
+        assertThat(outputStream.toString(StandardCharsets.UTF_8)).isEqualTo(
+                "{\"jobId\":\"" + JOB_ID + "\",\"error\":\"PAS request failed with HTTP status 500\"}\n");
+        server.verify();
+    }
+
+    @Test
+    void reportAllRejectsJobIdsFileWithoutJobIds() throws Exception {
+        Path jobIdsFile = Files.writeString(tempDir.resolve("job-ids.txt"), "# none yet\n\n");
+
+        assertThatThrownBy(() -> service.reportAll(jobIdsFile, BASE_URL, tempDir, ACCESS_TOKEN, 4))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: No job ids found in " + jobIdsFile + ".");
+    }
+
+    @Test
+    void resendFailedSubmitsFailedReferencesOfCsvAsNewJob() throws Exception {
+        Path csvFile = referencesCsv(5);
+        server.expect(once(), requestTo(REPORT_URL))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN))
+                .andRespond(withStatus(HttpStatus.OK).body("""
+                        id: %s
+                        status: FAILED
+                        entries:
+                          - id: DOC-001
+                            version: 1
+                            status: OK
+                          - id: DOC-004
+                            version: 1
+                            status: failed
+                          - id: DOC-002
+                            version: 1
+                            status: FAILED
+                          - id: DOC-003
+                            version: 2
+                            status: FAILED
+                        """.formatted(JOB_ID)));
+        server.expect(once(), requestTo(BASE_URL + "/api/jobs/" + NEW_JOB_ID))
+                .andExpect(method(HttpMethod.PUT))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN))
+                .andExpect(content().string("""
+                        ---
+                        message: "TestEvent"
+                        topic: "test-topic"
+                        archiveDataReferences:
+                        - id: "DOC-002"
+                          version: 1
+                        - id: "DOC-004"
+                          version: 1
+                        """))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        String result = service.resendFailed(metadataYamlFile(), BackfillReferencesCsv.file(csvFile), JOB_ID, Set.of("FAILED"), NEW_JOB_ID, BASE_URL,
+                ACCESS_TOKEN, BackfillCompression.NONE);
+
+        assertThat(result.lines()).containsExactly(
+                "Found 3 failed references in report of job " + JOB_ID + ", 2 matching references in " + csvFile + ".",
+                "Backfill job " + NEW_JOB_ID + " created successfully. 2 references submitted.");
+        server.verify();
+    }
+
+    @Test
+    void resendFailedDoesNotSubmitJobWithoutFailedReferences() throws Exception {
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body("""
+                        entries:
+                          - id: DOC-001
+                            version: 1
+                            status: OK
+                        """));
+
+        String result = service.resendFailed(metadataYamlFile(), BackfillReferencesCsv.file(referencesCsv(1)), JOB_ID, Set.of("FAILED"), NEW_JOB_ID,
+                BASE_URL, ACCESS_TOKEN, BackfillCompression.NONE);
+
+        assertThat(result).isEqualTo("No failed references in report of job " + JOB_ID + ". Nothing to resend.");
+        server.verify();
+    }
+
+    @Test
+    void resendFailedFailsWhenNoFailedReferenceIsListedInCsv() throws Exception {
+        Path csvFile = referencesCsv(2);
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body("""
+                        - id: DOC-009
+                          version: 1
+                          status: FAILED
+                        """));
+
+        assertThatThrownBy(() -> service.resendFailed(metadataYamlFile(), BackfillReferencesCsv.file(csvFile), JOB_ID, Set.of("FAILED"), NEW_JOB_ID,
+                BASE_URL, ACCESS_TOKEN, BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: None of the 1 failed references are listed in " + csvFile + ".");
+        server.verify();
+    }
+
+    @Test
+    void resendFailedReportsNotFound() {
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        assertThatThrownBy(() -> service.resendFailed(metadataYamlFile(), BackfillReferencesCsv.file(tempDir.resolve("references.csv")), JOB_ID,
+                Set.of("FAILED"), NEW_JOB_ID, BASE_URL, ACCESS_TOKEN, BackfillCompression.NONE))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Job " + JOB_ID + " not found.");
         server.verify();
     }
 
@@ -281,12 +867,63 @@ class PasBackfillServiceTest {
         server.verify();
     }
 
+    @Test
+    void reportKeepsExistingOutputFileWhenJobIsNotFound() throws Exception {
+        Path output = tempDir.resolve("backfill-report.yaml");
+        Files.writeString(output, "previous report");
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, output, ACCESS_TOKEN))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Job " + JOB_ID + " not found.");
+        assertThat(output).hasContent("previous report");
+        server.verify();
+    }
+
+    @Test
+    void reportFailsWhenOutputCannotBeWritten() {
+        Path output = tempDir.resolve("missing-directory").resolve("backfill-report.yaml");
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.OK).body("state: FINISHED\n"));
+
+        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, output, ACCESS_TOKEN))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessageStartingWith("Could not write report to " + output + ": ");
+        server.verify();
+    }
+
+    @Test
+    void reportFailsAndRemovesPartialOutputWhenReportCannotBeRead() {
+        Path output = tempDir.resolve("backfill-report.yaml");
+        InputStream brokenReport = new InputStream() {
+            private final InputStream start = new ByteArrayInputStream("state: FIN".getBytes(StandardCharsets.UTF_8));
+
+            @Override
+            public int read() throws IOException {
+                int next = start.read();
+                if (next < 0) {
+                    throw new IOException("Connection reset");
+                }
+                return next;
+            }
+        };
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(request -> new MockClientHttpResponse(brokenReport, HttpStatus.OK));
+
+        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, output, ACCESS_TOKEN))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Could not read report of job " + JOB_ID + ": Connection reset");
+        assertThat(output).doesNotExist();
+        server.verify();
+    }
+
     @Test
     void reportReportsNotFound() {
         server.expect(once(), requestTo(REPORT_URL))
                 .andRespond(withStatus(HttpStatus.NOT_FOUND));
 
-        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, null, ACCESS_TOKEN))
+        assertThatThrownBy(() -> service.writeReport(JOB_ID, BASE_URL, OutputStream.nullOutputStream(), ACCESS_TOKEN))
                 .isInstanceOf(PasBackfillException.class)
                 .hasMessage("Job " + JOB_ID + " not found.");
         server.verify();
@@ -297,7 +934,7 @@ class PasBackfillServiceTest {
         server.expect(once(), requestTo(REPORT_URL))
                 .andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR));
 
-        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, null, ACCESS_TOKEN))
+        assertThatThrownBy(() -> service.writeReport(JOB_ID, BASE_URL, OutputStream.nullOutputStream(), ACCESS_TOKEN))
                 .isInstanceOf(PasBackfillException.class)
                 .hasMessage("PAS request failed with HTTP status 500");
         server.verify();
@@ -308,12 +945,59 @@ class PasBackfillServiceTest {
         server.expect(once(), requestTo(REPORT_URL))
                 .andRespond(withStatus(HttpStatus.FORBIDDEN));
 
-        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, null, ACCESS_TOKEN))
+        assertThatThrownBy(() -> service.writeReport(JOB_ID, BASE_URL, OutputStream.nullOutputStream(), ACCESS_TOKEN))
                 .isInstanceOf(PasBackfillException.class)
                 .hasMessage("PAS request failed with HTTP status 403");
         server.verify();
     }
 
+    @Test
+    void watchPollsConditionallyAndPrintsChangesUntilJobIsFinished() {
+        server.expect(once(), requestTo(REPORT_URL))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer " + ACCESS_TOKEN))
+                .andExpect(request -> assertThat(request.getHeaders().containsHeader(HttpHeaders.IF_NONE_MATCH)).isFalse())
+                .andRespond(withStatus(HttpStatus.OK)
+                        .header(HttpHeaders.ETAG, "\"v1\"")
+                        .body("""
+                                state: RUNNING
+                                processed: 1
+                                entries:
+                                  - id: DOC-001
+                                    status: OK
+                                """));
+        server.expect(once(), requestTo(REPORT_URL))
+                .andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        server.expect(once(), requestTo(REPORT_URL))
+                .andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.OK)
+                        .header(HttpHeaders.ETAG, "\"v2\"")
+                        .body("""
+                                state: FINISHED
+                                processed: 2
+                                """));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        service.watch(JOB_ID, BASE_URL, ACCESS_TOKEN, new BackfillWatchOptions(Duration.ofMillis(1), Duration.ofMillis(2)),
+                new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertThat(output.toString(StandardCharsets.UTF_8).lines())
+                .containsExactly("state: RUNNING", "processed: 1", "state: RUNNING -> FINISHED", "processed: 1 -> 2");
+        server.verify();
+    }
+
+    @Test
+    void watchReportsNotFound() {
+        server.expect(once(), requestTo(REPORT_URL))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        assertThatThrownBy(() -> service.watch(JOB_ID, BASE_URL, ACCESS_TOKEN,
+                new BackfillWatchOptions(Duration.ofMillis(1), Duration.ofMillis(1)), new PrintStream(OutputStream.nullOutputStream())))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Job " + JOB_ID + " not found.");
+        server.verify();
+    }
+
     @Test
     void sendSucceedsWhenServerRespondsWithBodyOn200() throws Exception {
         Path yamlFile = yamlFile();
@@ -355,12 +1039,31 @@ class PasBackfillServiceTest {
         server.expect(once(), requestTo(REPORT_URL))
                 .andRespond(withStatus(HttpStatus.NOT_FOUND).body("No such job."));
 
-        assertThatThrownBy(() -> service.report(JOB_ID, BASE_URL, null, ACCESS_TOKEN))
+        assertThatThrownBy(() -> service.writeReport(JOB_ID, BASE_URL, OutputStream.nullOutputStream(), ACCESS_TOKEN))
                 .isInstanceOf(PasBackfillException.class)
                 .hasMessage("Job " + JOB_ID + " not found.");
         server.verify();
     }
 
+    private Path metadataYamlFile() throws Exception {
+        Path yamlFile = tempDir.resolve("backfill-job.yaml");
+        Files.writeString(yamlFile, """
+                message: TestEvent
+                topic: test-topic
+                """);
+        return yamlFile;
+    }
+
+    private Path referencesCsv(int numberOfReferences) throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        StringBuilder csv = new StringBuilder("id,version\n");
+        for (int index = 1; index <= numberOfReferences; index++) {
+            csv.append("DOC-").append("%03d".formatted(index)).append(",1\n");
+        }
+        Files.writeString(csvFile, csv);
+        return csvFile;
+    }
+
     private Path yamlFile() throws Exception {
         Path yamlFile = tempDir.resolve("backfill-job.yaml");
         Files.writeString(yamlFile, """
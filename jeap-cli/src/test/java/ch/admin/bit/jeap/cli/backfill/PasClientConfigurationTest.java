@@ -0,0 +1,48 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.web.client.RestClient;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PasClientConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(PasClientConfiguration.class)
+            .withBean(RestClient.Builder.class, RestClient::builder);
+
+    @Test
+    void createsSharedHttp2ClientWithDefaults() {
+        contextRunner.run(context -> {
+            assertThat(context).hasSingleBean(RestClient.class);
+            assertThat(context.getBean(PasClientProperties.class))
+                    .isEqualTo(new PasClientProperties(Duration.ofSeconds(10), Duration.ofMinutes(10), HttpClient.Version.HTTP_2));
+
+            HttpClient httpClient = context.getBean(HttpClient.class);
+            assertThat(httpClient.version()).isEqualTo(HttpClient.Version.HTTP_2);
+            assertThat(httpClient.connectTimeout()).contains(Duration.ofSeconds(10));
+            assertThat(httpClient.executor()).isPresent();
+        });
+    }
+
+    @Test
+    void bindsConfiguredTimeoutsAndVersion() {
+        contextRunner
+                .withPropertyValues(
+                        "jeap.cli.pas.client.connect-timeout=3s",
+                        "jeap.cli.pas.client.read-timeout=30s",
+                        "jeap.cli.pas.client.http-version=HTTP_1_1")
+                .run(context -> {
+                    assertThat(context.getBean(PasClientProperties.class))
+                            .isEqualTo(new PasClientProperties(Duration.ofSeconds(3), Duration.ofSeconds(30), HttpClient.Version.HTTP_1_1));
+
+                    HttpClient httpClient = context.getBean(HttpClient.class);
+                    assertThat(httpClient.version()).isEqualTo(HttpClient.Version.HTTP_1_1);
+                    assertThat(httpClient.connectTimeout()).contains(Duration.ofSeconds(3));
+                });
+    }
+}
@@ -0,0 +1,174 @@
+package ch.admin.bit.jeap.cli.backfill;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Parses the same files in memory and with heap budgets small enough to spill to disk, and expects the same references
+ * and the same duplicate warnings. Across runs, duplicates are reported in the order of their ids, so warnings are
+ * compared regardless of order.
+ */
+class ReferenceDeduplicatorTest {
+
+    private final BackfillReferenceCsvParser inMemoryParser = new BackfillReferenceCsvParser(Long.MAX_VALUE, 1, Long.MAX_VALUE);
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @CsvSource({
+            "false, 1",
+            "false, 4096",
+            "true, 1",
+            "true, 65536"
+    })
+    void matchesInMemoryParser(boolean parallel, long heapBudgetBytes) throws Exception {
+        Random random = new Random(7);
+        StringBuilder csv = new StringBuilder("id,version\n");
+        for (int row = 0; row < 5_000; row++) {
+            switch (random.nextInt(10)) {
+                case 0 -> csv.append("# comment\n");
+                case 1 -> csv.append("\"DÖC,").append(random.nextInt(2_000)).append("\",1\n");
+                default -> csv.append("DOC-").append(random.nextInt(2_000)).append(',')
+                        .append(1 + random.nextInt(2)).append('\n');
+            }
+        }
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, csv);
+        BackfillReferenceCsvParser spillingParser = new BackfillReferenceCsvParser(parallel ? 0 : Long.MAX_VALUE, 1024,
+                heapBudgetBytes);
+
+        Outcome inMemory = parse(inMemoryParser, csvFile);
+        Outcome spilled = parse(spillingParser, csvFile);
+
+        assertThat(inMemory.warnings()).isNotEmpty();
+        assertThat(spilled.references()).isEqualTo(inMemory.references());
+        assertThat(spilled.warnings()).containsExactlyInAnyOrderElementsOf(inMemory.warnings());
+    }
+
+    @Test
+    void spilledReferencesReadRangesAcrossIndexEntries() throws Exception {
+        int rows = 3 * SpilledArchiveDataReferences.INDEX_INTERVAL + 17;
+        StringBuilder csv = new StringBuilder("id,version\n");
+        for (int row = 0; row < rows; row++) {
+            csv.append("DOC-").append("x".repeat(row % 7)).append(row).append(',').append(1 + row % 3).append('\n');
+        }
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, csv);
+        ArchiveDataReferences inMemory = inMemoryParser.parse(csvFile);
+
+        try (ArchiveDataReferences spilled = new BackfillReferenceCsvParser(Long.MAX_VALUE, 1, 4096).parse(csvFile)) {
+            assertThat(spilled).isInstanceOf(SpilledArchiveDataReferences.class);
+            assertThat(spilled.size()).isEqualTo(rows);
+            for (int[] range : new int[][]{{0, rows}, {1000, 1030}, {1024, 2048}, {2047, 3080}, {3072, rows}, {rows, rows}}) {
+                assertThat(spilled.idByteCount(range[0], range[1])).isEqualTo(inMemory.idByteCount(range[0], range[1]));
+                assertThat(references(spilled, range[0], range[1])).isEqualTo(references(inMemory, range[0], range[1]));
+            }
+            assertThatThrownBy(() -> spilled.forEach(0, rows + 1, (id, version) -> {
+            })).isInstanceOf(IndexOutOfBoundsException.class);
+        }
+    }
+
+    @Test
+    void keepsReferencesInMemoryWithinBudget() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, "id,version\nDOC-001,1\nDOC-001,1\n");
+
+        assertThat(new BackfillReferenceCsvParser(Long.MAX_VALUE, 1, 1024 * 1024).parse(csvFile))
+                .isInstanceOf(ArchiveDataReferenceStore.class)
+                .containsExactly(new ArchiveDataReferenceDto("DOC-001", 1));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "100, 1000000",
+            "1000000, 600"
+    })
+    void spillsNearStoreCapacityRegardlessOfHeapBudget(int maxStoreRows, int maxStoreIdBytes) throws Exception {
+        List<ArchiveDataReferenceDto> expected = new ArrayList<>();
+        ArchiveDataReferences deduplicated;
+        try (ReferenceDeduplicator references = new ReferenceDeduplicator(Long.MAX_VALUE, maxStoreRows, maxStoreIdBytes)) {
+            for (int row = 0; row < 1_000; row++) {
+                String id = "DOC-" + (row % 700);
+                if (row < 700) {
+                    expected.add(new ArchiveDataReferenceDto(id, 1));
+                }
+                references.add(id, 1, row + 2);
+            }
+            deduplicated = references.finish();
+        }
+
+        try (deduplicated) {
+            assertThat(deduplicated).isInstanceOf(SpilledArchiveDataReferences.class);
+            assertThat(deduplicated).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    void closeDeletesSpilledFile() throws Exception {
+        Path csvFile = tempDir.resolve("references.csv");
+        Files.writeString(csvFile, "id,version\nDOC-001,1\nDOC-002,1\nDOC-001,1\n");
+        Set<Path> spillDirectoriesBefore = spillDirectories();
+
+        Set<Path> spillDirectories;
+        try (ArchiveDataReferences spilled = new BackfillReferenceCsvParser(Long.MAX_VALUE, 1, 1).parse(csvFile)) {
+            assertThat(spilled).containsExactly(new ArchiveDataReferenceDto("DOC-001", 1), new ArchiveDataReferenceDto("DOC-002", 1));
+            spillDirectories = spillDirectories();
+            spillDirectories.removeAll(spillDirectoriesBefore);
+            assertThat(spillDirectories).hasSize(1);
+            // Only the deduplicated references are left behind by the external sort
+            try (Stream<Path> files = Files.list(spillDirectories.iterator().next())) {
+                assertThat(files).extracting(path -> path.getFileName().toString()).containsExactly("references");
+            }
+        }
+
+        assertThat(spillDirectories).noneMatch(Files::exists);
+    }
+
+    private static Set<Path> spillDirectories() throws Exception {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(path -> path.getFileName().toString().startsWith("jeap-cli-references-"))
+                    .collect(Collectors.toCollection(HashSet::new));
+        }
+    }
+
+    private static List<ArchiveDataReferenceDto> references(ArchiveDataReferences references, int fromRow, int toRow) {
+        List<ArchiveDataReferenceDto> result = new ArrayList<>();
+        references.forEach(fromRow, toRow, (id, version) -> result.add(new ArchiveDataReferenceDto(id, version)));
+        return result;
+    }
+
+    private static Outcome parse(BackfillReferenceCsvParser parser, Path csvFile) throws Exception {
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try (ArchiveDataReferences parsed = parser.parse(csvFile)) {
+            List<ArchiveDataReferenceDto> references = new ArrayList<>();
+            parsed.forEach(references::add);
+            return new Outcome(references, output.toString(StandardCharsets.UTF_8).lines().toList());
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+
+    private record Outcome(List<ArchiveDataReferenceDto> references, List<String> warnings) {
+    }
+}
@@ -1,13 +1,26 @@
 package ch.admin.bit.jeap.cli.commands;
 
+import ch.admin.bit.jeap.cli.backfill.BackfillBatchOptions;
+import ch.admin.bit.jeap.cli.backfill.BackfillCompression;
+import ch.admin.bit.jeap.cli.backfill.BackfillReferencesCsv;
+import ch.admin.bit.jeap.cli.backfill.BackfillWatchOptions;
 import ch.admin.bit.jeap.cli.backfill.PasBackfillException;
 import ch.admin.bit.jeap.cli.backfill.PasBackfillService;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
@@ -17,66 +30,362 @@ import static org.mockito.Mockito.when;
 class PasBackfillCommandsTest {
 
     private static final String JOB_ID = "88dbb65f-9634-4685-bc86-17b72d715d3e";
+    private static final String NEW_JOB_ID = "2c6d3f2e-1b5e-4f55-9d1c-6f0f3a7c8b21";
     private static final String BASE_URL = "https://pas.example.com";
 
     @Test
     void sendReadsAccessTokenFromStdin() {
         PasBackfillService service = mock(PasBackfillService.class);
-        when(service.send(eq(Path.of("backfill-job.yaml")), eq(null), eq(JOB_ID), eq(BASE_URL), eq("stdin-token")))
+        when(service.send(eq(Path.of("backfill-job.yaml")), eq(null), eq(JOB_ID), eq(BASE_URL), eq("stdin-token"), eq(BackfillCompression.NONE)))
                 .thenReturn("ok");
         PasBackfillCommands commands = commands(service, "stdin-token\n");
 
-        commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, null);
+        commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, null, null, null, null, false, false, null);
 
-        verify(service).send(Path.of("backfill-job.yaml"), null, JOB_ID, BASE_URL, "stdin-token");
+        verify(service).send(Path.of("backfill-job.yaml"), null, JOB_ID, BASE_URL, "stdin-token", BackfillCompression.NONE);
     }
 
     @Test
     void sendForwardsReferencesCsv() {
         PasBackfillService service = mock(PasBackfillService.class);
-        when(service.send(eq(Path.of("backfill-job.yaml")), eq(Path.of("references.csv")), eq(JOB_ID), eq(BASE_URL), eq("stdin-token")))
+        when(service.send(eq(Path.of("backfill-job.yaml")), eq(BackfillReferencesCsv.file(Path.of("references.csv"))), eq(JOB_ID), eq(BASE_URL), eq("stdin-token"), eq(BackfillCompression.NONE)))
                 .thenReturn("ok");
         PasBackfillCommands commands = commands(service, "stdin-token\n");
 
-        commands.send("backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null);
+        commands.send("backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null, null, null, null, false, false, null);
 
-        verify(service).send(Path.of("backfill-job.yaml"), Path.of("references.csv"), JOB_ID, BASE_URL, "stdin-token");
+        verify(service).send(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, BASE_URL, "stdin-token", BackfillCompression.NONE);
     }
 
     @Test
-    void reportReadsAccessTokenFromStdin() {
+    void sendWithBatchSizeSubmitsInBatches() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        BackfillBatchOptions batchOptions = new BackfillBatchOptions(1000, 8);
+        when(service.sendInBatches(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, BASE_URL, "stdin-token", batchOptions,
+                BackfillCompression.NONE))
+                .thenReturn("ok");
+        PasBackfillCommands commands = commands(service, "stdin-token\n");
+
+        commands.send("backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null, 1000, 8, null, false, false, null);
+
+        verify(service).sendInBatches(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, BASE_URL, "stdin-token", batchOptions,
+                BackfillCompression.NONE);
+    }
+
+    @Test
+    void sendWithBatchSizeUsesDefaultMaxInFlight() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PasBackfillCommands commands = commands(service, "stdin-token\n");
+
+        commands.send("backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null, 1000, null, null, false, false, null);
+
+        verify(service).sendInBatches(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, BASE_URL, "stdin-token",
+                new BackfillBatchOptions(1000, 4), BackfillCompression.NONE);
+    }
+
+    @Test
+    void sendForwardsResume() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PasBackfillCommands commands = commands(service, "stdin-token\n");
+
+        commands.send("backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null, 1000, null, null, true, false, null);
+
+        verify(service).sendInBatches(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, BASE_URL, "stdin-token",
+                new BackfillBatchOptions(1000, 4, true), BackfillCompression.NONE);
+    }
+
+    @Test
+    void sendFailsForResumeWithoutBatchSize() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.send("backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null, null, null, null, true, false, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --resume requires --batch-size.");
+    }
+
+    @Test
+    void sendFailsForMaxInFlightWithoutBatchSize() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, null, null, 8, null, false, false, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --max-in-flight requires --batch-size.");
+    }
+
+    @Test
+    void sendReadsReferencesFromStdinWithAccessTokenOption() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        InputStream stdin = stdin("id,version\nDOC-001,1\n");
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin,
+                new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+
+        commands.send("backfill-job.yaml", "-", JOB_ID, BASE_URL, "token", null, null, null, false, false, null);
+
+        ArgumentCaptor<BackfillReferencesCsv> references = ArgumentCaptor.forClass(BackfillReferencesCsv.class);
+        verify(service).send(eq(Path.of("backfill-job.yaml")), references.capture(), eq(JOB_ID), eq(BASE_URL), eq("token"),
+                eq(BackfillCompression.NONE));
+        assertThat(references.getValue().isStdin()).isTrue();
+        assertThat(references.getValue().stdin().get()).isSameAs(stdin);
+    }
+
+    @Test
+    void sendFailsForReferencesFromStdinWithoutAccessTokenOption() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "id,version\nDOC-001,1\n");
+
+        assertThatThrownBy(() -> commands.send("backfill-job.yaml", "-", JOB_ID, BASE_URL, null, null, null, null, false, false, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --references-csv - reads the references from stdin and requires --access-token.");
+    }
+
+    @Test
+    void sendFailsForInvalidBatchSize() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, null, 0, null, null, false, false, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --batch-size must be a positive integer.");
+    }
+
+    @Test
+    void sendForwardsCompression() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PasBackfillCommands commands = commands(service, "stdin-token\n");
+
+        commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, null, null, null, "gzip", false, false, null);
+
+        verify(service).send(Path.of("backfill-job.yaml"), null, JOB_ID, BASE_URL, "stdin-token", BackfillCompression.GZIP);
+    }
+
+    @Test
+    void sendFailsForUnknownCompression() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, null, null, null, "zip", false, false, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: Invalid --compression 'zip'. Use none, gzip or auto.");
+    }
+
+    @Test
+    void sendAllUsesDefaultConcurrency() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        when(service.sendAll(Path.of("jobs"), BASE_URL, "stdin-token", 4, BackfillCompression.NONE)).thenReturn("summary");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"),
+                new PrintStream(stdout, true, StandardCharsets.UTF_8));
+
+        commands.sendAll("jobs", BASE_URL, null, null, null, false, null);
+
+        assertThat(stdout.toString(StandardCharsets.UTF_8)).isEqualTo("summary" + System.lineSeparator());
+    }
+
+    @Test
+    void sendAllForwardsConcurrencyAndCompression() {
         PasBackfillService service = mock(PasBackfillService.class);
-        when(service.report(eq(JOB_ID), eq(BASE_URL), eq(null), eq("stdin-token")))
-                .thenReturn("report");
         PasBackfillCommands commands = commands(service, "stdin-token\n");
 
-        commands.report(JOB_ID, BASE_URL, null, null);
+        commands.sendAll("jobs", BASE_URL, "option-token", 16, "auto", false, null);
 
-        verify(service).report(JOB_ID, BASE_URL, null, "stdin-token");
+        verify(service).sendAll(Path.of("jobs"), BASE_URL, "option-token", 16, BackfillCompression.AUTO);
+    }
+
+    @Test
+    void reportStreamsToStdoutWithoutOutput() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PrintStream stdout = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"), stdout);
+
+        commands.report(JOB_ID, BASE_URL, null, null, false, null, null);
+
+        verify(service).writeReport(JOB_ID, BASE_URL, stdout, "stdin-token");
+    }
+
+    @Test
+    void reportWritesToOutputFile() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        when(service.report(JOB_ID, BASE_URL, Path.of("report.yaml"), "stdin-token"))
+                .thenReturn("Report written to report.yaml");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"),
+                new PrintStream(stdout, true, StandardCharsets.UTF_8));
+
+        commands.report(JOB_ID, BASE_URL, "report.yaml", null, false, null, null);
+
+        assertThat(stdout.toString(StandardCharsets.UTF_8)).isEqualTo("Report written to report.yaml" + System.lineSeparator());
+    }
+
+    @Test
+    void reportPrintsSummary() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        when(service.reportSummary(JOB_ID, BASE_URL, "stdin-token")).thenReturn("entries: 2");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"),
+                new PrintStream(stdout, true, StandardCharsets.UTF_8));
+
+        commands.report(JOB_ID, BASE_URL, null, null, true, null, null);
+
+        assertThat(stdout.toString(StandardCharsets.UTF_8)).isEqualTo("entries: 2" + System.lineSeparator());
+    }
+
+    @Test
+    void reportWithJobIdsFileWritesReportsToOutputDirectory() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        when(service.reportAll(Path.of("job-ids.txt"), BASE_URL, Path.of("reports"), "stdin-token", 8))
+                .thenReturn("2 reports written to reports.");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"),
+                new PrintStream(stdout, true, StandardCharsets.UTF_8));
+
+        commands.report(null, BASE_URL, "reports", null, false, "job-ids.txt", null);
+
+        assertThat(stdout.toString(StandardCharsets.UTF_8)).isEqualTo("2 reports written to reports." + System.lineSeparator());
+    }
+
+    @Test
+    void reportWithJobIdsFileStreamsNdjsonToStdoutWithoutOutput() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PrintStream stdout = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"), stdout);
+
+        commands.report(null, BASE_URL, null, null, false, "job-ids.txt", 16);
+
+        verify(service).writeReportsAsNdjson(Path.of("job-ids.txt"), BASE_URL, stdout, "stdin-token", 16);
+    }
+
+    @Test
+    void reportRequiresEitherJobIdOrJobIdsFile() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.report(JOB_ID, BASE_URL, null, null, false, "job-ids.txt", null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: Provide either --job-id or --job-ids-file.");
+        assertThatThrownBy(() -> commands.report(null, BASE_URL, null, null, false, null, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: Provide either --job-id or --job-ids-file.");
+    }
+
+    @Test
+    void reportSummaryCannotBeWrittenToOutputFile() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.report(JOB_ID, BASE_URL, "report.yaml", null, true, null, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --summary cannot be combined with --output.");
+    }
+
+    @Test
+    void sendPrintsTimingsAndWritesMetricsFile(@TempDir Path tempDir) throws Exception {
+        PasBackfillService service = mock(PasBackfillService.class);
+        when(service.send(Path.of("backfill-job.yaml"), null, JOB_ID, BASE_URL, "token", BackfillCompression.NONE))
+                .thenReturn("sent");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin(""),
+                new PrintStream(stdout, true, StandardCharsets.UTF_8));
+        Path metricsFile = tempDir.resolve("metrics.json");
+
+        commands.send("backfill-job.yaml", null, JOB_ID, BASE_URL, "token", null, null, null, false, true, metricsFile.toString());
+
+        assertThat(stdout.toString(StandardCharsets.UTF_8))
+                .startsWith("sent" + System.lineSeparator() + "PHASE")
+                .contains("Wall time");
+        assertThat(Files.readString(metricsFile)).contains("\"wallTimeMs\"", "\"phases\"");
+    }
+
+    @Test
+    void resendFailedUsesDefaultFailedStatus() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        when(service.resendFailed(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, Set.of("FAILED"), NEW_JOB_ID,
+                BASE_URL, "stdin-token", BackfillCompression.NONE))
+                .thenReturn("resent");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"),
+                new PrintStream(stdout, true, StandardCharsets.UTF_8));
+
+        commands.resendFailed(JOB_ID, "backfill-job.yaml", "references.csv", NEW_JOB_ID, BASE_URL, null, null, null, false, null);
+
+        assertThat(stdout.toString(StandardCharsets.UTF_8)).isEqualTo("resent" + System.lineSeparator());
+    }
+
+    @Test
+    void resendFailedForwardsStatusesAndCompression() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PasBackfillCommands commands = commands(service, "stdin-token\n");
+
+        commands.resendFailed(JOB_ID, "backfill-job.yaml", "references.csv", NEW_JOB_ID, BASE_URL, null, "FAILED, REJECTED",
+                "gzip", false, null);
+
+        verify(service).resendFailed(Path.of("backfill-job.yaml"), BackfillReferencesCsv.file(Path.of("references.csv")), JOB_ID, Set.of("FAILED", "REJECTED"),
+                NEW_JOB_ID, BASE_URL, "stdin-token", BackfillCompression.GZIP);
+    }
+
+    @Test
+    void resendFailedRejectsSameJobId() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.resendFailed(JOB_ID, "backfill-job.yaml", "references.csv", JOB_ID, BASE_URL, null,
+                null, null, false, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --new-job-id must differ from --job-id.");
     }
 
     @Test
     void accessTokenOptionTakesPrecedenceOverStdin() {
         PasBackfillService service = mock(PasBackfillService.class);
-        when(service.report(eq(JOB_ID), eq(BASE_URL), eq(null), eq("option-token")))
+        when(service.report(eq(JOB_ID), eq(BASE_URL), eq(Path.of("report.yaml")), eq("option-token")))
                 .thenReturn("report");
         PasBackfillCommands commands = commands(service, "stdin-token\n");
 
-        commands.report(JOB_ID, BASE_URL, null, "option-token");
+        commands.report(JOB_ID, BASE_URL, "report.yaml", "option-token", false, null, null);
 
-        verify(service).report(JOB_ID, BASE_URL, null, "option-token");
+        verify(service).report(JOB_ID, BASE_URL, Path.of("report.yaml"), "option-token");
+    }
+
+    @Test
+    void watchUsesDefaultIntervals() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PrintStream stdout = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"), stdout);
+
+        commands.watch(JOB_ID, BASE_URL, null, null, null);
+
+        verify(service).watch(JOB_ID, BASE_URL, "stdin-token",
+                new BackfillWatchOptions(Duration.ofSeconds(2), Duration.ofSeconds(60)), stdout);
+    }
+
+    @Test
+    void watchAcceptsIntervalAboveDefaultMaxInterval() {
+        PasBackfillService service = mock(PasBackfillService.class);
+        PrintStream stdout = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        PasBackfillCommands commands = new PasBackfillCommands(service, stdin("stdin-token\n"), stdout);
+
+        commands.watch(JOB_ID, BASE_URL, null, 120, null);
+
+        verify(service).watch(JOB_ID, BASE_URL, "stdin-token",
+                new BackfillWatchOptions(Duration.ofSeconds(120), Duration.ofSeconds(120)), stdout);
+    }
+
+    @Test
+    void watchFailsForNonPositiveInterval() {
+        PasBackfillCommands commands = commands(mock(PasBackfillService.class), "stdin-token\n");
+
+        assertThatThrownBy(() -> commands.watch(JOB_ID, BASE_URL, null, 0, null))
+                .isInstanceOf(PasBackfillException.class)
+                .hasMessage("Error: --interval must be a positive number of seconds.");
     }
 
     @Test
     void missingAccessTokenFails() {
         PasBackfillCommands commands = commands(mock(PasBackfillService.class), "\n");
 
-        assertThatThrownBy(() -> commands.report(JOB_ID, BASE_URL, null, null))
+        assertThatThrownBy(() -> commands.report(JOB_ID, BASE_URL, null, null, false, null, null))
                 .isInstanceOf(PasBackfillException.class)
                 .hasMessage("Missing access token. Provide --access-token or pipe the token to stdin.");
     }
 
     private PasBackfillCommands commands(PasBackfillService service, String stdin) {
-        return new PasBackfillCommands(service, new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)));
+        return new PasBackfillCommands(service, stdin(stdin), new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+    }
+
+    private static InputStream stdin(String stdin) {
+        return new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8));
     }
 }
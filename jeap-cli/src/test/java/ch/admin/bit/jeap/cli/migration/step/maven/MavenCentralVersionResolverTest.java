@@ -1,12 +1,17 @@
 package ch.admin.bit.jeap.cli.migration.step.maven;
 
 import ch.admin.bit.jeap.cli.process.FakeProcessExecutor;
+import ch.admin.bit.jeap.cli.process.ProcessCommand;
+import ch.admin.bit.jeap.cli.process.ProcessConcurrency;
+import ch.admin.bit.jeap.cli.process.ProcessExecutionResult;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -88,6 +93,36 @@ class MavenCentralVersionResolverTest {
         assertTrue(resolved.isEmpty());
     }
 
+    @Test
+    void resolvesSeveralVersionsWithOneCallOfExecuteAll() throws Exception {
+        List<Integer> concurrencies = new ArrayList<>();
+        FakeProcessExecutor processExecutor = new FakeProcessExecutor(
+                (command, workingDirectory) -> {
+                    overwriteTempPomVersion(command, command.contains("-Dincludes=org.slf4j:slf4j-api") ? "2.0.17" : "2.20.0");
+                    return 0;
+                }
+        ) {
+            @Override
+            public List<ProcessExecutionResult> executeAll(List<ProcessCommand> commands, int concurrency,
+                                                           FailurePolicy failurePolicy)
+                    throws IOException, InterruptedException {
+                concurrencies.add(concurrency);
+                return super.executeAll(commands, 1, failurePolicy);
+            }
+        };
+
+        EnsureProjectDependencyManagement.MavenCentralVersionResolver resolver =
+                new EnsureProjectDependencyManagement.MavenCentralVersionResolver(tempDir, processExecutor);
+
+        List<Optional<String>> resolved = resolver.resolveLatestVersions(
+                List.of("commons-io:commons-io", "org.slf4j:slf4j-api"));
+
+        assertEquals(List.of(Optional.of("2.20.0"), Optional.of("2.0.17")), resolved);
+        assertEquals(List.of(ProcessConcurrency.limit()), concurrencies);
+        assertEquals(2, processExecutor.getExecutionCount());
+        assertTrue(processExecutor.getLastExecutedCommand().command().containsAll(RunMaven.SHARED_LOCAL_REPOSITORY_OPTIONS));
+    }
+
     private void overwriteTempPomVersion(List<String> command, String version) {
         int pomFlagIndex = command.indexOf("-f");
         Path pomPath = Path.of(command.get(pomFlagIndex + 1));
@@ -0,0 +1,266 @@
+package ch.admin.bit.jeap.cli.migration.step.maven;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MavenMetadataVersionResolverTest {
+
+    private static final String METADATA = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <metadata>
+              <groupId>commons-io</groupId>
+              <artifactId>commons-io</artifactId>
+              <versioning>
+                <latest>3.0.0-M1</latest>
+                <release>3.0.0-M1</release>
+                <versions>
+                  <version>2.9.0</version>
+                  <version>2.20.0</version>
+                  <version>2.21.0-RC1</version>
+                  <version>3.0.0-M1</version>
+                </versions>
+              </versioning>
+            </metadata>
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+    private final List<String> requestedPaths = new CopyOnWriteArrayList<>();
+    private final AtomicInteger status = new AtomicInteger(200);
+
+    @BeforeEach
+    void startRepository() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/maven2/", exchange -> {
+            requestedPaths.add(exchange.getRequestURI().getPath());
+            byte[] body = METADATA.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status.get(), status.get() == 200 ? body.length : -1);
+            if (status.get() == 200) {
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopRepository() {
+        server.stop(0);
+    }
+
+    @Test
+    void resolvesLatestStableVersionFromMetadataWithoutMaven() throws Exception {
+        MavenMetadataVersionResolver resolver = resolver((groupId, artifactId) -> {
+            throw new AssertionError("Maven must not run");
+        });
+
+        Optional<String> resolved = resolver.resolveLatestVersion("org.apache.commons", "commons-io");
+
+        assertEquals(Optional.of("2.20.0"), resolved);
+        assertEquals(List.of("/maven2/org/apache/commons/commons-io/maven-metadata.xml"), requestedPaths);
+    }
+
+    @Test
+    void returnsEmptyForUnknownArtifact() throws Exception {
+        status.set(404);
+        MavenMetadataVersionResolver resolver = resolver((groupId, artifactId) -> Optional.of("1.0.0"));
+
+        assertTrue(resolver.resolveLatestVersion("commons-io", "commons-io").isEmpty());
+    }
+
+    @Test
+    void fallsBackToMavenPerLookupWhenRepositoryCannotBeRead() throws Exception {
+        status.set(401);
+        AtomicInteger fallbackCalls = new AtomicInteger();
+        MavenMetadataVersionResolver resolver = resolver((groupId, artifactId) -> {
+            fallbackCalls.incrementAndGet();
+            return Optional.of("1.0.0");
+        });
+
+        assertEquals(Optional.of("1.0.0"), resolver.resolveLatestVersion("commons-io", "commons-io"));
+        status.set(200);
+        assertEquals(Optional.of("2.20.0"), resolver.resolveLatestVersion("org.slf4j", "slf4j-api"));
+
+        assertEquals(1, fallbackCalls.get());
+        assertEquals(2, requestedPaths.size());
+    }
+
+    @Test
+    void resolvesAllUnreadableMetadataWithOneFallbackCall() throws Exception {
+        status.set(503);
+        List<List<String>> fallbackCalls = new CopyOnWriteArrayList<>();
+        MavenMetadataVersionResolver resolver = resolver(new EnsureProjectDependencyManagement.DependencyVersionResolver() {
+            @Override
+            public Optional<String> resolveLatestVersion(String groupId, String artifactId) {
+                throw new AssertionError("Maven must run once for all dependencies");
+            }
+
+            @Override
+            public List<Optional<String>> resolveLatestVersions(List<String> coordinates) {
+                fallbackCalls.add(coordinates);
+                return List.of(Optional.of("1.0.0"), Optional.empty());
+            }
+        });
+
+        List<Optional<String>> resolved = resolver.resolveLatestVersions(
+                List.of("commons-io:commons-io", "org.slf4j:slf4j-api"));
+
+        assertEquals(List.of(Optional.of("1.0.0"), Optional.empty()), resolved);
+        assertEquals(List.of(List.of("commons-io:commons-io", "org.slf4j:slf4j-api")), fallbackCalls);
+        assertEquals(List.of("/maven2/commons-io/commons-io/maven-metadata.xml",
+                "/maven2/org/slf4j/slf4j-api/maven-metadata.xml"), requestedPaths);
+    }
+
+    @Test
+    void fallsBackToMavenForAllLaterLookupsAfterConsecutiveFailures() throws Exception {
+        status.set(503);
+        AtomicInteger fallbackCalls = new AtomicInteger();
+        MavenMetadataVersionResolver resolver = resolver((groupId, artifactId) -> {
+            fallbackCalls.incrementAndGet();
+            return Optional.of("1.0.0");
+        });
+
+        for (int lookup = 0; lookup < MavenMetadataVersionResolver.MAX_CONSECUTIVE_FAILURES + 2; lookup++) {
+            assertEquals(Optional.of("1.0.0"), resolver.resolveLatestVersion("commons-io", "commons-io"));
+        }
+
+        assertEquals(MavenMetadataVersionResolver.MAX_CONSECUTIVE_FAILURES + 2, fallbackCalls.get());
+        assertEquals(MavenMetadataVersionResolver.MAX_CONSECUTIVE_FAILURES, requestedPaths.size());
+    }
+
+    @Test
+    void ordersVersionsLikeMaven() throws IOException {
+        assertEquals(Optional.of("2.20.0"), latestStableVersion("2.9.0", "2.20.0"));
+        assertEquals(Optional.of("1.10"), latestStableVersion("1.9", "1.10", "1.2"));
+        assertEquals(Optional.of("7.1.1.Final"), latestStableVersion("7.1.0.Final", "7.1.1.Final"));
+        assertEquals(Optional.of("33.4.0-jre"), latestStableVersion("33.3.1-jre", "33.4.0-android", "33.4.0-jre"));
+    }
+
+    @Test
+    void picksSameVersionAsMavenForQualifiers() throws IOException {
+        // Maven treats "final", "ga" and "release" like no qualifier, so of equal versions the first listed one is kept
+        assertEquals(Optional.of("7.1.1.Final"), latestStableVersion("7.1.0", "7.1.1.Final", "7.1.1"));
+        assertEquals(Optional.of("7.1.1"), latestStableVersion("7.1.0", "7.1.1", "7.1.1.Final"));
+        assertEquals(Optional.of("5.0.GA"), latestStableVersion("5.0.GA", "5.0"));
+        // Service packs and unknown qualifiers rank above the release, numeric segments above qualifiers
+        assertEquals(Optional.of("1.0-sp1"), latestStableVersion("1.0", "1.0-sp1"));
+        assertEquals(Optional.of("1.0-custom"), latestStableVersion("1.0-custom", "1.0"));
+        assertEquals(Optional.of("1.0.1"), latestStableVersion("1.0-sp1", "1.0.1"));
+        assertEquals(Optional.of("1.2.3-1"), latestStableVersion("1.2.3", "1.2.3-1"));
+    }
+
+    @Test
+    void determinesRepositoryOnFirstLookupAndUsesMavenIfThatFails() throws Exception {
+        AtomicInteger accessLookups = new AtomicInteger();
+        AtomicInteger fallbackCalls = new AtomicInteger();
+        MavenMetadataVersionResolver resolver = new MavenMetadataVersionResolver(() -> {
+            accessLookups.incrementAndGet();
+            throw new IllegalArgumentException("Illegal character in path");
+        }, (groupId, artifactId) -> {
+            fallbackCalls.incrementAndGet();
+            return Optional.of("1.0.0");
+        });
+        assertEquals(0, accessLookups.get());
+
+        assertEquals(Optional.of("1.0.0"), resolver.resolveLatestVersion("commons-io", "commons-io"));
+        assertEquals(Optional.of("1.0.0"), resolver.resolveLatestVersion("org.slf4j", "slf4j-api"));
+
+        assertEquals(1, accessLookups.get());
+        assertEquals(2, fallbackCalls.get());
+        assertTrue(requestedPaths.isEmpty());
+    }
+
+    @Test
+    void readsMavenCentralWithoutMavenConfiguration() {
+        Map<String, String> environment = Map.of(
+                "JEAP_MAVEN_SETTINGS", tempDir.resolve("missing.xml").toString(),
+                "MAVEN_OPTS", " -Xmx1g -Daether.enhancedLocalRepository.trackingFilename=jeap-local.tracking",
+                "JEAP_MAVEN_OPTS", "-Dmaven.repo.local=/home/jeapcli/.m2/repository",
+                "MAVEN_CONFIG", " ",
+                "NO_PROXY", "localhost");
+
+        assertEquals(MavenMetadataVersionResolver.MAVEN_CENTRAL,
+                MavenMetadataVersionResolver.repositoryFromEnvironment(environment, tempDir, new Properties()));
+    }
+
+    @Test
+    void usesMavenWithSettingsFile() throws IOException {
+        Path settings = Files.writeString(tempDir.resolve("settings.xml"), "<settings/>");
+        Path userHome = tempDir.resolve("home");
+        Files.createDirectories(userHome.resolve(".m2"));
+
+        assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(
+                Map.of("JEAP_MAVEN_SETTINGS", settings.toString()), userHome, new Properties()));
+        Files.writeString(userHome.resolve(".m2").resolve("settings.xml"), "<settings/>");
+        assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(Map.of(), userHome, new Properties()));
+    }
+
+    @Test
+    void usesMavenWithProxyTrustStoreOrMavenConfig() {
+        List<Map<String, String>> environments = List.of(
+                Map.of("HTTPS_PROXY", "http://proxy:3128"),
+                Map.of("http_proxy", "proxy:3128"),
+                Map.of("ALL_PROXY", "socks5://proxy:1080"),
+                Map.of("MAVEN_OPTS", "-Xmx1g -Djavax.net.ssl.trustStore=/etc/truststore.jks"),
+                Map.of("JEAP_MAVEN_OPTS", "-Dhttps.proxyHost=proxy"),
+                Map.of("MAVEN_CONFIG", "-o"));
+        for (Map<String, String> environment : environments) {
+            assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(environment, tempDir, new Properties()),
+                    environment.toString());
+        }
+
+        Properties systemProperties = new Properties();
+        systemProperties.setProperty("https.proxyHost", "proxy");
+        assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(Map.of(), tempDir, systemProperties));
+    }
+
+    @Test
+    void usesMavenForPlaceholders() {
+        assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(
+                Map.of("JEAP_MAVEN_SETTINGS", "${env.MAVEN_HOME}/conf/settings.xml"), tempDir, new Properties()));
+        assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(
+                Map.of("MAVEN_OPTS", "-Dmaven.repo.local=${env.REPO}"), tempDir, new Properties()));
+        assertNull(MavenMetadataVersionResolver.repositoryFromEnvironment(
+                Map.of("MAVEN_OPTS", "\"-Dmaven.repo.local=/a b\""), tempDir, new Properties()));
+    }
+
+    private static Optional<String> latestStableVersion(String... versions) throws IOException {
+        StringBuilder metadata = new StringBuilder("<metadata><versioning><versions>");
+        for (String version : versions) {
+            metadata.append("<version>").append(version).append("</version>");
+        }
+        metadata.append("</versions></versioning></metadata>");
+        return MavenMetadataVersionResolver.latestStableVersion(MavenMetadataVersionResolver.parse(
+                new ByteArrayInputStream(metadata.toString().getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private MavenMetadataVersionResolver resolver(EnsureProjectDependencyManagement.DependencyVersionResolver fallback) {
+        URI repository = URI.create("http://localhost:" + server.getAddress().getPort() + "/maven2/");
+        return new MavenMetadataVersionResolver(HttpClient.newHttpClient(), repository, fallback);
+    }
+}
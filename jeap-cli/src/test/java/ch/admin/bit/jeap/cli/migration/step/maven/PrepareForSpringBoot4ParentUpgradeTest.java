@@ -262,8 +262,9 @@ class PrepareForSpringBoot4ParentUpgradeTest {
     }
 
     private PrepareForSpringBoot4ParentUpgrade createStep(Map<String, String> resolvedVersions) {
-        return new PrepareForSpringBoot4ParentUpgrade(tempDir,
-                (groupId, artifactId) -> Optional.ofNullable(resolvedVersions.get(groupId + ":" + artifactId)));
+        EnsureProjectDependencyManagement.DependencyVersionResolver resolver =
+                (groupId, artifactId) -> Optional.ofNullable(resolvedVersions.get(groupId + ":" + artifactId));
+        return new PrepareForSpringBoot4ParentUpgrade(tempDir, resolver);
     }
 
     private Step namedStep(String name, List<String> executed) {
@@ -6,7 +6,9 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -124,6 +126,43 @@ class RunCodeFormatTest {
         assertEquals(subModule, executor.getLastExecutedCommand().workingDirectory());
     }
 
+    @Test
+    void formatsNestedModulesAfterEnclosingModule() throws Exception {
+        String spotlessPom = """
+                <project>
+                    <build><plugins><plugin>
+                        <artifactId>spotless-maven-plugin</artifactId>
+                    </plugin></plugins></build>
+                </project>
+                """;
+        Files.writeString(tempDir.resolve("pom.xml"), spotlessPom);
+        Path moduleA = Files.createDirectory(tempDir.resolve("module-a"));
+        Path moduleB = Files.createDirectory(tempDir.resolve("module-b"));
+        Files.writeString(moduleA.resolve("pom.xml"), spotlessPom);
+        Files.writeString(moduleB.resolve("pom.xml"), spotlessPom);
+        FakeProcessExecutor executor = new FakeProcessExecutor(0);
+
+        new RunCodeFormat(tempDir, executor).execute();
+
+        assertEquals(3, executor.getExecutionCount());
+        assertEquals(tempDir, executor.getExecutedCommands().get(0).workingDirectory());
+        assertEquals(Set.of(moduleA, moduleB), Set.of(executor.getExecutedCommands().get(1).workingDirectory(),
+                executor.getExecutedCommands().get(2).workingDirectory()));
+        assertEquals(List.of("mvn", "-ntp", "spotless:apply"), executor.getExecutedCommands().get(0).command());
+        assertTrue(executor.getExecutedCommands().get(1).command().containsAll(RunMaven.SHARED_LOCAL_REPOSITORY_OPTIONS));
+    }
+
+    @Test
+    void groupsDirectoriesByNestingLevel() {
+        Path root = Path.of("project");
+        Path module = root.resolve("module");
+        Path nested = module.resolve("nested");
+        Path other = root.resolve("other");
+
+        assertEquals(List.of(List.of(root), List.of(module, other), List.of(nested)),
+                RunCodeFormat.nestingLevels(new LinkedHashSet<>(List.of(root, module, nested, other))));
+    }
+
     @Test
     void failsWhenGitCodeFormatFails() throws Exception {
         Files.writeString(tempDir.resolve("pom.xml"), """
@@ -2,6 +2,8 @@ package ch.admin.bit.jeap.cli.migration.step.maven;
 
 import ch.admin.bit.jeap.cli.migration.step.Step;
 import ch.admin.bit.jeap.cli.process.FakeProcessExecutor;
+import ch.admin.bit.jeap.cli.process.ProcessExecutionResult;
+import ch.admin.bit.jeap.cli.process.ProcessExecutor;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -58,6 +60,36 @@ class RunMavenTest {
                 "Exception should include captured Maven output");
     }
 
+    @Test
+    void testFailedMavenExecutionKeepsLastOutputLinesAndReferencesLogFile() {
+        // Given a process executor whose output was written to a log file
+        StringBuilder output = new StringBuilder();
+        for (int line = 1; line <= 300; line++) {
+            output.append("[INFO] line ").append(line).append(System.lineSeparator());
+        }
+        Path outputLog = tempDir.resolve("mvn-1.log");
+        ProcessExecutor executor = new ProcessExecutor() {
+            @Override
+            public int execute(List<String> command, Path workingDirectory) {
+                return 1;
+            }
+
+            @Override
+            public ProcessExecutionResult executeAndCapture(List<String> command, Path workingDirectory) {
+                return new ProcessExecutionResult(1, output.toString(), outputLog, 0);
+            }
+        };
+        Step runMaven = new RunMaven(tempDir, executor, "verify");
+
+        // Then the exception holds the last 200 lines and the path of the log file
+        MavenCommandException exception = assertThrows(MavenCommandException.class, runMaven::execute);
+
+        List<String> lines = exception.getOutput().lines().toList();
+        assertEquals(201, lines.size());
+        assertEquals("[INFO] line 101", lines.getFirst());
+        assertEquals("Complete Maven output: " + outputLog, lines.getLast());
+    }
+
     @Test
     void testMavenExecutionWithMultipleArguments() throws Exception {
         // Given a fake process executor
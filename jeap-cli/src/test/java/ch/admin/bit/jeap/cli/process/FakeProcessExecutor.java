@@ -2,8 +2,8 @@ package ch.admin.bit.jeap.cli.process;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiFunction;
 
 /**
@@ -15,7 +15,7 @@ import java.util.function.BiFunction;
  */
 public class FakeProcessExecutor implements ProcessExecutor {
 
-    private final List<ExecutedCommand> executedCommands = new ArrayList<>();
+    private final List<ExecutedCommand> executedCommands = new CopyOnWriteArrayList<>();
     private BiFunction<List<String>, Path, Integer> exitCodeProvider;
     private BiFunction<List<String>, Path, String> outputProvider;
 
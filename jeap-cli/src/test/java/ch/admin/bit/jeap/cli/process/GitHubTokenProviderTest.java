@@ -0,0 +1,95 @@
+package ch.admin.bit.jeap.cli.process;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GitHubTokenProviderTest {
+
+    private static final Path WORKING_DIRECTORY = Path.of("project");
+
+    @Test
+    void resolvesViaGhCliOnceForAllLaunches() {
+        AtomicInteger resolutions = new AtomicInteger();
+        GitHubTokenProvider provider = new GitHubTokenProvider((workingDirectory, environment) -> {
+            resolutions.incrementAndGet();
+            return "gh-token";
+        });
+
+        provider.prefetch(WORKING_DIRECTORY, Map.of());
+        assertThat(provider.token(Map.of(), WORKING_DIRECTORY)).isEqualTo("gh-token");
+        assertThat(provider.token(Map.of(), WORKING_DIRECTORY)).isEqualTo("gh-token");
+
+        assertThat(resolutions).hasValue(1);
+    }
+
+    @Test
+    void prefetchResolvesOnVirtualThread() throws Exception {
+        CountDownLatch resolved = new CountDownLatch(1);
+        GitHubTokenProvider provider = new GitHubTokenProvider((workingDirectory, environment) -> {
+            assertThat(Thread.currentThread().isVirtual()).isTrue();
+            resolved.countDown();
+            return "gh-token";
+        });
+
+        provider.prefetch(WORKING_DIRECTORY, Map.of());
+
+        assertThat(resolved.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void environmentTokenTakesPrecedenceAndSkipsGhCli() {
+        AtomicInteger resolutions = new AtomicInteger();
+        GitHubTokenProvider provider = new GitHubTokenProvider((workingDirectory, environment) -> {
+            resolutions.incrementAndGet();
+            return "gh-token";
+        });
+
+        provider.prefetch(WORKING_DIRECTORY, Map.of("GITHUB_TOKEN", "env-token"));
+        provider.prefetch(WORKING_DIRECTORY, Map.of("CERTIFICATES_REPO_GIT_TOKEN", "cert-token"));
+
+        assertThat(provider.token(Map.of("GH_TOKEN", "gh-env-token", "GITHUB_TOKEN", "env-token"), WORKING_DIRECTORY)).isEqualTo("gh-env-token");
+        assertThat(provider.token(Map.of("GITHUB_TOKEN", "env-token"), WORKING_DIRECTORY)).isEqualTo("env-token");
+        assertThat(resolutions).hasValue(0);
+    }
+
+    @Test
+    void failedResolutionIsRetriedByNextLaunch() {
+        AtomicInteger resolutions = new AtomicInteger();
+        GitHubTokenProvider provider = new GitHubTokenProvider((workingDirectory, environment) -> {
+            if (resolutions.incrementAndGet() == 1) {
+                throw new IllegalStateException("gh not installed");
+            }
+            return "gh-token";
+        });
+
+        assertThat(provider.token(Map.of(), WORKING_DIRECTORY)).isNull();
+        assertThat(provider.token(Map.of(), WORKING_DIRECTORY)).isEqualTo("gh-token");
+        assertThat(provider.token(Map.of(), WORKING_DIRECTORY)).isEqualTo("gh-token");
+        assertThat(resolutions).hasValue(2);
+    }
+
+    @Test
+    void resolvesInWorkingDirectoryAndWithEnvironmentOfLaunch() {
+        Map<String, String> launchEnvironment = new HashMap<>(Map.of("GH_HOST", "github.example.com"));
+        List<Object> resolvedWith = new ArrayList<>();
+        GitHubTokenProvider provider = new GitHubTokenProvider((workingDirectory, environment) -> {
+            resolvedWith.add(workingDirectory);
+            resolvedWith.add(environment);
+            return "gh-token";
+        });
+
+        assertThat(provider.token(launchEnvironment, WORKING_DIRECTORY)).isEqualTo("gh-token");
+
+        assertThat(resolvedWith).containsExactly(WORKING_DIRECTORY, Map.of("GH_HOST", "github.example.com"));
+    }
+}
@@ -0,0 +1,96 @@
+package ch.admin.bit.jeap.cli.process;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MavenDaemonTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void routesMavenCommandsThroughDaemon() throws IOException, InterruptedException {
+        Path mvnd = echoScript("mvnd");
+        SystemProcessExecutor executor = new SystemProcessExecutor(100, null, new GitHubTokenProvider(),
+                new MavenDaemon(mvnd.toString()));
+
+        ProcessExecutionResult maven = executor.executeAndCapture(List.of("./mvnw", "-ntp", "validate"), tempDir);
+        ProcessExecutionResult other = executor.executeAndCapture(List.of("sh", "-c", "echo plain"), tempDir);
+
+        assertThat(maven.combinedOutput().strip()).startsWith("--raw-streams -T1 ").endsWith(" -ntp validate");
+        assertThat(other.combinedOutput().strip()).isEqualTo("plain");
+    }
+
+    @Test
+    void passesSystemPropertiesOfMavenOptsAndKeepsThreads() {
+        MavenDaemon daemon = new MavenDaemon("/opt/mvnd/bin/mvnd");
+
+        List<String> routed = daemon.route(List.of("mvn", "-T4", "-Dmaven.repo.local=/repo", "verify"),
+                " -Xmx1g -Daether.enhancedLocalRepository.trackingFilename=jeap-local.tracking ", null);
+
+        assertThat(routed).containsExactly("/opt/mvnd/bin/mvnd", "--raw-streams",
+                "-Daether.enhancedLocalRepository.trackingFilename=jeap-local.tracking",
+                "-T4", "-Dmaven.repo.local=/repo", "verify");
+    }
+
+    @Test
+    void keepsQuotedValuesOfMavenOptsTogether() {
+        MavenDaemon daemon = new MavenDaemon("mvnd");
+
+        List<String> routed = daemon.route(List.of("mvn", "verify"),
+                "-Dfoo=\"a b\" -Xmx1g '-Dbar=c  d' -Dbaz=e\\ f -Dqux=\"say \\\"hi\\\"\"", null);
+
+        assertThat(routed).containsExactly("mvnd", "--raw-streams", "-T1",
+                "-Dfoo=a b", "-Dbar=c  d", "-Dbaz=e f", "-Dqux=say \"hi\"", "verify");
+    }
+
+    @Test
+    void passesOptionsOfMavenConfigBeforeArguments() {
+        MavenDaemon daemon = new MavenDaemon("mvnd");
+
+        List<String> routed = daemon.route(List.of("mvn", "verify"), "-Dfoo=bar",
+                "--settings '/home/user/.m2/my settings.xml' -T 2C -B");
+
+        assertThat(routed).containsExactly("mvnd", "--raw-streams", "-Dfoo=bar",
+                "--settings", "/home/user/.m2/my settings.xml", "-T", "2C", "-B", "verify");
+    }
+
+    @Test
+    void splitsOptionsLikeShell() {
+        assertThat(MavenDaemon.splitOptions("  ")).isEmpty();
+        assertThat(MavenDaemon.splitOptions(" -Da=1\t-Db=\"\" ")).containsExactly("-Da=1", "-Db=");
+        assertThat(MavenDaemon.splitOptions("-Dpath='C:\\dir with space'")).containsExactly("-Dpath=C:\\dir with space");
+        assertThat(MavenDaemon.splitOptions("\"-Dpath=C:\\dir\\\\x\"")).containsExactly("-Dpath=C:\\dir\\x");
+    }
+
+    @Test
+    void selectsDaemonFromEnvironment() throws IOException {
+        Path mvnd = echoScript("mvnd");
+
+        assertThat(MavenDaemon.fromEnvironment(Map.of())).isNull();
+        assertThat(MavenDaemon.fromEnvironment(Map.of("JEAP_MAVEN_DAEMON", "false"))).isNull();
+        assertThat(MavenDaemon.fromEnvironment(Map.of("JEAP_MAVEN_DAEMON", tempDir.resolve("missing").toString()))).isNull();
+        assertThat(MavenDaemon.fromEnvironment(Map.of("JEAP_MAVEN_DAEMON", mvnd.toString())).executable())
+                .isEqualTo(mvnd.toString());
+        assertThat(MavenDaemon.fromEnvironment(Map.of("JEAP_MAVEN_DAEMON", "true", "PATH", tempDir.toString())).executable())
+                .isEqualTo(mvnd.toString());
+        assertThat(MavenDaemon.fromEnvironment(Map.of("JEAP_MAVEN_DAEMON", "true", "PATH", tempDir.resolve("bin").toString())))
+                .isNull();
+    }
+
+    private Path echoScript(String name) throws IOException {
+        Path script = tempDir.resolve(name);
+        Files.writeString(script, "#!/bin/sh\necho \"$@\"\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+        return script;
+    }
+}
@@ -0,0 +1,163 @@
+package ch.admin.bit.jeap.cli.process;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ParallelProcessExecutionTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void returnsResultsInCommandOrderAndPrefixesConsoleOutput() throws Exception {
+        SystemProcessExecutor executor = new SystemProcessExecutor(100, null);
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(console, true, StandardCharsets.UTF_8));
+        List<ProcessExecutionResult> results;
+        try {
+            results = executor.executeAll(List.of(
+                            new ProcessCommand(List.of("sh", "-c", "sleep 0.2; echo first"), tempDir, "[a] "),
+                            new ProcessCommand(List.of("sh", "-c", "echo second; exit 2"), tempDir, "[b] ")),
+                    2, ProcessExecutor.FailurePolicy.COLLECT_ALL);
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        assertThat(results).extracting(ProcessExecutionResult::exitCode).containsExactly(0, 2);
+        assertThat(results).extracting(result -> result.combinedOutput().strip()).containsExactly("first", "second");
+        assertThat(console.toString(StandardCharsets.UTF_8).lines()).containsExactlyInAnyOrder("[a] first", "[b] second");
+    }
+
+    @Test
+    void runsNoMoreThanConcurrencyLimitAtOnce() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ProcessExecutor executor = (command, workingDirectory) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return 0;
+        };
+
+        List<ProcessExecutionResult> results = executor.executeAll(commands(10), 3,
+                ProcessExecutor.FailurePolicy.COLLECT_ALL);
+
+        assertThat(results).hasSize(10).allMatch(result -> result.exitCode() == 0);
+        assertThat(maxRunning.get()).isBetween(1, 3);
+    }
+
+    @Test
+    void failFastStartsNoFurtherCommandsAfterFailure() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        ProcessExecutor executor = (command, workingDirectory) -> started.incrementAndGet() == 2 ? 1 : 0;
+
+        List<ProcessExecutionResult> results = executor.executeAll(commands(5), 1,
+                ProcessExecutor.FailurePolicy.FAIL_FAST);
+
+        assertThat(started).hasValue(2);
+        assertThat(results.get(1).exitCode()).isEqualTo(1);
+        assertThat(results.subList(2, 5)).containsOnlyNulls();
+    }
+
+    @Test
+    void collectAllRunsEveryCommandAndRethrowsFirstError() {
+        AtomicInteger started = new AtomicInteger();
+        ProcessExecutor executor = (command, workingDirectory) -> {
+            int index = started.getAndIncrement();
+            if (index < 2) {
+                throw new IOException("failed " + index);
+            }
+            return 0;
+        };
+
+        assertThatThrownBy(() -> executor.executeAll(commands(4), 1, ProcessExecutor.FailurePolicy.COLLECT_ALL))
+                .isInstanceOf(IOException.class)
+                .hasMessage("failed 0")
+                .satisfies(e -> assertThat(e.getSuppressed()).hasSize(1));
+        assertThat(started).hasValue(4);
+    }
+
+    @Test
+    void runAllRunsEveryTaskAndReturnsResultsInTaskOrder() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Integer>> tasks = IntStream.range(0, 20)
+                .<Callable<Integer>>mapToObj(index -> () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(20 - index);
+                    running.decrementAndGet();
+                    return index;
+                })
+                .toList();
+
+        List<Integer> results = ProcessConcurrency.runAll(tasks);
+
+        assertThat(results).containsExactlyElementsOf(IntStream.range(0, 20).boxed().toList());
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(ProcessConcurrency.limit());
+    }
+
+    @Test
+    void concurrencyLimitFollowsCoresMemoryAndEnvironment() {
+        long gib = 1024L * 1024 * 1024;
+
+        assertThat(ProcessConcurrency.limit(null, 8, 16 * gib)).isEqualTo(8);
+        assertThat(ProcessConcurrency.limit(null, 8, 3 * gib)).isEqualTo(3);
+        assertThat(ProcessConcurrency.limit(null, 8, gib / 2)).isEqualTo(1);
+        assertThat(ProcessConcurrency.limit(null, 8, -1)).isEqualTo(8);
+        assertThat(ProcessConcurrency.limit("12", 8, gib)).isEqualTo(12);
+        assertThat(ProcessConcurrency.limit("zero", 8, 16 * gib)).isEqualTo(8);
+    }
+
+    @Test
+    void availableMemoryCountsPageCacheAndFollowsCgroupLimit() throws Exception {
+        long mib = 1024L * 1024;
+        Path meminfo = tempDir.resolve("meminfo");
+        Files.writeString(meminfo, """
+                MemTotal:       16384000 kB
+                MemFree:          204800 kB
+                MemAvailable:    8192000 kB
+                """);
+        Path cgroup = Files.createDirectories(tempDir.resolve("cgroup"));
+
+        assertThat(ProcessConcurrency.availableMemoryBytes(meminfo, cgroup)).isEqualTo(8192000 * 1024L);
+
+        Files.writeString(cgroup.resolve("memory.max"), "max\n");
+        Files.writeString(cgroup.resolve("memory.current"), 100 * mib + "\n");
+        assertThat(ProcessConcurrency.availableMemoryBytes(meminfo, cgroup)).isEqualTo(8192000 * 1024L);
+
+        Files.writeString(cgroup.resolve("memory.max"), 4096 * mib + "\n");
+        Files.writeString(cgroup.resolve("memory.current"), 3072 * mib + "\n");
+        Files.writeString(cgroup.resolve("memory.stat"), "active_file " + 512 * mib + "\ninactive_file " + 1024 * mib + "\n");
+        assertThat(ProcessConcurrency.availableMemoryBytes(meminfo, cgroup)).isEqualTo(2048 * mib);
+
+        Path v1 = Files.createDirectories(tempDir.resolve("cgroup-v1/memory"));
+        Files.writeString(v1.resolve("memory.limit_in_bytes"), 2048 * mib + "\n");
+        Files.writeString(v1.resolve("memory.usage_in_bytes"), 1024 * mib + "\n");
+        assertThat(ProcessConcurrency.availableMemoryBytes(tempDir.resolve("missing"), v1.getParent()))
+                .isEqualTo(1024 * mib);
+
+        assertThat(ProcessConcurrency.availableMemoryBytes(tempDir.resolve("missing"), tempDir.resolve("missing")))
+                .isEqualTo(-1);
+    }
+
+    private List<ProcessCommand> commands(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(index -> new ProcessCommand(List.of("mvn", String.valueOf(index)), tempDir))
+                .toList();
+    }
+}
@@ -0,0 +1,63 @@
+package ch.admin.bit.jeap.cli.process;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SystemProcessExecutorOutputTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void keepsOnlyLastOutputLinesInMemory() throws IOException, InterruptedException {
+        SystemProcessExecutor executor = new SystemProcessExecutor(3, null);
+
+        ProcessExecutionResult result = executor.executeAndCapture(List.of("sh", "-c", "seq 1 10"), tempDir);
+
+        assertThat(result.exitCode()).isZero();
+        assertThat(result.combinedOutput().lines()).containsExactly("8", "9", "10");
+        assertThat(result.omittedLines()).isEqualTo(7);
+        assertThat(result.outputLog()).isNull();
+    }
+
+    @Test
+    void writesCompleteOutputToLogFile() throws IOException, InterruptedException {
+        Path logDirectory = tempDir.resolve("logs");
+        SystemProcessExecutor executor = new SystemProcessExecutor(2, logDirectory);
+
+        ProcessExecutionResult result = executor.executeAndCapture(List.of("sh", "-c", "seq 1 5; exit 3"), tempDir);
+
+        assertThat(result.exitCode()).isEqualTo(3);
+        assertThat(result.combinedOutput().lines()).containsExactly("4", "5");
+        assertThat(result.outputLog()).hasParent(logDirectory);
+        assertThat(result.outputLog().getFileName().toString()).startsWith("sh-").endsWith(".log");
+        assertThat(Files.readAllLines(result.outputLog())).containsExactly("1", "2", "3", "4", "5");
+    }
+
+    @Test
+    void leavesNoLogFileWhenProcessCannotBeStarted() {
+        Path logDirectory = tempDir.resolve("logs");
+        SystemProcessExecutor executor = new SystemProcessExecutor(2, logDirectory);
+
+        assertThatThrownBy(() -> executor.executeAndCapture(List.of("jeap-cli-missing-binary"), tempDir))
+                .isInstanceOf(IOException.class);
+        assertThat(logDirectory).doesNotExist();
+    }
+
+    @Test
+    void tailReturnsLastLinesOfOutput() {
+        ProcessExecutionResult result = new ProcessExecutionResult(1, "a\nb\r\nc\rd\n\n");
+
+        assertThat(result.tail(2)).isEqualTo("c" + System.lineSeparator() + "d");
+        assertThat(result.tail(10).lines()).containsExactly("a", "b", "c", "d");
+        assertThat(new ProcessExecutionResult(1, "").tail(2)).isEmpty();
+    }
+}